@@ -13,6 +13,8 @@ import java.util.logging.Logger;
 import edu.colorado.eyore.common.hdfs.HdfsUtils;
 import edu.colorado.eyore.common.job.JobDescriptor;
 import edu.colorado.eyore.common.job.JobStatus;
+import edu.colorado.eyore.common.net.ConnectionPool;
+import edu.colorado.eyore.common.net.MessageObjectUtil;
 import edu.colorado.eyore.common.net.RequestResponseUtil;
 
 public class Client {
@@ -25,8 +27,10 @@ public class Client {
 	protected String namenodeHost;
 	protected int namenodePort;
 	protected HdfsUtils hdfs;
+	protected ConnectionPool jserverConnections;
 	protected String hdfsInputDirPath;
 	protected String hdfsOutputDirPath;
+	protected int jobPriority;
 
 	/**
 	 * ID for this job from the server
@@ -44,6 +48,12 @@ public class Client {
 		this.namenodeHost = props.getProperty("namenode.address");
 		this.namenodePort = Integer
 				.parseInt(props.getProperty("namenode.port"));
+		this.jobPriority = Integer.parseInt(props.getProperty("job.priority", "0"));
+		
+		MessageObjectUtil.configure(props);
+		
+		// the status polling reuses one connection to the job server
+		jserverConnections = new ConnectionPool(jserverHost, jserverPort, props);
 
 		try {
 			hdfs = new HdfsUtils(namenodeHost, namenodePort);
@@ -61,7 +71,7 @@ public class Client {
 
 		// client sends request and gets response with job ID
 		JobDescriptor jDesc = (JobDescriptor) RequestResponseUtil.
-			clientRequest(new RequestJobProtocol(), jserverHost, jserverPort);
+			clientRequest(new RequestJobProtocol(), jserverConnections);
 		
 		// Validate HDFS job input directory to avoid frustration later
 		// when job fails as a result
@@ -96,10 +106,11 @@ public class Client {
 		jDesc.setHdfsJobInputDir(hdfsInputDirPath);
 		jDesc.setHdfsJobOutputDir(hdfsOutputDirPath);
 		jDesc.setHdfsJarPath(remoteJarPath);
+		jDesc.setPriority(jobPriority);
 				
 		boolean jobStarted = (Boolean)RequestResponseUtil.clientRequest(
 				new StartJobProtocol(jDesc),
-				jserverHost, jserverPort);
+				jserverConnections);
 		if(jobStarted){
 			logger.info("Job started successfully");
 		}else{
@@ -117,7 +128,7 @@ public class Client {
 
 			try{
 				jobStatus = (JobStatus)RequestResponseUtil.clientRequest(
-					new JobStatusRequestProtocol(jDesc),jserverHost, jserverPort);
+					new JobStatusRequestProtocol(jDesc), jserverConnections);
 			}catch(Exception e){
 				logger.log(Level.SEVERE, "Job status request with exception", e);
 				return 1;
@@ -162,6 +173,31 @@ public class Client {
 			logger.info("Finished at " + new Date() );
 		}
 		
+		if(jobStatus.getPlanning()){
+			logger.info("Job input is still being split into vertices");
+		}
+		
+		// later stages may be running already
+		if(jobStatus.getStageVertices() != null && jobStatus.getStageVerticesFinished() != null){
+			StringBuilder stages = new StringBuilder("Vertices finished per stage:");
+			for(int i = 0; i < jobStatus.getStageVertices().size(); i++){
+				stages.append(" " + jobStatus.getStageVerticesFinished().get(i) + "/" + 
+						jobStatus.getStageVertices().get(i));
+			}
+			logger.info(stages.toString());
+		}
+		
+		if(jobStatus.getPreemptedVertices() > 0){
+			logger.info("Vertices preempted by higher priority jobs: " + jobStatus.getPreemptedVertices() +
+					" (" + jobStatus.getPreemptedWorkMs() + " ms of work lost)");
+		}
+		
+		if(jobStatus.getMaxInputSkew() > 0){
+			logger.info("Most input read by a vertex: " + String.format("%.1f", jobStatus.getMaxInputSkew()) + 
+					" times its stage's median (" + jobStatus.getSkewedVertices() + " skewed vertices, " + 
+					jobStatus.getSplitVertices() + " vertices added to split them)");
+		}
+		
 		logger.info(
 				
 				"Total stages in job: " + totalStages + "\n" +
@@ -6,10 +6,10 @@ import java.util.logging.Logger;
 
 import edu.colorado.eyore.common.job.JobDescriptor;
 import edu.colorado.eyore.common.job.JobStatus;
+import edu.colorado.eyore.common.net.IdempotentProtocol;
 import edu.colorado.eyore.common.net.MessageObjectUtil;
-import edu.colorado.eyore.common.net.Protocol;
 
-public class JobStatusRequestProtocol implements Protocol {
+public class JobStatusRequestProtocol implements IdempotentProtocol {
 
 	Logger logger = Logger.getLogger(JobStatusRequestProtocol.class.getName());
 	
@@ -81,10 +81,12 @@ public class MapWordFreq extends Vertex {
 
 		// partition the "URL COUNT" lines over the output
 		int destination = -1;
+		long[] lines = new long[verticesInNextStage];
 		for(String url : map.keySet()){
 			destination = url.hashCode()%verticesInNextStage;
 			destination *= (destination <0 ? -1 : 1);
 			writers[destination].write(url + " " + map.get(url) + "\n");
+			lines[destination]++;
 		}
 
 		
@@ -113,6 +115,9 @@ public class MapWordFreq extends Vertex {
 		
 		VertexOutput vOut = new VertexOutput();
 		vOut.setOutputMap(outMap);
+		for(int i = 0; i < outFiles.length; i++){
+			vOut.setRecords(outFiles[i], lines[i]);
+		}
 		context.setvOutput(vOut);
 
 	}
@@ -2,10 +2,16 @@ package edu.colorado.eyore.common.hdfs;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.Path;
 
 public class HdfsFileSplit {
@@ -13,6 +19,11 @@ public class HdfsFileSplit {
 		private long startByte;
 		private long lenInBytes;
 		private String fileName;
+		private List<String> hosts = new ArrayList<String>();
+		private List<String> racks = new ArrayList<String>();
+		
+		// rack of DataNodes whose topology is not known (as in Hadoop's NetworkTopology)
+		public static final String DEFAULT_RACK = "/default-rack";
 		
 		public long getStartByte(){
 			return startByte;
@@ -24,6 +35,27 @@ public class HdfsFileSplit {
 		public String getFileName(){
 			return fileName;
 		}
+		
+		/**
+		 * DataNodes storing the split's blocks, the host storing the most
+		 * bytes of the split first (empty if not known)
+		 */
+		public List<String> getHosts(){
+			return hosts;
+		}
+		public void setHosts(List<String> hosts){
+			this.hosts = hosts;
+		}
+		
+		/**
+		 * Racks of the hosts - getRacks().get(i) is the rack of getHosts().get(i)
+		 */
+		public List<String> getRacks(){
+			return racks;
+		}
+		public void setRacks(List<String> racks){
+			this.racks = racks;
+		}
 	
 		public HdfsFileSplit(String fileName, long startByte, long lenInBytes){
 			this.fileName = fileName;
@@ -54,10 +86,19 @@ public class HdfsFileSplit {
 			
 
 			Path p = new Path(hdfsFilePath);
+			FileStatus status = uts.hdfsCluster.getFileStatus(p);
+			return split(hdfsFilePath, status.getLen(), status.getBlockSize(), splitsPerHdfsBlock);
+		}
+		
+		/**
+		 * Splits a file into chunks of splitsPerHdfsBlock HDFS blocks - the length
+		 * and block size are known already (e.g. from a directory listing)
+		 */
+		public static List<HdfsFileSplit> split(String hdfsFilePath, long fileLen, long blockSize, 
+				int splitsPerHdfsBlock) {
 			
-			final long chunkSize = uts.hdfsCluster.getFileStatus(p).getBlockSize() * splitsPerHdfsBlock;
+			final long chunkSize = blockSize * splitsPerHdfsBlock;
 			
-			final long fileLen = uts.hdfsCluster.getFileStatus(p).getLen();
 			ArrayList<HdfsFileSplit> splits = new ArrayList<HdfsFileSplit>();
 			
 			if(fileLen == 0){
@@ -85,4 +126,59 @@ public class HdfsFileSplit {
 
 			return splits;
 		}
+		
+		/**
+		 * Sets the hosts (and their racks) of each split from the locations of 
+		 * the file's blocks - hosts are ordered by how many bytes of the split
+		 * they store.
+		 */
+		public static void setLocations(List<HdfsFileSplit> splits, BlockLocation[] blocks) throws IOException {
+			if(blocks == null){
+				return;
+			}
+			for(HdfsFileSplit split : splits){
+				final Map<String, Long> bytesOnHost = new LinkedHashMap<String, Long>();
+				Map<String, String> rackOfHost = new LinkedHashMap<String, String>();
+				long splitEnd = split.startByte + split.lenInBytes;
+				for(BlockLocation block : blocks){
+					long overlap = Math.min(splitEnd, block.getOffset() + block.getLength())
+						- Math.max(split.startByte, block.getOffset());
+					if(overlap <= 0){
+						continue;
+					}
+					String[] blockHosts = block.getHosts();
+					String[] topologyPaths = block.getTopologyPaths();
+					for(int i = 0; i < blockHosts.length; i++){
+						Long bytes = bytesOnHost.get(blockHosts[i]);
+						bytesOnHost.put(blockHosts[i], (bytes == null ? 0 : bytes) + overlap);
+						rackOfHost.put(blockHosts[i], getRack(topologyPaths, i));
+					}
+				}
+				ArrayList<String> hosts = new ArrayList<String>(bytesOnHost.keySet());
+				Collections.sort(hosts, new Comparator<String>(){
+					@Override
+					public int compare(String h1, String h2) {
+						return bytesOnHost.get(h2).compareTo(bytesOnHost.get(h1));
+					}
+				});
+				ArrayList<String> racks = new ArrayList<String>(hosts.size());
+				for(String host : hosts){
+					racks.add(rackOfHost.get(host));
+				}
+				split.hosts = hosts;
+				split.racks = racks;
+			}
+		}
+		
+		// topology paths are of the form /rack/host:port
+		private static String getRack(String[] topologyPaths, int i){
+			if(topologyPaths == null || i >= topologyPaths.length){
+				return DEFAULT_RACK;
+			}
+			int lastSlash = topologyPaths[i].lastIndexOf('/');
+			if(lastSlash <= 0){
+				return DEFAULT_RACK;
+			}
+			return topologyPaths[i].substring(0, lastSlash);
+		}
 }
@@ -3,12 +3,15 @@ package edu.colorado.eyore.common.hdfs;
 import java.io.BufferedReader;
 import java.io.EOFException;
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.UUID;
 
@@ -22,12 +25,50 @@ public class HdfsUtils {
 
 	FileSystem hdfsCluster;
 
+	// files opened by getHdfsFileOutputStream - null if not recorded
+	private List<String> createdFiles;
+	// bytes written to them, once closed
+	private HashMap<String, Long> writtenBytes = new HashMap<String, Long>();
+
 	public HdfsUtils(String namenodeAddr, int namenodePort) throws IOException {
 		hdfsCluster = new Path("hdfs://" + namenodeAddr + ":" + namenodePort
 				+ "/").getFileSystem(new Configuration());
 
 	}
 
+	private HdfsUtils(FileSystem hdfsCluster, List<String> createdFiles) {
+		this.hdfsCluster = hdfsCluster;
+		this.createdFiles = createdFiles;
+	}
+
+	/**
+	 * An HdfsUtils sharing this one's HDFS connection that records the files
+	 * opened by getHdfsFileOutputStream - e.g. given to a vertex so the output
+	 * it wrote before failing can be deleted
+	 */
+	public HdfsUtils recordingCreatedFiles() {
+		return new HdfsUtils(hdfsCluster, new ArrayList<String>());
+	}
+
+	/**
+	 * Files opened by getHdfsFileOutputStream - empty unless this instance
+	 * came from recordingCreatedFiles()
+	 */
+	public synchronized List<String> getCreatedFiles() {
+		if (createdFiles == null) {
+			return new ArrayList<String>();
+		}
+		return new ArrayList<String>(createdFiles);
+	}
+
+	/**
+	 * Bytes written to a file opened by getHdfsFileOutputStream, once it
+	 * is closed - null unless this instance came from recordingCreatedFiles()
+	 */
+	public synchronized Long getWrittenBytes(String filePath) {
+		return writtenBytes.get(filePath);
+	}
+
 	/**
 	 * Writes an existing local file to the HDFS file system at the HDFS path
 	 * specified
@@ -84,24 +125,65 @@ public class HdfsUtils {
 	public List<String> getFilePathsFromHdfsDir(String hdfsDirPath, int fileSplitsPerHdfsBlock)
 			throws IOException {
 
-		ArrayList<String> files = new ArrayList<String>();
+		final ArrayList<String> files = new ArrayList<String>();
+		planFileSplits(hdfsDirPath, fileSplitsPerHdfsBlock, Integer.MAX_VALUE, 
+				new SplitBatchListener(){
+					@Override
+					public void splitsPlanned(List<HdfsFileSplit> splits) {
+						for(HdfsFileSplit split : splits){
+							files.add(split.toString());
+						}
+					}
+				});
+		return files;
+	}
+
+	/**
+	 * Splits the files in a directory (see HdfsFileSplit) and hands the splits
+	 * to the listener in batches as they are planned.  The directory is listed
+	 * once - file lengths and block sizes come from the listing.  The block
+	 * locations of each file are looked up (one NameNode request per file) so
+	 * splits know which hosts store them.
+	 * 
+	 * @param hdfsDirPath
+	 *            - e.g. /some/directory
+	 * @param batchSize
+	 *            - the listener is called once at least this many splits are
+	 *            planned (and for the rest at the end)
+	 * @param listener
+	 *            - called with the planned splits
+	 */
+	public void planFileSplits(String hdfsDirPath, int fileSplitsPerHdfsBlock, int batchSize,
+			SplitBatchListener listener) throws IOException {
 
 		Path hdfsDir = new Path(hdfsDirPath);
 
 		FileStatus[] outputFileStatus = hdfsCluster.listStatus(hdfsDir);
+		if (outputFileStatus == null) {
+			throw new FileNotFoundException("HDFS directory not found: " + hdfsDirPath);
+		}
+		ArrayList<HdfsFileSplit> batch = new ArrayList<HdfsFileSplit>();
 		for (FileStatus status : outputFileStatus) {
 			if (!status.isFile()) {
 				continue;
 			}
 			Path file = status.getPath();
 			String filePath = "/" + hdfsDir.getName() + "/" + file.getName();
-			for(HdfsFileSplit split : HdfsFileSplit.split(filePath, this, fileSplitsPerHdfsBlock)){
-				files.add(split.toString());	
+			List<HdfsFileSplit> splits = HdfsFileSplit.split(filePath, status.getLen(), 
+					status.getBlockSize(), fileSplitsPerHdfsBlock);
+			if (!splits.isEmpty()) {
+				HdfsFileSplit.setLocations(splits, 
+						hdfsCluster.getFileBlockLocations(status, 0, status.getLen()));
+			}
+			batch.addAll(splits);
+			if (batch.size() >= batchSize) {
+				listener.splitsPlanned(batch);
+				batch = new ArrayList<HdfsFileSplit>();
 			}
-			
 		}
-
-		return files;
+		if (!batch.isEmpty()) {
+			listener.splitsPlanned(batch);
+		}
 	}
 
 	/**
@@ -134,6 +216,18 @@ public class HdfsUtils {
 		}
 	}
 
+	/**
+	 * Deletes the HDFS files - files that don't exist are skipped
+	 * 
+	 * @param files
+	 *            - list of HDFS file paths - full paths to HDFS files
+	 */
+	public void deleteFiles(List<String> files) throws IOException {
+		for (String file : files) {
+			hdfsCluster.delete(new Path(file), false);
+		}
+	}
+
 	/**
 	 * Validate HDFS directory path
 	 * 
@@ -197,9 +291,48 @@ public class HdfsUtils {
 				+ ".txt";
 
 		OutputStream os = hdfsCluster.create(new Path(uniqueFileName), false);
+		if (createdFiles != null) {
+			synchronized (this) {
+				createdFiles.add(uniqueFileName);
+			}
+			os = new CountingOutputStream(os, uniqueFileName);
+		}
 		return new OutputInfo(os, uniqueFileName);
 	}
 
+	/**
+	 * Counts the bytes written to a created file - recorded when it is closed
+	 */
+	private class CountingOutputStream extends FilterOutputStream {
+		private String filePath;
+		private long count;
+
+		CountingOutputStream(OutputStream out, String filePath) {
+			super(out);
+			this.filePath = filePath;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+
+		@Override
+		public void close() throws IOException {
+			super.close();
+			synchronized (HdfsUtils.this) {
+				writtenBytes.put(filePath, count);
+			}
+		}
+	}
+
 	/**
 	 * Contains an opened output stream (to HDFS) and the name of the path to
 	 * the file being written
@@ -0,0 +1,15 @@
+package edu.colorado.eyore.common.hdfs;
+
+import java.util.List;
+
+/**
+ * Receives the splits of a directory's files as they are planned
+ * (see HdfsUtils.planFileSplits)
+ */
+public interface SplitBatchListener {
+
+	/**
+	 * @param splits - the next splits, with the hosts storing them
+	 */
+	void splitsPlanned(List<HdfsFileSplit> splits);
+}
@@ -44,6 +44,19 @@ public class JobDescriptor {
 	private String hdfsJobOutputDir;
 	
 	
+	/**
+	 * Jobs with a higher priority are started first and are given VertexServer
+	 * threads before jobs with a lower priority - vertices of lower priority
+	 * jobs may be stopped (preempted) to make room for them.  Default 0
+	 */
+	public int getPriority(){
+		return priority;
+	}
+	public void setPriority(int priority){
+		this.priority = priority;
+	}
+	private int priority;
+	
 	private JobSpecification jobSpecification;
 	public JobSpecification getJobSpecification(){
 		return jobSpecification;
@@ -62,6 +75,7 @@ public class JobDescriptor {
 	
 	@Override
 	public String toString(){
-		return "JobDescriptor ID=" + jobId + " Jar=" + hdfsJarPath;
+		return "JobDescriptor ID=" + jobId + " Jar=" + hdfsJarPath + 
+			(priority != 0 ? " Priority=" + priority : "");
 	}
 }
@@ -1,7 +1,9 @@
 package edu.colorado.eyore.common.job;
 
+import java.util.ArrayList;
 import java.util.List;
 
+import edu.colorado.eyore.common.vertex.StageEdge;
 import edu.colorado.eyore.common.vertex.VertexStage;
 
 /**
@@ -13,8 +15,10 @@ import edu.colorado.eyore.common.vertex.VertexStage;
 public abstract class JobSpecification {
 
 	protected List<VertexStage> vertexStages;
+	protected List<StageEdge> stageEdges;
 	protected String inputDataPath;
 	protected String outputDataPath;
+	protected String pool;
 	
 	/**
 	 * This is an ordered list of stages in the computation - index 0 is the
@@ -27,6 +31,35 @@ public abstract class JobSpecification {
 		this.vertexStages = vertexStages;
 	}
 	
+	/**
+	 * Which stages read which stages' output, making the job a graph of
+	 * stages - stages that don't depend on each other run at the same time.
+	 * Null or empty for a job whose stages run one after the other, each
+	 * reading the output of the one before it (pointwise if
+	 * VertexStage.getPointwiseInput()).
+	 * 
+	 * The stages must be listed so that every edge goes to a later stage.
+	 * Only the first stage reads the job's input and every other stage reads
+	 * at least one stage's output; the output of the stages no edge leaves is
+	 * the job's output.
+	 */
+	public List<StageEdge> getStageEdges(){
+		return stageEdges;
+	}
+	public void setStageEdges(List<StageEdge> stageEdges){
+		this.stageEdges = stageEdges;
+	}
+	
+	/**
+	 * Adds an edge to the stage graph - stages are named by VertexStage.getName()
+	 */
+	public void addStageEdge(String fromStage, String toStage, StageEdge.Type type){
+		if(stageEdges == null){
+			stageEdges = new ArrayList<StageEdge>();
+		}
+		stageEdges.add(new StageEdge(fromStage, toStage, type));
+	}
+	
 	/**
 	 * Set the initial HDFS input directory path for a job. Contains input data files.
 	 * @param path Path to input data.
@@ -48,4 +81,20 @@ public abstract class JobSpecification {
 	public void setOutputPath(String path) {
 		this.outputDataPath = path;
 	}
+	
+	/**
+	 * @return Name of the scheduler pool the job runs in - null for the default pool.
+	 */
+	public String getPool(){
+		return pool;
+	}
+	
+	/**
+	 * Set the scheduler pool the job's vertices share VertexServer threads in
+	 * (e.g. the submitting user's or team's) - null for the default pool.
+	 * @param pool Name of the pool.
+	 */
+	public void setPool(String pool) {
+		this.pool = pool;
+	}
 }
@@ -1,5 +1,7 @@
 package edu.colorado.eyore.common.job;
 
+import java.util.List;
+
 /**
  * Maintains the status of the current job - used to
  * know when to allocate vertexes, to know when
@@ -14,10 +16,20 @@ public class JobStatus {
 	private int totalVerticesCurrentStage;	
 	private int totalVerticesInProgressCurrentStage;	
 	private boolean executionFinished;
+	private boolean planning;
+	private List<Integer> stageVertices;
+	private List<Integer> stageVerticesFinished;
+	private int preemptedVertices;
+	private long preemptedWorkMs;
+	private double maxInputSkew;
+	private int skewedVertices;
+	private int splitVertices;
 	
 	/**
 	 * The zero-based index of the vertex
-	 * stage currently in progress
+	 * stage currently in progress - the first stage
+	 * not finished (later stages may already have
+	 * vertices running, see getStageVertices())
 	 */
 	public int getCurrentVertexStage(){
 		return currentVertexStage;
@@ -73,4 +85,99 @@ public class JobStatus {
 		this.executionFinished = executionFinished;
 	}
 	
+	/**
+	 * True while the job's input is still being split into the
+	 * first stage's vertices - the first stage's vertex count is
+	 * not final until this is false
+	 */
+	public boolean getPlanning(){
+		return planning;
+	}
+	public void setPlanning(boolean planning){
+		this.planning = planning;
+	}
+	
+	/**
+	 * Number of vertices in each stage (index is the stage 
+	 * number) - the first stage's count grows while PLANNING
+	 * 
+	 * Stages whose input is pointwise (VertexStage.getPointwiseInput())
+	 * start before the previous stage is finished, so several stages
+	 * may be in progress at once
+	 */
+	public List<Integer> getStageVertices(){
+		return stageVertices;
+	}
+	public void setStageVertices(List<Integer> stageVertices){
+		this.stageVertices = stageVertices;
+	}
+	
+	/**
+	 * Number of vertices of each stage that finished
+	 */
+	public List<Integer> getStageVerticesFinished(){
+		return stageVerticesFinished;
+	}
+	public void setStageVerticesFinished(List<Integer> stageVerticesFinished){
+		this.stageVerticesFinished = stageVerticesFinished;
+	}
+	
+	/**
+	 * Number of the job's running vertices that were stopped to make room
+	 * for a higher priority job (and run again later)
+	 */
+	public int getPreemptedVertices(){
+		return preemptedVertices;
+	}
+	public void setPreemptedVertices(int preemptedVertices){
+		this.preemptedVertices = preemptedVertices;
+	}
+	
+	/**
+	 * How long (ms) the preempted vertices had been running when they were
+	 * stopped - the work thrown away
+	 */
+	public long getPreemptedWorkMs(){
+		return preemptedWorkMs;
+	}
+	public void setPreemptedWorkMs(long preemptedWorkMs){
+		this.preemptedWorkMs = preemptedWorkMs;
+	}
+	
+	/**
+	 * The most input read by a vertex of any of the job's stages so far, as
+	 * a multiple of the median input of the stage's vertices - 1 if the
+	 * stages' input is evenly partitioned, 0 if no stage's input was measured
+	 * (only stages reading all-to-all, once the bytes of all their input are
+	 * known)
+	 */
+	public double getMaxInputSkew(){
+		return maxInputSkew;
+	}
+	public void setMaxInputSkew(double maxInputSkew){
+		this.maxInputSkew = maxInputSkew;
+	}
+	
+	/**
+	 * Number of vertices given far more input than the rest of their stage
+	 * (see VertexStage.getSplittableInput())
+	 */
+	public int getSkewedVertices(){
+		return skewedVertices;
+	}
+	public void setSkewedVertices(int skewedVertices){
+		this.skewedVertices = skewedVertices;
+	}
+	
+	/**
+	 * Number of vertices added to the job's stages to share the input of
+	 * skewed vertices - counted in getStageVertices()
+	 */
+	public int getSplitVertices(){
+		return splitVertices;
+	}
+	public void setSplitVertices(int splitVertices){
+		this.splitVertices = splitVertices;
+	}
+	
 }
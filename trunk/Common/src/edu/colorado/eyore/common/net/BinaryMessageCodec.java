@@ -0,0 +1,620 @@
+package edu.colorado.eyore.common.net;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.colorado.eyore.common.job.JobDescriptor;
+import edu.colorado.eyore.common.job.JobStatus;
+import edu.colorado.eyore.common.vertex.VertexCompletion;
+import edu.colorado.eyore.common.vertex.VertexDescriptor;
+import edu.colorado.eyore.common.vertex.VertexHeartbeat;
+import edu.colorado.eyore.common.vertex.VertexHeartbeatResponse;
+import edu.colorado.eyore.common.vertex.VertexOutput;
+
+/**
+ * Compact binary encoding for the message objects exchanged between the
+ * Client, JobServer and VertexServer.  Each message starts with the format
+ * version (FORMAT_VERSION - messages of any other version are rejected) and a
+ * type tag; ints are written as (zig-zag) varints and every distinct String is written
+ * once per message and referenced by index after that (heartbeats repeat the
+ * same job id, jar path and vertex class name for every vertex).
+ *
+ * Objects of any other type are written as XML (see XmlMessageCodec) so that
+ * nothing that worked with the XML codec stops working.
+ *
+ * A message that isn't valid - cut short, or with a length or count larger
+ * than the bytes left - fails to decode with an IllegalArgumentException
+ * rather than making arrays of the length it says.
+ *
+ * Note: JobDescriptor.getJobSpecification() is never encoded - the
+ * JobServer loads the JobSpecification from the job jar.
+ */
+public class BinaryMessageCodec implements MessageCodec {
+
+	/**
+	 * Written first in every message - to be changed along with the encoding
+	 */
+	public static final int FORMAT_VERSION = 1;
+
+	private static final int TAG_NULL = 0;
+	private static final int TAG_XML = 1;
+	private static final int TAG_JOB_DESCRIPTOR = 2;
+	private static final int TAG_JOB_STATUS = 3;
+	private static final int TAG_VERTEX_HEARTBEAT = 4;
+	private static final int TAG_VERTEX_HEARTBEAT_RESPONSE = 5;
+	private static final int TAG_VERTEX_DESCRIPTOR = 6;
+	private static final int TAG_VERTEX_OUTPUT = 7;
+	private static final int TAG_VERTEX_COMPLETION = 8;
+
+	private XmlMessageCodec xmlCodec = new XmlMessageCodec();
+
+	@Override
+	public byte[] encode(Object o) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		try{
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(FORMAT_VERSION);
+			new Writer(out).writeObject(o);
+		}catch(IOException e){
+			// writing to a byte array
+			throw new IllegalStateException("Failed encoding " + o, e);
+		}
+		return bytes.toByteArray();
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T> T decode(byte[] bytes) {
+		try{
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+			int version = in.readByte();
+			if(version != FORMAT_VERSION){
+				throw new IllegalArgumentException("Unknown binary message format version " + version);
+			}
+			return (T) new Reader(in).readObject();
+		}catch(IOException e){
+			throw new IllegalArgumentException("Message is not a valid binary encoded object", e);
+		}
+	}
+
+	/**
+	 * Writes a single message - holds the string table for the message
+	 */
+	private class Writer {
+		private DataOutputStream out;
+		private HashMap<String, Integer> strings = new HashMap<String, Integer>();
+
+		Writer(DataOutputStream out){
+			this.out = out;
+		}
+
+		void writeObject(Object o) throws IOException{
+			if(o == null){
+				out.writeByte(TAG_NULL);
+			}else if(o instanceof JobDescriptor){
+				out.writeByte(TAG_JOB_DESCRIPTOR);
+				writeJobDescriptor((JobDescriptor) o);
+			}else if(o instanceof JobStatus){
+				out.writeByte(TAG_JOB_STATUS);
+				writeJobStatus((JobStatus) o);
+			}else if(o instanceof VertexHeartbeat){
+				out.writeByte(TAG_VERTEX_HEARTBEAT);
+				writeVertexHeartbeat((VertexHeartbeat) o);
+			}else if(o instanceof VertexHeartbeatResponse){
+				out.writeByte(TAG_VERTEX_HEARTBEAT_RESPONSE);
+				writeVertexDescriptors(((VertexHeartbeatResponse) o).getVertexDescriptor());
+				writeVertexDescriptors(((VertexHeartbeatResponse) o).getVerticesToStop());
+			}else if(o instanceof VertexDescriptor){
+				out.writeByte(TAG_VERTEX_DESCRIPTOR);
+				writeVertexDescriptor((VertexDescriptor) o);
+			}else if(o instanceof VertexOutput){
+				out.writeByte(TAG_VERTEX_OUTPUT);
+				writeVertexOutput((VertexOutput) o);
+			}else if(o instanceof VertexCompletion){
+				out.writeByte(TAG_VERTEX_COMPLETION);
+				writeVertexCompletion((VertexCompletion) o);
+			}else{
+				out.writeByte(TAG_XML);
+				byte[] xml = xmlCodec.encode(o);
+				writeVarInt(xml.length);
+				out.write(xml);
+			}
+		}
+
+		void writeJobDescriptor(JobDescriptor jDesc) throws IOException{
+			writeString(jDesc.getJobId());
+			writeString(jDesc.getHdfsJarPath());
+			writeString(jDesc.getHdfsJobInputDir());
+			writeString(jDesc.getHdfsJobOutputDir());
+			writeInt(jDesc.getPriority());
+			out.writeBoolean(jDesc.getJobStatus() != null);
+			if(jDesc.getJobStatus() != null){
+				writeJobStatus(jDesc.getJobStatus());
+			}
+		}
+
+		void writeJobStatus(JobStatus status) throws IOException{
+			writeInt(status.getCurrentVertexStage());
+			writeInt(status.getTotalVertexStages());
+			writeInt(status.getTotalVerticesCurrentStage());
+			writeInt(status.getTotalVerticesInProgressCurrentStage());
+			out.writeBoolean(status.getExecutionFinished());
+			out.writeBoolean(status.getPlanning());
+			writeIntList(status.getStageVertices());
+			writeIntList(status.getStageVerticesFinished());
+			writeInt(status.getPreemptedVertices());
+			out.writeLong(status.getPreemptedWorkMs());
+			out.writeDouble(status.getMaxInputSkew());
+			writeInt(status.getSkewedVertices());
+			writeInt(status.getSplitVertices());
+		}
+
+		void writeVertexHeartbeat(VertexHeartbeat vhb) throws IOException{
+			writeString(vhb.getUid());
+			writeInt(vhb.getNumThreads());
+			writeVertexDescriptors(vhb.getVertexDescriptor());
+			writeVertexCompletions(vhb.getCompletions());
+			writeString(vhb.getHostname());
+			writeInt(vhb.getCores());
+			writeInt(vhb.getFreeMemoryMb());
+			out.writeDouble(vhb.getLoadAverage());
+			writeInt(vhb.getRunningVertices());
+			writeInt(vhb.getWorkRequest());
+		}
+
+		void writeVertexCompletions(List<VertexCompletion> completions) throws IOException{
+			if(completions == null){
+				writeVarInt(0);
+				return;
+			}
+			writeVarInt(completions.size() + 1);
+			for(VertexCompletion c : completions){
+				writeVertexCompletion(c);
+			}
+		}
+
+		void writeVertexCompletion(VertexCompletion c) throws IOException{
+			writeString(c.getJobId());
+			writeInt(c.getStageNumber());
+			writeInt(c.getVertexNumber());
+			writeInt(c.getAttempt());
+			out.writeBoolean(c.getExecutionSuccessful());
+			out.writeBoolean(c.getOutput() != null);
+			if(c.getOutput() != null){
+				writeVertexOutput(c.getOutput());
+			}
+		}
+
+		void writeVertexDescriptors(List<VertexDescriptor> vertices) throws IOException{
+			if(vertices == null){
+				writeVarInt(0);
+				return;
+			}
+			writeVarInt(vertices.size() + 1);
+			for(VertexDescriptor v : vertices){
+				writeVertexDescriptor(v);
+			}
+		}
+
+		void writeVertexDescriptor(VertexDescriptor v) throws IOException{
+			writeString(v.getJobId());
+			writeInt(v.getStageNumber());
+			writeInt(v.getVertexNumber());
+			writeString(v.getVertexClassName());
+			writeString(v.getVertexJarPath());
+			writeStringList(v.getInputPaths());
+			out.writeBoolean(v.getOutput() != null);
+			if(v.getOutput() != null){
+				writeVertexOutput(v.getOutput());
+			}
+			out.writeBoolean(v.getExecutionFinished());
+			out.writeBoolean(v.getExecutionSuccessful());
+			writeString(v.getVertexServerAssignment());
+			writeNullableInt(v.getNumVerticesNextStage());
+			writeStringList(v.getPreferredHosts());
+			writeInt(v.getMemoryMb());
+			writeInt(v.getAttempt());
+			out.writeLong(v.getAssignedAt());
+			writeStringList(v.getInputStages());
+			writeIntList(v.getInputStageSizes());
+			writeStringList(v.getOutputStages());
+			writeIntList(v.getOutputStageVertices());
+		}
+
+		void writeVertexOutput(VertexOutput vOut) throws IOException{
+			writeOutputMap(vOut.getOutputMap());
+			Map<String, Map<Integer, List<String>>> stageOutputMaps = vOut.getStageOutputMaps();
+			if(stageOutputMaps == null){
+				writeVarInt(0);
+			}else{
+				writeVarInt(stageOutputMaps.size() + 1);
+				for(Map.Entry<String, Map<Integer, List<String>>> entry : stageOutputMaps.entrySet()){
+					writeString(entry.getKey());
+					writeOutputMap(entry.getValue());
+				}
+			}
+			writeLongMap(vOut.getFileBytes());
+			writeLongMap(vOut.getFileRecords());
+		}
+
+		void writeLongMap(Map<String, Long> map) throws IOException{
+			if(map == null){
+				writeVarInt(0);
+				return;
+			}
+			writeVarInt(map.size() + 1);
+			for(Map.Entry<String, Long> entry : map.entrySet()){
+				writeString(entry.getKey());
+				out.writeLong(entry.getValue());
+			}
+		}
+
+		void writeOutputMap(Map<Integer, List<String>> outputMap) throws IOException{
+			if(outputMap == null){
+				writeVarInt(0);
+				return;
+			}
+			writeVarInt(outputMap.size() + 1);
+			for(Map.Entry<Integer, List<String>> entry : outputMap.entrySet()){
+				writeNullableInt(entry.getKey());
+				writeStringList(entry.getValue());
+			}
+		}
+
+		void writeStringList(List<String> list) throws IOException{
+			if(list == null){
+				writeVarInt(0);
+				return;
+			}
+			writeVarInt(list.size() + 1);
+			for(String s : list){
+				writeString(s);
+			}
+		}
+
+		/**
+		 * 0 = null, 1 = new string (length, UTF-8 bytes), n = string table entry n-2
+		 */
+		void writeString(String s) throws IOException{
+			if(s == null){
+				writeVarInt(0);
+				return;
+			}
+			Integer index = strings.get(s);
+			if(index != null){
+				writeVarInt(index + 2);
+				return;
+			}
+			strings.put(s, strings.size());
+			byte[] utf8 = s.getBytes("UTF-8");
+			writeVarInt(1);
+			writeVarInt(utf8.length);
+			out.write(utf8);
+		}
+
+		void writeIntList(List<Integer> ints) throws IOException{
+			if(ints == null){
+				writeVarInt(0);
+				return;
+			}
+			writeVarInt(ints.size() + 1);
+			for(Integer i : ints){
+				writeInt(i);
+			}
+		}
+
+		void writeNullableInt(Integer i) throws IOException{
+			out.writeBoolean(i != null);
+			if(i != null){
+				writeInt(i);
+			}
+		}
+
+		void writeInt(int i) throws IOException{
+			// zig-zag so that small negative numbers (e.g. stage -1) stay small
+			writeVarInt((i << 1) ^ (i >> 31));
+		}
+
+		void writeVarInt(int i) throws IOException{
+			while((i & ~0x7F) != 0){
+				out.writeByte((i & 0x7F) | 0x80);
+				i >>>= 7;
+			}
+			out.writeByte(i);
+		}
+	}
+
+	/**
+	 * Reads a single message - holds the string table for the message
+	 */
+	private class Reader {
+		private DataInputStream in;
+		private ArrayList<String> strings = new ArrayList<String>();
+
+		Reader(DataInputStream in){
+			this.in = in;
+		}
+
+		Object readObject() throws IOException{
+			int tag = in.readByte();
+			switch(tag){
+			case TAG_NULL:
+				return null;
+			case TAG_JOB_DESCRIPTOR:
+				return readJobDescriptor();
+			case TAG_JOB_STATUS:
+				return readJobStatus();
+			case TAG_VERTEX_HEARTBEAT:
+				return readVertexHeartbeat();
+			case TAG_VERTEX_HEARTBEAT_RESPONSE:
+				VertexHeartbeatResponse vhbr = new VertexHeartbeatResponse();
+				vhbr.setVertexDescriptor(readVertexDescriptors());
+				vhbr.setVerticesToStop(readVertexDescriptors());
+				return vhbr;
+			case TAG_VERTEX_DESCRIPTOR:
+				return readVertexDescriptor();
+			case TAG_VERTEX_OUTPUT:
+				return readVertexOutput();
+			case TAG_VERTEX_COMPLETION:
+				return readVertexCompletion();
+			case TAG_XML:
+				byte[] xml = new byte[readLength()];
+				in.readFully(xml);
+				return xmlCodec.decode(xml);
+			default:
+				throw new IOException("Unknown message object tag " + tag);
+			}
+		}
+
+		JobDescriptor readJobDescriptor() throws IOException{
+			JobDescriptor jDesc = new JobDescriptor();
+			jDesc.setJobId(readString());
+			jDesc.setHdfsJarPath(readString());
+			jDesc.setHdfsJobInputDir(readString());
+			jDesc.setHdfsJobOutputDir(readString());
+			jDesc.setPriority(readInt());
+			if(in.readBoolean()){
+				jDesc.setJobStatus(readJobStatus());
+			}
+			return jDesc;
+		}
+
+		JobStatus readJobStatus() throws IOException{
+			JobStatus status = new JobStatus();
+			status.setCurrentVertexStage(readInt());
+			status.setTotalVertexStages(readInt());
+			status.setTotalVerticesCurrentStage(readInt());
+			status.setTotalVerticesInProgressCurrentStage(readInt());
+			status.setExecutionFinished(in.readBoolean());
+			status.setPlanning(in.readBoolean());
+			status.setStageVertices(readIntList());
+			status.setStageVerticesFinished(readIntList());
+			status.setPreemptedVertices(readInt());
+			status.setPreemptedWorkMs(in.readLong());
+			status.setMaxInputSkew(in.readDouble());
+			status.setSkewedVertices(readInt());
+			status.setSplitVertices(readInt());
+			return status;
+		}
+
+		VertexHeartbeat readVertexHeartbeat() throws IOException{
+			VertexHeartbeat vhb = new VertexHeartbeat();
+			vhb.setUid(readString());
+			vhb.setNumThreads(readInt());
+			vhb.setVertexDescriptor(readVertexDescriptors());
+			vhb.setCompletions(readVertexCompletions());
+			vhb.setHostname(readString());
+			vhb.setCores(readInt());
+			vhb.setFreeMemoryMb(readInt());
+			vhb.setLoadAverage(in.readDouble());
+			vhb.setRunningVertices(readInt());
+			vhb.setWorkRequest(readInt());
+			return vhb;
+		}
+
+		List<VertexCompletion> readVertexCompletions() throws IOException{
+			int size = readSize();
+			if(size < 0){
+				return null;
+			}
+			ArrayList<VertexCompletion> completions = new ArrayList<VertexCompletion>(size);
+			for(int i = 0; i < size; i++){
+				completions.add(readVertexCompletion());
+			}
+			return completions;
+		}
+
+		VertexCompletion readVertexCompletion() throws IOException{
+			VertexCompletion c = new VertexCompletion();
+			c.setJobId(readString());
+			c.setStageNumber(readInt());
+			c.setVertexNumber(readInt());
+			c.setAttempt(readInt());
+			c.setExecutionSuccessful(in.readBoolean());
+			if(in.readBoolean()){
+				c.setOutput(readVertexOutput());
+			}
+			return c;
+		}
+
+		List<VertexDescriptor> readVertexDescriptors() throws IOException{
+			int size = readSize();
+			if(size < 0){
+				return null;
+			}
+			ArrayList<VertexDescriptor> vertices = new ArrayList<VertexDescriptor>(size);
+			for(int i = 0; i < size; i++){
+				vertices.add(readVertexDescriptor());
+			}
+			return vertices;
+		}
+
+		VertexDescriptor readVertexDescriptor() throws IOException{
+			VertexDescriptor v = new VertexDescriptor();
+			v.setJobId(readString());
+			v.setStageNumber(readInt());
+			v.setVertexNumber(readInt());
+			v.setVertexClassName(readString());
+			v.setVertexJarPath(readString());
+			v.setInputPaths(readStringList());
+			if(in.readBoolean()){
+				v.setOutput(readVertexOutput());
+			}
+			v.setExecutionFinished(in.readBoolean());
+			v.setExecutionSuccessful(in.readBoolean());
+			v.setVertexServerAssignment(readString());
+			v.setNumVerticesNextStage(readNullableInt());
+			v.setPreferredHosts(readStringList());
+			v.setMemoryMb(readInt());
+			v.setAttempt(readInt());
+			v.setAssignedAt(in.readLong());
+			v.setInputStages(readStringList());
+			v.setInputStageSizes(readIntList());
+			v.setOutputStages(readStringList());
+			v.setOutputStageVertices(readIntList());
+			return v;
+		}
+
+		VertexOutput readVertexOutput() throws IOException{
+			VertexOutput vOut = new VertexOutput();
+			vOut.setOutputMap(readOutputMap());
+			int stages = readSize();
+			for(int i = 0; i < stages; i++){
+				String stageName = readString();
+				vOut.setOutputMap(stageName, readOutputMap());
+			}
+			vOut.setFileBytes(readLongMap());
+			vOut.setFileRecords(readLongMap());
+			return vOut;
+		}
+
+		Map<String, Long> readLongMap() throws IOException{
+			int size = readSize();
+			if(size < 0){
+				return null;
+			}
+			HashMap<String, Long> map = new HashMap<String, Long>();
+			for(int i = 0; i < size; i++){
+				String key = readString();
+				map.put(key, in.readLong());
+			}
+			return map;
+		}
+
+		Map<Integer, List<String>> readOutputMap() throws IOException{
+			int size = readSize();
+			if(size < 0){
+				return null;
+			}
+			HashMap<Integer, List<String>> outputMap = new HashMap<Integer, List<String>>();
+			for(int i = 0; i < size; i++){
+				Integer key = readNullableInt();
+				outputMap.put(key, readStringList());
+			}
+			return outputMap;
+		}
+
+		List<String> readStringList() throws IOException{
+			int size = readSize();
+			if(size < 0){
+				return null;
+			}
+			ArrayList<String> list = new ArrayList<String>(size);
+			for(int i = 0; i < size; i++){
+				list.add(readString());
+			}
+			return list;
+		}
+
+		String readString() throws IOException{
+			int code = readVarInt();
+			if(code == 0){
+				return null;
+			}
+			if(code > 1){
+				if(code - 2 >= strings.size()){
+					throw new IOException("Reference to string " + (code - 2) + " of " + strings.size());
+				}
+				return strings.get(code - 2);
+			}
+			if(code < 0){
+				throw new IOException("Malformed string reference " + code);
+			}
+			byte[] utf8 = new byte[readLength()];
+			in.readFully(utf8);
+			String s = new String(utf8, "UTF-8");
+			strings.add(s);
+			return s;
+		}
+
+		List<Integer> readIntList() throws IOException{
+			int size = readSize();
+			if(size < 0){
+				return null;
+			}
+			ArrayList<Integer> list = new ArrayList<Integer>(size);
+			for(int i = 0; i < size; i++){
+				list.add(readInt());
+			}
+			return list;
+		}
+
+		Integer readNullableInt() throws IOException{
+			if(in.readBoolean()){
+				return readInt();
+			}
+			return null;
+		}
+
+		int readInt() throws IOException{
+			int zigZag = readVarInt();
+			return (zigZag >>> 1) ^ -(zigZag & 1);
+		}
+
+		/**
+		 * @return a byte count, no more than the bytes left to read
+		 */
+		int readLength() throws IOException{
+			int length = readVarInt();
+			if(length < 0 || length > in.available()){
+				throw new IOException("Length " + length + " is more than the " + in.available() + " bytes left");
+			}
+			return length;
+		}
+
+		/**
+		 * @return the number of entries of a collection, -1 for null - every
+		 * entry takes at least a byte so there are no more than the bytes left
+		 */
+		int readSize() throws IOException{
+			int size = readVarInt() - 1;
+			if(size < -1 || size > in.available()){
+				throw new IOException("Size " + size + " is more than the " + in.available() + " bytes left");
+			}
+			return size;
+		}
+
+		int readVarInt() throws IOException{
+			int value = 0;
+			int shift = 0;
+			byte b;
+			do{
+				if(shift > 28){
+					throw new IOException("Malformed varint");
+				}
+				b = in.readByte();
+				value |= (b & 0x7F) << shift;
+				shift += 7;
+			}while((b & 0x80) != 0);
+			return value;
+		}
+	}
+
+}
@@ -0,0 +1,212 @@
+package edu.colorado.eyore.common.net;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A small pool of long-lived connections to one server (the JobServer) so that
+ * each request/response exchange doesn't cost a TCP connect and close.
+ *
+ * - connections are returned to the pool after each exchange
+ * - connections idle longer than the idle timeout are closed instead of being
+ *   reused (the server closes idle connections too, so the client timeout
+ *   should be the shorter one - a pooled connection is then not closed by the
+ *   server while it is idle)
+ * - if a reused connection fails, the request is only re-sent (once, on a new
+ *   connection) for an IdempotentProtocol - the server may have acted on it
+ * - a response not received within the read timeout fails the request, so a
+ *   connection left half open doesn't hold up the caller for good (the
+ *   timeout must be longer than the server takes to answer, e.g. the job
+ *   server's work.request.timeout.ms)
+ *
+ * This class is thread safe - each thread borrows its own connection
+ */
+public class ConnectionPool {
+
+	private static Logger logger = Logger.getLogger(ConnectionPool.class.getName());
+
+	public static final String POOL_SIZE_PROPERTY = "connection.pool.size";
+	public static final String IDLE_TIMEOUT_PROPERTY = "connection.idle.timeout.ms";
+	public static final String READ_TIMEOUT_PROPERTY = "connection.read.timeout.ms";
+
+	public static final int DEFAULT_READ_TIMEOUT_MS = 120000;
+
+	private String serverAddr;
+	private int serverPort;
+	private int maxIdleConnections;
+	private long idleTimeoutMs;
+	private int readTimeoutMs;
+
+	private ArrayDeque<Connection> idleConnections = new ArrayDeque<Connection>();
+	private boolean closed = false;
+
+	/**
+	 * Pool whose responses time out after DEFAULT_READ_TIMEOUT_MS
+	 *
+	 * @param maxIdleConnections - how many connections are kept open between requests
+	 * @param idleTimeoutMs - connections not used for this long are closed
+	 */
+	public ConnectionPool(String serverAddr, int serverPort, int maxIdleConnections, long idleTimeoutMs){
+		this(serverAddr, serverPort, maxIdleConnections, idleTimeoutMs, DEFAULT_READ_TIMEOUT_MS);
+	}
+
+	/**
+	 * @param maxIdleConnections - how many connections are kept open between requests
+	 * @param idleTimeoutMs - connections not used for this long are closed
+	 * @param readTimeoutMs - a request fails if its response doesn't arrive
+	 * within this many ms (0 to wait for good)
+	 */
+	public ConnectionPool(String serverAddr, int serverPort, int maxIdleConnections, long idleTimeoutMs,
+			int readTimeoutMs){
+		this.serverAddr = serverAddr;
+		this.serverPort = serverPort;
+		this.maxIdleConnections = maxIdleConnections;
+		this.idleTimeoutMs = idleTimeoutMs;
+		this.readTimeoutMs = readTimeoutMs;
+	}
+
+	/**
+	 * Pool configured from the "connection.pool.size",
+	 * "connection.idle.timeout.ms" and "connection.read.timeout.ms" properties
+	 */
+	public ConnectionPool(String serverAddr, int serverPort, Properties props){
+		this(serverAddr, serverPort,
+				Integer.parseInt(props.getProperty(POOL_SIZE_PROPERTY, "2")),
+				Long.parseLong(props.getProperty(IDLE_TIMEOUT_PROPERTY, "30000")),
+				Integer.parseInt(props.getProperty(READ_TIMEOUT_PROPERTY, String.valueOf(DEFAULT_READ_TIMEOUT_MS))));
+	}
+
+	/**
+	 * Same as RequestResponseUtil.clientRequest but over a pooled connection
+	 *
+	 * @param <T>
+	 *            getData() value of protocol after response from server
+	 *            received
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T request(Protocol p) throws IOException{
+		MessageFrame request = MessageFrame.fromMessage(p.respondTo(null));
+
+		Connection conn = borrow();
+		MessageFrame response;
+		try{
+			response = conn.exchange(request);
+		}catch(IOException e){
+			conn.close();
+			if(! conn.reused || ! (p instanceof IdempotentProtocol)){
+				throw e;
+			}
+			// the server may have closed the connection just as it was reused -
+			// whether it got the request or not, sending it again does no harm
+			logger.log(Level.FINE, "Pooled connection to " + serverAddr + ":" + serverPort +
+					" failed - reconnecting", e);
+			conn = connect();
+			try{
+				response = conn.exchange(request);
+			}catch(IOException e2){
+				conn.close();
+				throw e2;
+			}
+		}catch(RuntimeException e){
+			conn.close();
+			throw e;
+		}
+		release(conn);
+
+		p.respondTo(response.toMessage());
+		return (T) p.getData();
+	}
+
+	/**
+	 * Closes all idle connections - connections in use are closed when they are
+	 * returned
+	 */
+	public synchronized void close(){
+		closed = true;
+		while(! idleConnections.isEmpty()){
+			idleConnections.remove().close();
+		}
+	}
+
+	private Connection borrow() throws IOException{
+		synchronized(this){
+			long now = System.currentTimeMillis();
+			while(! idleConnections.isEmpty()){
+				// most recently used first
+				Connection conn = idleConnections.removeLast();
+				if(now - conn.lastUsed < idleTimeoutMs && ! conn.socket.isClosed()){
+					conn.reused = true;
+					return conn;
+				}
+				conn.close();
+			}
+		}
+		return connect();
+	}
+
+	private synchronized void release(Connection conn){
+		conn.lastUsed = System.currentTimeMillis();
+		if(closed || idleConnections.size() >= maxIdleConnections){
+			conn.close();
+		}else{
+			idleConnections.addLast(conn);
+		}
+	}
+
+	private Connection connect() throws IOException{
+		Socket socket;
+		try {
+			socket = new Socket(serverAddr, serverPort);
+		} catch (IOException e) {
+			throw new IOException("Failed to connect to server on "
+					+ serverAddr + ":" + serverPort, e);
+		}
+		socket.setKeepAlive(true);
+		socket.setTcpNoDelay(true);
+		socket.setSoTimeout(readTimeoutMs);
+		return new Connection(socket);
+	}
+
+	/**
+	 * One socket and its streams
+	 */
+	private class Connection {
+		Socket socket;
+		InputStream in;
+		OutputStream out;
+		long lastUsed;
+		boolean reused = false;
+
+		Connection(Socket socket) throws IOException{
+			this.socket = socket;
+			this.in = new BufferedInputStream(socket.getInputStream());
+			this.out = new BufferedOutputStream(socket.getOutputStream());
+		}
+
+		MessageFrame exchange(MessageFrame request) throws IOException{
+			request.write(out);
+			MessageFrame response = MessageFrame.read(in);
+			if(response == null){
+				throw new IOException("Server " + serverAddr + ":" + serverPort +
+						" closed connection without responding");
+			}
+			return response;
+		}
+
+		void close(){
+			try{
+				socket.close();
+			}catch(IOException e){
+				// closing anyway
+			}
+		}
+	}
+}
@@ -0,0 +1,10 @@
+package edu.colorado.eyore.common.net;
+
+/**
+ * A Protocol whose request can be sent to the server again without harm -
+ * only reads the server's state, say.  A ConnectionPool re-sends such a
+ * request on a new connection if a reused connection fails once it has been
+ * written; any other request fails instead, as the server may have acted on it
+ */
+public interface IdempotentProtocol extends Protocol {
+}
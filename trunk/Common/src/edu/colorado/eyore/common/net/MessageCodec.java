@@ -0,0 +1,21 @@
+package edu.colorado.eyore.common.net;
+
+/**
+ * Converts the objects carried in socket messages to bytes and back.  The
+ * codec in use is chosen with the "message.codec" property (see
+ * MessageObjectUtil.configure)
+ */
+public interface MessageCodec {
+
+	/**
+	 * @param o - object to encode (null is allowed)
+	 * @return - bytes that can be passed to decode to get the object back
+	 */
+	public byte[] encode(Object o);
+
+	/**
+	 * @param bytes - output of encode
+	 * @return - the decoded object instance
+	 */
+	public <T> T decode(byte[] bytes);
+}
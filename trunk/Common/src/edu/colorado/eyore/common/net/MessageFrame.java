@@ -0,0 +1,130 @@
+package edu.colorado.eyore.common.net;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * A single message on the wire between the Client, JobServer and VertexServer:
+ *
+ *   [1 byte MessageType][4 byte payload length][payload]
+ *
+ * The payload is the Protocol message with its prefix removed.  Protocol messages
+ * are Strings where every char is one byte (ISO-8859-1) so the payload is
+ * exactly the bytes produced by MessageObjectUtil.objectToString
+ */
+public class MessageFrame {
+
+	public static final Charset CHARSET = Charset.forName("ISO-8859-1");
+
+	public static final int HEADER_BYTES = 5;
+
+	/**
+	 * Guards against allocating huge buffers when reading garbage
+	 */
+	public static final int MAX_PAYLOAD_BYTES = 256 * 1024 * 1024;
+
+	private MessageType type;
+	private ByteBuffer payload;
+
+	public MessageFrame(MessageType type, ByteBuffer payload){
+		this.type = type;
+		this.payload = payload;
+	}
+
+	public MessageType getType(){
+		return type;
+	}
+
+	/**
+	 * @return the payload - position 0, limit is the payload length
+	 */
+	public ByteBuffer getPayload(){
+		return payload.duplicate();
+	}
+
+	/**
+	 * Frame a Protocol message - the message prefix becomes the type byte
+	 */
+	public static MessageFrame fromMessage(String message){
+		if(message == null){
+			return new MessageFrame(MessageType.UNKNOWN, ByteBuffer.allocate(0));
+		}
+		MessageType type = MessageType.fromMessage(message);
+		String body = message.substring(type.getPrefix().length());
+		return new MessageFrame(type, ByteBuffer.wrap(body.getBytes(CHARSET)));
+	}
+
+	/**
+	 * @return the Protocol message for this frame (prefix + payload)
+	 */
+	public String toMessage(){
+		ByteBuffer p = getPayload();
+		StringBuilder message = new StringBuilder(type.getPrefix().length() + p.remaining());
+		message.append(type.getPrefix());
+		message.append(CHARSET.decode(p));
+		return message.toString();
+	}
+
+	/**
+	 * @return the header and payload ready to be written to a channel
+	 */
+	public ByteBuffer[] toByteBuffers(){
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+		header.put(type.getCode());
+		header.putInt(payload.limit());
+		header.flip();
+		return new ByteBuffer[]{header, getPayload()};
+	}
+
+	public void write(OutputStream out) throws IOException{
+		for(ByteBuffer buffer : toByteBuffers()){
+			out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+		}
+		out.flush();
+	}
+
+	/**
+	 * Reads the next frame
+	 *
+	 * @return the frame or null if the stream ended before the start of a frame
+	 * @throws IOException - if the stream ends part way through a frame or
+	 * the frame is invalid
+	 */
+	public static MessageFrame read(InputStream in) throws IOException{
+		DataInputStream dataIn = new DataInputStream(in);
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+		int first = dataIn.read();
+		if(first < 0){
+			return null;
+		}
+		header.put((byte) first);
+		dataIn.readFully(header.array(), 1, HEADER_BYTES - 1);
+
+		MessageType type = MessageType.fromCode(header.get(0));
+		ByteBuffer payload = ByteBuffer.allocate(checkPayloadLength(header.getInt(1)));
+		try{
+			dataIn.readFully(payload.array());
+		}catch(EOFException e){
+			throw new EOFException("Stream ended inside a " + type + " frame");
+		}
+		return new MessageFrame(type, payload);
+	}
+
+	static int checkPayloadLength(int length) throws IOException{
+		if(length < 0 || length > MAX_PAYLOAD_BYTES){
+			throw new IOException("Invalid frame payload length " + length);
+		}
+		return length;
+	}
+
+	@Override
+	public String toString(){
+		return "MessageFrame TYPE=" + type + " BYTES=" + payload.limit();
+	}
+}
@@ -0,0 +1,63 @@
+package edu.colorado.eyore.common.net;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads MessageFrames from a non-blocking channel - bytes are collected across
+ * calls until a whole frame has arrived
+ *
+ * One reader per connection, not thread safe
+ */
+public class MessageFrameReader {
+
+	private ByteBuffer header = ByteBuffer.allocate(MessageFrame.HEADER_BYTES);
+	private MessageType type;
+	// null until the header has been read
+	private ByteBuffer payload;
+
+	/**
+	 * Reads whatever is available on the channel, never more than the rest of
+	 * the current frame
+	 *
+	 * @return the next frame or null if it hasn't been completely received yet
+	 * @throws EOFException - if the channel reached end of stream (see hasPartialFrame)
+	 * @throws IOException - if the frame is invalid or reading fails
+	 */
+	public MessageFrame read(ReadableByteChannel channel) throws IOException{
+		while(true){
+			ByteBuffer target = payload == null ? header : payload;
+			if(target.hasRemaining()){
+				if(channel.read(target) < 0){
+					throw new EOFException(hasPartialFrame() ?
+							"Stream ended inside a frame" : "Stream ended");
+				}
+				if(target.hasRemaining()){
+					return null;
+				}
+			}
+
+			if(payload == null){
+				header.flip();
+				type = MessageType.fromCode(header.get());
+				payload = ByteBuffer.allocate(MessageFrame.checkPayloadLength(header.getInt()));
+			}else{
+				payload.flip();
+				MessageFrame frame = new MessageFrame(type, payload);
+				header.clear();
+				payload = null;
+				type = null;
+				return frame;
+			}
+		}
+	}
+
+	/**
+	 * @return true if part of a frame has been read
+	 */
+	public boolean hasPartialFrame(){
+		return payload != null || header.position() > 0;
+	}
+}
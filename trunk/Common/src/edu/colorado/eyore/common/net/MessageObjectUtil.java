@@ -1,45 +1,99 @@
 package edu.colorado.eyore.common.net;
 
-import java.beans.XMLDecoder;
-import java.beans.XMLEncoder;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.util.Properties;
+
+import edu.colorado.eyore.common.JarClassLoadUtil;
 
 
 /**
  * Socket messages may contain objects represented as Strings.  This class
  * allows converting String -> Object and Object -> String.
+ *
+ * The encoding is done by a MessageCodec chosen with the "message.codec" property:
+ * "xml" (the default - XMLEncoder), "binary" (BinaryMessageCodec) or the fully
+ * qualified class name of any other MessageCodec implementation
+ * 
+ * The Strings hold one byte per char (ISO-8859-1, see MessageFrame) so
+ * that encoded objects go on the wire unchanged
  */
 public class MessageObjectUtil {
 
+	public static final String CODEC_PROPERTY = "message.codec";
+
+	private static final XmlMessageCodec XML_CODEC = new XmlMessageCodec();
+
+	private static volatile MessageCodec codec = XML_CODEC;
+
+	/**
+	 * Sets the codec used by objectToString from the "message.codec" property
+	 * (if present)
+	 */
+	public static void configure(Properties props){
+		setCodec(getCodec(props.getProperty(CODEC_PROPERTY)));
+	}
+
+	/**
+	 * @param name - "xml", "binary" or a MessageCodec class name - null or empty
+	 * means "xml"
+	 */
+	public static MessageCodec getCodec(String name){
+		if(name == null || name.trim().isEmpty() || name.trim().equalsIgnoreCase("xml")){
+			return XML_CODEC;
+		}
+		if(name.trim().equalsIgnoreCase("binary")){
+			return new BinaryMessageCodec();
+		}
+		try{
+			Class<? extends MessageCodec> codecClass = Class.forName(name.trim()).asSubclass(MessageCodec.class);
+			return JarClassLoadUtil.getInstanceFromClass(codecClass);
+		}catch(ClassNotFoundException e){
+			throw new IllegalArgumentException("Unknown " + CODEC_PROPERTY + ": " + name, e);
+		}catch(ClassCastException e){
+			throw new IllegalArgumentException(CODEC_PROPERTY + " is not a MessageCodec: " + name, e);
+		}
+	}
+
+	public static void setCodec(MessageCodec messageCodec){
+		codec = messageCodec;
+	}
+
+	public static MessageCodec getCodec(){
+		return codec;
+	}
+
 	/**
 	 * Convert an object to a string to be sent as a message over a socket
-	 * 
+	 *
 	 * @param o - any object BUT IT MUST BE A JAVA BEAN (zero-arg constuctor,
 	 * properties are private variables with public getter and setter methods)
-	 * 
-	 * @return - String (xml representation of the object that can be decoded)
+	 *
+	 * @return - String (the codec output - e.g. xml representation of the object - 
+	 * that can be decoded)
 	 */
 	public static String objectToString(Object o){
-		ByteArrayOutputStream jobDescAsBytes = new ByteArrayOutputStream();
-		XMLEncoder encoder = new XMLEncoder(jobDescAsBytes);
-		encoder.writeObject(o);
-		encoder.close();
-		
-		// keeping all messages on one line
-		return jobDescAsBytes.toString().replaceAll("\\n", " ");
+		return new String(codec.encode(o), MessageFrame.CHARSET);
 	}
-	
+
 	/**
 	 * Convert a string previously encoded by objectToString into that object
-	 * 
+	 *
+	 * XML is always accepted (so a mix of XML and binary configured
+	 * servers/clients keeps working), anything else is decoded with the configured
+	 * codec (BinaryMessageCodec if the configured codec is XML)
+	 *
 	 * @param <T>
-	 * @param string - the xml representation of the output produced by objectToString
+	 * @param string - the output produced by objectToString
 	 * @return - the decoded object instance
 	 */
 	public static <T> T stringToObject(String string){
-		// Get the job descriptor by converting from XML to the JobDescriptor object
-		XMLDecoder decodeDescriptor = new XMLDecoder(new ByteArrayInputStream(string.getBytes()));
-		return (T) decodeDescriptor.readObject();	
+		byte[] bytes = string.getBytes(MessageFrame.CHARSET);
+		if(string.startsWith("<")){
+			return XML_CODEC.<T>decode(bytes);
+		}
+		MessageCodec messageCodec = codec;
+		if(messageCodec instanceof XmlMessageCodec){
+			messageCodec = new BinaryMessageCodec();
+		}
+		return messageCodec.<T>decode(bytes);
 	}
 }
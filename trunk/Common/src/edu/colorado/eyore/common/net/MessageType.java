@@ -0,0 +1,79 @@
+package edu.colorado.eyore.common.net;
+
+/**
+ * The type byte of a MessageFrame.  Each type corresponds to the text prefix
+ * that the Protocol implementations put at the start of their messages - the
+ * prefix is replaced by the type byte on the wire
+ */
+public enum MessageType {
+
+	UNKNOWN(0, ""),
+
+	// Client -> JobServer
+	CLIENT_REQUEST_JOB(1, "CLIENT REQUEST JOB:"),
+	CLIENT_REQUEST_JOB_START(2, "CLIENT REQUEST JOB START:"),
+	CLIENT_REQUEST_STATUS(3, "CLIENT REQUEST STATUS:"),
+
+	// JobServer -> Client
+	OK_SUBMIT_JOB(4, "OK SUBMIT JOB:"),
+	JOB_STARTED(5, "JOB STARTED:"),
+	JOB_FAILED_TO_START(6, "JOB FAILED TO START:"),
+	STATUS(7, "STATUS:"),
+	NOT_FOUND(8, "NOT FOUND"),
+
+	// VertexServer <-> JobServer
+	JSERVER_HEARTBEAT(9, "JSERVER HEARTBEAT:"),
+	OK_VERTEX(10, "OK VERTEX:"),
+	VERTEX_REQUEST_WORK(11, "VERTEX REQUEST WORK:");
+
+	private static final MessageType[] BY_CODE = new MessageType[256];
+	static{
+		for(MessageType type : values()){
+			BY_CODE[type.code] = type;
+		}
+	}
+
+	private final byte code;
+	private final String prefix;
+
+	private MessageType(int code, String prefix){
+		this.code = (byte) code;
+		this.prefix = prefix;
+	}
+
+	/**
+	 * The byte that identifies this type on the wire
+	 */
+	public byte getCode(){
+		return code;
+	}
+
+	/**
+	 * The message prefix used by the Protocol implementations for this type
+	 */
+	public String getPrefix(){
+		return prefix;
+	}
+
+	/**
+	 * @return the type for the type byte - UNKNOWN for unknown type bytes
+	 */
+	public static MessageType fromCode(byte code){
+		MessageType type = BY_CODE[code & 0xFF];
+		return type == null ? UNKNOWN : type;
+	}
+
+	/**
+	 * @return the type whose prefix starts the message (the longest
+	 * matching prefix wins) - UNKNOWN if none do
+	 */
+	public static MessageType fromMessage(String message){
+		MessageType match = UNKNOWN;
+		for(MessageType type : values()){
+			if(message.startsWith(type.prefix) && type.prefix.length() > match.prefix.length()){
+				match = type;
+			}
+		}
+		return match;
+	}
+}
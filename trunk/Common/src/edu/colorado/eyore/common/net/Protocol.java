@@ -2,6 +2,9 @@ package edu.colorado.eyore.common.net;
 
 /**
  * Defines a communication protocol over a socket
+ * 
+ * Messages start with a prefix that identifies them (see MessageType) - the 
+ * transport sends the prefix as the type byte of a MessageFrame
  */
 public interface Protocol {
 
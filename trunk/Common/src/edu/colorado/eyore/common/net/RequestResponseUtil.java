@@ -1,9 +1,9 @@
 package edu.colorado.eyore.common.net;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.OutputStream;
 import java.net.Socket;
 
 
@@ -12,7 +12,9 @@ public class RequestResponseUtil {
 	/**
 	 * A client (either the "cient" or the vertex server) makes a request to a
 	 * server ("job server") using a socket and receives a response
-	 * 
+	 *
+	 * Messages are sent as MessageFrames (see MessageFrame)
+	 *
 	 * @param <T>
 	 *            getData() value of protocol after response from server
 	 *            received
@@ -32,16 +34,19 @@ public class RequestResponseUtil {
 		}
 
 		try {
-			PrintWriter out = new PrintWriter(toServer.getOutputStream());
-			BufferedReader in = new BufferedReader(new InputStreamReader(
-					toServer.getInputStream()));
+			OutputStream out = new BufferedOutputStream(toServer.getOutputStream());
 
 			// client initiates request
-			out.println(p.respondTo(null));
-			out.flush();
+			MessageFrame.fromMessage(p.respondTo(null)).write(out);
 
 			// client gets response
-			p.respondTo(in.readLine());
+			MessageFrame response = MessageFrame.read(
+					new BufferedInputStream(toServer.getInputStream()));
+			if(response == null){
+				throw new IOException("Server " + serverAddr + ":" + serverPort +
+						" closed connection without responding");
+			}
+			p.respondTo(response.toMessage());
 
 			// communication is over now
 
@@ -51,18 +56,22 @@ public class RequestResponseUtil {
 		return (T) p.getData();
 	}
 
-	public static <T> T serverResponse(Protocol p, Socket s, String request) throws IOException {
-		try {
-			PrintWriter out = new PrintWriter(s.getOutputStream());
-			
-			out.println(p.respondTo(request));
-			out.flush();
+	/**
+	 * Same as clientRequest(p, serverAddr, serverPort) but reuses a pooled
+	 * connection instead of connecting for this request only
+	 */
+	public static <T> T clientRequest(Protocol p, ConnectionPool pool) throws IOException {
+		return pool.<T>request(p);
+	}
 
-			s.close();
+	/**
+	 * Server side of clientRequest - responds to a request frame already
+	 * read from the connection.  The connection is left open for the
+	 * client's next request
+	 */
+	public static <T> T serverResponse(Protocol p, OutputStream out, MessageFrame request) throws IOException {
+		MessageFrame.fromMessage(p.respondTo(request.toMessage())).write(out);
 
-			return (T) p.getData();
-		} finally {
-			s.close();
-		}
+		return (T) p.getData();
 	}
 }
@@ -0,0 +1,35 @@
+package edu.colorado.eyore.common.net;
+
+import java.beans.XMLDecoder;
+import java.beans.XMLEncoder;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+/**
+ * The original message encoding - java.beans XML.  Works for any
+ * object that is a JAVA BEAN (zero-arg constuctor, properties are private
+ * variables with public getter and setter methods), but is slow and verbose
+ */
+public class XmlMessageCodec implements MessageCodec {
+
+	@Override
+	public byte[] encode(Object o) {
+		ByteArrayOutputStream objAsBytes = new ByteArrayOutputStream();
+		XMLEncoder encoder = new XMLEncoder(objAsBytes);
+		encoder.writeObject(o);
+		encoder.close();
+		return objAsBytes.toByteArray();
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T> T decode(byte[] bytes) {
+		XMLDecoder decoder = new XMLDecoder(new ByteArrayInputStream(bytes));
+		try{
+			return (T) decoder.readObject();
+		}finally{
+			decoder.close();
+		}
+	}
+
+}
@@ -0,0 +1,78 @@
+package edu.colorado.eyore.common.vertex;
+
+/**
+ * An edge of a job's stage graph (see JobSpecification.getStageEdges()) - the
+ * vertices of one stage read the output of the vertices of another.  Stages
+ * are named by VertexStage.getName().
+ */
+public class StageEdge {
+
+	/**
+	 * How the output of the producing stage's vertices is divided between
+	 * the vertices of the consuming stage
+	 */
+	public enum Type {
+		/**
+		 * Each producing vertex partitions its output by the index of the
+		 * consuming vertex (a shuffle) - the consuming stage starts once the
+		 * producing stage is finished
+		 */
+		ALL_TO_ALL,
+		/**
+		 * Each consuming vertex only reads the output of the producing vertex
+		 * with the same index, and can start as soon as that vertex is finished
+		 */
+		POINTWISE,
+		/**
+		 * Every consuming vertex reads all of the producing stage's output (e.g.
+		 * a small table joined against) - producing vertices are told the
+		 * consuming stage has a single vertex
+		 */
+		BROADCAST
+	}
+
+	private String fromStage;
+	private String toStage;
+	private Type type = Type.ALL_TO_ALL;
+
+	public StageEdge(){
+	}
+
+	public StageEdge(String fromStage, String toStage, Type type){
+		this.fromStage = fromStage;
+		this.toStage = toStage;
+		this.type = type;
+	}
+
+	/**
+	 * Name of the stage whose output is read
+	 */
+	public String getFromStage(){
+		return fromStage;
+	}
+	public void setFromStage(String fromStage){
+		this.fromStage = fromStage;
+	}
+
+	/**
+	 * Name of the stage reading the output
+	 */
+	public String getToStage(){
+		return toStage;
+	}
+	public void setToStage(String toStage){
+		this.toStage = toStage;
+	}
+
+	public Type getType(){
+		return type;
+	}
+	public void setType(Type type){
+		this.type = type;
+	}
+
+	@Override
+	public String toString(){
+		return fromStage + " -" + type + "-> " + toStage;
+	}
+}
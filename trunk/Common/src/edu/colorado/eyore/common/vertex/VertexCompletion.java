@@ -0,0 +1,97 @@
+package edu.colorado.eyore.common.vertex;
+
+/**
+ * Reports that a vertex finished executing.  Sent by the VertexServer to the
+ * JobServer in place of the whole VertexDescriptor - the JobServer already has
+ * the rest of the descriptor (input paths, jar, class name) and looks it up by
+ * job ID, stage number and vertex number.
+ */
+public class VertexCompletion {
+	private String jobId;
+	private int stageNumber;
+	private int vertexNumber;
+	private int attempt;
+	private boolean executionSuccessful;
+	private VertexOutput output;
+
+	public VertexCompletion(){
+	}
+
+	/**
+	 * Completion report for a vertex that finished executing
+	 */
+	public VertexCompletion(VertexDescriptor vertex){
+		this.jobId = vertex.getJobId();
+		this.stageNumber = vertex.getStageNumber();
+		this.vertexNumber = vertex.getVertexNumber();
+		this.attempt = vertex.getAttempt();
+		this.executionSuccessful = vertex.getExecutionSuccessful();
+		this.output = vertex.getOutput();
+	}
+
+	/**
+	 * The ID of the job that the vertex is a part of
+	 */
+	public String getJobId(){
+		return jobId;
+	}
+	public void setJobId(String jobId){
+		this.jobId = jobId;
+	}
+
+	/**
+	 * Zero-based index of the vertex's stage
+	 */
+	public int getStageNumber(){
+		return stageNumber;
+	}
+	public void setStageNumber(int stageNumber){
+		this.stageNumber = stageNumber;
+	}
+
+	/**
+	 * Zero-based index of the vertex within its stage
+	 */
+	public int getVertexNumber(){
+		return vertexNumber;
+	}
+	public void setVertexNumber(int vertexNumber){
+		this.vertexNumber = vertexNumber;
+	}
+
+	/**
+	 * Which execution of the vertex finished (see VertexDescriptor.getAttempt())
+	 */
+	public int getAttempt(){
+		return attempt;
+	}
+	public void setAttempt(int attempt){
+		this.attempt = attempt;
+	}
+
+	/**
+	 * True if the vertex executed successfully
+	 */
+	public boolean getExecutionSuccessful(){
+		return executionSuccessful;
+	}
+	public void setExecutionSuccessful(boolean executionSuccessful){
+		this.executionSuccessful = executionSuccessful;
+	}
+
+	/**
+	 * Where the vertex wrote its output (see VertexDescriptor.getOutput())
+	 */
+	public VertexOutput getOutput(){
+		return output;
+	}
+	public void setOutput(VertexOutput output){
+		this.output = output;
+	}
+
+	@Override
+	public String toString(){
+		return "VertexCompletion JobID=" + jobId + " STAGE=" + stageNumber + " VERTEX=" + vertexNumber +
+			(attempt > 0 ? " ATTEMPT=" + attempt : "") + (executionSuccessful ? " SUCCESS" : " FAILED");
+	}
+}
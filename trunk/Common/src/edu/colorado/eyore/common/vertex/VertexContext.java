@@ -1,7 +1,10 @@
 package edu.colorado.eyore.common.vertex;
 
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import edu.colorado.eyore.common.hdfs.HdfsUtils;
 
@@ -26,6 +29,8 @@ public class VertexContext {
 	private int vertexIndex;
 	private String jobId;
 	private int stageIndex;
+	private Map<String, List<InputStream>> stageInputs = new LinkedHashMap<String, List<InputStream>>();
+	private Map<String, Integer> outputStageVertices = new LinkedHashMap<String, Integer>();
 	
 	/**
 	 * These will most likely be FsInputStream 
@@ -43,6 +48,27 @@ public class VertexContext {
 	public void setInputs(List<InputStream> inputs){
 		this.inputs = inputs;
 	}
+	
+	/**
+	 * The inputs (of getInputs()) that are the output of the named stage -
+	 * for a vertex reading more than one stage, e.g. the two sides of a join.
+	 * Empty if the vertex doesn't read that stage.
+	 */
+	public List<InputStream> getInputs(String stageName){
+		List<InputStream> fromStage = stageInputs.get(stageName);
+		return fromStage == null ? new ArrayList<InputStream>() : fromStage;
+	}
+	public void setInputs(String stageName, List<InputStream> inputs){
+		stageInputs.put(stageName, inputs);
+	}
+	
+	/**
+	 * Names of the stages the vertex reads the output of (empty in the
+	 * first stage)
+	 */
+	public List<String> getInputStages(){
+		return new ArrayList<String>(stageInputs.keySet());
+	}
 	public void setvOutput(VertexOutput vOutput) {
 		this.vOutput = vOutput;
 	}
@@ -62,6 +88,27 @@ public class VertexContext {
 		this.numVerticesNextStage = vertices;
 	}
 	
+	/**
+	 * Names of the stages reading this vertex's output (empty in a
+	 * last stage) - with more than one, the vertex writes the output for
+	 * each to VertexOutput.setOutputMap(String, Map)
+	 */
+	public List<String> getOutputStages(){
+		return new ArrayList<String>(outputStageVertices.keySet());
+	}
+	
+	/**
+	 * Number of vertices of the named stage to partition output for
+	 * (1 if the stage reads all of this stage's output) - NULL if the
+	 * stage doesn't read this vertex's output
+	 */
+	public Integer getNumVertices(String stageName){
+		return outputStageVertices.get(stageName);
+	}
+	public void setNumVertices(String stageName, int vertices){
+		outputStageVertices.put(stageName, vertices);
+	}
+	
 	/**
 	 * Vertex can use this to get an HDFS output stream 
 	 */
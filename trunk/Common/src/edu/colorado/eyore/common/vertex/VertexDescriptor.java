@@ -19,6 +19,14 @@ public class VertexDescriptor {
 	private boolean executionSuccessful;
 	private String vertexServerAssignment;
 	private Integer numVerticesNextStage;
+	private List<String> preferredHosts;
+	private int memoryMb;
+	private int attempt;
+	private long assignedAt;
+	private List<String> inputStages;
+	private List<Integer> inputStageSizes;
+	private List<String> outputStages;
+	private List<Integer> outputStageVertices;
 		
 	/**
 	 * The ID of the job that this Vertex is a part of
@@ -160,6 +168,94 @@ public class VertexDescriptor {
 		this.numVerticesNextStage = vertices;
 	}
 	
+	/**
+	 * Hosts storing this vertex's input data, the host with the
+	 * most of the input first - the JobServer prefers assigning the 
+	 * vertex to a VertexServer on one of these hosts
+	 * 
+	 * NULL or empty if the vertex has no preference (e.g. input 
+	 * is the output of a previous stage)
+	 */
+	public List<String> getPreferredHosts(){
+		return preferredHosts;
+	}
+	public void setPreferredHosts(List<String> preferredHosts){
+		this.preferredHosts = preferredHosts;
+	}
+	
+	/**
+	 * Heap (in MB) the vertex is expected to need (see 
+	 * VertexStage.getMemoryMbPerVertex()) - 0 if not known
+	 */
+	public int getMemoryMb(){
+		return memoryMb;
+	}
+	public void setMemoryMb(int memoryMb){
+		this.memoryMb = memoryMb;
+	}
+	
+	/**
+	 * Which execution of the vertex this is - 0 for the first, higher for
+	 * backup copies the JobServer starts when the vertex runs much longer
+	 * than the rest of its stage.  Not part of equality: all attempts of a
+	 * vertex are the same vertex
+	 */
+	public int getAttempt(){
+		return attempt;
+	}
+	public void setAttempt(int attempt){
+		this.attempt = attempt;
+	}
+	
+	/**
+	 * When (ms since the epoch) the JobServer assigned this attempt to its
+	 * vertex server - 0 if not assigned
+	 */
+	public long getAssignedAt(){
+		return assignedAt;
+	}
+	public void setAssignedAt(long assignedAt){
+		this.assignedAt = assignedAt;
+	}
+	
+	/**
+	 * Names of the stages whose output this vertex reads, in the order
+	 * their files are in getInputPaths() - getInputStageSizes() has the
+	 * number of files from each.  NULL for a first stage vertex (its input
+	 * is the job's input)
+	 */
+	public List<String> getInputStages(){
+		return inputStages;
+	}
+	public void setInputStages(List<String> inputStages){
+		this.inputStages = inputStages;
+	}
+	public List<Integer> getInputStageSizes(){
+		return inputStageSizes;
+	}
+	public void setInputStageSizes(List<Integer> inputStageSizes){
+		this.inputStageSizes = inputStageSizes;
+	}
+	
+	/**
+	 * Names of the stages reading this vertex's output, and 
+	 * (getOutputStageVertices()) the number of vertices in each to
+	 * partition the output for - NULL if this vertex is in a last
+	 * stage.  getNumVerticesNextStage() is the first of these
+	 */
+	public List<String> getOutputStages(){
+		return outputStages;
+	}
+	public void setOutputStages(List<String> outputStages){
+		this.outputStages = outputStages;
+	}
+	public List<Integer> getOutputStageVertices(){
+		return outputStageVertices;
+	}
+	public void setOutputStageVertices(List<Integer> outputStageVertices){
+		this.outputStageVertices = outputStageVertices;
+	}
+	
 	// Needs to be defined so that
 	// equality can be compared for objects 
 	// when a VertexServer sends a VertexDescriptor
@@ -173,8 +269,12 @@ public class VertexDescriptor {
 			return true;
 		}
 		
+		if(!(o instanceof VertexDescriptor)){
+			return false;
+		}
+		
 		VertexDescriptor other = (VertexDescriptor) o;
-		if(other.jobId != this.jobId){
+		if(other.jobId == null ? this.jobId != null : ! other.jobId.equals(this.jobId)){
 			return false;
 		}
 		if(other.stageNumber != this.stageNumber){
@@ -189,7 +289,7 @@ public class VertexDescriptor {
 	// hashcode must be compatible with equals
 	@Override
 	public int hashCode() {
-		return jobId.hashCode() + new Integer(stageNumber + vertexNumber).hashCode();
+		return ((jobId == null ? 0 : jobId.hashCode()) * 31 + stageNumber) * 31 + vertexNumber;
 	}
 
 	
@@ -11,6 +11,13 @@ public class VertexHeartbeat {
 	private String uid;
 	private int numThreads;
 	private List<VertexDescriptor> vertexDescriptor;
+	private List<VertexCompletion> completions;
+	private String hostname;
+	private int cores;
+	private int freeMemoryMb;
+	private double loadAverage = -1;
+	private int runningVertices;
+	private int workRequest;
 
 	/**
 	 * Set the VertexServer ID for this heartbeat message.
@@ -51,4 +58,119 @@ public class VertexHeartbeat {
 	public List<VertexDescriptor> getVertexDescriptor() {
 		return this.vertexDescriptor;
 	}
+
+	/**
+	 * Set the vertices that finished executing since the last heartbeat.
+	 * @param completions Completed vertices.
+	 */
+	public void setCompletions(List<VertexCompletion> completions) {
+		this.completions = completions;
+	}
+
+	/**
+	 * Get the vertices that finished executing since the last heartbeat.
+	 * @return Completed vertices (may be null).
+	 */
+	public List<VertexCompletion> getCompletions() {
+		return this.completions;
+	}
+
+	/**
+	 * Set the host name of the VertexServer - matched against the HDFS DataNodes 
+	 * holding a vertex's input to assign vertices close to their data.
+	 * @param hostname Host name of the VertexServer.
+	 */
+	public void setHostname(String hostname) {
+		this.hostname = hostname;
+	}
+
+	/**
+	 * Get the host name of the VertexServer.
+	 * @return Host name of the VertexServer (may be null).
+	 */
+	public String getHostname() {
+		return this.hostname;
+	}
+
+	/**
+	 * Set the number of processors of the VertexServer host.
+	 * @param cores Number of processors.
+	 */
+	public void setCores(int cores) {
+		this.cores = cores;
+	}
+
+	/**
+	 * Get the number of processors of the VertexServer host.
+	 * @return Number of processors (0 if not known).
+	 */
+	public int getCores() {
+		return this.cores;
+	}
+
+	/**
+	 * Set the heap (in MB) the VertexServer can still allocate.
+	 * @param freeMemoryMb Free heap in MB.
+	 */
+	public void setFreeMemoryMb(int freeMemoryMb) {
+		this.freeMemoryMb = freeMemoryMb;
+	}
+
+	/**
+	 * Get the heap (in MB) the VertexServer can still allocate.
+	 * @return Free heap in MB (0 if not known).
+	 */
+	public int getFreeMemoryMb() {
+		return this.freeMemoryMb;
+	}
+
+	/**
+	 * Set the system load average (last minute) of the VertexServer host.
+	 * @param loadAverage Load average.
+	 */
+	public void setLoadAverage(double loadAverage) {
+		this.loadAverage = loadAverage;
+	}
+
+	/**
+	 * Get the system load average (last minute) of the VertexServer host.
+	 * @return Load average (negative if not available).
+	 */
+	public double getLoadAverage() {
+		return this.loadAverage;
+	}
+
+	/**
+	 * Set the number of vertices executing on the VertexServer.
+	 * @param runningVertices Number of executing vertices.
+	 */
+	public void setRunningVertices(int runningVertices) {
+		this.runningVertices = runningVertices;
+	}
+
+	/**
+	 * Get the number of vertices executing on the VertexServer.
+	 * @return Number of executing vertices.
+	 */
+	public int getRunningVertices() {
+		return this.runningVertices;
+	}
+
+	/**
+	 * Set the work request the threads of this message are offered to - a work
+	 * request's own number, or in a heartbeat the number of the outstanding
+	 * work request the freed threads are added to.
+	 * @param workRequest Number of the VertexServer's work request.
+	 */
+	public void setWorkRequest(int workRequest) {
+		this.workRequest = workRequest;
+	}
+
+	/**
+	 * Get the work request the threads of this message are offered to.
+	 * @return Number of the VertexServer's work request.
+	 */
+	public int getWorkRequest() {
+		return this.workRequest;
+	}
 }
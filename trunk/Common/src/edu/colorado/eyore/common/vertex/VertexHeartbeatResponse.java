@@ -8,6 +8,7 @@ import java.util.List;
  */
 public class VertexHeartbeatResponse {
 	private List<VertexDescriptor> vertexDescriptor;
+	private List<VertexDescriptor> verticesToStop;
 
 	public void setVertexDescriptor(List<VertexDescriptor> vertexDescriptor) {
 		this.vertexDescriptor = vertexDescriptor;
@@ -16,4 +17,20 @@ public class VertexHeartbeatResponse {
 	public List<VertexDescriptor> getVertexDescriptor() {
 		return this.vertexDescriptor;
 	}
+
+	/**
+	 * Set the vertex attempts the VertexServer should stop (preempted by the JobServer).
+	 * @param verticesToStop Attempts to stop (job, stage, vertex and attempt identify each).
+	 */
+	public void setVerticesToStop(List<VertexDescriptor> verticesToStop) {
+		this.verticesToStop = verticesToStop;
+	}
+
+	/**
+	 * Get the vertex attempts the VertexServer should stop.
+	 * @return Attempts to stop (may be null).
+	 */
+	public List<VertexDescriptor> getVerticesToStop() {
+		return this.verticesToStop;
+	}
 }
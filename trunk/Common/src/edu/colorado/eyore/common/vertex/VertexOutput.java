@@ -13,6 +13,9 @@ import java.util.Map;
 public class VertexOutput {
 
 	private Map<Integer, List<String>> outputMap = new HashMap<Integer, List<String>>();
+	private Map<String, Map<Integer, List<String>>> stageOutputMaps;
+	private Map<String, Long> fileBytes;
+	private Map<String, Long> fileRecords;
 	
 	/**
 	 * Output map is a Map with entries of the form 
@@ -32,5 +35,88 @@ public class VertexOutput {
 		this.outputMap = outputMap;
 	}
 	
+	/**
+	 * Output for one of the stages reading this vertex's stage, when it has
+	 * more than one (VertexContext.getOutputStages()) - entries of the same
+	 * form as getOutputMap(), keyed by the index of the vertex in that stage.
+	 * A stage without its own map reads getOutputMap() if it is the only
+	 * stage reading this vertex's output.
+	 * 
+	 * @return null if there is no output for the stage
+	 */
+	public Map<Integer, List<String>> getOutputMap(String stageName){
+		return stageOutputMaps == null ? null : stageOutputMaps.get(stageName);
+	}
+	public void setOutputMap(String stageName, Map<Integer, List<String>> outputMap){
+		if(stageOutputMaps == null){
+			stageOutputMaps = new HashMap<String, Map<Integer, List<String>>>();
+		}
+		stageOutputMaps.put(stageName, outputMap);
+	}
+	
+	/**
+	 * Stage name -> output map for that stage (see getOutputMap(String)),
+	 * null if there are none
+	 */
+	public Map<String, Map<Integer, List<String>>> getStageOutputMaps(){
+		return stageOutputMaps;
+	}
+	public void setStageOutputMaps(Map<String, Map<Integer, List<String>>> stageOutputMaps){
+		this.stageOutputMaps = stageOutputMaps;
+	}
+	
+	/**
+	 * Size in bytes of an output file - the VertexServer fills this in for
+	 * the files the vertex wrote through VertexContext.getHdfs().  The 
+	 * JobServer sizes stages from it (VertexStage.getTargetBytesPerVertex())
+	 * 
+	 * @return null if not known
+	 */
+	public Long getBytes(String file){
+		return fileBytes == null ? null : fileBytes.get(file);
+	}
+	public void setBytes(String file, long bytes){
+		if(fileBytes == null){
+			fileBytes = new HashMap<String, Long>();
+		}
+		fileBytes.put(file, bytes);
+	}
+	
+	/**
+	 * Number of records (e.g. lines) in an output file, if the vertex
+	 * counted them
+	 * 
+	 * @return null if not known
+	 */
+	public Long getRecords(String file){
+		return fileRecords == null ? null : fileRecords.get(file);
+	}
+	public void setRecords(String file, long records){
+		if(fileRecords == null){
+			fileRecords = new HashMap<String, Long>();
+		}
+		fileRecords.put(file, records);
+	}
+	
+	/**
+	 * Output file -> size in bytes (see getBytes(String)), null if none are known
+	 */
+	public Map<String, Long> getFileBytes(){
+		return fileBytes;
+	}
+	public void setFileBytes(Map<String, Long> fileBytes){
+		this.fileBytes = fileBytes;
+	}
+	
+	/**
+	 * Output file -> number of records (see getRecords(String)), null if none are known
+	 */
+	public Map<String, Long> getFileRecords(){
+		return fileRecords;
+	}
+	public void setFileRecords(Map<String, Long> fileRecords){
+		this.fileRecords = fileRecords;
+	}
+	
 
 }
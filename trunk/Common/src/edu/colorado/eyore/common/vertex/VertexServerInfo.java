@@ -8,6 +8,11 @@ package edu.colorado.eyore.common.vertex;
 public class VertexServerInfo {
 	private String id;
 	private int availableThreads;
+	private String hostname;
+	private int cores;
+	private int freeMemoryMb;
+	private double loadAverage = -1;
+	private int runningVertices;
 	
 	public void setId(String id) {
 		this.id = id;
@@ -29,6 +34,60 @@ public class VertexServerInfo {
 		this.availableThreads = threads;
 	}
 	
+	/**
+	 * Host the VServer runs on - vertices whose input is stored
+	 * on this host are preferred when assigning to it
+	 * @return may be null if not known
+	 */
+	public String getHostname() {
+		return hostname;
+	}
+	public void setHostname(String hostname) {
+		this.hostname = hostname;
+	}
+	
+	/**
+	 * Processors of the VServer's host - 0 if not known
+	 */
+	public int getCores() {
+		return cores;
+	}
+	public void setCores(int cores) {
+		this.cores = cores;
+	}
+	
+	/**
+	 * Heap the VServer can still allocate (MB) - vertices are assigned 
+	 * to it as long as their memory hints fit.  0 if not known (not limited)
+	 */
+	public int getFreeMemoryMb() {
+		return freeMemoryMb;
+	}
+	public void setFreeMemoryMb(int freeMemoryMb) {
+		this.freeMemoryMb = freeMemoryMb;
+	}
+	
+	/**
+	 * Load average of the VServer's host - negative if not known
+	 */
+	public double getLoadAverage() {
+		return loadAverage;
+	}
+	public void setLoadAverage(double loadAverage) {
+		this.loadAverage = loadAverage;
+	}
+	
+	/**
+	 * Vertices executing on the VServer (their memory is already
+	 * taken out of the free heap)
+	 */
+	public int getRunningVertices() {
+		return runningVertices;
+	}
+	public void setRunningVertices(int runningVertices) {
+		this.runningVertices = runningVertices;
+	}
+
 	@Override
 	public String toString() {
 		return "VertexServerInfo ID=" + id;
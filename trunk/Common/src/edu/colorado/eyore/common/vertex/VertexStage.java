@@ -8,8 +8,26 @@ package edu.colorado.eyore.common.vertex;
 public class VertexStage {
 
 	
+	private String name;
 	private Class vertex;
 	private int numVertices;
+	private int memoryMbPerVertex;
+	private long targetBytesPerVertex;
+	private boolean pointwiseInput;
+	private boolean splittableInput;
+	
+	/**
+	 * Name the stage is known by in the job's stage edges
+	 * (JobSpecification.getStageEdges()) and to vertices reading its output
+	 * (VertexContext.getInputs(String)) - "stage" followed by the stage's
+	 * index if not set
+	 */
+	public String getName(){
+		return name;
+	}
+	public void setName(String name){
+		this.name = name;
+	}
 	
 	/**
 	 * The class of the vertex to run for each vertex in the stage -
@@ -32,4 +50,75 @@ public class VertexStage {
 	public void setNumVertices(int numVertices){
 		this.numVertices = numVertices;
 	}
+	
+	/**
+	 * Input each vertex of the stage should read, to size the stage from
+	 * the output of the stages it reads rather than fixing its size - 0 (the
+	 * default) for a stage of getNumVertices() vertices
+	 * 
+	 * Otherwise getNumVertices() is the most vertices the stage may have:
+	 * the stages writing its input partition their output that many ways,
+	 * and once they are finished the JobServer runs one vertex per
+	 * targetBytesPerVertex of input (at least one), each reading a run of
+	 * consecutive partitions.  Only stages reading their input all-to-all
+	 * (or broadcast) are sized - stages reading this one pointwise get the
+	 * same number of vertices
+	 */
+	public long getTargetBytesPerVertex(){
+		return targetBytesPerVertex;
+	}
+	public void setTargetBytesPerVertex(long targetBytesPerVertex){
+		this.targetBytesPerVertex = targetBytesPerVertex;
+	}
+	
+	/**
+	 * Optional hint of how much heap (in MB) each vertex of the stage
+	 * needs - the JobServer doesn't give a VertexServer more vertices
+	 * than fit in its free heap.  0 if not known
+	 */
+	public int getMemoryMbPerVertex(){
+		return memoryMbPerVertex;
+	}
+	public void setMemoryMbPerVertex(int memoryMbPerVertex){
+		this.memoryMbPerVertex = memoryMbPerVertex;
+	}
+	
+	/**
+	 * True if each vertex of this stage only reads the output of the 
+	 * vertex with the same index in the previous stage (e.g. the previous 
+	 * stage's vertices only write to their own index) - the vertex can
+	 * start as soon as that one vertex is finished rather than waiting
+	 * for the whole previous stage
+	 * 
+	 * False (the default) if any vertex of the previous stage may send
+	 * it output
+	 * 
+	 * Only used for jobs without stage edges - otherwise the type of
+	 * the edge says how the stage reads its input
+	 */
+	public boolean getPointwiseInput(){
+		return pointwiseInput;
+	}
+	public void setPointwiseInput(boolean pointwiseInput){
+		this.pointwiseInput = pointwiseInput;
+	}
+	
+	/**
+	 * True if a vertex of this stage may read part of a partition of its
+	 * input rather than all of it - e.g. it only partially aggregates what
+	 * it reads and the stages reading its output all-to-all finish the
+	 * aggregation, or it treats each record on its own
+	 * 
+	 * The JobServer may then split the input of a vertex given far more
+	 * than the stage's other vertices (skewed partitioning) between several
+	 * vertices, each reading the files written for it by some of the
+	 * vertices of the previous stage.  Only stages with a single input 
+	 * edge, read all-to-all, and no stage reading them pointwise are split
+	 */
+	public boolean getSplittableInput(){
+		return splittableInput;
+	}
+	public void setSplittableInput(boolean splittableInput){
+		this.splittableInput = splittableInput;
+	}
 }
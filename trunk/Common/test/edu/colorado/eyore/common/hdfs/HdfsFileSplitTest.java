@@ -0,0 +1,65 @@
+package edu.colorado.eyore.common.hdfs;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.apache.hadoop.fs.BlockLocation;
+import org.junit.Test;
+
+/**
+ * Unit testing for splitting files into chunks of HDFS blocks
+ */
+public class HdfsFileSplitTest {
+
+	@Test
+	public void testSplitFromListing(){
+		// 2 blocks of 64 bytes per split
+		List<HdfsFileSplit> splits = HdfsFileSplit.split("/input/file1", 300, 64, 2);
+
+		Assert.assertEquals(3, splits.size());
+		Assert.assertEquals(0, splits.get(0).getStartByte());
+		Assert.assertEquals(128, splits.get(0).getLenInBytes());
+		Assert.assertEquals(128, splits.get(1).getStartByte());
+		Assert.assertEquals(256, splits.get(2).getStartByte());
+		Assert.assertEquals(44, splits.get(2).getLenInBytes());
+		Assert.assertEquals("split:256-44///input/file1", splits.get(2).toString());
+
+		HdfsFileSplit parsed = HdfsFileSplit.getSplitFromString(splits.get(2).toString());
+		Assert.assertEquals("/input/file1", parsed.getFileName());
+		Assert.assertEquals(256, parsed.getStartByte());
+	}
+
+	@Test
+	public void testSmallAndEmptyFiles(){
+		List<HdfsFileSplit> splits = HdfsFileSplit.split("/input/file1", 10, 64, 2);
+		Assert.assertEquals(1, splits.size());
+		Assert.assertEquals(10, splits.get(0).getLenInBytes());
+
+		Assert.assertTrue(HdfsFileSplit.split("/input/empty", 0, 64, 2).isEmpty());
+	}
+
+	@Test
+	public void testLocationsFromBlocks() throws IOException{
+		// 1 block of 64 bytes per split, split 0 is 20 bytes of block 0 and 44 of block 1
+		List<HdfsFileSplit> splits = HdfsFileSplit.split("/input/file1", 100, 64, 1);
+		BlockLocation[] blocks = new BlockLocation[]{
+				new BlockLocation(new String[]{"n1:50010", "n2:50010"}, new String[]{"n1", "n2"},
+						new String[]{"/r1/n1:50010", "/r2/n2:50010"}, 0, 20),
+				new BlockLocation(new String[]{"n3:50010", "n2:50010"}, new String[]{"n3", "n2"},
+						new String[]{"/r1/n3:50010", "/r2/n2:50010"}, 20, 80)
+		};
+		HdfsFileSplit.setLocations(splits, blocks);
+
+		Assert.assertEquals(Arrays.asList("n2", "n3", "n1"), splits.get(0).getHosts());
+		Assert.assertEquals(Arrays.asList("/r2", "/r1", "/r1"), splits.get(0).getRacks());
+		Assert.assertEquals(Arrays.asList("n3", "n2"), splits.get(1).getHosts());
+
+		// unknown topology
+		HdfsFileSplit.setLocations(splits, new BlockLocation[]{
+				new BlockLocation(new String[]{"n1:50010"}, new String[]{"n1"}, 0, 100)});
+		Assert.assertEquals(Arrays.asList(HdfsFileSplit.DEFAULT_RACK), splits.get(1).getRacks());
+	}
+}
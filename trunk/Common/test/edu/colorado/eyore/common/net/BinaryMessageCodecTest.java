@@ -0,0 +1,356 @@
+package edu.colorado.eyore.common.net;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Test;
+
+import edu.colorado.eyore.common.job.JobDescriptor;
+import edu.colorado.eyore.common.job.JobStatus;
+import edu.colorado.eyore.common.vertex.VertexCompletion;
+import edu.colorado.eyore.common.vertex.VertexDescriptor;
+import edu.colorado.eyore.common.vertex.VertexHeartbeat;
+import edu.colorado.eyore.common.vertex.VertexHeartbeatResponse;
+import edu.colorado.eyore.common.vertex.VertexOutput;
+
+/**
+ * Unit testing for the BinaryMessageCodec and the codec selection
+ * in MessageObjectUtil
+ */
+public class BinaryMessageCodecTest {
+
+	private BinaryMessageCodec codec = new BinaryMessageCodec();
+
+	@After
+	public void resetCodec(){
+		MessageObjectUtil.setCodec(MessageObjectUtil.getCodec("xml"));
+	}
+
+	@Test
+	public void testJobDescriptorRoundTrip(){
+		JobDescriptor jDesc = new JobDescriptor();
+		jDesc.setJobId("12");
+		jDesc.setHdfsJarPath("/jobs/job.jar_ID12");
+		jDesc.setHdfsJobInputDir("/input");
+		jDesc.setHdfsJobOutputDir(null);
+		jDesc.setPriority(-3);
+		JobStatus status = new JobStatus();
+		status.setCurrentVertexStage(-1);
+		status.setTotalVertexStages(3);
+		status.setTotalVerticesCurrentStage(19);
+		status.setTotalVerticesInProgressCurrentStage(7);
+		status.setExecutionFinished(true);
+		status.setPlanning(true);
+		status.setStageVertices(Arrays.asList(40, 19, 19));
+		status.setStageVerticesFinished(Arrays.asList(40, 12, 3));
+		status.setPreemptedVertices(5);
+		status.setPreemptedWorkMs(123456789012L);
+		status.setMaxInputSkew(6.5);
+		status.setSkewedVertices(2);
+		status.setSplitVertices(3);
+		jDesc.setJobStatus(status);
+
+		JobDescriptor decoded = codec.decode(codec.encode(jDesc));
+
+		Assert.assertEquals("12", decoded.getJobId());
+		Assert.assertEquals("/jobs/job.jar_ID12", decoded.getHdfsJarPath());
+		Assert.assertEquals("/input", decoded.getHdfsJobInputDir());
+		Assert.assertNull(decoded.getHdfsJobOutputDir());
+		Assert.assertEquals(-3, decoded.getPriority());
+		Assert.assertEquals(-1, decoded.getJobStatus().getCurrentVertexStage());
+		Assert.assertEquals(3, decoded.getJobStatus().getTotalVertexStages());
+		Assert.assertEquals(19, decoded.getJobStatus().getTotalVerticesCurrentStage());
+		Assert.assertEquals(7, decoded.getJobStatus().getTotalVerticesInProgressCurrentStage());
+		Assert.assertTrue(decoded.getJobStatus().getExecutionFinished());
+		Assert.assertTrue(decoded.getJobStatus().getPlanning());
+		Assert.assertEquals(Arrays.asList(40, 19, 19), decoded.getJobStatus().getStageVertices());
+		Assert.assertEquals(Arrays.asList(40, 12, 3), decoded.getJobStatus().getStageVerticesFinished());
+		Assert.assertEquals(5, decoded.getJobStatus().getPreemptedVertices());
+		Assert.assertEquals(123456789012L, decoded.getJobStatus().getPreemptedWorkMs());
+		Assert.assertEquals(6.5, decoded.getJobStatus().getMaxInputSkew(), 0);
+		Assert.assertEquals(2, decoded.getJobStatus().getSkewedVertices());
+		Assert.assertEquals(3, decoded.getJobStatus().getSplitVertices());
+	}
+
+	@Test
+	public void testHeartbeatRoundTrip(){
+		VertexHeartbeat vhb = new VertexHeartbeat();
+		vhb.setUid("vserver-1");
+		vhb.setNumThreads(4);
+		vhb.setHostname("node1.rack1");
+		vhb.setCores(8);
+		vhb.setFreeMemoryMb(3000);
+		vhb.setLoadAverage(1.5);
+		vhb.setRunningVertices(2);
+		vhb.setWorkRequest(7);
+		vhb.setVertexDescriptor(new ArrayList<VertexDescriptor>());
+		vhb.getVertexDescriptor().add(getVertex(0, 5));
+		vhb.getVertexDescriptor().add(getVertex(1, null));
+		vhb.getVertexDescriptor().get(0).setPreferredHosts(Arrays.asList("node2", "node1"));
+		vhb.getVertexDescriptor().get(0).setMemoryMb(512);
+		vhb.getVertexDescriptor().get(0).setAttempt(1);
+		vhb.getVertexDescriptor().get(0).setAssignedAt(1300000000000L);
+
+		VertexHeartbeat decoded = codec.decode(codec.encode(vhb));
+
+		Assert.assertEquals("vserver-1", decoded.getUid());
+		Assert.assertEquals("node1.rack1", decoded.getHostname());
+		Assert.assertEquals(8, decoded.getCores());
+		Assert.assertEquals(3000, decoded.getFreeMemoryMb());
+		Assert.assertEquals(1.5, decoded.getLoadAverage(), 0);
+		Assert.assertEquals(2, decoded.getRunningVertices());
+		Assert.assertEquals(7, decoded.getWorkRequest());
+		Assert.assertEquals(4, decoded.getNumThreads());
+		Assert.assertEquals(2, decoded.getVertexDescriptor().size());
+
+		VertexDescriptor v0 = decoded.getVertexDescriptor().get(0);
+		Assert.assertEquals("7", v0.getJobId());
+		Assert.assertEquals(0, v0.getStageNumber());
+		Assert.assertEquals(0, v0.getVertexNumber());
+		Assert.assertEquals("edu.colorado.eyore.SomeVertex", v0.getVertexClassName());
+		Assert.assertEquals("/jobs/job.jar", v0.getVertexJarPath());
+		Assert.assertEquals("vserver-1", v0.getVertexServerAssignment());
+		Assert.assertEquals(new Integer(5), v0.getNumVerticesNextStage());
+		Assert.assertTrue(v0.getExecutionFinished());
+		Assert.assertTrue(v0.getExecutionSuccessful());
+		Assert.assertEquals(2, v0.getInputPaths().size());
+		Assert.assertEquals("split:0-100//input/file0", v0.getInputPaths().get(0));
+		Assert.assertEquals(2, v0.getOutput().getOutputMap().get(0).size());
+		Assert.assertEquals("out0_1", v0.getOutput().getOutputMap().get(1).get(0));
+		Assert.assertEquals(Arrays.asList("node2", "node1"), v0.getPreferredHosts());
+		Assert.assertEquals(512, v0.getMemoryMb());
+		Assert.assertEquals(1, v0.getAttempt());
+		Assert.assertEquals(1300000000000L, v0.getAssignedAt());
+
+		VertexDescriptor v1 = decoded.getVertexDescriptor().get(1);
+		Assert.assertEquals(1, v1.getVertexNumber());
+		Assert.assertNull(v1.getNumVerticesNextStage());
+		Assert.assertNull(v1.getPreferredHosts());
+		Assert.assertEquals("last stage output is keyed by NULL",
+				"out1_null", v1.getOutput().getOutputMap().get(null).get(0));
+	}
+
+	@Test
+	public void testCompletionReportRoundTrip(){
+		VertexHeartbeat vhb = new VertexHeartbeat();
+		vhb.setUid("vserver-1");
+		vhb.setCompletions(new ArrayList<VertexCompletion>());
+		vhb.getCompletions().add(new VertexCompletion(getVertex(0, 5)));
+		VertexCompletion failed = new VertexCompletion(getVertex(1, null));
+		failed.setExecutionSuccessful(false);
+		failed.setOutput(null);
+		failed.setAttempt(2);
+		vhb.getCompletions().add(failed);
+
+		byte[] compact = codec.encode(vhb);
+		VertexHeartbeat decoded = codec.decode(compact);
+		Assert.assertNull(decoded.getVertexDescriptor());
+		Assert.assertEquals(2, decoded.getCompletions().size());
+
+		VertexCompletion c0 = decoded.getCompletions().get(0);
+		Assert.assertEquals("7", c0.getJobId());
+		Assert.assertEquals(0, c0.getStageNumber());
+		Assert.assertEquals(0, c0.getVertexNumber());
+		Assert.assertTrue(c0.getExecutionSuccessful());
+		Assert.assertEquals("out0_1", c0.getOutput().getOutputMap().get(1).get(0));
+
+		VertexCompletion c1 = decoded.getCompletions().get(1);
+		Assert.assertEquals(1, c1.getVertexNumber());
+		Assert.assertFalse(c1.getExecutionSuccessful());
+		Assert.assertEquals(2, c1.getAttempt());
+		Assert.assertNull(c1.getOutput());
+
+		// same report with whole descriptors is larger
+		VertexHeartbeat full = new VertexHeartbeat();
+		full.setUid("vserver-1");
+		full.setVertexDescriptor(new ArrayList<VertexDescriptor>());
+		full.getVertexDescriptor().add(getVertex(0, 5));
+		full.getVertexDescriptor().add(getVertex(1, null));
+		Assert.assertTrue(compact.length < codec.encode(full).length);
+	}
+
+	@Test
+	public void testStageGraphFieldsRoundTrip(){
+		VertexDescriptor v = getVertex(0, 2);
+		v.setInputStages(Arrays.asList("left", "right"));
+		v.setInputStageSizes(Arrays.asList(1, 1));
+		v.setOutputStages(Arrays.asList("join", "table"));
+		v.setOutputStageVertices(Arrays.asList(2, 1));
+		HashMap<Integer, List<String>> tableOutput = new HashMap<Integer, List<String>>();
+		tableOutput.put(0, Arrays.asList("table0"));
+		v.getOutput().setOutputMap("table", tableOutput);
+		v.getOutput().setBytes("table0", 5000000000L);
+		v.getOutput().setRecords("table0", 12);
+
+		VertexDescriptor decoded = codec.decode(codec.encode(v));
+		Assert.assertEquals(Arrays.asList("left", "right"), decoded.getInputStages());
+		Assert.assertEquals(Arrays.asList(1, 1), decoded.getInputStageSizes());
+		Assert.assertEquals(Arrays.asList("join", "table"), decoded.getOutputStages());
+		Assert.assertEquals(Arrays.asList(2, 1), decoded.getOutputStageVertices());
+		Assert.assertEquals("out0_1", decoded.getOutput().getOutputMap().get(1).get(0));
+		Assert.assertEquals(Arrays.asList("table0"), decoded.getOutput().getOutputMap("table").get(0));
+		Assert.assertNull(decoded.getOutput().getOutputMap("join"));
+		Assert.assertEquals(Long.valueOf(5000000000L), decoded.getOutput().getBytes("table0"));
+		Assert.assertEquals(Long.valueOf(12), decoded.getOutput().getRecords("table0"));
+		Assert.assertNull(decoded.getOutput().getBytes("out0_1"));
+
+		// fields not set stay null
+		decoded = codec.decode(codec.encode(getVertex(1, null)));
+		Assert.assertNull(decoded.getInputStages());
+		Assert.assertNull(decoded.getOutput().getStageOutputMaps());
+		Assert.assertNull(decoded.getOutput().getFileBytes());
+	}
+
+	@Test
+	public void testHeartbeatResponseWithNoVertices(){
+		VertexHeartbeatResponse vhbr = new VertexHeartbeatResponse();
+		vhbr.setVertexDescriptor(new ArrayList<VertexDescriptor>());
+
+		VertexHeartbeatResponse decoded = codec.decode(codec.encode(vhbr));
+		Assert.assertNotNull(decoded.getVertexDescriptor());
+		Assert.assertEquals(0, decoded.getVertexDescriptor().size());
+		Assert.assertNull(decoded.getVerticesToStop());
+
+		vhbr.setVertexDescriptor(null);
+		decoded = codec.decode(codec.encode(vhbr));
+		Assert.assertNull(decoded.getVertexDescriptor());
+	}
+
+	@Test
+	public void testHeartbeatResponseWithVerticesToStop(){
+		VertexHeartbeatResponse vhbr = new VertexHeartbeatResponse();
+		vhbr.setVertexDescriptor(new ArrayList<VertexDescriptor>());
+		VertexDescriptor preempted = getVertex(3, null);
+		preempted.setAttempt(2);
+		vhbr.setVerticesToStop(Arrays.asList(preempted));
+
+		VertexHeartbeatResponse decoded = codec.decode(codec.encode(vhbr));
+		Assert.assertEquals(0, decoded.getVertexDescriptor().size());
+		Assert.assertEquals(1, decoded.getVerticesToStop().size());
+		Assert.assertEquals("7", decoded.getVerticesToStop().get(0).getJobId());
+		Assert.assertEquals(3, decoded.getVerticesToStop().get(0).getVertexNumber());
+		Assert.assertEquals(2, decoded.getVerticesToStop().get(0).getAttempt());
+	}
+
+	/**
+	 * Types the codec doesn't know about go through XML
+	 */
+	@Test
+	public void testUnknownTypeFallsBackToXml(){
+		ArrayList<String> list = new ArrayList<String>();
+		list.add("a");
+		list.add("b");
+
+		List<String> decoded = codec.decode(codec.encode(list));
+		Assert.assertEquals(list, decoded);
+
+		Assert.assertNull(codec.decode(codec.encode(null)));
+	}
+
+	/**
+	 * Messages of a format version the codec doesn't know aren't decoded
+	 */
+	@Test
+	public void testUnknownVersionRejected(){
+		byte[] bytes = codec.encode(getVertex(1, 2));
+		Assert.assertEquals(BinaryMessageCodec.FORMAT_VERSION, bytes[0]);
+		bytes[0] = BinaryMessageCodec.FORMAT_VERSION + 1;
+		try{
+			codec.decode(bytes);
+			Assert.fail("decoded a message of another version");
+		}catch(IllegalArgumentException e){
+			// expected
+		}
+	}
+
+	/**
+	 * A length or count larger than the message fails the decoding instead of
+	 * making an array that large
+	 */
+	@Test
+	public void testBadLengthRejected(){
+		// version, XML tag and a length of Integer.MAX_VALUE
+		byte[] xml = new byte[]{BinaryMessageCodec.FORMAT_VERSION, 1, (byte)0xff, (byte)0xff, (byte)0xff, (byte)0xff, 0x07};
+		// version, heartbeat response tag and a count of 2^28 - 2 vertices
+		byte[] list = new byte[]{BinaryMessageCodec.FORMAT_VERSION, 5, (byte)0xff, (byte)0xff, (byte)0xff, 0x7f};
+		// version, job descriptor tag and a string of a negative length
+		byte[] string = new byte[]{BinaryMessageCodec.FORMAT_VERSION, 2, 1, (byte)0xff, (byte)0xff, (byte)0xff, (byte)0xff, 0x0f};
+		// version, job descriptor tag and a string reference before any string
+		byte[] reference = new byte[]{BinaryMessageCodec.FORMAT_VERSION, 2, 5};
+		for(byte[] bytes : Arrays.asList(xml, list, string, reference)){
+			try{
+				codec.decode(bytes);
+				Assert.fail("decoded a bad message");
+			}catch(IllegalArgumentException e){
+				// expected
+			}
+		}
+	}
+
+	/**
+	 * A binary configured end must still accept XML messages and vice versa
+	 */
+	@Test
+	public void testMessageObjectUtilMixedCodecs(){
+		VertexDescriptor v = getVertex(3, 2);
+
+		MessageObjectUtil.setCodec(MessageObjectUtil.getCodec("xml"));
+		String asXml = MessageObjectUtil.objectToString(v);
+		Assert.assertTrue(asXml.startsWith("<"));
+
+		MessageObjectUtil.setCodec(MessageObjectUtil.getCodec("binary"));
+		String asBinary = MessageObjectUtil.objectToString(v);
+		Assert.assertTrue("binary message should be smaller", asBinary.length() < asXml.length());
+
+		VertexDescriptor fromXml = MessageObjectUtil.stringToObject(asXml);
+		Assert.assertEquals(v.toString(), fromXml.toString());
+
+		MessageObjectUtil.setCodec(MessageObjectUtil.getCodec("xml"));
+		VertexDescriptor fromBinary = MessageObjectUtil.stringToObject(asBinary);
+		Assert.assertEquals(v.toString(), fromBinary.toString());
+		Assert.assertEquals(v.getInputPaths(), fromBinary.getInputPaths());
+	}
+
+	private static VertexDescriptor getVertex(int vertexNumber, Integer numVerticesNextStage){
+		VertexDescriptor v = new VertexDescriptor();
+		v.setJobId("7");
+		v.setStageNumber(0);
+		v.setVertexNumber(vertexNumber);
+		v.setVertexClassName("edu.colorado.eyore.SomeVertex");
+		v.setVertexJarPath("/jobs/job.jar");
+		v.setVertexServerAssignment("vserver-1");
+		v.setNumVerticesNextStage(numVerticesNextStage);
+		v.setExecutionFinished(true);
+		v.setExecutionSuccessful(true);
+
+		ArrayList<String> inputs = new ArrayList<String>();
+		inputs.add("split:0-100//input/file" + vertexNumber);
+		inputs.add("split:100-100//input/file" + vertexNumber);
+		v.setInputPaths(inputs);
+
+		VertexOutput vOut = new VertexOutput();
+		HashMap<Integer, List<String>> outputMap = new HashMap<Integer, List<String>>();
+		if(numVerticesNextStage == null){
+			ArrayList<String> files = new ArrayList<String>();
+			files.add("out" + vertexNumber + "_null");
+			outputMap.put(null, files);
+		}else{
+			for(int i = 0; i < numVerticesNextStage; i++){
+				ArrayList<String> files = new ArrayList<String>();
+				files.add("out" + vertexNumber + "_" + i);
+				if(i == 0){
+					files.add("out" + vertexNumber + "_" + i + "_2");
+				}
+				outputMap.put(i, files);
+			}
+		}
+		vOut.setOutputMap(outputMap);
+		v.setOutput(vOut);
+		return v;
+	}
+}
@@ -0,0 +1,222 @@
+package edu.colorado.eyore.common.net;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit testing for pooled client connections against a small server that
+ * answers every STATUS frame on a connection with an OK VERTEX frame
+ */
+public class ConnectionPoolTest {
+
+	private ServerSocket serverSocket;
+	private AtomicInteger connectionsAccepted = new AtomicInteger();
+	// server closes a connection after this many requests (0 = never)
+	private volatile int requestsPerConnection = 0;
+	private AtomicInteger requestsReceived = new AtomicInteger();
+	// server closes the connection on getting this request without answering
+	// it (0 = none)
+	private volatile int unansweredRequest = 0;
+	// server answers no requests
+	private volatile boolean silent = false;
+
+	@Before
+	public void startServer() throws IOException{
+		serverSocket = new ServerSocket(0);
+		Thread acceptThread = new Thread(new Runnable(){
+			@Override
+			public void run() {
+				try{
+					while(true){
+						final Socket s = serverSocket.accept();
+						connectionsAccepted.incrementAndGet();
+						new Thread(new Runnable(){
+							@Override
+							public void run() {
+								serve(s);
+							}
+						}).start();
+					}
+				}catch(IOException e){
+					// server socket closed
+				}
+			}
+		});
+		acceptThread.setDaemon(true);
+		acceptThread.start();
+	}
+
+	private void serve(Socket s){
+		try{
+			InputStream in = new BufferedInputStream(s.getInputStream());
+			OutputStream out = new BufferedOutputStream(s.getOutputStream());
+			int served = 0;
+			MessageFrame request;
+			while((request = MessageFrame.read(in)) != null){
+				int received = requestsReceived.incrementAndGet();
+				if(received == unansweredRequest){
+					break;
+				}
+				if(silent){
+					continue;
+				}
+				MessageFrame.fromMessage("OK VERTEX:" +
+						request.toMessage().substring("STATUS:".length())).write(out);
+				served++;
+				if(served == requestsPerConnection){
+					break;
+				}
+			}
+		}catch(IOException e){
+			// client went away
+		}finally{
+			try{
+				s.close();
+			}catch(IOException e){
+			}
+		}
+	}
+
+	@After
+	public void stopServer() throws IOException{
+		serverSocket.close();
+	}
+
+	@Test
+	public void testConnectionReused() throws IOException{
+		ConnectionPool pool = new ConnectionPool("localhost", serverSocket.getLocalPort(), 1, 60000);
+		for(int i = 0; i < 5; i++){
+			String reply = pool.request(new EchoProtocol("msg" + i));
+			Assert.assertEquals("OK VERTEX:msg" + i, reply);
+		}
+		Assert.assertEquals(1, connectionsAccepted.get());
+		pool.close();
+	}
+
+	/**
+	 * A request that can safely be sent again goes on a new connection if the
+	 * server closed the pooled one
+	 */
+	@Test
+	public void testReconnectAfterServerClose() throws Exception{
+		requestsPerConnection = 1;
+		ConnectionPool pool = new ConnectionPool("localhost", serverSocket.getLocalPort(), 1, 60000);
+		Assert.assertEquals("OK VERTEX:a", pool.request(new EchoProtocol("a")));
+		// let the server close its end
+		Thread.sleep(100);
+		Assert.assertEquals("OK VERTEX:b", pool.request(new IdempotentEchoProtocol("b")));
+		Assert.assertEquals(2, connectionsAccepted.get());
+		pool.close();
+	}
+
+	/**
+	 * A request the server may have got on a reused connection isn't sent
+	 * again - unless the protocol says that does no harm
+	 */
+	@Test
+	public void testRequestResentOnlyIfIdempotent() throws Exception{
+		unansweredRequest = 2;
+		ConnectionPool pool = new ConnectionPool("localhost", serverSocket.getLocalPort(), 1, 60000);
+		Assert.assertEquals("OK VERTEX:a", pool.request(new EchoProtocol("a")));
+		try{
+			pool.request(new EchoProtocol("b"));
+			Assert.fail("request sent again");
+		}catch(IOException e){
+			// the server got it once
+		}
+		Assert.assertEquals(2, requestsReceived.get());
+		
+		unansweredRequest = 4;
+		Assert.assertEquals("OK VERTEX:c", pool.request(new EchoProtocol("c")));
+		Assert.assertEquals("OK VERTEX:d", pool.request(new IdempotentEchoProtocol("d")));
+		Assert.assertEquals(5, requestsReceived.get());
+		Assert.assertEquals(3, connectionsAccepted.get());
+		pool.close();
+	}
+
+	/**
+	 * A server that never answers fails the request after the read timeout
+	 */
+	@Test(timeout = 10000)
+	public void testResponseTimesOut() throws IOException{
+		silent = true;
+		ConnectionPool pool = new ConnectionPool("localhost", serverSocket.getLocalPort(), 1, 60000, 100);
+		try{
+			pool.request(new EchoProtocol("a"));
+			Assert.fail("no response");
+		}catch(IOException e){
+			// timed out
+		}
+		pool.close();
+	}
+
+	@Test
+	public void testIdleConnectionNotReused() throws Exception{
+		ConnectionPool pool = new ConnectionPool("localhost", serverSocket.getLocalPort(), 1, 50);
+		pool.request(new EchoProtocol("a"));
+		Thread.sleep(100);
+		pool.request(new EchoProtocol("b"));
+		Assert.assertEquals(2, connectionsAccepted.get());
+		pool.close();
+	}
+
+	@Test(expected = IOException.class)
+	public void testConnectFailure() throws IOException{
+		// a bound port nobody listens on (a closed port could be reused by the
+		// connecting socket itself)
+		Socket notListening = new Socket();
+		notListening.bind(null);
+		try{
+			new ConnectionPool("localhost", notListening.getLocalPort(), 1, 60000)
+				.request(new EchoProtocol("a"));
+		}finally{
+			notListening.close();
+		}
+	}
+
+	private static class IdempotentEchoProtocol extends EchoProtocol implements IdempotentProtocol{
+		IdempotentEchoProtocol(String body){
+			super(body);
+		}
+	}
+
+	private static class EchoProtocol implements Protocol{
+		private String body;
+		private String reply;
+
+		EchoProtocol(String body){
+			this.body = body;
+		}
+
+		@Override
+		public String respondTo(String rcvFromFarEnd) {
+			if(rcvFromFarEnd == null){
+				return "STATUS:" + body;
+			}
+			reply = rcvFromFarEnd;
+			return null;
+		}
+
+		@Override
+		public Boolean isFinished() {
+			return reply != null;
+		}
+
+		@Override
+		public Object getData() {
+			return reply;
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package edu.colorado.eyore.common.net;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import edu.colorado.eyore.common.vertex.VertexDescriptor;
+import edu.colorado.eyore.common.vertex.VertexHeartbeat;
+import edu.colorado.eyore.common.vertex.VertexOutput;
+
+/**
+ * Compares the XML and binary message codecs on a heartbeat carrying
+ * many completed VertexDescriptors (the JobServer's hottest message)
+ *
+ * Usage: MessageCodecBenchmark [vertices per heartbeat] [iterations]
+ */
+public class MessageCodecBenchmark {
+
+	public static void main(String[] args) {
+		int numVertices = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+		VertexHeartbeat vhb = getHeartbeat(numVertices);
+
+		System.out.println("Heartbeat with " + numVertices + " vertices, " + iterations + " iterations");
+		run("xml", vhb, iterations);
+		run("binary", vhb, iterations);
+	}
+
+	private static void run(String codecName, VertexHeartbeat vhb, int iterations){
+		MessageObjectUtil.setCodec(MessageObjectUtil.getCodec(codecName));
+
+		// warm up
+		for(int i = 0; i < Math.max(5, iterations/5); i++){
+			MessageObjectUtil.stringToObject(MessageObjectUtil.objectToString(vhb));
+		}
+
+		String message = null;
+		long start = System.nanoTime();
+		for(int i = 0; i < iterations; i++){
+			message = MessageObjectUtil.objectToString(vhb);
+		}
+		long encodeNanos = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for(int i = 0; i < iterations; i++){
+			MessageObjectUtil.stringToObject(message);
+		}
+		long decodeNanos = System.nanoTime() - start;
+
+		System.out.println(String.format("%-7s size=%9d chars  encode=%9.3f ms/msg  decode=%9.3f ms/msg",
+				codecName, message.length(),
+				encodeNanos / 1e6 / iterations, decodeNanos / 1e6 / iterations));
+	}
+
+	private static VertexHeartbeat getHeartbeat(int numVertices){
+		VertexHeartbeat vhb = new VertexHeartbeat();
+		vhb.setUid("0f1e2d3c-4b5a-6978-8796-a5b4c3d2e1f0");
+		vhb.setNumThreads(8);
+		ArrayList<VertexDescriptor> vertices = new ArrayList<VertexDescriptor>();
+		for(int i = 0; i < numVertices; i++){
+			VertexDescriptor v = new VertexDescriptor();
+			v.setJobId("42");
+			v.setStageNumber(0);
+			v.setVertexNumber(i);
+			v.setVertexClassName("edu.colorado.eyore.common.example.vertex.MapWordFreq");
+			v.setVertexJarPath("/jobs/examplejob-optwordcount.jar_ID42");
+			v.setVertexServerAssignment(vhb.getUid());
+			v.setNumVerticesNextStage(19);
+			v.setExecutionFinished(true);
+			v.setExecutionSuccessful(true);
+
+			ArrayList<String> inputs = new ArrayList<String>();
+			inputs.add("split:" + (i * 134217728L) + "-134217728//input/pagecounts-20110301");
+			v.setInputPaths(inputs);
+
+			HashMap<Integer, List<String>> outputMap = new HashMap<Integer, List<String>>();
+			for(int next = 0; next < 19; next++){
+				ArrayList<String> files = new ArrayList<String>(1);
+				files.add("eyore/tmp/job42_vIndex" + i + "_vStage0_classedu.colorado.eyore.common.example.vertex.MapWordFreq__"
+						+ "8d6f1c2e-7a41-4a3b-9e0f-" + (100000000000L + i * 19 + next) + ".txt");
+				outputMap.put(next, files);
+			}
+			VertexOutput vOut = new VertexOutput();
+			vOut.setOutputMap(outputMap);
+			v.setOutput(vOut);
+			vertices.add(v);
+		}
+		vhb.setVertexDescriptor(vertices);
+		return vhb;
+	}
+}
@@ -0,0 +1,145 @@
+package edu.colorado.eyore.common.net;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Unit testing for the framed wire format
+ */
+public class MessageFrameTest {
+
+	@Test
+	public void testPrefixBecomesTypeByte(){
+		Assert.assertEquals(MessageType.CLIENT_REQUEST_JOB,
+				MessageFrame.fromMessage("CLIENT REQUEST JOB:").getType());
+		Assert.assertEquals(MessageType.CLIENT_REQUEST_JOB_START,
+				MessageFrame.fromMessage("CLIENT REQUEST JOB START:abc").getType());
+		Assert.assertEquals(MessageType.NOT_FOUND,
+				MessageFrame.fromMessage("NOT FOUND").getType());
+		Assert.assertEquals(MessageType.UNKNOWN,
+				MessageFrame.fromMessage("SOMETHING ELSE").getType());
+
+		MessageFrame frame = MessageFrame.fromMessage("JSERVER HEARTBEAT:payload");
+		Assert.assertEquals(MessageType.JSERVER_HEARTBEAT, frame.getType());
+		Assert.assertEquals("payload".length(), frame.getPayload().remaining());
+		Assert.assertEquals("JSERVER HEARTBEAT:payload", frame.toMessage());
+	}
+
+	@Test
+	public void testWriteAndReadFrames() throws IOException{
+		// every byte value must survive the String <-> bytes conversions
+		byte[] binary = new byte[256];
+		for(int i = 0; i < binary.length; i++){
+			binary[i] = (byte) i;
+		}
+		String binaryMessage = "OK VERTEX:" + new String(binary, MessageFrame.CHARSET);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		MessageFrame.fromMessage(binaryMessage).write(out);
+		MessageFrame.fromMessage("STATUS:\nline2\n").write(out);
+		Assert.assertEquals(MessageFrame.HEADER_BYTES * 2 + 256 + "\nline2\n".length(), out.size());
+
+		ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+		MessageFrame first = MessageFrame.read(in);
+		Assert.assertEquals(MessageType.OK_VERTEX, first.getType());
+		Assert.assertEquals(binaryMessage, first.toMessage());
+		byte[] payload = new byte[first.getPayload().remaining()];
+		first.getPayload().get(payload);
+		Assert.assertTrue(Arrays.equals(binary, payload));
+
+		MessageFrame second = MessageFrame.read(in);
+		Assert.assertEquals("STATUS:\nline2\n", second.toMessage());
+
+		Assert.assertNull("end of stream between frames", MessageFrame.read(in));
+	}
+
+	@Test(expected = EOFException.class)
+	public void testTruncatedFrame() throws IOException{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		MessageFrame.fromMessage("STATUS:0123456789").write(out);
+		byte[] truncated = Arrays.copyOf(out.toByteArray(), out.size() - 3);
+
+		MessageFrame.read(new ByteArrayInputStream(truncated));
+	}
+
+	@Test(expected = IOException.class)
+	public void testInvalidLength() throws IOException{
+		byte[] header = new byte[]{MessageType.STATUS.getCode(), (byte) 0xFF, 0, 0, 0};
+		MessageFrame.read(new ByteArrayInputStream(header));
+	}
+
+	@Test
+	public void testReaderCollectsPartialFrames() throws IOException{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		MessageFrame.fromMessage("STATUS:0123456789").write(out);
+		MessageFrame.fromMessage("NOT FOUND").write(out);
+		OneByteChannel channel = new OneByteChannel(out.toByteArray());
+
+		MessageFrameReader reader = new MessageFrameReader();
+		MessageFrame frame = null;
+		int reads = 0;
+		while(frame == null){
+			frame = reader.read(channel);
+			reads++;
+		}
+		Assert.assertEquals("STATUS:0123456789", frame.toMessage());
+		// the read that completes the header carries on into the payload
+		Assert.assertEquals(MessageFrame.HEADER_BYTES + 10 - 1, reads);
+		Assert.assertFalse(reader.hasPartialFrame());
+
+		// empty payload completes as soon as the header is read
+		frame = null;
+		while(frame == null){
+			frame = reader.read(channel);
+		}
+		Assert.assertEquals(MessageType.NOT_FOUND, frame.getType());
+
+		try{
+			reader.read(channel);
+			Assert.fail("expected end of stream");
+		}catch(EOFException e){
+			Assert.assertFalse(reader.hasPartialFrame());
+		}
+	}
+
+	/**
+	 * Non-blocking channel that has one byte available per read
+	 */
+	private static class OneByteChannel implements ReadableByteChannel{
+		private ByteBuffer data;
+
+		OneByteChannel(byte[] bytes){
+			data = ByteBuffer.wrap(bytes);
+		}
+
+		@Override
+		public int read(ByteBuffer dst) {
+			if(! data.hasRemaining()){
+				return -1;
+			}
+			if(! dst.hasRemaining()){
+				return 0;
+			}
+			dst.put(data.get());
+			return 1;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
@@ -19,15 +19,19 @@ public class MRWordCountJobSpec extends JobSpecification {
 		vertexStages.add(countPerChunk);
 		
 		// **** STAGE 2 - Reduce - frequency per word
+		// (the mappers partition for 64 vertices, one is run per ~32 MB of their output)
 		VertexStage totalCount = new VertexStage();
-		totalCount.setNumVertices(19);
+		totalCount.setNumVertices(64);
+		totalCount.setTargetBytesPerVertex(32L * 1024 * 1024);
 		totalCount.setVertex(MRCountFreqVertex.class);
 		vertexStages.add(totalCount);
 		
 		// **** STAGE 3 - Map: Invert from (word, freq) to (freq, word).
 		VertexStage invert = new VertexStage();
-		invert.setNumVertices(19);
+		invert.setNumVertices(64);
 		invert.setVertex(SumAndSortByFreq.class);
+		// each MRCountFreqVertex only writes to the same vertex index
+		invert.setPointwiseInput(true);
 		vertexStages.add(invert);
 		
 		// **** STAGE 4 - Reduce: (word, freq) sorted (desc.) by frequency
@@ -19,8 +19,10 @@ public class OptWordCountJobSpec extends JobSpecification {
 		vertexStages.add(countPerChunk);
 		
 		// **** STAGE 2 - Find word freq's and sort
+		// (the mappers partition for 64 vertices, one is run per ~32 MB of their output)
 		VertexStage totalCountAndSort = new VertexStage();
-		totalCountAndSort.setNumVertices(19);
+		totalCountAndSort.setNumVertices(64);
+		totalCountAndSort.setTargetBytesPerVertex(32L * 1024 * 1024);
 		totalCountAndSort.setVertex(SumAndSortByFreq.class);
 		vertexStages.add(totalCountAndSort);
 		
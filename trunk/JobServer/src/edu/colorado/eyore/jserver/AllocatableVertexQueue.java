@@ -0,0 +1,333 @@
+package edu.colorado.eyore.jserver;
+
+import java.util.AbstractQueue;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import edu.colorado.eyore.common.vertex.VertexDescriptor;
+
+/**
+ * Vertices waiting to be assigned to a VertexServer, oldest first, also indexed
+ * by the hosts (and racks) storing their input so pollFor can give a
+ * VertexServer the vertices whose input is on its own host.
+ *
+ * Delay scheduling: a vertex waits up to localityWaitMs for a VertexServer on
+ * one of its preferred hosts, then up to another localityWaitMs for one on the
+ * same rack, and after that it goes to any VertexServer.  Vertices needing
+ * more memory than a VertexServer has left are passed over for it.
+ *
+ * Thread safe.  A vertex is in the queue at most once (VertexDescriptor
+ * equality) - claiming it removes its entry from "entries", so entries left in
+ * the fifo and in the host/rack queues of a claimed vertex are stale and are
+ * skipped (and dropped) when reached.
+ */
+class AllocatableVertexQueue extends AbstractQueue<VertexDescriptor> {
+
+	/**
+	 * An allocatable vertex and when it became allocatable
+	 */
+	private static class Entry {
+		final VertexDescriptor vertex;
+		final long allocatableSince;
+
+		Entry(VertexDescriptor vertex, long allocatableSince){
+			this.vertex = vertex;
+			this.allocatableSince = allocatableSince;
+		}
+	}
+
+	// vertex -> its live entry
+	private ConcurrentHashMap<VertexDescriptor, Entry> entries = new ConcurrentHashMap<VertexDescriptor, Entry>();
+
+	private ConcurrentLinkedQueue<Entry> fifo = new ConcurrentLinkedQueue<Entry>();
+
+	// host/rack -> vertices with input on it
+	private ConcurrentHashMap<String, ConcurrentLinkedQueue<Entry>> byHost =
+		new ConcurrentHashMap<String, ConcurrentLinkedQueue<Entry>>();
+	private ConcurrentHashMap<String, ConcurrentLinkedQueue<Entry>> byRack =
+		new ConcurrentHashMap<String, ConcurrentLinkedQueue<Entry>>();
+
+	// vertices without a preferred host
+	private ConcurrentLinkedQueue<Entry> noPreference = new ConcurrentLinkedQueue<Entry>();
+
+	// racks of hosts and placement counts - may be shared with other queues
+	private Locality locality;
+
+	public AllocatableVertexQueue(){
+		this(new Locality());
+	}
+
+	public AllocatableVertexQueue(Locality locality){
+		this.locality = locality;
+	}
+
+	/**
+	 * Records the racks of hosts (e.g. the DataNodes storing a split) - racks
+	 * are matched up with hosts by index
+	 */
+	public void addRacks(List<String> hosts, List<String> racks){
+		locality.addRacks(hosts, racks);
+	}
+
+	/**
+	 * Adds a vertex - does nothing if it is already allocatable
+	 */
+	@Override
+	public boolean offer(VertexDescriptor vertex){
+		Entry entry = new Entry(vertex, System.currentTimeMillis());
+		if(entries.putIfAbsent(vertex, entry) != null){
+			return false;
+		}
+		fifo.add(entry);
+
+		List<String> hosts = vertex.getPreferredHosts();
+		if(hosts == null || hosts.isEmpty()){
+			noPreference.add(entry);
+			return true;
+		}
+		String lastRack = null;
+		for(String host : hosts){
+			queueFor(byHost, host).add(entry);
+			String rack = locality.rackOf(host);
+			if(rack != null && ! rack.equals(lastRack)){
+				queueFor(byRack, rack).add(entry);
+				lastRack = rack;
+			}
+		}
+		return true;
+	}
+
+	private static ConcurrentLinkedQueue<Entry> queueFor(ConcurrentHashMap<String, ConcurrentLinkedQueue<Entry>> map, String key){
+		ConcurrentLinkedQueue<Entry> queue = map.get(key);
+		if(queue == null){
+			map.putIfAbsent(key, new ConcurrentLinkedQueue<Entry>());
+			queue = map.get(key);
+		}
+		return queue;
+	}
+
+	/**
+	 * Takes the oldest vertex, ignoring where its input is
+	 */
+	@Override
+	public VertexDescriptor poll(){
+		Entry entry;
+		while((entry = fifo.poll()) != null){
+			if(claim(entry)){
+				return entry.vertex;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Takes the vertex to run next on a VertexServer on the host - a vertex with
+	 * input on the host, else (once it has waited localityWaitMs) one with input
+	 * on the host's rack, else one without a preferred host, else (once it has
+	 * waited 2 * localityWaitMs) the oldest vertex.
+	 *
+	 * @param host - host of the VertexServer, null if not known
+	 * @param maxMemoryMb - only vertices needing at most this much heap are taken
+	 * @return null if all allocatable vertices are waiting for other hosts or
+	 * need more memory
+	 */
+	public VertexDescriptor pollFor(String host, long localityWaitMs, long maxMemoryMb){
+		if(host == null){
+			return locality.count(claimFirst(fifo, Long.MAX_VALUE, maxMemoryMb), null);
+		}
+		long now = System.currentTimeMillis();
+
+		VertexDescriptor vertex = claimFirst(byHost.get(host), Long.MAX_VALUE, maxMemoryMb);
+		if(vertex != null){
+			locality.nodeLocalAssigned();
+			return vertex;
+		}
+
+		String rack = locality.rackOf(host);
+		if(rack != null){
+			vertex = claimFirst(byRack.get(rack), now - localityWaitMs, maxMemoryMb);
+			if(vertex != null){
+				locality.rackLocalAssigned();
+				return vertex;
+			}
+		}
+
+		vertex = claimFirst(noPreference, Long.MAX_VALUE, maxMemoryMb);
+		if(vertex != null){
+			locality.noPreferenceAssigned();
+			return vertex;
+		}
+
+		return locality.count(claimFirst(fifo, now - 2 * localityWaitMs, maxMemoryMb), host);
+	}
+
+	/**
+	 * Takes the first vertex in the queue that was allocatable before waitedSince
+	 * and needs at most maxMemoryMb - dropping stale entries on the way
+	 */
+	private VertexDescriptor claimFirst(ConcurrentLinkedQueue<Entry> queue, long waitedSince, long maxMemoryMb){
+		if(queue == null){
+			return null;
+		}
+		Iterator<Entry> itr = queue.iterator();
+		while(itr.hasNext()){
+			Entry entry = itr.next();
+			if(entries.get(entry.vertex) != entry){
+				// claimed through another queue
+				itr.remove();
+			}else if(entry.allocatableSince > waitedSince){
+				// the rest have waited less
+				return null;
+			}else if(entry.vertex.getMemoryMb() <= maxMemoryMb && claim(entry)){
+				itr.remove();
+				return entry.vertex;
+			}
+		}
+		return null;
+	}
+
+	private boolean claim(Entry entry){
+		return entries.remove(entry.vertex, entry);
+	}
+
+	@Override
+	public VertexDescriptor peek(){
+		for(Entry entry : fifo){
+			if(entries.get(entry.vertex) == entry){
+				return entry.vertex;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * When the vertex that has waited longest became allocatable -
+	 * Long.MAX_VALUE if there are no allocatable vertices
+	 */
+	public long getOldestAllocatableSince(){
+		for(Entry entry : fifo){
+			if(entries.get(entry.vertex) == entry){
+				return entry.allocatableSince;
+			}
+		}
+		return Long.MAX_VALUE;
+	}
+
+	@Override
+	public boolean contains(Object o){
+		return entries.containsKey(o);
+	}
+
+	@Override
+	public boolean remove(Object o){
+		return entries.remove(o) != null;
+	}
+
+	@Override
+	public int size(){
+		return entries.size();
+	}
+
+	@Override
+	public boolean isEmpty(){
+		return entries.isEmpty();
+	}
+
+	/**
+	 * Iterates over the vertices oldest first - remove() takes the vertex out of
+	 * the queue
+	 */
+	@Override
+	public Iterator<VertexDescriptor> iterator(){
+		final Iterator<Entry> itr = fifo.iterator();
+		return new Iterator<VertexDescriptor>(){
+			Entry next = advance();
+			Entry last = null;
+
+			private Entry advance(){
+				while(itr.hasNext()){
+					Entry entry = itr.next();
+					if(entries.get(entry.vertex) == entry){
+						return entry;
+					}
+				}
+				return null;
+			}
+
+			@Override
+			public boolean hasNext(){
+				return next != null;
+			}
+
+			@Override
+			public VertexDescriptor next(){
+				if(next == null){
+					throw new NoSuchElementException();
+				}
+				last = next;
+				next = advance();
+				return last.vertex;
+			}
+
+			@Override
+			public void remove(){
+				if(last == null){
+					throw new IllegalStateException();
+				}
+				claim(last);
+				last = null;
+			}
+		};
+	}
+
+	/**
+	 * Drops the stale entries of claimed/removed vertices from the host and
+	 * rack queues (those of hosts without a VertexServer are never polled)
+	 */
+	public void removeStale(){
+		removeStale(fifo);
+		removeStale(noPreference);
+		for(ConcurrentLinkedQueue<Entry> queue : byHost.values()){
+			removeStale(queue);
+		}
+		for(ConcurrentLinkedQueue<Entry> queue : byRack.values()){
+			removeStale(queue);
+		}
+	}
+
+	private void removeStale(ConcurrentLinkedQueue<Entry> queue){
+		Iterator<Entry> itr = queue.iterator();
+		while(itr.hasNext()){
+			Entry entry = itr.next();
+			if(entries.get(entry.vertex) != entry){
+				itr.remove();
+			}
+		}
+	}
+
+	public long getNodeLocal(){
+		return locality.getNodeLocal();
+	}
+
+	public long getRackLocal(){
+		return locality.getRackLocal();
+	}
+
+	public long getOffRack(){
+		return locality.getOffRack();
+	}
+
+	public long getNoPreference(){
+		return locality.getNoPreference();
+	}
+
+	/**
+	 * @see Locality#getLocalitySummary()
+	 */
+	public String getLocalitySummary(){
+		return locality.getLocalitySummary();
+	}
+}
@@ -0,0 +1,558 @@
+package edu.colorado.eyore.jserver;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import edu.colorado.eyore.common.vertex.VertexDescriptor;
+
+/**
+ * Vertices waiting to be assigned to a VertexServer, queued per job (each job
+ * has its own AllocatableVertexQueue, so the delay scheduling for data locality
+ * is per job), with jobs grouped into pools.
+ *
+ * pollFor takes the next vertex from the job whose turn it is - among the
+ * jobs with the highest priority (JobDescriptor.getPriority()) that have
+ * vertices for the VertexServer:
+ * - FIFO: the job started first that has a vertex for the VertexServer
+ * - FAIR: pools running fewer vertices than their minimum share come first
+ * (the furthest below it first), then the pool with the fewest running
+ * vertices per unit of weight; within a pool, the job with the fewest running
+ * vertices (the job started first on a tie)
+ * A job whose vertices are all waiting for VertexServers on other hosts (or
+ * need more memory) is passed over for the next one.
+ *
+ * A big job queuing thousands of vertices thus only delays the vertices of
+ * other jobs by its share of the VertexServers' threads rather than by its
+ * whole stage.
+ *
+ * The vertices running are counted per job and pool as the JobManager's sets
+ * of running attempts change (see getRunningCounter), and the jobs with
+ * allocatable vertices are kept in their turn order as vertices are queued,
+ * taken and finish - only the job (and pool) that changed is moved, so taking
+ * a vertex doesn't look at every job started, however many are running.
+ *
+ * Thread safe (synchronized).  Vertices of jobs not added with addJob go to a
+ * job in the default pool.
+ */
+class FairShareVertexQueue extends AbstractQueue<VertexDescriptor> {
+
+	public enum Policy { FIFO, FAIR }
+
+	public static final String DEFAULT_POOL = "default";
+
+	/**
+	 * A pool's share of the VertexServers' threads
+	 */
+	private static class Pool {
+		final String name;
+		final double weight;
+		final int minShare;
+
+		Pool(String name, double weight, int minShare){
+			this.name = name;
+			this.weight = weight;
+			this.minShare = minShare;
+		}
+	}
+
+	/**
+	 * A job's allocatable vertices
+	 */
+	private static class JobQueue {
+		final String jobId;
+		final String pool;
+		final int priority;
+		// when the job was added - FIFO order
+		final long sequence;
+		final AllocatableVertexQueue vertices;
+		// attempts running (backups too)
+		int running;
+		// true while in the waiting sets - the queue has vertices
+		boolean waiting;
+
+		JobQueue(String jobId, String pool, int priority, long sequence, AllocatableVertexQueue vertices){
+			this.jobId = jobId;
+			this.pool = pool;
+			this.priority = priority;
+			this.sequence = sequence;
+			this.vertices = vertices;
+		}
+	}
+
+	private static final Comparator<JobQueue> BY_SEQUENCE = new Comparator<JobQueue>(){
+		@Override
+		public int compare(JobQueue a, JobQueue b) {
+			return a.sequence < b.sequence ? -1 : (a.sequence == b.sequence ? 0 : 1);
+		}
+	};
+
+	// a pool's jobs of one priority - the job with the fewest running vertices first
+	private static final Comparator<JobQueue> BY_RUNNING_AND_SEQUENCE = new Comparator<JobQueue>(){
+		@Override
+		public int compare(JobQueue a, JobQueue b) {
+			if(a.running != b.running){
+				return a.running < b.running ? -1 : 1;
+			}
+			return BY_SEQUENCE.compare(a, b);
+		}
+	};
+
+	private static final Comparator<JobQueue> BY_PRIORITY_AND_SEQUENCE = new Comparator<JobQueue>(){
+		@Override
+		public int compare(JobQueue a, JobQueue b) {
+			if(a.priority != b.priority){
+				return a.priority > b.priority ? -1 : 1;
+			}
+			return BY_SEQUENCE.compare(a, b);
+		}
+	};
+
+	private volatile Policy policy = Policy.FAIR;
+
+	// jobId -> its vertices
+	private HashMap<String, JobQueue> jobs = new HashMap<String, JobQueue>();
+
+	// the jobs with allocatable vertices by priority and then in the order they were added
+	private TreeSet<JobQueue> waiting = new TreeSet<JobQueue>(BY_PRIORITY_AND_SEQUENCE);
+
+	// priority, highest first -> pool name -> the pool's jobs of that priority
+	// with allocatable vertices, fewest running first
+	private TreeMap<Integer, HashMap<String, TreeSet<JobQueue>>> waitingByPriority =
+		new TreeMap<Integer, HashMap<String, TreeSet<JobQueue>>>(Collections.reverseOrder());
+
+	// pool name -> vertices running in the pool (jobs without allocatable vertices count too)
+	private HashMap<String, Integer> runningByPool = new HashMap<String, Integer>();
+
+	// pool name -> pool, pools not configured have weight 1 and no minimum share
+	private ConcurrentHashMap<String, Pool> pools = new ConcurrentHashMap<String, Pool>();
+
+	private long nextSequence;
+
+	// shared by the jobs' queues
+	private Locality locality = new Locality();
+
+	private final VertexSet.Listener runningCounter = new VertexSet.Listener(){
+		@Override
+		public void added(VertexDescriptor vertex){
+			attemptStarted(vertex.getJobId());
+		}
+
+		@Override
+		public void removed(VertexDescriptor vertex){
+			attemptEnded(vertex.getJobId());
+		}
+	};
+
+	public void setPolicy(Policy policy){
+		this.policy = policy;
+	}
+
+	public Policy getPolicy(){
+		return policy;
+	}
+
+	/**
+	 * @param weight - the pool's share of the threads relative to other pools
+	 * @param minShare - threads the pool is given before any pool at or above
+	 * its minimum share (0 for none)
+	 */
+	public void setPool(String name, double weight, int minShare){
+		pools.put(name, new Pool(name, weight > 0 ? weight : 1, Math.max(0, minShare)));
+	}
+
+	/**
+	 * Sets up the queue of a started job
+	 *
+	 * @param pool - null for the default pool
+	 * @param priority - jobs with a higher priority are given vertices first
+	 */
+	public synchronized void addJob(String jobId, String pool, int priority){
+		if(! jobs.containsKey(jobId)){
+			jobs.put(jobId, new JobQueue(jobId, pool == null ? DEFAULT_POOL : pool, priority,
+					nextSequence++, new AllocatableVertexQueue(locality)));
+		}
+	}
+
+	/**
+	 * Drops the queue of a finished or failed job - any vertices left in it are
+	 * dropped too, and its running vertices no longer count for its pool
+	 */
+	public synchronized void removeJob(String jobId){
+		JobQueue job = jobs.remove(jobId);
+		if(job == null){
+			return;
+		}
+		if(job.waiting){
+			unlist(job);
+		}
+		addRunning(job.pool, -job.running);
+	}
+
+	private JobQueue jobQueue(String jobId){
+		JobQueue job = jobs.get(jobId);
+		if(job == null){
+			addJob(jobId, null, 0);
+			job = jobs.get(jobId);
+		}
+		return job;
+	}
+
+	/**
+	 * Counts the attempts running per job when set as the VertexSet.Listener
+	 * of the sets of running attempts - vertices taken from the queue are
+	 * counted once added to one
+	 */
+	VertexSet.Listener getRunningCounter(){
+		return runningCounter;
+	}
+
+	private synchronized void attemptStarted(String jobId){
+		setRunning(jobQueue(jobId), 1);
+	}
+
+	private synchronized void attemptEnded(String jobId){
+		// (a removed job's attempts no longer count)
+		JobQueue job = jobs.get(jobId);
+		if(job != null && job.running > 0){
+			setRunning(job, -1);
+		}
+	}
+
+	private void setRunning(JobQueue job, int change){
+		// the job's place among its pool's jobs depends on its running count
+		boolean listed = job.waiting;
+		if(listed){
+			unlist(job);
+		}
+		job.running += change;
+		addRunning(job.pool, change);
+		if(listed){
+			list(job);
+		}
+	}
+
+	private void addRunning(String pool, int change){
+		int running = running(runningByPool, pool) + change;
+		if(running == 0){
+			runningByPool.remove(pool);
+		}else{
+			runningByPool.put(pool, running);
+		}
+	}
+
+	/**
+	 * Adds the job to the waiting sets or takes it out of them after its
+	 * vertices changed
+	 */
+	private void update(JobQueue job){
+		if(job.vertices.isEmpty() == ! job.waiting){
+			return;
+		}
+		if(job.waiting){
+			unlist(job);
+		}else if(jobs.get(job.jobId) == job){
+			list(job);
+		}
+	}
+
+	private void list(JobQueue job){
+		job.waiting = true;
+		waiting.add(job);
+		HashMap<String, TreeSet<JobQueue>> byPool = waitingByPriority.get(job.priority);
+		if(byPool == null){
+			byPool = new HashMap<String, TreeSet<JobQueue>>();
+			waitingByPriority.put(job.priority, byPool);
+		}
+		TreeSet<JobQueue> poolJobs = byPool.get(job.pool);
+		if(poolJobs == null){
+			poolJobs = new TreeSet<JobQueue>(BY_RUNNING_AND_SEQUENCE);
+			byPool.put(job.pool, poolJobs);
+		}
+		poolJobs.add(job);
+	}
+
+	private void unlist(JobQueue job){
+		job.waiting = false;
+		waiting.remove(job);
+		HashMap<String, TreeSet<JobQueue>> byPool = waitingByPriority.get(job.priority);
+		TreeSet<JobQueue> poolJobs = byPool.get(job.pool);
+		poolJobs.remove(job);
+		if(poolJobs.isEmpty()){
+			byPool.remove(job.pool);
+			if(byPool.isEmpty()){
+				waitingByPriority.remove(job.priority);
+			}
+		}
+	}
+
+	/**
+	 * @see AllocatableVertexQueue#addRacks(List, List)
+	 */
+	public void addRacks(List<String> hosts, List<String> racks){
+		locality.addRacks(hosts, racks);
+	}
+
+	/**
+	 * Adds a vertex to its job's queue - does nothing if it is already allocatable
+	 */
+	@Override
+	public synchronized boolean offer(VertexDescriptor vertex){
+		JobQueue job = jobQueue(vertex.getJobId());
+		boolean added = job.vertices.offer(vertex);
+		update(job);
+		return added;
+	}
+
+	/**
+	 * Takes the oldest vertex of the highest priority job started first,
+	 * ignoring where its input is
+	 */
+	@Override
+	public synchronized VertexDescriptor poll(){
+		for(JobQueue job : waiting){
+			VertexDescriptor vertex = job.vertices.poll();
+			if(vertex != null){
+				update(job);
+				return vertex;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Takes the vertex to run next on a VertexServer on the host - from the job
+	 * whose turn it is (see class comment), the vertex AllocatableVertexQueue.pollFor
+	 * picks for the host
+	 *
+	 * @return null if all allocatable vertices are waiting for other hosts or
+	 * need more memory
+	 */
+	public synchronized VertexDescriptor pollFor(String host, long localityWaitMs, long maxMemoryMb){
+		if(policy == Policy.FIFO){
+			for(JobQueue job : waiting){
+				VertexDescriptor vertex = job.vertices.pollFor(host, localityWaitMs, maxMemoryMb);
+				if(vertex != null){
+					update(job);
+					return vertex;
+				}
+			}
+			return null;
+		}
+
+		for(final HashMap<String, TreeSet<JobQueue>> byPool : waitingByPriority.values()){
+			List<String> poolsInOrder = new ArrayList<String>(byPool.keySet());
+			if(poolsInOrder.size() > 1){
+				Collections.sort(poolsInOrder, new Comparator<String>(){
+					@Override
+					public int compare(String a, String b) {
+						return comparePools(pool(a), running(runningByPool, a), pool(b), running(runningByPool, b));
+					}
+				});
+			}
+			for(String pool : poolsInOrder){
+				for(JobQueue job : byPool.get(pool)){
+					VertexDescriptor vertex = job.vertices.pollFor(host, localityWaitMs, maxMemoryMb);
+					if(vertex != null){
+						update(job);
+						return vertex;
+					}
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Pools below their minimum share first (the furthest below first), then
+	 * the fewest running vertices per unit of weight
+	 */
+	private static int comparePools(Pool a, int aRunning, Pool b, int bRunning){
+		boolean aNeedy = aRunning < a.minShare;
+		boolean bNeedy = bRunning < b.minShare;
+		if(aNeedy != bNeedy){
+			return aNeedy ? -1 : 1;
+		}
+		int c;
+		if(aNeedy){
+			c = Double.compare((double)aRunning / a.minShare, (double)bRunning / b.minShare);
+		}else{
+			c = Double.compare(aRunning / a.weight, bRunning / b.weight);
+		}
+		return c != 0 ? c : a.name.compareTo(b.name);
+	}
+
+	private Pool pool(String name){
+		Pool pool = pools.get(name);
+		return pool == null ? new Pool(name, 1, 0) : pool;
+	}
+
+	private static int running(Map<String, Integer> running, String key){
+		Integer count = running.get(key);
+		return count == null ? 0 : count;
+	}
+
+	/**
+	 * JobID -> number of allocatable vertices, for the jobs whose oldest
+	 * allocatable vertex became allocatable before waitedSince
+	 */
+	public synchronized Map<String, Integer> waitingSince(long waitedSince){
+		Map<String, Integer> waitingLong = new HashMap<String, Integer>();
+		for(JobQueue job : waiting){
+			if(job.vertices.getOldestAllocatableSince() < waitedSince){
+				waitingLong.put(job.jobId, job.vertices.size());
+			}
+		}
+		return waitingLong;
+	}
+
+	@Override
+	public synchronized VertexDescriptor peek(){
+		for(JobQueue job : waiting){
+			VertexDescriptor vertex = job.vertices.peek();
+			if(vertex != null){
+				return vertex;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public synchronized boolean contains(Object o){
+		if(! (o instanceof VertexDescriptor)){
+			return false;
+		}
+		JobQueue job = jobs.get(((VertexDescriptor)o).getJobId());
+		return job != null && job.vertices.contains(o);
+	}
+
+	@Override
+	public synchronized boolean remove(Object o){
+		if(! (o instanceof VertexDescriptor)){
+			return false;
+		}
+		JobQueue job = jobs.get(((VertexDescriptor)o).getJobId());
+		if(job == null || ! job.vertices.remove(o)){
+			return false;
+		}
+		update(job);
+		return true;
+	}
+
+	/**
+	 * Number of allocatable vertices of the job
+	 */
+	public synchronized int sizeOf(String jobId){
+		JobQueue job = jobs.get(jobId);
+		return job == null ? 0 : job.vertices.size();
+	}
+
+	@Override
+	public synchronized int size(){
+		int size = 0;
+		for(JobQueue job : waiting){
+			size += job.vertices.size();
+		}
+		return size;
+	}
+
+	@Override
+	public synchronized boolean isEmpty(){
+		return waiting.isEmpty();
+	}
+
+	/**
+	 * Iterates over the jobs' vertices, jobs by priority and then in the order
+	 * they were added, each job's vertices oldest first - remove() takes the vertex out of the queue
+	 */
+	@Override
+	public Iterator<VertexDescriptor> iterator(){
+		final Iterator<JobQueue> jobItr;
+		synchronized(this){
+			jobItr = new ArrayList<JobQueue>(waiting).iterator();
+		}
+		return new Iterator<VertexDescriptor>(){
+			JobQueue currentJob = null;
+			Iterator<VertexDescriptor> current = null;
+			// the job and iterator that returned the last vertex
+			JobQueue lastJob = null;
+			Iterator<VertexDescriptor> last = null;
+
+			@Override
+			public boolean hasNext(){
+				while(current == null || ! current.hasNext()){
+					if(! jobItr.hasNext()){
+						return false;
+					}
+					currentJob = jobItr.next();
+					current = currentJob.vertices.iterator();
+				}
+				return true;
+			}
+
+			@Override
+			public VertexDescriptor next(){
+				if(! hasNext()){
+					throw new NoSuchElementException();
+				}
+				lastJob = currentJob;
+				last = current;
+				return current.next();
+			}
+
+			@Override
+			public void remove(){
+				if(last == null){
+					throw new IllegalStateException();
+				}
+				synchronized(FairShareVertexQueue.this){
+					last.remove();
+					update(lastJob);
+				}
+				last = null;
+			}
+		};
+	}
+
+	/**
+	 * @see AllocatableVertexQueue#removeStale()
+	 */
+	public synchronized void removeStale(){
+		for(JobQueue job : jobs.values()){
+			job.vertices.removeStale();
+			update(job);
+		}
+	}
+
+	public long getNodeLocal(){
+		return locality.getNodeLocal();
+	}
+
+	public long getRackLocal(){
+		return locality.getRackLocal();
+	}
+
+	public long getOffRack(){
+		return locality.getOffRack();
+	}
+
+	public long getNoPreference(){
+		return locality.getNoPreference();
+	}
+
+	/**
+	 * @see Locality#getLocalitySummary()
+	 */
+	public String getLocalitySummary(){
+		return locality.getLocalitySummary();
+	}
+}
@@ -0,0 +1,312 @@
+package edu.colorado.eyore.jserver;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import edu.colorado.eyore.common.job.JobSpecification;
+import edu.colorado.eyore.common.vertex.StageEdge;
+import edu.colorado.eyore.common.vertex.VertexStage;
+
+/**
+ * A job's stages as a graph: the stage edges of its JobSpecification with the
+ * stage names resolved to stage indexes or - for a job without stage edges -
+ * each stage reading the output of the one before it (pointwise if
+ * VertexStage.getPointwiseInput()).
+ *
+ * Also records, for the JobManager, the stages whose finishing has been acted
+ * on, the vertices made allocatable, the stages sized from their input
+ * (VertexStage.getTargetBytesPerVertex()) and the vertices splitting a skewed
+ * vertex's input (VertexStage.getSplittableInput()) - guarded by the job's
+ * lock.
+ */
+class JobGraph {
+
+	/**
+	 * A stage edge between stage indexes
+	 */
+	static class Edge {
+		final int from;
+		final int to;
+		final StageEdge.Type type;
+		// the consuming stage's input from this edge in JobManager.outputMap:
+		// the stage's index for its first input edge (so a job without stage
+		// edges keys it by stage as always), past the last stage for the others
+		final int outputKey;
+
+		Edge(int from, int to, StageEdge.Type type, int outputKey){
+			this.from = from;
+			this.to = to;
+			this.type = type;
+			this.outputKey = outputKey;
+		}
+	}
+
+	/**
+	 * A vertex reading part of the run of partitions of a skewed vertex: the
+	 * files written for the run by some of the vertices of the stage it reads
+	 */
+	static class Split {
+		// the vertex whose run of partitions is read
+		final int vertex;
+		// the vertices of the stage read whose files are read, ascending
+		final int[] producers;
+
+		Split(int vertex, int[] producers){
+			this.vertex = vertex;
+			this.producers = producers;
+		}
+	}
+
+	private final String[] names;
+	private final List<List<Edge>> inputs = new ArrayList<List<Edge>>();
+	private final List<List<Edge>> outputs = new ArrayList<List<Edge>>();
+
+	private final BitSet finishHandled = new BitSet();
+	private final HashMap<Integer, BitSet> released = new HashMap<Integer, BitSet>();
+	// stage -> {partitions its input was written in, vertices reading them}
+	private final HashMap<Integer, int[]> coalesced = new HashMap<Integer, int[]>();
+	private final BitSet skewChecked = new BitSet();
+	// stage -> vertex -> the part of a skewed vertex's input it reads
+	private final HashMap<Integer, HashMap<Integer, Split>> splits = new HashMap<Integer, HashMap<Integer, Split>>();
+
+	/**
+	 * @param stages - may be null (stages are linear and not pointwise)
+	 * @param edges - null or empty for linear stages
+	 * @throws IllegalArgumentException if an edge names a stage the job doesn't
+	 * have, doesn't go to a later stage or is listed twice, or a stage after the
+	 * first has no input edge
+	 */
+	JobGraph(int numStages, List<VertexStage> stages, List<StageEdge> edges){
+		names = new String[numStages];
+		HashMap<String, Integer> indexes = new HashMap<String, Integer>();
+		for(int stageIndex = 0; stageIndex < numStages; stageIndex++){
+			String name = null;
+			if(stages != null && stageIndex < stages.size()){
+				name = stages.get(stageIndex).getName();
+			}
+			names[stageIndex] = name == null ? "stage" + stageIndex : name;
+			if(indexes.put(names[stageIndex], stageIndex) != null){
+				throw new IllegalArgumentException("More than one stage is named " + names[stageIndex]);
+			}
+			inputs.add(new ArrayList<Edge>());
+			outputs.add(new ArrayList<Edge>());
+		}
+
+		if(edges == null || edges.isEmpty()){
+			for(int stageIndex = 1; stageIndex < numStages; stageIndex++){
+				boolean pointwise = stages != null && stageIndex < stages.size() &&
+					stages.get(stageIndex).getPointwiseInput();
+				addEdge(stageIndex - 1, stageIndex, pointwise ? StageEdge.Type.POINTWISE : StageEdge.Type.ALL_TO_ALL);
+			}
+			return;
+		}
+
+		HashSet<String> added = new HashSet<String>();
+		for(StageEdge edge : edges){
+			Integer from = indexes.get(edge.getFromStage());
+			Integer to = indexes.get(edge.getToStage());
+			if(from == null || to == null){
+				throw new IllegalArgumentException("Stage edge " + edge + " names a stage the job doesn't have");
+			}
+			if(from >= to){
+				throw new IllegalArgumentException("Stage edge " + edge + " doesn't go to a later stage");
+			}
+			if(! added.add(from + ":" + to)){
+				throw new IllegalArgumentException("Stage edge " + edge + " is listed more than once");
+			}
+			addEdge(from, to, edge.getType() == null ? StageEdge.Type.ALL_TO_ALL : edge.getType());
+		}
+		for(int stageIndex = 1; stageIndex < numStages; stageIndex++){
+			if(inputs.get(stageIndex).isEmpty()){
+				throw new IllegalArgumentException("Stage " + names[stageIndex] +
+						" reads no stage's output (only the first stage reads the job's input)");
+			}
+		}
+	}
+
+	/**
+	 * The graph of a job's stages
+	 *
+	 * @param numStages - the job's stage count (the specification may be null
+	 * for a job set up without one)
+	 */
+	static JobGraph of(JobSpecification spec, int numStages){
+		if(spec == null){
+			return new JobGraph(numStages, null, null);
+		}
+		return new JobGraph(numStages, spec.getVertexStages(), spec.getStageEdges());
+	}
+
+	private void addEdge(int from, int to, StageEdge.Type type){
+		int outputKey = inputs.get(to).isEmpty() ? to : names.length + countEdges();
+		Edge edge = new Edge(from, to, type, outputKey);
+		inputs.get(to).add(edge);
+		outputs.get(from).add(edge);
+	}
+
+	private int countEdges(){
+		int count = 0;
+		for(List<Edge> stageInputs : inputs){
+			count += stageInputs.size();
+		}
+		return count;
+	}
+
+	String nameOf(int stageIndex){
+		return names[stageIndex];
+	}
+
+	/**
+	 * Edges to the stage, in the order its vertices get their input
+	 */
+	List<Edge> inputsOf(int stageIndex){
+		return inputs.get(stageIndex);
+	}
+
+	List<Edge> outputsOf(int stageIndex){
+		return outputs.get(stageIndex);
+	}
+
+	/**
+	 * True if no stage reads the stage's output - it is part of the job's output
+	 */
+	boolean isLastStage(int stageIndex){
+		return outputs.get(stageIndex).isEmpty();
+	}
+
+	/**
+	 * True once the stages reading the stage's output have been told it finished
+	 */
+	boolean isFinishHandled(int stageIndex){
+		return finishHandled.get(stageIndex);
+	}
+
+	void setFinishHandled(int stageIndex){
+		finishHandled.set(stageIndex);
+	}
+
+	/**
+	 * Records the vertex as made allocatable
+	 *
+	 * @return false if it was already
+	 */
+	boolean setReleased(int stageIndex, int vertexIndex){
+		BitSet stageReleased = released.get(stageIndex);
+		if(stageReleased == null){
+			stageReleased = new BitSet();
+			released.put(stageIndex, stageReleased);
+		}
+		if(stageReleased.get(vertexIndex)){
+			return false;
+		}
+		stageReleased.set(vertexIndex);
+		return true;
+	}
+
+	boolean isReleased(int stageIndex, int vertexIndex){
+		BitSet stageReleased = released.get(stageIndex);
+		return stageReleased != null && stageReleased.get(vertexIndex);
+	}
+
+	/**
+	 * Records that the stage's input, written in the given number of
+	 * partitions, is read by fewer vertices - each a run of consecutive
+	 * partitions
+	 */
+	void setCoalesced(int stageIndex, int partitions, int vertices){
+		coalesced.put(stageIndex, new int[]{partitions, vertices});
+	}
+
+	boolean isSized(int stageIndex){
+		return coalesced.containsKey(stageIndex);
+	}
+
+	/**
+	 * Number of partitions the stage's input is written in - null if the
+	 * stage wasn't sized from its input (one partition per vertex)
+	 */
+	Integer partitionsOf(int stageIndex){
+		int[] sizes = coalesced.get(stageIndex);
+		return sizes == null ? null : sizes[0];
+	}
+
+	/**
+	 * First partition of the stage's input read by the vertex (the vertex's
+	 * index unless the stage was coalesced) - the vertex reads up to the next
+	 * vertex's first partition
+	 */
+	int firstPartition(int stageIndex, int vertexIndex){
+		int[] sizes = coalesced.get(stageIndex);
+		if(sizes == null){
+			return vertexIndex;
+		}
+		return (int)((long)vertexIndex * sizes[0] / sizes[1]);
+	}
+
+	/**
+	 * The vertex of the stage reading a partition of its input
+	 */
+	int vertexOfPartition(int stageIndex, int partition){
+		int[] sizes = coalesced.get(stageIndex);
+		if(sizes == null){
+			return partition;
+		}
+		return (int)(((long)partition + 1) * sizes[1] - 1) / sizes[0];
+	}
+
+	/**
+	 * True once the stage's input has been checked for skew
+	 */
+	boolean isSkewChecked(int stageIndex){
+		return skewChecked.get(stageIndex);
+	}
+
+	void setSkewChecked(int stageIndex){
+		skewChecked.set(stageIndex);
+	}
+
+	/**
+	 * Records that a vertex of the stage reads only the files some of the
+	 * producing vertices wrote for the run of partitions of a skewed vertex
+	 * (the skewed vertex itself or one added to share its input)
+	 */
+	void setSplit(int stageIndex, int vertexIndex, int skewedVertex, int[] producers){
+		HashMap<Integer, Split> stageSplits = splits.get(stageIndex);
+		if(stageSplits == null){
+			stageSplits = new HashMap<Integer, Split>();
+			splits.put(stageIndex, stageSplits);
+		}
+		stageSplits.put(vertexIndex, new Split(skewedVertex, producers));
+	}
+
+	/**
+	 * The part of a skewed vertex's input the vertex reads - null if it
+	 * reads all of its own run of partitions
+	 */
+	Split splitOf(int stageIndex, int vertexIndex){
+		HashMap<Integer, Split> stageSplits = splits.get(stageIndex);
+		return stageSplits == null ? null : stageSplits.get(vertexIndex);
+	}
+
+	/**
+	 * The vertices reading the run of partitions of the vertex: just the
+	 * vertex unless its input was split
+	 */
+	List<Integer> readersOf(int stageIndex, int vertexIndex){
+		List<Integer> readers = new ArrayList<Integer>();
+		HashMap<Integer, Split> stageSplits = splits.get(stageIndex);
+		if(stageSplits == null || ! stageSplits.containsKey(vertexIndex)){
+			readers.add(vertexIndex);
+			return readers;
+		}
+		for(Integer reader : stageSplits.keySet()){
+			if(stageSplits.get(reader).vertex == vertexIndex){
+				readers.add(reader);
+			}
+		}
+		return readers;
+	}
+}
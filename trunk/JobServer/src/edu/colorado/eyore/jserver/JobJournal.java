@@ -0,0 +1,502 @@
+package edu.colorado.eyore.jserver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import edu.colorado.eyore.common.job.JobDescriptor;
+import edu.colorado.eyore.common.net.BinaryMessageCodec;
+import edu.colorado.eyore.common.vertex.VertexDescriptor;
+
+/**
+ * Append-only journal of the JobManager's jobs, so that a restarted JobServer
+ * can carry on with the jobs that were running without running their finished
+ * vertices again - their output is still on HDFS.
+ *
+ * Four kinds of record are appended: a job added (its JobDescriptor, as it
+ * was sent by the client - the JobSpecification is loaded from the job jar
+ * again), a vertex finished (its VertexDescriptor, with its output), a job
+ * ended (finished or failed) and a job ID handed out.  Every stage transition
+ * follows from the vertices that finished, so replaying them moves the job
+ * through its stages again.
+ *
+ * Records are queued by the callers and written by a writer thread, so no
+ * caller waits for the disk while holding a job's lock.  Only jobAdded and
+ * jobIdIssued wait for their record to be written - the client is answered
+ * once they are.
+ *
+ * The records of the jobs not ended are kept in memory as well, encoded as
+ * they were queued: once snapshotRecords records have been written the writer
+ * thread writes them to a snapshot file and empties the journal, so neither
+ * grows with the jobs that ended.
+ * A record cut short by a crash, at the end of the journal, is ignored.
+ *
+ * Records are written with the BinaryMessageCodec whatever message.codec is
+ * set to.
+ */
+class JobJournal {
+
+	private static Logger logger = Logger.getLogger(JobJournal.class.getName());
+
+	private static final int RECORD_JOB_ADDED = 1;
+	private static final int RECORD_VERTEX_FINISHED = 2;
+	private static final int RECORD_JOB_ENDED = 3;
+	private static final int RECORD_JOB_ID = 4;
+
+	/**
+	 * A job that was queued or running when the journal was last written, with
+	 * the vertices of it that finished - the last attempt of those run again
+	 */
+	static class RecoveredJob {
+		final JobDescriptor job;
+		final List<VertexDescriptor> finished = new ArrayList<VertexDescriptor>();
+
+		RecoveredJob(JobDescriptor job){
+			this.job = job;
+		}
+	}
+
+	/**
+	 * The records of a job not ended
+	 */
+	private static class JobRecords {
+		final byte[] job;
+		// "stage:vertex" -> the attempt that finished, the last one if run again
+		final LinkedHashMap<String, byte[]> finished = new LinkedHashMap<String, byte[]>();
+		final HashMap<String, Integer> attempts = new HashMap<String, Integer>();
+
+		JobRecords(byte[] job){
+			this.job = job;
+		}
+	}
+
+	private static class Record {
+		final int type;
+		final byte[] payload;
+
+		Record(int type, byte[] payload){
+			this.type = type;
+			this.payload = payload;
+		}
+	}
+
+	private final File journalFile;
+	private final File snapshotFile;
+	private final int snapshotRecords;
+	private final boolean sync;
+	private final BinaryMessageCodec codec = new BinaryMessageCodec();
+
+	// job ID -> the job's records, in the order the jobs were added
+	private LinkedHashMap<String, JobRecords> jobs = new LinkedHashMap<String, JobRecords>();
+	private int lastJobId;
+
+	// records queued and not taken by the writer thread yet
+	private ArrayList<Record> pending = new ArrayList<Record>();
+	private long queued;
+	// records the writer thread is done with, written or not
+	private long written;
+	private int recordsSinceSnapshot;
+	private Thread writer;
+	private boolean closing;
+
+	// only used by the writer thread once it is started
+	private FileOutputStream fileOut;
+	private DataOutputStream out;
+
+	/**
+	 * @param dir - directory of the journal and snapshot files (made if it
+	 * doesn't exist)
+	 * @param snapshotRecords - records written before the jobs not ended are
+	 * written to a new snapshot (0 to only do so when opened)
+	 * @param sync - true to force the records to disk as they are written, not
+	 * just to the operating system (so they survive the machine going down too)
+	 */
+	JobJournal(File dir, int snapshotRecords, boolean sync){
+		this.journalFile = new File(dir, "journal");
+		this.snapshotFile = new File(dir, "snapshot");
+		this.snapshotRecords = snapshotRecords;
+		this.sync = sync;
+	}
+
+	/**
+	 * Reads the snapshot and the journal, writes the jobs not ended to a new
+	 * snapshot, starts a new journal and the thread writing to it
+	 *
+	 * @return the jobs that were queued or running, in the order they were
+	 * added
+	 */
+	synchronized List<RecoveredJob> open() throws IOException{
+		File dir = journalFile.getParentFile();
+		if(! dir.isDirectory() && ! dir.mkdirs()){
+			throw new IOException("Failed making journal directory " + dir);
+		}
+		jobs = new LinkedHashMap<String, JobRecords>();
+		lastJobId = 0;
+		int read = replay(snapshotFile) + replay(journalFile);
+		logger.info("Read " + read + " journal records - " + jobs.size() + " jobs were queued or running");
+		writeSnapshot(snapshotRecords());
+		
+		closing = false;
+		writer = new Thread(new Runnable(){
+			@Override
+			public void run() {
+				writeRecords();
+			}
+		}, "job journal writer");
+		writer.setDaemon(true);
+		writer.start();
+		
+		List<RecoveredJob> recovered = new ArrayList<RecoveredJob>();
+		for(JobRecords records : jobs.values()){
+			RecoveredJob job = new RecoveredJob(codec.<JobDescriptor>decode(records.job));
+			for(byte[] vertex : records.finished.values()){
+				job.finished.add(codec.<VertexDescriptor>decode(vertex));
+			}
+			recovered.add(job);
+		}
+		return recovered;
+	}
+
+	/**
+	 * The highest job ID handed out (see jobIdIssued) - read by open
+	 */
+	synchronized int getLastJobId(){
+		return lastJobId;
+	}
+
+	/**
+	 * Records a job ID handed out to a client, so it isn't handed out again
+	 * after a restart - returns once the record is written
+	 */
+	void jobIdIssued(int jobId){
+		long record;
+		synchronized(this){
+			lastJobId = Math.max(lastJobId, jobId);
+			record = queue(RECORD_JOB_ID, utf8(String.valueOf(jobId)));
+		}
+		awaitWritten(record);
+	}
+
+	/**
+	 * Records a job sent by a client, before it is queued by the JobManager -
+	 * returns once the record is written
+	 */
+	void jobAdded(JobDescriptor job){
+		byte[] payload = codec.encode(job);
+		long record;
+		synchronized(this){
+			jobs.put(job.getJobId(), new JobRecords(payload));
+			record = queue(RECORD_JOB_ADDED, payload);
+		}
+		awaitWritten(record);
+	}
+
+	/**
+	 * Records the attempt of a vertex that finished first - nothing is
+	 * appended for an attempt already recorded (one replayed from the journal)
+	 */
+	synchronized void vertexFinished(VertexDescriptor vertex){
+		JobRecords records = jobs.get(vertex.getJobId());
+		if(records == null){
+			return;
+		}
+		String key = vertex.getStageNumber() + ":" + vertex.getVertexNumber();
+		Integer before = records.attempts.get(key);
+		if(before != null && before == vertex.getAttempt()){
+			return;
+		}
+		byte[] payload = codec.encode(vertex);
+		records.finished.put(key, payload);
+		records.attempts.put(key, vertex.getAttempt());
+		queue(RECORD_VERTEX_FINISHED, payload);
+	}
+
+	/**
+	 * Records a job that finished or failed - it isn't recovered
+	 */
+	synchronized void jobEnded(String jobId){
+		if(jobs.remove(jobId) == null){
+			return;
+		}
+		queue(RECORD_JOB_ENDED, utf8(jobId));
+	}
+
+	/**
+	 * Returns once the records queued so far are written
+	 */
+	void flush(){
+		long record;
+		synchronized(this){
+			record = queued;
+		}
+		awaitWritten(record);
+	}
+
+	/**
+	 * Writes the records queued and stops the writer thread
+	 */
+	void close(){
+		Thread stopping;
+		synchronized(this){
+			closing = true;
+			notifyAll();
+			stopping = writer;
+		}
+		if(stopping != null){
+			try{
+				stopping.join();
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+			}
+		}
+		synchronized(this){
+			if(writer == stopping){
+				writer = null;
+			}
+		}
+	}
+
+	/**
+	 * Hands a record to the writer thread - call while holding the journal's
+	 * lock
+	 *
+	 * @return the record's number, to wait for it to be written
+	 */
+	private long queue(int type, byte[] payload){
+		pending.add(new Record(type, payload));
+		queued++;
+		notifyAll();
+		return queued;
+	}
+
+	/**
+	 * Waits for the writer thread to be done with the record - returns at once
+	 * if the journal isn't open
+	 */
+	private synchronized void awaitWritten(long record){
+		while(written < record && writer != null && ! closing){
+			try{
+				wait();
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * The writer thread: writes the records queued a batch at a time, with one
+	 * sync per batch, and the snapshot once snapshotRecords records have been
+	 * written.  A failure to write is logged, the jobs carry on without the
+	 * records (and can't be recovered past them)
+	 */
+	private void writeRecords(){
+		while(true){
+			List<Record> batch;
+			List<Record> snapshot = null;
+			synchronized(this){
+				while(pending.isEmpty() && ! closing){
+					try{
+						wait();
+					}catch(InterruptedException e){
+						// only close stops the writer
+					}
+				}
+				if(pending.isEmpty()){
+					break;
+				}
+				batch = pending;
+				pending = new ArrayList<Record>();
+				recordsSinceSnapshot += batch.size();
+				if(snapshotRecords > 0 && recordsSinceSnapshot >= snapshotRecords){
+					// the jobs as they are once the batch is written - counted
+					// from now whether it can be written or not, so a snapshot
+					// that fails isn't tried again for every record
+					snapshot = snapshotRecords();
+					recordsSinceSnapshot = 0;
+				}
+			}
+			
+			try{
+				if(out == null){
+					fileOut = new FileOutputStream(journalFile, true);
+					out = new DataOutputStream(new BufferedOutputStream(fileOut));
+				}
+				for(Record record : batch){
+					writeRecord(out, record.type, record.payload);
+				}
+				out.flush();
+				if(sync){
+					fileOut.getFD().sync();
+				}
+			}catch(IOException e){
+				logger.log(Level.SEVERE, "Failed writing to journal " + journalFile, e);
+				closeJournal();
+			}
+			if(snapshot != null){
+				try{
+					writeSnapshot(snapshot);
+				}catch(IOException e){
+					// the journal was left as it was - it is opened again for
+					// the next records
+					logger.log(Level.SEVERE, "Failed writing journal snapshot " + snapshotFile, e);
+				}
+			}
+			
+			synchronized(this){
+				written += batch.size();
+				notifyAll();
+			}
+		}
+		closeJournal();
+	}
+
+	private void closeJournal(){
+		if(out != null){
+			try{
+				out.close();
+			}catch(IOException e){
+				logger.log(Level.WARNING, "Failed closing journal " + journalFile, e);
+			}
+			out = null;
+		}
+	}
+
+	/**
+	 * The records a snapshot of the jobs not ended is made of - call while
+	 * holding the journal's lock
+	 */
+	private List<Record> snapshotRecords(){
+		List<Record> records = new ArrayList<Record>();
+		records.add(new Record(RECORD_JOB_ID, utf8(String.valueOf(lastJobId))));
+		for(JobRecords job : jobs.values()){
+			records.add(new Record(RECORD_JOB_ADDED, job.job));
+			for(byte[] vertex : job.finished.values()){
+				records.add(new Record(RECORD_VERTEX_FINISHED, vertex));
+			}
+		}
+		return records;
+	}
+
+	/**
+	 * Writes the records to the snapshot file (replacing it once written) and
+	 * empties the journal - the journal's records must all be in the snapshot
+	 */
+	private void writeSnapshot(List<Record> records) throws IOException{
+		closeJournal();
+		File tmp = new File(snapshotFile.getPath() + ".tmp");
+		FileOutputStream snapshotOut = new FileOutputStream(tmp);
+		DataOutputStream snapshot = new DataOutputStream(new BufferedOutputStream(snapshotOut));
+		try{
+			for(Record record : records){
+				writeRecord(snapshot, record.type, record.payload);
+			}
+			snapshot.flush();
+			snapshotOut.getFD().sync();
+		}finally{
+			snapshot.close();
+		}
+		if(snapshotFile.exists() && ! snapshotFile.delete() || ! tmp.renameTo(snapshotFile)){
+			throw new IOException("Failed replacing journal snapshot " + snapshotFile);
+		}
+		// the journal's records are all in the snapshot now
+		new FileOutputStream(journalFile).close();
+	}
+
+	private static void writeRecord(DataOutputStream to, int type, byte[] payload) throws IOException{
+		to.writeByte(type);
+		to.writeInt(payload.length);
+		to.write(payload);
+	}
+
+	/**
+	 * Applies the records of a snapshot or journal file to the running jobs
+	 *
+	 * @return the number of records read
+	 */
+	private int replay(File file) throws IOException{
+		if(! file.exists()){
+			return 0;
+		}
+		int read = 0;
+		long remaining = file.length();
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try{
+			while(true){
+				int type = in.read();
+				if(type < 0){
+					break;
+				}
+				int length = in.readInt();
+				remaining -= 5;
+				if(length < 0 || length > remaining){
+					// a length cut short or never written
+					throw new EOFException();
+				}
+				byte[] payload = new byte[length];
+				in.readFully(payload);
+				remaining -= length;
+				apply(type, payload);
+				read++;
+			}
+		}catch(EOFException e){
+			logger.warning("Ignoring the last record of " + file + " - it was cut short");
+		}catch(IllegalArgumentException e){
+			logger.log(Level.WARNING, "Ignoring the records of " + file + " after a bad record", e);
+		}finally{
+			in.close();
+		}
+		return read;
+	}
+
+	private void apply(int type, byte[] payload) throws IOException{
+		switch(type){
+		case RECORD_JOB_ADDED:
+			JobDescriptor job = codec.decode(payload);
+			jobs.put(job.getJobId(), new JobRecords(payload));
+			break;
+		case RECORD_VERTEX_FINISHED:
+			VertexDescriptor vertex = codec.decode(payload);
+			JobRecords records = jobs.get(vertex.getJobId());
+			if(records != null){
+				String key = vertex.getStageNumber() + ":" + vertex.getVertexNumber();
+				records.finished.put(key, payload);
+				records.attempts.put(key, vertex.getAttempt());
+			}
+			break;
+		case RECORD_JOB_ENDED:
+			jobs.remove(new String(payload, "UTF-8"));
+			break;
+		case RECORD_JOB_ID:
+			try{
+				lastJobId = Math.max(lastJobId, Integer.parseInt(new String(payload, "UTF-8")));
+			}catch(NumberFormatException e){
+				throw new IllegalArgumentException("Bad job ID record", e);
+			}
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown journal record type " + type);
+		}
+	}
+
+	private static byte[] utf8(String s){
+		try{
+			return s.getBytes("UTF-8");
+		}catch(IOException e){
+			// UTF-8 is always supported
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -3,16 +3,34 @@ package edu.colorado.eyore.jserver;
 import java.io.IOException;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import edu.colorado.eyore.common.hdfs.HdfsFileSplit;
 import edu.colorado.eyore.common.hdfs.HdfsUtils;
+import edu.colorado.eyore.common.hdfs.SplitBatchListener;
 import edu.colorado.eyore.common.job.JobDescriptor;
+import edu.colorado.eyore.common.job.JobSpecification;
 import edu.colorado.eyore.common.job.JobStatus;
+import edu.colorado.eyore.common.vertex.StageEdge;
+import edu.colorado.eyore.common.vertex.VertexCompletion;
 import edu.colorado.eyore.common.vertex.VertexDescriptor;
 import edu.colorado.eyore.common.vertex.VertexOutput;
 import edu.colorado.eyore.common.vertex.VertexServerInfo;
@@ -28,6 +46,91 @@ import edu.colorado.eyore.common.vertex.VertexStage;
  * Updates to job status/allocation/etc are event driven - request from
  * Client or VertexServer triggers any updating
  *
+ * Locking:
+ * - each job's state (its JobStatus and its outputMap entry) is guarded by
+ * the job's JobDescriptor, so updates for different jobs don't wait on each other
+ * - the JobManager's own lock only guards starting queued jobs (unprocessedJobQ)
+ * - allocatableVertices, verticesInProgress, jobsInProgress and outputMap are
+ * concurrent collections
+ * - HDFS calls (listing a job's input, moving its final output) are made
+ * without holding any lock
+ *
+ * A started job is PLANNING (JobStatus.getPlanning()) while its input is split
+ * on the split planner; its first stage vertices become allocatable batch by
+ * batch as the splits are planned.
+ *
+ * With setMaxQueuedVertices, at most that many of a job's vertices are
+ * allocatable at a time: the others are kept as the planned splits or the
+ * numbers of the released stage's vertices (see PendingVertices) and made into
+ * VertexDescriptors as the job's vertices are assigned, so a stage of
+ * hundreds of thousands of vertices doesn't have a descriptor for each.
+ *
+ * A job's stages form a graph (JobSpecification.getStageEdges(), see
+ * JobGraph) - by default each stage reads the output of the one before it.  A
+ * stage starts once the stages whose output it reads are finished, so stages
+ * on separate branches of the graph run at the same time.  A stage with
+ * pointwise input has each vertex start as soon as the vertex with the same
+ * index is finished in the stages it reads pointwise.  Several stages can be
+ * in progress - progress is kept per stage
+ * (JobStatus.getStageVertices()/getStageVerticesFinished()) and the current
+ * stage is the first one not finished.
+ *
+ * A stage with a target input size (VertexStage.getTargetBytesPerVertex()) is
+ * sized once the stages it reads are finished: their output, partitioned for
+ * the stage's most vertices, is coalesced into runs of consecutive partitions
+ * of about the target size, one per vertex (see sizeStage).
+ *
+ * Before a stage reading its input all-to-all starts, the input of each
+ * vertex is measured: a vertex given more than skewSplitFactor times the
+ * stage's median input is skewed (JobStatus.getMaxInputSkew()/
+ * getSkewedVertices()).  If the stage may read part of a partition
+ * (VertexStage.getSplittableInput()), a skewed vertex's input is split by the
+ * vertices that wrote it between the vertex and vertices added to the stage,
+ * the stages reading its output all-to-all merging their output (see
+ * splitSkewedVertices).
+ *
+ * A job lock may be taken while holding the JobManager lock but never the
+ * other way around.
+ *
+ * First stage vertices prefer the hosts storing their input split - a vertex
+ * is held back for up to localityWaitMs for a VertexServer on one of those
+ * hosts (see AllocatableVertexQueue).
+ *
+ * Allocatable vertices are queued per job and the jobs running at the same time
+ * share the VertexServers' threads - fairly, weighted by their pools, or in the
+ * order they were started (see FairShareVertexQueue and setSchedulingPolicy).
+ *
+ * Jobs have a priority (JobDescriptor.getPriority()): queued jobs are started
+ * highest priority first and a higher priority job's vertices are assigned
+ * before any of a lower priority job.  With preemption on (see
+ * setPreemptionWaitMs), once a higher priority job's vertices have waited
+ * preemptionWaitMs for a thread, running vertices of lower priority jobs are
+ * preempted - started again later, like those of a dead VertexServer - and
+ * their VertexServers are told to stop them (takeAttemptsToStop).
+ *
+ * Speculative execution (off unless setSpeculation is called): a vertex that
+ * has run much longer than the finished vertices of its stage gets a backup
+ * attempt on another VertexServer, using threads no allocatable vertex needs.
+ * The output of whichever attempt finishes first is recorded, under the job's
+ * lock, as the vertex's output; the other attempt's output is deleted from
+ * HDFS when it reports.
+ *
+ * A failed vertex is run again (after a backoff doubling with each failure)
+ * until it has failed maxVertexAttempts times - only then does its job fail.
+ * VertexServers that have several vertices fail in a row are blacklisted
+ * (given no vertices) for a while.
+ *
+ * VertexServers not heard from for livenessTimeoutMs are taken to be dead
+ * (see removeDeadVertexServers): the attempts they were running are started
+ * again elsewhere, and finished vertices whose output they wrote are run again
+ * if that output is still needed and can no longer be read.
+ *
+ * With a JobJournal (setJournal), jobs sent by clients, the vertices that
+ * finished and jobs that ended are journaled.  Jobs recovered from it after a
+ * restart (recoverJob) are planned and released as usual, except that a vertex
+ * that finished before is recorded as finished again, with its output, rather
+ * than made allocatable.
+ *
  */
 public class JobManager {
 	
@@ -35,7 +138,8 @@ public class JobManager {
 	
 	/**
 	 * A queue for new jobs sent from a client that have not yet been
-	 * processed  
+	 * processed, in the order they were sent (the highest priority job is
+	 * started first) - guarded by the JobManager lock
 	 */
 	protected ArrayDeque<JobDescriptor> unprocessedJobQ = new ArrayDeque<JobDescriptor>();
 	
@@ -43,27 +147,113 @@ public class JobManager {
 	 * Stores jobs that are in progress (and any that have finished, but have not been purged
 	 * because the Client status request hasn't happened yet)
 	 */
-	protected HashMap<String, JobDescriptor> jobsInProgress = new HashMap<String, JobDescriptor>();
+	protected ConcurrentHashMap<String, JobDescriptor> jobsInProgress = new ConcurrentHashMap<String, JobDescriptor>();
 	
 	/**
 	 * These are vertices that are available to be assigned to vertex servers
 	 */
-	protected ArrayDeque<VertexDescriptor> allocatableVertices = new ArrayDeque<VertexDescriptor>();
-	
+	protected FairShareVertexQueue allocatableVertices = new FairShareVertexQueue();
+
 	/**
 	 * These are vertices that have ALREADY been assigned to a vertex server & we are waiting on
 	 * a success/failure update about each one from the assigned VertexServer 
 	 */
-	protected HashSet<VertexDescriptor> verticesInProgress = new HashSet<VertexDescriptor>();
+	protected VertexSet verticesInProgress = new VertexSet(allocatableVertices.getRunningCounter());
+	
+	/**
+	 * Backup attempts of stragglers waiting for a VertexServer other than the
+	 * one running the vertex (see setSpeculation)
+	 */
+	protected VertexSet backupVertices = new VertexSet();
+	
+	/**
+	 * Backup attempts that have been assigned - the vertex's first attempt
+	 * stays in verticesInProgress, so a vertex has at most one backup
+	 */
+	protected VertexSet backupsInProgress = new VertexSet(allocatableVertices.getRunningCounter());
+	
+	/**
+	 * Attempts (see attemptKey) that were still running when another attempt of
+	 * their vertex finished first, or whose VertexServer stopped heartbeating -
+	 * their output is deleted when they report.  A job's are moved to
+	 * endedLosingAttempts when it ends
+	 */
+	protected Set<String> losingAttempts = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	
+	/**
+	 * Losing attempts of jobs that ended, oldest first - their output is still
+	 * deleted should they report.  Those on dead VertexServers never report, so
+	 * only the last MAX_ENDED_LOSING_ATTEMPTS are kept
+	 */
+	protected LinkedHashSet<String> endedLosingAttempts = new LinkedHashSet<String>();
+	
+	private static final int MAX_ENDED_LOSING_ATTEMPTS = 10000;
+	
+	/**
+	 * Maps JobID -> (Maps Vertex Stage Number -> run times (ms) of the stage's
+	 * finished vertices, shortest first)
+	 * 
+	 * The inner maps are guarded by the job's lock.
+	 */
+	protected ConcurrentHashMap<String, HashMap<Integer, ArrayList<Long>>> runTimes =
+		new ConcurrentHashMap<String, HashMap<Integer, ArrayList<Long>>>();
 	
 	/**
 	 * Tracks output from vertices needed by vertices in next stage
 	 * 
 	 * Maps JobID -> (Maps Vertex Stage Number -> (Maps Vertex Number -> Output File Path ))
 	 * 
+	 * The stage number is that of the stage reading the output (NULL for the 
+	 * job's output) - a stage reading more than one stage's output has the
+	 * output of its other input edges under their JobGraph.Edge.outputKey
+	 *  
+	 * The inner maps are guarded by the job's lock.  A job's entry is removed once
+	 * the job has failed or its last stage has finished.
+	 */
+	protected ConcurrentHashMap<String, HashMap<Integer, HashMap<Integer,ArrayList<String>>>> outputMap =
+		new ConcurrentHashMap<String, HashMap<Integer,HashMap<Integer,ArrayList<String>>>>();
+	
+	/**
+	 * Maps JobID -> (Maps Vertex Stage Number -> (Maps Vertex Number -> the attempt
+	 * that finished)) - kept so that vertices whose output is lost with their
+	 * VertexServer can be run again
+	 * 
+	 * The inner maps are guarded by the job's lock.  A job's entry is removed
+	 * together with its outputMap entry.
+	 */
+	protected ConcurrentHashMap<String, HashMap<Integer, HashMap<Integer, VertexDescriptor>>> finishedVertices =
+		new ConcurrentHashMap<String, HashMap<Integer, HashMap<Integer, VertexDescriptor>>>();
+	
+	/**
+	 * JobID -> output lost with VertexServers that stopped heartbeating, while
+	 * the vertices that wrote it are run again (guarded by the job's lock)
+	 */
+	protected ConcurrentHashMap<String, LostOutputs> lostOutputs = new ConcurrentHashMap<String, LostOutputs>();
+	
+	/**
+	 * JobID -> the graph of the job's stages (guarded by the job's lock), removed
+	 * with the job's outputMap entry
+	 */
+	protected ConcurrentHashMap<String, JobGraph> jobGraphs = new ConcurrentHashMap<String, JobGraph>();
+	
+	/**
+	 * JobID -> (Maps Vertex Stage Number -> (Maps Vertex Number -> the attempt
+	 * that finished before the JobServer restarted)) - for recovered jobs, until
+	 * the vertex is made again (guarded by the job's lock)
+	 */
+	protected ConcurrentHashMap<String, HashMap<Integer, HashMap<Integer, VertexDescriptor>>> recoveredVertices =
+		new ConcurrentHashMap<String, HashMap<Integer, HashMap<Integer, VertexDescriptor>>>();
+	
+	/**
+	 * JobID -> the job's vertices not made yet (guarded by the job's lock),
+	 * removed with the job's outputMap entry
+	 */
+	protected ConcurrentHashMap<String, PendingVertices> pendingVertices = new ConcurrentHashMap<String, PendingVertices>();
+	
+	/**
+	 * Journal of jobs sent by clients and finished vertices - null if not journaled
 	 */
-	protected HashMap<String, HashMap<Integer, HashMap<Integer,ArrayList<String>>>> outputMap =  
-		new HashMap<String, HashMap<Integer,HashMap<Integer,ArrayList<String>>>>();
+	private volatile JobJournal journal;
 		
 	protected int numSimultenousJobs;
 	
@@ -71,6 +261,160 @@ public class JobManager {
 	
 	private int fileSplitsPerHdfsBlock;
 	
+	/**
+	 * Runs split planning for started jobs (see planFirstStage)
+	 */
+	private Executor splitPlanner;
+	
+	/**
+	 * Number of splits planned before they are made allocatable
+	 */
+	private int splitBatchSize;
+	
+	/**
+	 * How long a vertex waits for a VertexServer on a host storing its input
+	 * (and then as long again for one on the same rack) - 0 to not wait
+	 */
+	private volatile long localityWaitMs = 0;
+	
+	/**
+	 * Heap (MB) assumed for vertices of stages without a memory hint - 0 to
+	 * not count them against a VertexServer's free heap
+	 */
+	private volatile int defaultVertexMemoryMb = 0;
+	
+	/**
+	 * Most vertices of a job that are allocatable at a time - 0 to make every
+	 * vertex of a stage allocatable when the stage starts
+	 */
+	private volatile int maxQueuedVertices = 0;
+	
+	/**
+	 * A vertex running this many times longer than the median run time of its
+	 * stage's finished vertices gets a backup attempt - 0 for no backups
+	 */
+	private volatile double speculationSlowdown = 0;
+	
+	/**
+	 * Vertices running for less than this are never backed up
+	 */
+	private volatile long speculationMinRunMs = 0;
+	
+	/**
+	 * Fraction of a stage's vertices that must have finished before the
+	 * stage's median run time is trusted
+	 */
+	private static final double SPECULATION_QUORUM = 0.25;
+	
+	/**
+	 * Running vertices are checked for stragglers at most this often
+	 */
+	private static final long STRAGGLER_CHECK_INTERVAL_MS = 500;
+	
+	private AtomicLong lastStragglerCheck = new AtomicLong();
+	
+	/**
+	 * A vertex given more than this many times the median input of its stage's
+	 * vertices is skewed, and its input split if the stage allows - 0 to never
+	 * split
+	 */
+	private volatile double skewSplitFactor = 0;
+	
+	/**
+	 * Most vertices a skewed vertex's input is split between
+	 */
+	private volatile int skewMaxSplits = 1;
+
+	/**
+	 * A vertex's job fails once the vertex has failed this many times
+	 */
+	private volatile int maxVertexAttempts = 1;
+	
+	/**
+	 * Delay before a failed vertex is run again - doubled with each failure
+	 */
+	private volatile long retryBackoffMs = 0;
+	
+	/**
+	 * Runs the retries of failed vertices once their backoff is over - null
+	 * if they are retried straight away
+	 */
+	private volatile ScheduledExecutorService retryTimer;
+	
+	/**
+	 * Vertex -> how many of its attempts failed
+	 */
+	private ConcurrentHashMap<VertexDescriptor, Integer> vertexFailures = new ConcurrentHashMap<VertexDescriptor, Integer>();
+	
+	/**
+	 * A VertexServer having this many vertices fail in a row is blacklisted for
+	 * blacklistMs - 0 to never blacklist
+	 */
+	private volatile int blacklistFailures = 0;
+	private volatile long blacklistMs = 0;
+	
+	/**
+	 * VertexServer id -> vertices that failed on it since one last succeeded -
+	 * guarded by its own lock
+	 */
+	private HashMap<String, Integer> serverFailures = new HashMap<String, Integer>();
+	
+	/**
+	 * Blacklisted VertexServer id -> when it is given vertices again
+	 */
+	private ConcurrentHashMap<String, Long> blacklistedUntil = new ConcurrentHashMap<String, Long>();
+	
+	/**
+	 * VertexServer id -> when it last sent a heartbeat or work request
+	 */
+	protected ConcurrentHashMap<String, Long> vertexServersLastSeen = new ConcurrentHashMap<String, Long>();
+	
+	/**
+	 * VertexServer id -> when it was taken to be dead (see
+	 * removeDeadVertexServers), until it is heard from again - given no
+	 * vertices.  Forgotten after another livenessTimeoutMs, by when any
+	 * assignment to it under way then is over (a restarted VertexServer comes
+	 * back under a new id)
+	 */
+	protected ConcurrentHashMap<String, Long> deadServers = new ConcurrentHashMap<String, Long>();
+	
+	/**
+	 * VertexServers not heard from for this long are taken to be dead - 0 to
+	 * never take them to be dead
+	 */
+	private volatile long livenessTimeoutMs = 0;
+	
+	/**
+	 * A higher priority job's vertices that have waited this long for a thread
+	 * preempt running vertices of lower priority jobs - 0 to never preempt
+	 */
+	private volatile long preemptionWaitMs = 0;
+	
+	/**
+	 * Waiting vertices are checked for preemption at most this often
+	 */
+	private static final long PREEMPTION_CHECK_INTERVAL_MS = 500;
+	
+	private AtomicLong lastPreemptionCheck = new AtomicLong();
+	
+	/**
+	 * VertexServer id -> preempted attempts it has not been told to stop yet -
+	 * guarded by its own lock
+	 */
+	private HashMap<String, List<VertexDescriptor>> attemptsToStop = new HashMap<String, List<VertexDescriptor>>();
+	
+	/**
+	 * Preempted attempts not yet reported stopped (attemptKey) -> VertexServer
+	 * id - their threads are about to be free
+	 */
+	private ConcurrentHashMap<String, String> preemptedAttempts = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * Run (without holding any JobManager lock) whenever vertices are
+	 * waiting to be assigned - may be null
+	 */
+	private volatile Runnable verticesAllocatableListener;
+	
 	/**
 	 * 
 	 * @param numSimultaneousJobs - the number of simultaneously executing jobs
@@ -78,25 +422,210 @@ public class JobManager {
 	 * will be held in a queue until one or more currently running jobs is completed
 	 */
 	public JobManager(int numSimultaneousJobs, HdfsUtils hdfs, int fileSplitsPerHdfsBlock){
+		// plan splits in the thread that starts the job
+		this(numSimultaneousJobs, hdfs, fileSplitsPerHdfsBlock, new Executor(){
+			@Override
+			public void execute(Runnable command) {
+				command.run();
+			}
+		}, 1000);
+	}
+	
+	/**
+	 * @param splitPlanner - runs the split planning of started jobs
+	 * @param splitBatchSize - number of splits planned before they are made allocatable
+	 */
+	public JobManager(int numSimultaneousJobs, HdfsUtils hdfs, int fileSplitsPerHdfsBlock,
+			Executor splitPlanner, int splitBatchSize){
 		this.numSimultenousJobs = numSimultaneousJobs;
 		this.hdfs = hdfs;
 		this.fileSplitsPerHdfsBlock = fileSplitsPerHdfsBlock;
+		this.splitPlanner = splitPlanner;
+		this.splitBatchSize = splitBatchSize;
 		logger.info("JobManager initialized");
 	}
 	
+	/**
+	 * @param listener - run whenever vertices become allocatable so they can be
+	 * pushed to vertex servers rather than waiting for them to ask.  It must not
+	 * block
+	 */
+	public void setVerticesAllocatableListener(Runnable listener){
+		this.verticesAllocatableListener = listener;
+	}
+	
+	/**
+	 * @param localityWaitMs - how long a vertex is held back for a VertexServer on
+	 * a host storing its input before going to one on the same rack (and as long
+	 * again before going to any VertexServer)
+	 */
+	public void setLocalityWaitMs(long localityWaitMs){
+		this.localityWaitMs = localityWaitMs;
+	}
+	
+	/**
+	 * @param memoryMb - heap assumed for vertices of stages that don't declare
+	 * VertexStage.getMemoryMbPerVertex() (0 to not limit them by free heap)
+	 */
+	public void setDefaultVertexMemoryMb(int memoryMb){
+		this.defaultVertexMemoryMb = memoryMb;
+	}
+	
+	/**
+	 * Turns on speculative execution of stragglers
+	 * 
+	 * @param slowdown - a vertex running this many times longer than the median
+	 * run time of its stage's finished vertices gets a backup attempt (0 for no
+	 * backups)
+	 * @param minRunMs - vertices running for less than this are never backed up
+	 */
+	public void setSpeculation(double slowdown, long minRunMs){
+		this.speculationSlowdown = slowdown;
+		this.speculationMinRunMs = minRunMs;
+	}
+	
+	/**
+	 * @param maxVertices - most vertices of a job that are allocatable at a
+	 * time, the others made as its vertices are assigned (0 to make every
+	 * vertex of a stage allocatable when the stage starts) - a VertexServer
+	 * is only given a vertex with input on its host from among those
+	 */
+	public void setMaxQueuedVertices(int maxVertices){
+		this.maxQueuedVertices = maxVertices;
+	}
+	
+	/**
+	 * @param journal - records jobs sent by clients, finished vertices and
+	 * ended jobs from now on (null to stop journaling)
+	 */
+	void setJournal(JobJournal journal){
+		this.journal = journal;
+	}
+	
+	/**
+	 * @param factor - a vertex given more than this many times the median input
+	 * of its stage's vertices is skewed (0 to never split skewed vertices)
+	 * @param maxSplits - most vertices a skewed vertex's input is split between
+	 */
+	public void setSkewSplitting(double factor, int maxSplits){
+		this.skewSplitFactor = factor;
+		this.skewMaxSplits = maxSplits;
+	}
+	
+	/**
+	 * @param maxAttempts - a vertex's job fails once the vertex has failed this
+	 * many times (1 to fail the job on the first failure)
+	 * @param backoffMs - delay before a failed vertex is run again, doubled with
+	 * each failure of the vertex (0 to run it again straight away)
+	 */
+	public void setVertexRetries(int maxAttempts, long backoffMs){
+		this.maxVertexAttempts = maxAttempts;
+		this.retryBackoffMs = backoffMs;
+		if(backoffMs > 0 && retryTimer == null){
+			retryTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "vertex retries");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+	}
+	
+	/**
+	 * @param failures - a VertexServer having this many vertices fail in a row
+	 * is given no vertices for blacklistMs (0 to never blacklist)
+	 */
+	public void setBlacklisting(int failures, long blacklistMs){
+		this.blacklistFailures = failures;
+		this.blacklistMs = blacklistMs;
+	}
+	
+	/**
+	 * @param timeoutMs - a VertexServer not heard from for this long is taken to
+	 * be dead by removeDeadVertexServers (0: never)
+	 */
+	public void setLivenessTimeoutMs(long timeoutMs){
+		this.livenessTimeoutMs = timeoutMs;
+	}
+	
+	/**
+	 * @param waitMs - once a job's vertices have waited this long for a thread,
+	 * running vertices of lower priority jobs are preempted (0: never) - should
+	 * be well over 2 * localityWaitMs, vertices held back for their hosts
+	 * count as waiting
+	 */
+	public void setPreemptionWaitMs(long waitMs){
+		this.preemptionWaitMs = waitMs;
+	}
+	
+	/**
+	 * @param policy - how the VertexServers' threads are shared between jobs
+	 * (FAIR by default)
+	 */
+	public void setSchedulingPolicy(FairShareVertexQueue.Policy policy){
+		allocatableVertices.setPolicy(policy);
+	}
+	
+	/**
+	 * Configures a pool jobs can be run in (JobSpecification.setPool) - pools
+	 * not configured have weight 1 and no minimum share
+	 * 
+	 * @param weight - the pool's share of the threads relative to other pools
+	 * @param minShare - threads the pool is given ahead of the pools at or above
+	 * their minimum share
+	 */
+	public void setPool(String name, double weight, int minShare){
+		allocatableVertices.setPool(name, weight, minShare);
+	}
+	
+	/**
+	 * @return true if backups may be started for running vertices, so free
+	 * threads are worth offering again even with no allocatable vertices
+	 */
+	public boolean isSpeculating(){
+		return speculationSlowdown > 0 && ! verticesInProgress.isEmpty();
+	}
+	
+	/**
+	 * @return true if vertices are waiting to be assigned (some may be held back
+	 * for VertexServers on other hosts)
+	 */
+	public boolean hasAllocatableVertices(){
+		return ! allocatableVertices.isEmpty();
+	}
+	
+	/**
+	 * @return how many assigned vertices ran on a host storing their input, on its
+	 * rack, or elsewhere
+	 */
+	public String getLocalitySummary(){
+		return allocatableVertices.getLocalitySummary();
+	}
+
 	/**
 	 * A job arrives from the client is added into the manager via this
 	 * method
 	 * 
+	 * If the job can be started now, its split planning is handed to the
+	 * split planner.  With a journal, the job is journaled before it is queued
+	 * so it is recovered whether it has started or not
 	 */
-	public synchronized void addNewJobFromClient(JobDescriptor jobDescriptor){
-		unprocessedJobQ.add(jobDescriptor);
+	public void addNewJobFromClient(JobDescriptor jobDescriptor){
+		JobJournal jobJournal = journal;
+		if(jobJournal != null){
+			jobJournal.jobAdded(jobDescriptor);
+		}
+		synchronized(this){
+			unprocessedJobQ.add(jobDescriptor);
+		}
 		logger.info("Enqueued job " + jobDescriptor);
 	
 		// For the first vertex stage of newly added jobs, this
 		// will take care of making sure their vertices
 		// are allocatable
-		updateAllocatableVertices();
+		startQueuedJobs();
 	}
 	
 	/**
@@ -110,64 +639,366 @@ public class JobManager {
 	 * 
 	 * @return A list of VertexDescriptor that represents
 	 * the vertices newly assigned to this server - assignment
-	 * is done based on the capacity of this server
+	 * is done based on the capacity of this server: a vertex for each
+	 * available thread, as long as their memory fits in its free heap
 	 */
-	public synchronized List<VertexDescriptor> assignVerticesToServer(VertexServerInfo vserver){
-		ArrayList<VertexDescriptor> assignedVertices = new ArrayList<VertexDescriptor>();
-		
+	public List<VertexDescriptor> assignVerticesToServer(VertexServerInfo vserver){
 		if(vserver.getAvailableThreads() == 0){
 			logger.warning("vertex server assign called with no available threads");
-			return assignedVertices;
-		}
-		
-		
-		// For now just assign the next available vertices up to available/3
-		// - may need to tune later
-		int maxToAssign = (int)Math.ceil(vserver.getAvailableThreads()/3.0);
-		for(int i = 0; i < maxToAssign; i++){
-			if(allocatableVertices.size() == 0){
-				break;
-			}
-			VertexDescriptor vertex = allocatableVertices.remove();
-			vertex.setVertexServerAssignment(vserver.getId());
-			verticesInProgress.add(vertex);
-			assignedVertices.add(vertex);
-			
-			logger.info("Assigned Vertex (" + vertex + ") to VServer (" + vserver + ")");
+			return new ArrayList<VertexDescriptor>();
 		}
-		return assignedVertices;
+		return assignVertices(vserver);
 	}
 	
-	
-	
 	/**
-	 * Called when a HeartBeat from the VertexServer indicates
-	 * that a Vertex has finished executing and it failed or
-	 * suceeded.  For now, any such failure will result in the whole
-	 * job being marked as failed.
+	 * Applies all the vertex completions from one VertexServer heartbeat and
+	 * then assigns vertices to the server.  Each job's lock is taken once for its
+	 * completions and each job that had vertices complete is moved on once for
+	 * the whole batch rather than once per completed vertex.
 	 * 
-	 * - Should only be called for vertices that have been completely
-	 * executed (finished succesfully or else finished to to failure)
+	 * @param vserver - the VertexServer that sent the heartbeat; vertices are 
+	 * assigned to its available threads (none if 0)
+	 * @param completions - completion reports (see updateVertexStatus(VertexCompletion)) - may be null
+	 * @param vertices - completed vertex descriptors (see updateVertexStatus(VertexDescriptor)) - may be null
 	 * 
+	 * @return vertices newly assigned to the server
 	 */
-	public synchronized void updateVertexStatus(VertexDescriptor vertex){
-		
-		// make sure job still exists (could be status report after job
-		// already failed)
-		JobDescriptor job = jobsInProgress.get(vertex.getJobId());
-		if(job == null){
-			// job no longer exists
-			return;
+	public List<VertexDescriptor> processHeartbeat(VertexServerInfo vserver,
+			List<VertexCompletion> completions, List<VertexDescriptor> vertices){
+		serverHeartbeat(vserver.getId());
+
+		// group the updates by job so each job's lock is taken once
+		HashMap<String, List<Object>> updatesByJob = new HashMap<String, List<Object>>();
+		if(completions != null){
+			for(VertexCompletion completion : completions){
+				addUpdate(updatesByJob, completion.getJobId(), completion);
+			}
 		}
-		JobStatus status = job.getJobStatus();
-		
-		// in case of future enhancement where duplicate vertex execution
-		// can happen, make sure that any status reported on previous
-		// stages of the job are ignored
-		if(vertex.getStageNumber() < status.getCurrentVertexStage()){
-			logger.info("Rejecting status update of vertex because its less than current job stage: " +
-					vertex);
-			return;
+		if(vertices != null){
+			for(VertexDescriptor vertex : vertices){
+				addUpdate(updatesByJob, vertex.getJobId(), vertex);
+			}
+		}
+
+		LinkedHashSet<JobDescriptor> jobsToAdvance = new LinkedHashSet<JobDescriptor>();
+		List<String> outputToDiscard = new ArrayList<String>();
+		for(String jobId : updatesByJob.keySet()){
+			JobDescriptor job = jobsInProgress.get(jobId);
+			if(job == null){
+				// job no longer exists - attempts that lost may still report
+				for(Object update : updatesByJob.get(jobId)){
+					lostAttempt(update, outputToDiscard);
+				}
+				continue;
+			}
+			synchronized(job){
+				for(Object update : updatesByJob.get(jobId)){
+					if(lostAttempt(update, outputToDiscard)){
+						continue;
+					}
+					VertexDescriptor vertex;
+					if(update instanceof VertexCompletion){
+						vertex = resolveCompletion((VertexCompletion)update);
+					}else{
+						vertex = (VertexDescriptor)update;
+					}
+					if(vertex != null && applyVertexStatus(job, vertex)){
+						jobsToAdvance.add(job);
+					}
+				}
+			}
+		}
+		for(JobDescriptor job : jobsToAdvance){
+			advanceJob(job);
+		}
+		discardOutput(outputToDiscard);
+		
+		if(vserver.getAvailableThreads() == 0){
+			return new ArrayList<VertexDescriptor>();
+		}
+		return assignVertices(vserver);
+	}
+	
+	private static void addUpdate(HashMap<String, List<Object>> updatesByJob, String jobId, Object update){
+		List<Object> updates = updatesByJob.get(jobId);
+		if(updates == null){
+			updates = new ArrayList<Object>();
+			updatesByJob.put(jobId, updates);
+		}
+		updates.add(update);
+	}
+
+	private List<VertexDescriptor> assignVertices(VertexServerInfo vserver){
+		ArrayList<VertexDescriptor> assignedVertices = new ArrayList<VertexDescriptor>();
+		if(isBlacklisted(vserver.getId())){
+			logger.fine("Not assigning vertices to blacklisted VServer (" + vserver + ")");
+			return assignedVertices;
+		}
+		if(deadServers.containsKey(vserver.getId())){
+			logger.fine("Not assigning vertices to dead VServer (" + vserver + ")");
+			return assignedVertices;
+		}
+		
+		// Fill every available thread in one go, as long as the vertices' memory
+		// fits in the server's free heap
+		List<JobDescriptor> replayedJobs = null;
+		int maxToAssign = vserver.getAvailableThreads();
+		long memoryLeftMb = vserver.getFreeMemoryMb() > 0 ? vserver.getFreeMemoryMb() : Long.MAX_VALUE;
+		while(assignedVertices.size() < maxToAssign){
+			// a server running nothing gets a vertex however big it is - it
+			// would never run otherwise
+			long maxMemoryMb = memoryLeftMb;
+			if(assignedVertices.isEmpty() && vserver.getRunningVertices() == 0){
+				maxMemoryMb = Long.MAX_VALUE;
+			}
+			
+			// vertices with input on the server's host first
+			VertexDescriptor vertex = allocatableVertices.pollFor(vserver.getHostname(), localityWaitMs,
+					maxMemoryMb);
+			if(vertex == null){
+				break;
+			}
+
+			JobDescriptor job = jobsInProgress.get(vertex.getJobId());
+			if(job == null){
+				// (records are only purged after the job finished, by which
+				// time its vertices were removed from allocatableVertices)
+				startVertex(vertex, vserver);
+			}else{
+				synchronized(job){
+					// the job may have failed since the vertex was taken off the queue
+					if(job.getJobStatus() != null && job.getJobStatus().getExecutionFinished()){
+						continue;
+					}
+					startVertex(vertex, vserver);
+					// the vertex's place in the queue goes to one not made yet
+					if(fillQueue(job)){
+						if(replayedJobs == null){
+							replayedJobs = new ArrayList<JobDescriptor>();
+						}
+						replayedJobs.add(job);
+					}
+				}
+			}
+			assignedVertices.add(vertex);
+			memoryLeftMb -= vertex.getMemoryMb();
+			
+			logger.info("Assigned Vertex (" + vertex + ") to VServer (" + vserver + ")");
+		}
+		
+		// threads no allocatable vertex needs run backups of stragglers
+		if(assignedVertices.size() < maxToAssign && speculationSlowdown > 0){
+			findStragglers();
+			assignBackups(vserver, assignedVertices, memoryLeftMb);
+		}
+		
+		// a recovered job's vertices replayed may have finished a stage
+		for(int i = 0; replayedJobs != null && i < replayedJobs.size(); i++){
+			advanceJob(replayedJobs.get(i));
+		}
+		
+		// taken to be dead meanwhile - its attempts may have been requeued
+		// before these were added
+		if(! assignedVertices.isEmpty() && deadServers.containsKey(vserver.getId())){
+			requeueUndelivered(assignedVertices);
+			return new ArrayList<VertexDescriptor>();
+		}
+		return assignedVertices;
+	}
+
+	private void startVertex(VertexDescriptor vertex, VertexServerInfo vserver){
+		vertex.setVertexServerAssignment(vserver.getId());
+		vertex.setAssignedAt(System.currentTimeMillis());
+		verticesInProgress.add(vertex);
+	}
+	
+	/**
+	 * Assigns queued backup attempts to the server's threads left - never a
+	 * backup of a vertex already running on the server
+	 */
+	private void assignBackups(VertexServerInfo vserver, List<VertexDescriptor> assignedVertices, long memoryLeftMb){
+		Iterator<VertexDescriptor> itr = backupVertices.iterator();
+		while(assignedVertices.size() < vserver.getAvailableThreads() && itr.hasNext()){
+			VertexDescriptor backup = itr.next();
+			JobDescriptor job = jobsInProgress.get(backup.getJobId());
+			if(job == null){
+				backupVertices.remove(backup);
+				continue;
+			}
+			synchronized(job){
+				VertexDescriptor running = verticesInProgress.get(backup.getJobId(), backup.getStageNumber(),
+						backup.getVertexNumber());
+				if(running == null || job.getJobStatus().getExecutionFinished()){
+					// the vertex finished (or the job failed) meanwhile
+					backupVertices.remove(backup);
+					continue;
+				}
+				if(vserver.getId().equals(running.getVertexServerAssignment()) || 
+						backup.getMemoryMb() > memoryLeftMb){
+					continue;
+				}
+				if(! backupVertices.remove(backup)){
+					// assigned to another server meanwhile
+					continue;
+				}
+				backup.setVertexServerAssignment(vserver.getId());
+				backup.setAssignedAt(System.currentTimeMillis());
+				backupsInProgress.add(backup);
+			}
+			assignedVertices.add(backup);
+			memoryLeftMb -= backup.getMemoryMb();
+			
+			logger.info("Assigned backup attempt " + backup.getAttempt() + " of Vertex (" + backup + 
+					") to VServer (" + vserver + ")");
+		}
+	}
+	
+	/**
+	 * Queues a backup attempt for each running vertex that has run for over
+	 * speculationSlowdown times the median run time of its stage's finished
+	 * vertices (and at least speculationMinRunMs) - runs at most once per 
+	 * STRAGGLER_CHECK_INTERVAL_MS
+	 */
+	private void findStragglers(){
+		long now = System.currentTimeMillis();
+		long lastCheck = lastStragglerCheck.get();
+		if(now - lastCheck < STRAGGLER_CHECK_INTERVAL_MS || ! lastStragglerCheck.compareAndSet(lastCheck, now)){
+			return;
+		}
+		for(VertexDescriptor vertex : verticesInProgress){
+			long runningMs = now - vertex.getAssignedAt();
+			if(vertex.getAssignedAt() == 0 || runningMs < speculationMinRunMs ||
+					backupVertices.contains(vertex) || backupsInProgress.contains(vertex)){
+				continue;
+			}
+			JobDescriptor job = jobsInProgress.get(vertex.getJobId());
+			if(job == null){
+				continue;
+			}
+			synchronized(job){
+				if(job.getJobStatus().getExecutionFinished() || ! verticesInProgress.contains(vertex)){
+					continue;
+				}
+				Long medianMs = medianRunTime(job, vertex.getStageNumber());
+				if(medianMs == null || runningMs <= speculationSlowdown * medianMs){
+					continue;
+				}
+				VertexDescriptor backup = newVertex(job, vertex.getStageNumber(), vertex.getVertexNumber(),
+						vertex.getInputPaths());
+				backup.setPreferredHosts(vertex.getPreferredHosts());
+				backup.setInputStages(vertex.getInputStages());
+				backup.setInputStageSizes(vertex.getInputStageSizes());
+				backup.setAttempt(nextAttempt(vertex));
+				backupVertices.add(backup);
+				logger.info("Vertex (" + vertex + ") has run for " + runningMs + " ms, its stage's median is " +
+						medianMs + " ms - queued backup attempt " + backup.getAttempt());
+			}
+		}
+	}
+	
+	/**
+	 * Median run time (ms) of the stage's finished vertices - null until
+	 * SPECULATION_QUORUM of the stage has finished.  Call while holding the
+	 * job's lock
+	 */
+	private Long medianRunTime(JobDescriptor job, int stageIndex){
+		HashMap<Integer, ArrayList<Long>> jobRunTimes = runTimes.get(job.getJobId());
+		ArrayList<Long> stageRunTimes = jobRunTimes == null ? null : jobRunTimes.get(stageIndex);
+		if(stageRunTimes == null || stageRunTimes.isEmpty()){
+			return null;
+		}
+		List<Integer> stageVertices = job.getJobStatus().getStageVertices();
+		if(stageVertices != null && stageIndex < stageVertices.size() &&
+				stageRunTimes.size() < SPECULATION_QUORUM * stageVertices.get(stageIndex)){
+			return null;
+		}
+		return stageRunTimes.get(stageRunTimes.size() / 2);
+	}
+	
+	/**
+	 * Records how long a finished vertex ran - call while holding the job's lock
+	 */
+	private void recordRunTime(JobDescriptor job, VertexDescriptor vertex){
+		if(vertex.getAssignedAt() == 0){
+			return;
+		}
+		HashMap<Integer, ArrayList<Long>> jobRunTimes = runTimes.get(job.getJobId());
+		if(jobRunTimes == null){
+			jobRunTimes = new HashMap<Integer, ArrayList<Long>>();
+			runTimes.put(job.getJobId(), jobRunTimes);
+		}
+		ArrayList<Long> stageRunTimes = jobRunTimes.get(vertex.getStageNumber());
+		if(stageRunTimes == null){
+			stageRunTimes = new ArrayList<Long>();
+			jobRunTimes.put(vertex.getStageNumber(), stageRunTimes);
+		}
+		long runTimeMs = System.currentTimeMillis() - vertex.getAssignedAt();
+		int index = Collections.binarySearch(stageRunTimes, runTimeMs);
+		stageRunTimes.add(index < 0 ? -index - 1 : index, runTimeMs);
+	}
+	
+	
+	
+	/**
+	 * Called when a HeartBeat from the VertexServer indicates
+	 * that a Vertex has finished executing and it failed or
+	 * suceeded.  A failed vertex is run again - the whole job
+	 * is marked as failed once the vertex has no attempts left.
+	 * 
+	 * - Should only be called for vertices that have been completely
+	 * executed (finished succesfully or else finished to to failure)
+	 * 
+	 */
+	public void updateVertexStatus(VertexDescriptor vertex){
+		
+		// make sure job still exists (could be status report after job
+		// already failed)
+		JobDescriptor job = jobsInProgress.get(vertex.getJobId());
+		List<String> outputToDiscard = new ArrayList<String>();
+		if(job == null){
+			// job no longer exists
+			lostAttempt(vertex, outputToDiscard);
+			discardOutput(outputToDiscard);
+			return;
+		}
+
+		boolean stageMayHaveFinished = false;
+		synchronized(job){
+			if(! lostAttempt(vertex, outputToDiscard)){
+				stageMayHaveFinished = applyVertexStatus(job, vertex);
+			}
+		}
+		discardOutput(outputToDiscard);
+		if(stageMayHaveFinished){
+			// Makes sure that any ready to run vertices
+			// are allocatable
+			advanceJob(job);
+		}
+	}
+
+	/**
+	 * Records a finished vertex without moving the job on to its next stage -
+	 * call while holding the job's lock
+	 *
+	 * @return true if the job needs to be checked for a finished stage (or 
+	 * the listener told about a retried vertex)
+	 */
+	private boolean applyVertexStatus(JobDescriptor job, VertexDescriptor vertex){
+		JobStatus status = job.getJobStatus();
+		ensureStageProgress(job);
+
+		// job already failed or finished
+		if(status.getExecutionFinished()){
+			return false;
+		}
+		
+		// in case of future enhancement where duplicate vertex execution
+		// can happen, make sure that any status reported on previous
+		// stages of the job are ignored
+		if(vertex.getStageNumber() < status.getCurrentVertexStage() && ! isRerun(job, vertex)){
+			logger.info("Rejecting status update of vertex because its less than current job stage: " +
+					vertex);
+			return false;
 		}
 		
 		// This shouldnt happen - but if it does, 
@@ -177,323 +1008,2047 @@ public class JobManager {
 			// isn't suck forever & needs to be timed out, but for now, not
 			// expecting status to be reported until a vertex is finished
 			logger.warning("Vertex Server (" + vertex.getVertexServerAssignment()+ ") reported status for still executing vertex " + vertex);
-			return;
+			return false;
 		}
 		
 		logger.info("Status update from V. Server (" + 
 				vertex.getVertexServerAssignment() + ") Vertex (" + vertex + ") " +
 						"completed with " + (vertex.getExecutionSuccessful() ? "Success" : "FAILURE"));
 		
-		// Right now, whole job fails if
-		// single vertex fails
+		// the vertex's other attempt, if one is still running
+		VertexDescriptor otherAttempt = verticesInProgress.get(vertex.getJobId(), vertex.getStageNumber(), 
+				vertex.getVertexNumber());
+		if(otherAttempt == null || otherAttempt.getAttempt() == vertex.getAttempt()){
+			otherAttempt = backupsInProgress.get(vertex.getJobId(), vertex.getStageNumber(), vertex.getVertexNumber());
+		}
+		if(otherAttempt != null && otherAttempt.getAttempt() == vertex.getAttempt()){
+			otherAttempt = null;
+		}
+		
+		// A failed vertex is run again - the whole job fails once it 
+		// has no attempts left (nothing to do while another attempt of it runs)
 		if(! vertex.getExecutionSuccessful()){
+			serverFailed(vertex.getVertexServerAssignment());
+			if(otherAttempt != null){
+				logger.info("Attempt " + vertex.getAttempt() + " of vertex failed, waiting for attempt " + 
+						otherAttempt.getAttempt() + ": " + vertex);
+				// the other attempt carries on as the vertex's only attempt
+				backupsInProgress.remove(otherAttempt);
+				verticesInProgress.remove(otherAttempt);
+				verticesInProgress.add(otherAttempt);
+				return false;
+			}
+			if(retryVertex(job, vertex)){
+				return true;
+			}
 			failJob(vertex);
-			return;
+			return false;
 		}				
+		serverSucceeded(vertex.getVertexServerAssignment());
+
+		// last stage already finished - output is being moved
+		HashMap<Integer, HashMap<Integer, ArrayList<String>>> jobOutputMap = outputMap.get(job.getJobId());
+		if(jobOutputMap == null){
+			return false;
+		}
 
-		status.setTotalVerticesInProgressCurrentStage(
-				status.getTotalVerticesInProgressCurrentStage()-1);
+		int stage = vertex.getStageNumber();
+		if(stage >= status.getStageVerticesFinished().size()){
+			logger.warning("Ignoring status of vertex in a stage the job doesn't have: " + vertex);
+			return false;
+		}
+		
+		// a vertex run again because its output was lost was counted already
+		boolean rerun = isRerun(job, vertex);
+		if(! rerun){
+			// count it in its own stage - later stages may be in progress too
+			status.getStageVerticesFinished().set(stage, status.getStageVerticesFinished().get(stage) + 1);
+			syncCurrentStage(status);
+		}
 		
 		// Remove the vertex from the assigned vertices set
 		verticesInProgress.remove(vertex);
+		backupsInProgress.remove(vertex);
+		backupVertices.remove(vertex);
+		vertexFailures.remove(vertex);
+		recordRunTime(job, vertex);
 		
-		Integer nextStageNumber = null;
-		if(vertex.getStageNumber()+1 < job.getJobStatus().getTotalVertexStages()){
-			// If there is a next stage, record its index
-			nextStageNumber = vertex.getStageNumber() +1;
+		// this attempt finished first - the other one's output is thrown away
+		if(otherAttempt != null){
+			losingAttempts.add(attemptKey(otherAttempt, otherAttempt.getAttempt()));
+			logger.info("Attempt " + vertex.getAttempt() + " of vertex finished first, attempt " + 
+					otherAttempt.getAttempt() + " will be discarded: " + vertex);
 		}
 		
-		// record the output of this vertex
-		HashMap<Integer, ArrayList<String>> stageOutputMap = outputMap.get(job.getJobId()).get(nextStageNumber);
-		if(stageOutputMap == null){
-			stageOutputMap = new HashMap<Integer,ArrayList<String>>();
-			outputMap.get(job.getJobId()).put(nextStageNumber, stageOutputMap);			
+		JobGraph graph = graphOf(job);
+		HashMap<Integer, VertexDescriptor> stageFinishedVertices = finishedVertices(job, stage);
+		if(rerun){
+			// the output of the vertex's earlier run is replaced - the lists are
+			// copied as vertices already started may share them
+			List<String> earlierFiles = outputFiles(stageFinishedVertices.get(vertex.getVertexNumber()).getOutput());
+			for(Integer outputKey : outputKeys(graph, stage)){
+				HashMap<Integer, ArrayList<String>> stageOutputMap = jobOutputMap.get(outputKey);
+				if(stageOutputMap == null){
+					continue;
+				}
+				for(Integer nextVertex : stageOutputMap.keySet()){
+					ArrayList<String> files = new ArrayList<String>(stageOutputMap.get(nextVertex));
+					files.removeAll(earlierFiles);
+					stageOutputMap.put(nextVertex, files);
+				}
+			}
+			lostOutputs.get(job.getJobId()).rerunFinished(vertex, earlierFiles);
 		}
+		
+		// record the output of this vertex for each stage reading it
 		VertexOutput vOut = vertex.getOutput();
-		if(vOut == null || vOut.getOutputMap() == null){
+		if(vOut == null || vOut.getOutputMap() == null && vOut.getStageOutputMaps() == null){
 			logger.warning("Vertex " + vertex + " did not have a non-null output map");
+		}else if(graph.isLastStage(stage)){
+			recordOutput(jobOutputMap, null, vOut.getOutputMap(), vertex);
 		}else{
-			for(Integer nextVertex : vOut.getOutputMap().keySet()){
-				if(vOut.getOutputMap().get(nextVertex) != null){
-					List<String> outputFiles = vOut.getOutputMap().get(nextVertex);
-					for(String file : outputFiles){
-						if(! stageOutputMap.containsKey(nextVertex)){
-							stageOutputMap.put(nextVertex, new ArrayList<String>());
-						}
-						stageOutputMap.get(nextVertex).add(file);
-					}
-				}else{
-					logger.warning("Vertex " + vertex + " had null output list for next vertex number " + 
-							nextVertex);
-				}
+			for(JobGraph.Edge edge : graph.outputsOf(stage)){
+				recordOutput(jobOutputMap, edge.outputKey, outputFor(graph, edge, vOut), vertex);
 			}
 		}
 		
+		stageFinishedVertices.put(vertex.getVertexNumber(), vertex);
+		JobJournal jobJournal = journal;
+		if(jobJournal != null){
+			jobJournal.vertexFinished(vertex);
+		}
 		
-		// Makes sure that any ready to run vertices
-		// are allocatable
-		updateAllocatableVertices();
+		if(rerun){
+			logger.info("Vertex was run again, its output replaces the lost output: " + vertex);
+			releaseHeld(job);
+			return true;
+		}
+		
+		// a vertex with pointwise input may only have needed this vertex's output
+		boolean released = false;
+		for(JobGraph.Edge edge : graph.outputsOf(stage)){
+			if(edge.type == StageEdge.Type.POINTWISE && releaseIfReady(job, graph, edge.to, vertex.getVertexNumber())){
+				released = true;
+			}
+		}
+		
+		return released || stageFinished(status, stage);
 	}
 	
 	/**
-	 * This is used for handling status requests from a Client;
-	 * the JobServer will send this back to the Client & the
-	 * Client can interpret the status
+	 * Adds a vertex's output files to those recorded for the vertices of the 
+	 * stage reading them - call while holding the job's lock
 	 * 
-	 * If the queried job is finished executing it is removed
-	 * from the "jobs in progress" data structure
-	 * 
-	 * @param jobId
-	 * @return
+	 * @param outputKey - see outputMap (null for the job's output)
+	 * @param vertexOutputMap - next vertex number -> files (may be null)
 	 */
-	public synchronized JobStatus jobStatusQuery(String jobId){
-		JobDescriptor job = jobsInProgress.get(jobId);
-				
-		// no status available
-		if(job == null){
-			logger.info("Status query for jobID=" + jobId + " - JOB NOT NOT FOUND");
-			return null;
+	private void recordOutput(HashMap<Integer, HashMap<Integer, ArrayList<String>>> jobOutputMap, Integer outputKey,
+			Map<Integer, List<String>> vertexOutputMap, VertexDescriptor vertex){
+		HashMap<Integer, ArrayList<String>> stageOutputMap = jobOutputMap.get(outputKey);
+		if(stageOutputMap == null){
+			stageOutputMap = new HashMap<Integer,ArrayList<String>>();
+			jobOutputMap.put(outputKey, stageOutputMap);
 		}
-
-		JobStatus status = job.getJobStatus();		
-		
-		// purge the job if its finished
-		if(status.getExecutionFinished()){
-			logger.info("Status query for jobID=" + jobId + " - JOB FINISHED");
-			jobsInProgress.remove(jobId);
-		}else{
-			logger.info("Status query for jobID=" + jobId + " - JOB IN PROGRESS");
+		if(vertexOutputMap == null){
+			return;
+		}
+		for(Integer nextVertex : vertexOutputMap.keySet()){
+			if(vertexOutputMap.get(nextVertex) != null){
+				List<String> outputFiles = vertexOutputMap.get(nextVertex);
+				for(String file : outputFiles){
+					if(! stageOutputMap.containsKey(nextVertex)){
+						stageOutputMap.put(nextVertex, new ArrayList<String>());
+					}
+					stageOutputMap.get(nextVertex).add(file);
+				}
+			}else{
+				logger.warning("Vertex " + vertex + " had null output list for next vertex number " + 
+						nextVertex);
+			}
 		}
-		return status;
 	}
 	
 	/**
-	 * Marks the job as failed and does necessary cleanup - however,
-	 * job stays in jobsInProgress queue until getJobStatus is called
-	 * so that client knows how/why job failed before its record is deleted
-	 * 
-	 * @param jobId
+	 * The part of a vertex's output read over the edge: the output map it
+	 * wrote for the edge's stage, or its only output map if no other stage
+	 * reads its output (null if neither)
 	 */
-	private void failJob(String jobId){
-		JobDescriptor job = jobsInProgress.get(jobId);
-		
-		if(job==null){
-			// job could have already been failed by another thread &
-			// already removed by a client status query
-			logger.info("Failing JOB ID=" + jobId + " - job not found");			
-		}else{
-			logger.info("Failing JOB ID=" + jobId + " " + job);
+	private static Map<Integer, List<String>> outputFor(JobGraph graph, JobGraph.Edge edge, VertexOutput vOut){
+		Map<Integer, List<String>> files = vOut.getOutputMap(graph.nameOf(edge.to));
+		if(files == null && graph.outputsOf(edge.from).size() == 1){
+			files = vOut.getOutputMap();
 		}
-		
-		job.getJobStatus().setExecutionFinished(true);
-		// note: job is not removed from queue until next client
-		// status request so that we can report more info to
-		// the client on that request
-		
-		// Remove vertices for the failed job
-		Iterator<VertexDescriptor> itr = allocatableVertices.iterator();
-		while(itr.hasNext()){
-			if(itr.next().getJobId().equals(jobId)){
-				itr.remove();
-			}
+		return files;
+	}
+	
+	/**
+	 * The outputMap keys the stage's output is recorded under
+	 */
+	private static List<Integer> outputKeys(JobGraph graph, int stageIndex){
+		List<Integer> keys = new ArrayList<Integer>();
+		if(graph.isLastStage(stageIndex)){
+			keys.add(null);
 		}
-		
-		// Remove vertices for the failed job
-		itr = verticesInProgress.iterator();
-		while(itr.hasNext()){
-			if(itr.next().getJobId().equals(jobId)){
-				itr.remove();
-			}
+		for(JobGraph.Edge edge : graph.outputsOf(stageIndex)){
+			keys.add(edge.outputKey);
 		}
-		
-		// wack the output map
-		outputMap.remove(jobId);
+		return keys;
 	}
 	
 	/**
-	 * Job is failed as a result of a failed vertex
-	 * 
-	 * @param vertex
+	 * Called for each vertex in a VertexServer's completion report - the
+	 * report only identifies the vertex so it is resolved against the record in
+	 * verticesInProgress.  Reports for vertices that aren't in progress (job failed,
+	 * duplicate report) are ignored
 	 */
-	private void failJob(VertexDescriptor vertex){
-		String jobId = vertex.getJobId();
-		failJob(jobId);
-		
+	public void updateVertexStatus(VertexCompletion completion){
+		JobDescriptor job = jobsInProgress.get(completion.getJobId());
+		List<String> outputToDiscard = new ArrayList<String>();
+		if(job == null){
+			if(! lostAttempt(completion, outputToDiscard)){
+				logger.info("Ignoring completion of vertex for unknown job: " + completion);
+			}
+			discardOutput(outputToDiscard);
+			return;
+		}
+
+		boolean stageMayHaveFinished = false;
+		synchronized(job){
+			if(! lostAttempt(completion, outputToDiscard)){
+				VertexDescriptor vertex = resolveCompletion(completion);
+				if(vertex != null){
+					stageMayHaveFinished = applyVertexStatus(job, vertex);
+				}
+			}
+		}
+		discardOutput(outputToDiscard);
+		if(stageMayHaveFinished){
+			advanceJob(job);
+		}
 	}
 	
 	/**
-	 * Puts job in the map of currently running jobs & initializes its JobStatus 
+	 * Call while holding the job's lock
+	 *
+	 * @return the in progress record updated from the completion, or null if
+	 * the vertex isn't in progress
 	 */
-	private void startJob(JobDescriptor job){
-		JobStatus jobStatus = new JobStatus();
-		job.setJobStatus(jobStatus);
-		
-		// indicates to allocation function
-		// that the first stage needs to have
-		// its vertices made allocatable
-		jobStatus.setCurrentVertexStage(-1);
-		jobStatus.setTotalVertexStages(job.getJobSpecification().getVertexStages().size());
-		
-		jobStatus.setExecutionFinished(false);
-		jobsInProgress.put(job.getJobId(), job);
-		
-		// setup the output map for this job
-		outputMap.put(job.getJobId(), new HashMap<Integer, HashMap<Integer,ArrayList<String>>>());
-		
-		if(jobStatus.getTotalVertexStages() == 0){
-			// Fail job
-			logger.severe("Job has no vertex stages");
-			jobStatus.setExecutionFinished(true);
-			return;
+	private VertexDescriptor resolveCompletion(VertexCompletion completion){
+		VertexDescriptor vertex = verticesInProgress.get(completion.getJobId(), 
+				completion.getStageNumber(), completion.getVertexNumber());
+		if(vertex == null || vertex.getAttempt() != completion.getAttempt()){
+			// a backup attempt
+			vertex = backupsInProgress.get(completion.getJobId(), 
+					completion.getStageNumber(), completion.getVertexNumber());
 		}
-		
-		logger.info("Started Job " + job);
+		if(vertex == null || vertex.getAttempt() != completion.getAttempt()){
+			logger.info("Ignoring completion of vertex not in progress: " + completion);
+			return null;
+		}
+		vertex.setExecutionFinished(true);
+		vertex.setExecutionSuccessful(completion.getExecutionSuccessful());
+		vertex.setOutput(completion.getOutput());
+		return vertex;
 	}
 	
 	/**
-	 * - If any space available in jobsInProgress queue,
-	 * enqueues jobs from the unprocessed jobs queue
-	 * - Iterates over jobs in progress, making sure that
-	 * any allocatable Vertex's are allocatable
+	 * Makes a new attempt of a failed vertex allocatable once its backoff is
+	 * over - call while holding the job's lock
+	 * 
+	 * @return false if the vertex has failed maxVertexAttempts times
 	 */
-	private void updateAllocatableVertices(){
-		
-		// If less than the max number simultaneous jobs are running,
-		// remove jobs from the unprocessed Q and start them
-		while(unprocessedJobQ.size() > 0 && jobsInProgress.size() < numSimultenousJobs){
-			startJob(unprocessedJobQ.remove());			
+	private boolean retryVertex(final JobDescriptor job, VertexDescriptor failed){
+		Integer failures = vertexFailures.get(failed);
+		failures = failures == null ? 1 : failures + 1;
+		if(failures >= maxVertexAttempts){
+			if(maxVertexAttempts > 1){
+				logger.warning("Vertex failed " + failures + " times, no attempts left: " + failed);
+			}
+			return false;
 		}
+		vertexFailures.put(failed, failures);
+		verticesInProgress.remove(failed);
+		// a backup not yet started is replaced by the retry
+		backupVertices.remove(failed);
 		
-		// Now make sure all allocatable vertices are allocatable
-		jobLoop: for(JobDescriptor job : jobsInProgress.values()){			
-			JobStatus jobStatus  = job.getJobStatus();
+		final VertexDescriptor retry = newVertex(job, failed.getStageNumber(), failed.getVertexNumber(), 
+				failed.getInputPaths());
+		retry.setPreferredHosts(failed.getPreferredHosts());
+		retry.setAttempt(nextAttempt(failed));
+		
+		long delayMs = retryBackoffMs * (1L << Math.min(failures - 1, 10));
+		logger.info("Vertex failed (" + failures + " of " + maxVertexAttempts + " attempts), running it again in " + 
+				delayMs + " ms: " + failed);
+		ScheduledExecutorService timer = retryTimer;
+		if(delayMs <= 0 || timer == null){
+			releaseOrHold(job, retry);
+			return true;
+		}
+		timer.schedule(new Runnable(){
+			@Override
+			public void run() {
+				synchronized(job){
+					// job may have failed meanwhile
+					if(job.getJobStatus().getExecutionFinished() || outputMap.get(job.getJobId()) == null){
+						return;
+					}
+					releaseOrHold(job, retry);
+				}
+				notifyVerticesAllocatable();
+			}
+		}, delayMs, TimeUnit.MILLISECONDS);
+		return true;
+	}
+	
+	/**
+	 * Counts a failed vertex against the VertexServer that ran it, blacklisting
+	 * the server after blacklistFailures failures in a row
+	 */
+	private void serverFailed(String vserverId){
+		if(vserverId == null || blacklistFailures <= 0){
+			return;
+		}
+		synchronized(serverFailures){
+			Integer failures = serverFailures.get(vserverId);
+			failures = failures == null ? 1 : failures + 1;
+			serverFailures.put(vserverId, failures);
+			if(failures >= blacklistFailures && ! blacklistedUntil.containsKey(vserverId)){
+				blacklistedUntil.put(vserverId, System.currentTimeMillis() + blacklistMs);
+				logger.warning("VServer (" + vserverId + ") had " + failures + " vertices fail in a row - " +
+						"not assigning it vertices for " + blacklistMs + " ms");
+			}
+		}
+	}
+	
+	private void serverSucceeded(String vserverId){
+		if(vserverId == null || blacklistFailures <= 0){
+			return;
+		}
+		synchronized(serverFailures){
+			serverFailures.remove(vserverId);
+		}
+	}
+	
+	/**
+	 * True while the VertexServer is blacklisted - its failures are forgotten
+	 * once the blacklisting is over
+	 */
+	private boolean isBlacklisted(String vserverId){
+		Long until = vserverId == null ? null : blacklistedUntil.get(vserverId);
+		if(until == null){
+			return false;
+		}
+		if(System.currentTimeMillis() < until){
+			return true;
+		}
+		synchronized(serverFailures){
+			if(blacklistedUntil.remove(vserverId, until)){
+				serverFailures.remove(vserverId);
+				logger.info("VServer (" + vserverId + ") is no longer blacklisted");
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Records that the VertexServer is alive - called for its heartbeats and
+	 * work requests
+	 */
+	public void serverHeartbeat(String vserverId){
+		if(vserverId != null){
+			vertexServersLastSeen.put(vserverId, System.currentTimeMillis());
+			deadServers.remove(vserverId);
+		}
+	}
+	
+	/**
+	 * Forgets the VertexServers not heard from for livenessTimeoutMs and runs
+	 * their vertices elsewhere: the attempts they were running are started
+	 * again (not counted as failures - should they report after all, their
+	 * output is deleted) and the finished vertices whose output they wrote are
+	 * run again if that output is still needed and can no longer be read.
+	 * Vertices not yet started that read lost output are held back until it
+	 * has been written again; those already running fail and are retried.
+	 * 
+	 * Call periodically, without holding any lock - HDFS is checked for the
+	 * dead VertexServers' output.
+	 * 
+	 * @return ids of the VertexServers taken to be dead
+	 */
+	public List<String> removeDeadVertexServers(){
+		List<String> dead = new ArrayList<String>();
+		long timeoutMs = livenessTimeoutMs;
+		if(timeoutMs <= 0){
+			return dead;
+		}
+		long now = System.currentTimeMillis();
+		for(Map.Entry<String, Long> entry : deadServers.entrySet()){
+			if(now - entry.getValue() > timeoutMs){
+				deadServers.remove(entry.getKey(), entry.getValue());
+			}
+		}
+		for(Map.Entry<String, Long> entry : vertexServersLastSeen.entrySet()){
+			// a heartbeat meanwhile keeps the server alive
+			if(now - entry.getValue() > timeoutMs && 
+					vertexServersLastSeen.remove(entry.getKey(), entry.getValue())){
+				// before its attempts are requeued, so none assigned after are missed
+				deadServers.put(entry.getKey(), now);
+				logger.warning("VServer (" + entry.getKey() + ") not heard from for " + (now - entry.getValue()) + 
+						" ms - running its vertices elsewhere");
+				dead.add(entry.getKey());
+			}
+		}
+		if(dead.isEmpty()){
+			return dead;
+		}
+		
+		HashSet<String> deadIds = new HashSet<String>(dead);
+		// their preempted attempts are gone with them
+		synchronized(attemptsToStop){
+			attemptsToStop.keySet().removeAll(deadIds);
+		}
+		preemptedAttempts.values().removeAll(deadIds);
+		// lost output is marked first so requeued vertices reading it are held
+		rerunLostOutput(deadIds);
+		requeueAttempts(deadIds);
+		notifyVerticesAllocatable();
+		return dead;
+	}
+	
+	/**
+	 * Runs again the finished vertices that ran on the dead VertexServers and
+	 * whose output is still needed but can no longer be read
+	 */
+	private void rerunLostOutput(Set<String> deadIds){
+		// output the dead servers wrote that may still be needed
+		HashMap<VertexDescriptor, List<String>> toCheck = new HashMap<VertexDescriptor, List<String>>();
+		for(JobDescriptor job : jobsInProgress.values()){
+			synchronized(job){
+				HashMap<Integer, HashMap<Integer, VertexDescriptor>> jobFinished = finishedVertices.get(job.getJobId());
+				if(jobFinished == null || job.getJobStatus().getExecutionFinished()){
+					continue;
+				}
+				for(HashMap<Integer, VertexDescriptor> stageFinishedVertices : jobFinished.values()){
+					for(VertexDescriptor finished : stageFinishedVertices.values()){
+						if(deadIds.contains(finished.getVertexServerAssignment())){
+							List<String> needed = neededOutput(job, finished, deadIds);
+							if(! needed.isEmpty()){
+								toCheck.put(finished, needed);
+							}
+						}
+					}
+				}
+			}
+		}
+		
+		// HDFS is checked without holding any lock
+		HashMap<String, List<VertexDescriptor>> lostByJob = new HashMap<String, List<VertexDescriptor>>();
+		HashMap<VertexDescriptor, List<String>> lostFiles = new HashMap<VertexDescriptor, List<String>>();
+		for(VertexDescriptor finished : toCheck.keySet()){
+			List<String> unreadable = new ArrayList<String>();
+			for(String file : toCheck.get(finished)){
+				try{
+					if(! hdfs.hdfsFileExists(file)){
+						unreadable.add(file);
+					}
+				}catch(IOException e){
+					// left to the vertices reading it to fail if it is lost
+					logger.log(Level.WARNING, "Failed checking output file " + file + " of vertex " + finished, e);
+				}
+			}
+			if(! unreadable.isEmpty()){
+				lostFiles.put(finished, unreadable);
+				List<VertexDescriptor> jobLost = lostByJob.get(finished.getJobId());
+				if(jobLost == null){
+					jobLost = new ArrayList<VertexDescriptor>();
+					lostByJob.put(finished.getJobId(), jobLost);
+				}
+				jobLost.add(finished);
+			}
+		}
+		
+		for(String jobId : lostByJob.keySet()){
+			JobDescriptor job = jobsInProgress.get(jobId);
+			if(job == null){
+				continue;
+			}
+			// later stages first - a vertex run again needs all its input
+			List<VertexDescriptor> lost = lostByJob.get(jobId);
+			Collections.sort(lost, new Comparator<VertexDescriptor>(){
+				@Override
+				public int compare(VertexDescriptor a, VertexDescriptor b) {
+					return b.getStageNumber() - a.getStageNumber();
+				}
+			});
+			synchronized(job){
+				if(job.getJobStatus().getExecutionFinished() || outputMap.get(jobId) == null){
+					continue;
+				}
+				List<VertexDescriptor> reruns = new ArrayList<VertexDescriptor>();
+				for(VertexDescriptor finished : lost){
+					if(finishedVertices(job, finished.getStageNumber()).get(finished.getVertexNumber()) != finished ||
+							isRerun(job, finished)){
+						// already being run again
+						continue;
+					}
+					List<String> unreadable = lostFiles.get(finished);
+					unreadable.retainAll(neededOutput(job, finished, null));
+					if(unreadable.isEmpty()){
+						continue;
+					}
+					LostOutputs jobLost = lostOutputs.get(jobId);
+					if(jobLost == null){
+						jobLost = new LostOutputs();
+						lostOutputs.put(jobId, jobLost);
+					}
+					jobLost.lost(finished, unreadable);
+					
+					VertexDescriptor rerun = newVertex(job, finished.getStageNumber(), finished.getVertexNumber(),
+							finished.getInputPaths());
+					rerun.setPreferredHosts(finished.getPreferredHosts());
+					rerun.setAttempt(nextAttempt(finished));
+					reruns.add(rerun);
+					logger.warning(unreadable.size() + " output files of vertex can no longer be read, " +
+							"running it again (attempt " + rerun.getAttempt() + "): " + finished);
+				}
+				LostOutputs jobLost = lostOutputs.get(jobId);
+				if(jobLost == null){
+					continue;
+				}
+				
+				// vertices not yet started that would read lost output wait for it
+				Iterator<VertexDescriptor> itr = allocatableVertices.iterator();
+				while(itr.hasNext()){
+					VertexDescriptor waiting = itr.next();
+					if(waiting.getJobId().equals(jobId) && jobLost.anyLost(waiting.getInputPaths())){
+						itr.remove();
+						jobLost.hold(waiting);
+					}
+				}
+				for(VertexDescriptor rerun : reruns){
+					releaseOrHold(job, rerun);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * The output files of a finished vertex still to be read: those for vertices
+	 * of the stages reading it that haven't finished or are being run again
+	 * (any of them, for a stage reading all of it), and all of a last stage
+	 * vertex's output - call while holding the job's lock
+	 * 
+	 * @param deadIds - also counts the files read by finished vertices that ran
+	 * on these VertexServers, as they may have to be run again (may be null)
+	 */
+	private List<String> neededOutput(JobDescriptor job, VertexDescriptor finished, Set<String> deadIds){
+		List<String> needed = new ArrayList<String>();
+		VertexOutput output = finished.getOutput();
+		if(output == null){
+			return needed;
+		}
+		JobGraph graph = graphOf(job);
+		if(graph.isLastStage(finished.getStageNumber())){
+			if(output.getOutputMap() != null){
+				needed.addAll(outputFiles(output));
+			}
+			return needed;
+		}
+		HashMap<Integer, HashMap<Integer, VertexDescriptor>> jobFinished = finishedVertices.get(job.getJobId());
+		for(JobGraph.Edge edge : graph.outputsOf(finished.getStageNumber())){
+			Map<Integer, List<String>> outputMap = outputFor(graph, edge, output);
+			if(outputMap == null){
+				continue;
+			}
+			HashMap<Integer, VertexDescriptor> consumers = jobFinished == null ? null : jobFinished.get(edge.to);
+			boolean allNeed = false;
+			if(edge.type == StageEdge.Type.BROADCAST){
+				allNeed = consumers == null || consumers.size() < job.getJobStatus().getStageVertices().get(edge.to);
+				for(int i = 0; consumers != null && ! allNeed && i < consumers.size(); i++){
+					allNeed = needsInput(job, consumers.get(i), deadIds);
+				}
+			}
+			for(Integer nextVertex : outputMap.keySet()){
+				List<String> files = outputMap.get(nextVertex);
+				if(files == null){
+					continue;
+				}
+				boolean need = allNeed;
+				if(! need && edge.type != StageEdge.Type.BROADCAST){
+					if(nextVertex == null || consumers == null){
+						need = true;
+					}else{
+						// any of the vertices sharing the partition's input if it was split
+						for(Integer reader : graph.readersOf(edge.to, graph.vertexOfPartition(edge.to, nextVertex))){
+							need = need || needsInput(job, consumers.get(reader), deadIds);
+						}
+					}
+				}
+				if(need){
+					needed.addAll(files);
+				}
+			}
+		}
+		return needed;
+	}
+	
+	/**
+	 * True if the vertex still has to read its input: it hasn't finished
+	 * (null), is being run again or ran on one of the dead VertexServers
+	 */
+	private boolean needsInput(JobDescriptor job, VertexDescriptor consumer, Set<String> deadIds){
+		return consumer == null || isRerun(job, consumer) || 
+			(deadIds != null && deadIds.contains(consumer.getVertexServerAssignment()));
+	}
+	
+	/**
+	 * Starts again vertices assigned to a VertexServer that were never sent to
+	 * it (e.g. its work request was answered or dropped while they were being
+	 * assigned) - they never run, so they don't count as failures
+	 */
+	public void requeueUndelivered(List<VertexDescriptor> vertices){
+		for(VertexDescriptor vertex : vertices){
+			JobDescriptor job = jobsInProgress.get(vertex.getJobId());
+			if(job == null){
+				continue;
+			}
+			synchronized(job){
+				if(job.getJobStatus().getExecutionFinished()){
+					continue;
+				}
+				if(requeueAttempt(job, vertex, "was never sent to VServer (" + vertex.getVertexServerAssignment() + ")")){
+					// the attempt won't report
+					losingAttempts.remove(attemptKey(vertex, vertex.getAttempt()));
+				}
+			}
+		}
+		notifyVerticesAllocatable();
+	}
+	
+	/**
+	 * Starts again the attempts the dead VertexServers were running
+	 */
+	private void requeueAttempts(Set<String> deadIds){
+		// backups first - a vertex whose attempts all ran on dead servers is
+		// started again once
+		List<VertexDescriptor> orphaned = new ArrayList<VertexDescriptor>();
+		for(VertexDescriptor vertex : backupsInProgress){
+			if(deadIds.contains(vertex.getVertexServerAssignment())){
+				orphaned.add(vertex);
+			}
+		}
+		for(VertexDescriptor vertex : verticesInProgress){
+			if(deadIds.contains(vertex.getVertexServerAssignment())){
+				orphaned.add(vertex);
+			}
+		}
+		
+		for(VertexDescriptor vertex : orphaned){
+			JobDescriptor job = jobsInProgress.get(vertex.getJobId());
+			if(job == null){
+				continue;
+			}
+			synchronized(job){
+				if(job.getJobStatus().getExecutionFinished()){
+					continue;
+				}
+				requeueAttempt(job, vertex, "was on dead VServer (" + vertex.getVertexServerAssignment() + ")");
+			}
+		}
+	}
+	
+	/**
+	 * Starts again an attempt that is lost (its VertexServer is dead) or
+	 * preempted, unless the vertex has another attempt running - should the
+	 * attempt still report, its output is deleted.  Call while holding the
+	 * job's lock
+	 * 
+	 * @param why - logged, e.g. "was preempted"
+	 * @return false if the attempt is no longer running
+	 */
+	private boolean requeueAttempt(JobDescriptor job, VertexDescriptor vertex, String why){
+		VertexDescriptor backup = backupsInProgress.get(vertex.getJobId(), vertex.getStageNumber(), 
+				vertex.getVertexNumber());
+		if(backup == vertex){
+			// the vertex's first attempt carries on
+			backupsInProgress.remove(backup);
+			losingAttempts.add(attemptKey(vertex, vertex.getAttempt()));
+			logger.info("Backup attempt " + vertex.getAttempt() + " of vertex " + why + ", dropped it: " + vertex);
+			return true;
+		}
+		if(verticesInProgress.get(vertex.getJobId(), vertex.getStageNumber(), vertex.getVertexNumber()) != vertex){
+			// finished meanwhile
+			return false;
+		}
+		verticesInProgress.remove(vertex);
+		losingAttempts.add(attemptKey(vertex, vertex.getAttempt()));
+		if(backup != null){
+			// the backup carries on as the vertex's only attempt
+			backupsInProgress.remove(backup);
+			verticesInProgress.add(backup);
+			logger.info("Attempt " + vertex.getAttempt() + " of vertex " + why + ", waiting for attempt " + 
+					backup.getAttempt() + ": " + vertex);
+			return true;
+		}
+		// a backup not yet started is replaced by the new attempt
+		backupVertices.remove(vertex);
+		
+		VertexDescriptor again = newVertex(job, vertex.getStageNumber(), vertex.getVertexNumber(), 
+				vertex.getInputPaths());
+		again.setPreferredHosts(vertex.getPreferredHosts());
+		again.setAttempt(nextAttempt(vertex));
+		releaseOrHold(job, again);
+		logger.info("Attempt " + vertex.getAttempt() + " of vertex " + why + ", starting attempt " +
+				again.getAttempt() + ": " + vertex);
+		return true;
+	}
+	
+	/**
+	 * True if the update (VertexCompletion or VertexDescriptor) reports an
+	 * attempt that lost to another attempt of the same vertex - the files it
+	 * wrote are added to outputToDiscard
+	 */
+	private boolean lostAttempt(Object update, List<String> outputToDiscard){
+		VertexDescriptor vertex;
+		int attempt;
+		VertexOutput output;
+		if(update instanceof VertexCompletion){
+			VertexCompletion completion = (VertexCompletion)update;
+			vertex = new VertexDescriptor();
+			vertex.setJobId(completion.getJobId());
+			vertex.setStageNumber(completion.getStageNumber());
+			vertex.setVertexNumber(completion.getVertexNumber());
+			attempt = completion.getAttempt();
+			output = completion.getOutput();
+		}else{
+			vertex = (VertexDescriptor)update;
+			attempt = vertex.getAttempt();
+			output = vertex.getOutput();
+		}
+		
+		if(! losingAttempts.remove(attemptKey(vertex, attempt))){
+			synchronized(endedLosingAttempts){
+				if(! endedLosingAttempts.remove(attemptKey(vertex, attempt))){
+					return false;
+				}
+			}
+		}
+		preemptedAttempts.remove(attemptKey(vertex, attempt));
+		outputToDiscard.addAll(outputFiles(output));
+		logger.info("Discarding output of losing attempt " + attempt + " of vertex: " + vertex);
+		return true;
+	}
+	
+	/**
+	 * Moves the losing attempts of a job that ended to endedLosingAttempts,
+	 * dropping the oldest there past MAX_ENDED_LOSING_ATTEMPTS
+	 */
+	private void forgetLosingAttempts(String jobId){
+		String prefix = jobId + "/";
+		List<String> ended = new ArrayList<String>();
+		Iterator<String> itr = losingAttempts.iterator();
+		while(itr.hasNext()){
+			String key = itr.next();
+			if(key.startsWith(prefix)){
+				itr.remove();
+				ended.add(key);
+			}
+		}
+		if(ended.isEmpty()){
+			return;
+		}
+		synchronized(endedLosingAttempts){
+			endedLosingAttempts.addAll(ended);
+			itr = endedLosingAttempts.iterator();
+			for(int excess = endedLosingAttempts.size() - MAX_ENDED_LOSING_ATTEMPTS; excess > 0; excess--){
+				itr.next();
+				itr.remove();
+			}
+		}
+	}
+	
+	/**
+	 * Identifies an attempt of a vertex - "jobId/stage/vertex/attempt"
+	 */
+	private static String attemptKey(VertexDescriptor vertex, int attempt){
+		return vertex.getJobId() + "/" + vertex.getStageNumber() + "/" + vertex.getVertexNumber() + "/" + attempt;
+	}
+	
+	/**
+	 * Number for a new attempt of the vertex - after the given attempt's and
+	 * those of losing attempts still to report
+	 */
+	private int nextAttempt(VertexDescriptor vertex){
+		int attempt = vertex.getAttempt() + 1;
+		while(losingAttempts.contains(attemptKey(vertex, attempt))){
+			attempt++;
+		}
+		return attempt;
+	}
+	
+	/**
+	 * All the files in a vertex's output
+	 */
+	private static List<String> outputFiles(VertexOutput output){
+		List<String> files = new ArrayList<String>();
+		if(output != null && output.getOutputMap() != null){
+			for(List<String> nextVertexFiles : output.getOutputMap().values()){
+				if(nextVertexFiles != null){
+					files.addAll(nextVertexFiles);
+				}
+			}
+		}
+		return files;
+	}
+	
+	/**
+	 * Deletes the output of attempts that lost - call without holding any lock
+	 */
+	private void discardOutput(List<String> files){
+		if(files.isEmpty()){
+			return;
+		}
+		try{
+			hdfs.deleteFiles(files);
+		}catch(Exception e){
+			logger.log(Level.WARNING, "Failed deleting output of losing vertex attempts: " + files, e);
+		}
+	}
+	
+	/**
+	 * Preempts running vertices of lower priority jobs if a higher priority
+	 * job's vertices have waited preemptionWaitMs (see preemptForWaitingJobs),
+	 * then returns the preempted attempts the VertexServer is running - it is
+	 * to stop them.  Called for each heartbeat of the VertexServer
+	 * 
+	 * @return attempts to stop (empty if none)
+	 */
+	public List<VertexDescriptor> takeAttemptsToStop(String vserverId){
+		preemptForWaitingJobs();
+		List<VertexDescriptor> toStop;
+		synchronized(attemptsToStop){
+			toStop = attemptsToStop.remove(vserverId);
+		}
+		return toStop == null ? new ArrayList<VertexDescriptor>() : toStop;
+	}
+	
+	/**
+	 * For each allocatable vertex of a job whose vertices have waited over
+	 * preemptionWaitMs, preempts a running attempt of a lower priority job -
+	 * the lowest priority job's attempt started last (the least work lost).
+	 * Attempts preempted earlier that have not stopped yet count as freeing a
+	 * thread already.  Runs at most once per PREEMPTION_CHECK_INTERVAL_MS
+	 */
+	private void preemptForWaitingJobs(){
+		long waitMs = preemptionWaitMs;
+		if(waitMs <= 0){
+			return;
+		}
+		long now = System.currentTimeMillis();
+		long lastCheck = lastPreemptionCheck.get();
+		if(now - lastCheck < PREEMPTION_CHECK_INTERVAL_MS || ! lastPreemptionCheck.compareAndSet(lastCheck, now)){
+			return;
+		}
+		
+		// jobs that have waited too long, highest priority first
+		Map<String, Integer> waiting = allocatableVertices.waitingSince(now - waitMs);
+		List<JobDescriptor> waitingJobs = new ArrayList<JobDescriptor>();
+		for(Map.Entry<String, Integer> entry : waiting.entrySet()){
+			JobDescriptor job = jobsInProgress.get(entry.getKey());
+			if(job != null){
+				waitingJobs.add(job);
+				// its vertices not made yet are waiting too
+				synchronized(job){
+					PendingVertices pending = pendingVertices.get(entry.getKey());
+					if(pending != null){
+						entry.setValue(entry.getValue() + pending.size());
+					}
+				}
+			}
+		}
+		if(waitingJobs.isEmpty()){
+			return;
+		}
+		Collections.sort(waitingJobs, new Comparator<JobDescriptor>(){
+			@Override
+			public int compare(JobDescriptor a, JobDescriptor b) {
+				return a.getPriority() > b.getPriority() ? -1 : (a.getPriority() == b.getPriority() ? 0 : 1);
+			}
+		});
+		
+		// running attempts that could make room, lowest priority first and
+		// then the latest started first
+		int topPriority = waitingJobs.get(0).getPriority();
+		final HashMap<String, Integer> priorities = new HashMap<String, Integer>();
+		List<VertexDescriptor> candidates = new ArrayList<VertexDescriptor>();
+		for(VertexSet running : Arrays.asList(backupsInProgress, verticesInProgress)){
+			for(VertexDescriptor vertex : running){
+				JobDescriptor job = jobsInProgress.get(vertex.getJobId());
+				if(job != null && job.getPriority() < topPriority){
+					priorities.put(job.getJobId(), job.getPriority());
+					candidates.add(vertex);
+				}
+			}
+		}
+		if(candidates.isEmpty()){
+			return;
+		}
+		Collections.sort(candidates, new Comparator<VertexDescriptor>(){
+			@Override
+			public int compare(VertexDescriptor a, VertexDescriptor b) {
+				int aPriority = priorities.get(a.getJobId());
+				int bPriority = priorities.get(b.getJobId());
+				if(aPriority != bPriority){
+					return aPriority < bPriority ? -1 : 1;
+				}
+				return a.getAssignedAt() > b.getAssignedAt() ? -1 : (a.getAssignedAt() == b.getAssignedAt() ? 0 : 1);
+			}
+		});
+		
+		int freeing = preemptedAttempts.size();
+		List<VertexDescriptor> victims = new ArrayList<VertexDescriptor>();
+		for(JobDescriptor job : waitingJobs){
+			int needed = waiting.get(job.getJobId());
+			int freed = Math.min(needed, freeing);
+			freeing -= freed;
+			needed -= freed;
+			Iterator<VertexDescriptor> itr = candidates.iterator();
+			while(needed > 0 && itr.hasNext()){
+				VertexDescriptor vertex = itr.next();
+				if(priorities.get(vertex.getJobId()) >= job.getPriority()){
+					// the rest are of the same or higher priority too
+					break;
+				}
+				victims.add(vertex);
+				itr.remove();
+				needed--;
+			}
+		}
+		
+		int preempted = 0;
+		for(VertexDescriptor vertex : victims){
+			JobDescriptor job = jobsInProgress.get(vertex.getJobId());
+			if(job == null){
+				continue;
+			}
+			synchronized(job){
+				if(job.getJobStatus().getExecutionFinished() || 
+						! requeueAttempt(job, vertex, "was preempted on VServer (" + vertex.getVertexServerAssignment() + ")")){
+					continue;
+				}
+				JobStatus status = job.getJobStatus();
+				status.setPreemptedVertices(status.getPreemptedVertices() + 1);
+				if(vertex.getAssignedAt() > 0){
+					status.setPreemptedWorkMs(status.getPreemptedWorkMs() + Math.max(0, now - vertex.getAssignedAt()));
+				}
+			}
+			preemptedAttempts.put(attemptKey(vertex, vertex.getAttempt()), vertex.getVertexServerAssignment());
+			synchronized(attemptsToStop){
+				List<VertexDescriptor> toStop = attemptsToStop.get(vertex.getVertexServerAssignment());
+				if(toStop == null){
+					toStop = new ArrayList<VertexDescriptor>();
+					attemptsToStop.put(vertex.getVertexServerAssignment(), toStop);
+				}
+				toStop.add(vertex);
+			}
+			preempted++;
+		}
+		if(preempted > 0){
+			logger.info("Preempted " + preempted + " vertices of lower priority jobs");
+			notifyVerticesAllocatable();
+		}
+	}
+	
+	/**
+	 * This is used for handling status requests from a Client;
+	 * the JobServer will send this back to the Client & the
+	 * Client can interpret the status
+	 * 
+	 * If the queried job is finished executing it is removed
+	 * from the "jobs in progress" data structure
+	 * 
+	 * @param jobId
+	 * @return a copy of the job's status
+	 */
+	public JobStatus jobStatusQuery(String jobId){
+		JobDescriptor job = jobsInProgress.get(jobId);
+				
+		// no status available
+		if(job == null){
+			logger.info("Status query for jobID=" + jobId + " - JOB NOT NOT FOUND");
+			return null;
+		}
+
+		JobStatus status;
+		synchronized(job){
+			status = copyStatus(job.getJobStatus());
+		}
+		
+		// purge the job if its finished
+		if(status.getExecutionFinished()){
+			logger.info("Status query for jobID=" + jobId + " - JOB FINISHED");
+			jobsInProgress.remove(jobId, job);
+
+			// there is room for a queued job now
+			startQueuedJobs();
+		}else{
+			logger.info("Status query for jobID=" + jobId + " - JOB IN PROGRESS");
+		}
+		return status;
+	}
+	
+	private static JobStatus copyStatus(JobStatus status){
+		JobStatus copy = new JobStatus();
+		copy.setCurrentVertexStage(status.getCurrentVertexStage());
+		copy.setTotalVertexStages(status.getTotalVertexStages());
+		copy.setTotalVerticesCurrentStage(status.getTotalVerticesCurrentStage());
+		copy.setTotalVerticesInProgressCurrentStage(status.getTotalVerticesInProgressCurrentStage());
+		copy.setExecutionFinished(status.getExecutionFinished());
+		copy.setPlanning(status.getPlanning());
+		copy.setPreemptedVertices(status.getPreemptedVertices());
+		copy.setPreemptedWorkMs(status.getPreemptedWorkMs());
+		copy.setMaxInputSkew(status.getMaxInputSkew());
+		copy.setSkewedVertices(status.getSkewedVertices());
+		copy.setSplitVertices(status.getSplitVertices());
+		if(status.getStageVertices() != null){
+			copy.setStageVertices(new ArrayList<Integer>(status.getStageVertices()));
+			copy.setStageVerticesFinished(new ArrayList<Integer>(status.getStageVerticesFinished()));
+		}
+		return copy;
+	}
+
+	/**
+	 * Marks the job as failed and does necessary cleanup - however,
+	 * job stays in jobsInProgress queue until getJobStatus is called
+	 * so that client knows how/why job failed before its record is deleted
+	 *
+	 * Call while holding the job's lock
+	 * 
+	 * @param jobId
+	 */
+	private void failJob(String jobId){
+		JobDescriptor job = jobsInProgress.get(jobId);
+		
+		if(job==null){
+			// job could have already been failed by another thread &
+			// already removed by a client status query
+			logger.info("Failing JOB ID=" + jobId + " - job not found");			
+			return;
+		}
+		logger.info("Failing JOB ID=" + jobId + " " + job);
+		
+		job.getJobStatus().setExecutionFinished(true);
+		// note: job is not removed from queue until next client
+		// status request so that we can report more info to
+		// the client on that request
+		
+		// Remove vertices for the failed job
+		Iterator<VertexDescriptor> itr = allocatableVertices.iterator();
+		while(itr.hasNext()){
+			if(itr.next().getJobId().equals(jobId)){
+				itr.remove();
+			}
+		}
+		
+		// Remove vertices for the failed job
+		itr = verticesInProgress.iterator();
+		while(itr.hasNext()){
+			if(itr.next().getJobId().equals(jobId)){
+				itr.remove();
+			}
+		}
+		itr = backupVertices.iterator();
+		while(itr.hasNext()){
+			if(itr.next().getJobId().equals(jobId)){
+				itr.remove();
+			}
+		}
+		itr = backupsInProgress.iterator();
+		while(itr.hasNext()){
+			if(itr.next().getJobId().equals(jobId)){
+				itr.remove();
+			}
+		}
+		itr = vertexFailures.keySet().iterator();
+		while(itr.hasNext()){
+			if(itr.next().getJobId().equals(jobId)){
+				itr.remove();
+			}
+		}
+		
+		// wack the output map
+		outputMap.remove(jobId);
+		runTimes.remove(jobId);
+		finishedVertices.remove(jobId);
+		lostOutputs.remove(jobId);
+		jobGraphs.remove(jobId);
+		recoveredVertices.remove(jobId);
+		pendingVertices.remove(jobId);
+		forgetLosingAttempts(jobId);
+		
+		allocatableVertices.removeJob(jobId);
+		allocatableVertices.removeStale();
+		
+		JobJournal jobJournal = journal;
+		if(jobJournal != null){
+			jobJournal.jobEnded(jobId);
+		}
+	}
+	
+	/**
+	 * Job is failed as a result of a failed vertex
+	 * 
+	 * @param vertex
+	 */
+	private void failJob(VertexDescriptor vertex){
+		String jobId = vertex.getJobId();
+		failJob(jobId);
+		
+	}
+	
+	/**
+	 * Puts job in the map of currently running jobs & initializes its JobStatus -
+	 * call while holding the JobManager lock
+	 *
+	 * @return true if the job's splits need to be planned
+	 */
+	private boolean startJob(JobDescriptor job){
+		JobStatus jobStatus = new JobStatus();
+		job.setJobStatus(jobStatus);
+		
+		// first stage vertices are made allocatable as its
+		// input splits are planned
+		jobStatus.setCurrentVertexStage(0);
+		jobStatus.setTotalVertexStages(job.getJobSpecification().getVertexStages().size());
+		jobStatus.setTotalVerticesCurrentStage(0);
+		jobStatus.setTotalVerticesInProgressCurrentStage(0);
+		jobStatus.setPlanning(true);
+
+		jobStatus.setExecutionFinished(false);
+		ensureStageProgress(job);
+
+		// setup the output map for this job
+		outputMap.put(job.getJobId(), new HashMap<Integer, HashMap<Integer,ArrayList<String>>>());
+		jobsInProgress.put(job.getJobId(), job);
+		
+		if(jobStatus.getTotalVertexStages() == 0){
+			// Fail job
+			logger.severe("Job has no vertex stages");
+			jobStatus.setPlanning(false);
+			jobStatus.setExecutionFinished(true);
+			return false;
+		}
+		try{
+			jobGraphs.put(job.getJobId(), JobGraph.of(job.getJobSpecification(), jobStatus.getTotalVertexStages()));
+		}catch(IllegalArgumentException e){
+			// Fail job
+			logger.severe("Job " + job.getJobId() + " has a bad stage graph: " + e.getMessage());
+			outputMap.remove(job.getJobId());
+			jobStatus.setPlanning(false);
+			jobStatus.setExecutionFinished(true);
+			return false;
+		}
+		
+		allocatableVertices.addJob(job.getJobId(), job.getJobSpecification().getPool(), job.getPriority());
+		logger.info("Started Job " + job);
+		return true;
+	}
+	
+	/**
+	 * Removes the job to start next from the unprocessed Q - the highest
+	 * priority job, the one sent first on a tie.  Call while holding the
+	 * JobManager lock
+	 */
+	private JobDescriptor takeNextQueuedJob(){
+		JobDescriptor next = null;
+		for(JobDescriptor job : unprocessedJobQ){
+			if(next == null || job.getPriority() > next.getPriority()){
+				next = job;
+			}
+		}
+		unprocessedJobQ.remove(next);
+		return next;
+	}
+	
+	/**
+	 * If less than the max number simultaneous jobs are running,
+	 * removes jobs from the unprocessed Q, starts them and hands them to
+	 * the split planner
+	 */
+	private void startQueuedJobs(){
+		List<JobDescriptor> started = new ArrayList<JobDescriptor>();
+		synchronized(this){
+			while(unprocessedJobQ.size() > 0 && jobsInProgress.size() < numSimultenousJobs){
+				JobDescriptor job = takeNextQueuedJob();
+				if(startJob(job)){
+					started.add(job);
+				}
+			}
+		}
+		
+		for(final JobDescriptor job : started){
+			splitPlanner.execute(new Runnable(){
+				@Override
+				public void run() {
+					planFirstStage(job);
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Starts again a job that was running before the JobServer restarted (see
+	 * JobJournal), whatever the number of jobs running.  Its vertices are made as
+	 * its input is planned and its stages' input is written, as for a new job -
+	 * those that finished before are recorded as finished rather than run again
+	 * (see replayFinished).  A job none of whose vertices finished is queued
+	 * again instead, behind the jobs recovered before it
+	 * 
+	 * @param job - with its JobSpecification loaded from the job's jar
+	 * @param finished - the attempts of the job's vertices that finished
+	 */
+	void recoverJob(final JobDescriptor job, List<VertexDescriptor> finished){
+		HashMap<Integer, HashMap<Integer, VertexDescriptor>> jobFinished = 
+			new HashMap<Integer, HashMap<Integer, VertexDescriptor>>();
+		for(VertexDescriptor vertex : finished){
+			HashMap<Integer, VertexDescriptor> stageFinishedVertices = jobFinished.get(vertex.getStageNumber());
+			if(stageFinishedVertices == null){
+				stageFinishedVertices = new HashMap<Integer, VertexDescriptor>();
+				jobFinished.put(vertex.getStageNumber(), stageFinishedVertices);
+			}
+			stageFinishedVertices.put(vertex.getVertexNumber(), vertex);
+		}
+		if(jobFinished.isEmpty()){
+			// already journaled
+			synchronized(this){
+				unprocessedJobQ.add(job);
+			}
+			logger.info("Recovered job " + job + " - queued again");
+			startQueuedJobs();
+			return;
+		}
+		synchronized(this){
+			if(! startJob(job)){
+				return;
+			}
+			recoveredVertices.put(job.getJobId(), jobFinished);
+		}
+		logger.info("Recovered job " + job + " - " + finished.size() + " of its vertices had finished");
+		
+		splitPlanner.execute(new Runnable(){
+			@Override
+			public void run() {
+				planFirstStage(job);
+			}
+		});
+	}
+	
+	/**
+	 * Records a vertex of a recovered job that finished before the JobServer
+	 * restarted as finished, with the output it wrote then - call while holding
+	 * the job's lock
+	 * 
+	 * @return false if it didn't finish before (it has to be run)
+	 */
+	private boolean replayFinished(JobDescriptor job, VertexDescriptor vertex){
+		HashMap<Integer, HashMap<Integer, VertexDescriptor>> jobRecovered = recoveredVertices.get(job.getJobId());
+		HashMap<Integer, VertexDescriptor> stageRecovered = 
+			jobRecovered == null ? null : jobRecovered.get(vertex.getStageNumber());
+		VertexDescriptor finished = stageRecovered == null ? null : stageRecovered.remove(vertex.getVertexNumber());
+		if(finished == null){
+			return false;
+		}
+		if(stageRecovered.isEmpty()){
+			jobRecovered.remove(vertex.getStageNumber());
+			if(jobRecovered.isEmpty()){
+				recoveredVertices.remove(job.getJobId());
+			}
+		}
+		
+		vertex.setAttempt(finished.getAttempt());
+		vertex.setVertexServerAssignment(finished.getVertexServerAssignment());
+		vertex.setOutput(finished.getOutput());
+		vertex.setExecutionFinished(true);
+		vertex.setExecutionSuccessful(true);
+		// a stage finished by it is moved on from by the caller
+		applyVertexStatus(job, vertex);
+		return true;
+	}
+
+	/**
+	 * Splits the job's input (on the split planner, without holding any lock)
+	 * making a first stage vertex for each split as batches of them are planned
+	 */
+	private void planFirstStage(final JobDescriptor job){
+		String inputDir = job.getJobSpecification().getInputPath();
+
+		try{
+			hdfs.planFileSplits(inputDir, fileSplitsPerHdfsBlock, splitBatchSize,
+					new SplitBatchListener(){
+						@Override
+						public void splitsPlanned(List<HdfsFileSplit> splits) {
+							releaseSplits(job, splits);
+						}
+					});
+		}catch(Exception e){
+			logger.log(Level.SEVERE, "Failed to get input files from dir " +
+					inputDir, e);
+			synchronized(job){
+				job.getJobStatus().setPlanning(false);
+				failJob(job.getJobId());
+			}
+			return;
+		}
+
+		synchronized(job){
+			JobStatus jobStatus = job.getJobStatus();
+			jobStatus.setPlanning(false);
+			if(jobStatus.getExecutionFinished()){
+				return;
+			}
+			if(jobStatus.getTotalVerticesCurrentStage() == 0){
+				logger.warning("Did not find any input files in dir " +
+						inputDir);
+			}
+
+			// set first stage vertex count to
+			// number of HDFS files
+			job.getJobSpecification().getVertexStages().get(0).setNumVertices(
+					jobStatus.getTotalVerticesCurrentStage());
+			logger.info("Planned " + jobStatus.getTotalVerticesCurrentStage() +
+					" input splits for job " + job.getJobId());
+		}
+
+		// all the vertices may have finished already (or there were none)
+		advanceJob(job);
+	}
+
+	/**
+	 * Adds a first stage vertex for each split - made allocatable as the
+	 * job's queue has room (see fillQueue)
+	 */
+	private void releaseSplits(JobDescriptor job, List<HdfsFileSplit> splits){
+		synchronized(job){
+			JobStatus jobStatus = job.getJobStatus();
 			if(jobStatus.getExecutionFinished()){
+				// failed while planning
+				return;
+			}
+			PendingVertices pending = pendingOf(job);
+			for(HdfsFileSplit split : splits){
+				pending.addSplit(split);
+				jobStatus.getStageVertices().set(0, jobStatus.getStageVertices().get(0) + 1);
+			}
+			fillQueue(job);
+			syncCurrentStage(jobStatus);
+		}
+		notifyVerticesAllocatable();
+	}
+	
+	/**
+	 * Makes the job's pending vertices allocatable until maxQueuedVertices of
+	 * its vertices are (all of them if 0): first stage vertices first - each
+	 * preferring the hosts storing its split - then those of the other stages
+	 * in the order the stages were released.  Call while holding the job's lock
+	 * 
+	 * @return true if a vertex of a recovered job was recorded as finished
+	 * instead - the caller moves the job on
+	 */
+	private boolean fillQueue(JobDescriptor job){
+		PendingVertices pending = pendingVertices.get(job.getJobId());
+		if(pending == null){
+			return false;
+		}
+		int maxQueued = maxQueuedVertices > 0 ? maxQueuedVertices : Integer.MAX_VALUE;
+		JobStatus jobStatus = job.getJobStatus();
+		boolean replayed = false;
+		while(pending.splitCount() > 0 && allocatableVertices.sizeOf(job.getJobId()) < maxQueued){
+			int vertexIndex = jobStatus.getStageVertices().get(0) - pending.splitCount();
+			HdfsFileSplit split = pending.takeSplit();
+			List<String> singleFile = new ArrayList<String>();
+			singleFile.add(split.toString());
+			VertexDescriptor vertex = newVertex(job, 0, vertexIndex, singleFile);
+			if(replayFinished(job, vertex)){
+				replayed = true;
 				continue;
 			}
+			if(split.getHosts() != null && ! split.getHosts().isEmpty()){
+				vertex.setPreferredHosts(split.getHosts());
+				allocatableVertices.addRacks(split.getHosts(), split.getRacks());
+			}
+			allocatableVertices.add(vertex);
+		}
+		
+		JobGraph graph = graphOf(job);
+		while(pending.hasStageVertices() && allocatableVertices.sizeOf(job.getJobId()) < maxQueued){
+			int stageIndex = pending.nextStage();
+			int vertexIndex = pending.takeStageVertex();
+			int finishedBefore = jobStatus.getStageVerticesFinished().get(stageIndex);
+			releaseIfReady(job, graph, stageIndex, vertexIndex);
+			replayed = replayed || jobStatus.getStageVerticesFinished().get(stageIndex) > finishedBefore;
+		}
+		if(pending.isEmpty()){
+			pendingVertices.remove(job.getJobId());
+		}
+		return replayed;
+	}
+	
+	private PendingVertices pendingOf(JobDescriptor job){
+		PendingVertices pending = pendingVertices.get(job.getJobId());
+		if(pending == null){
+			pending = new PendingVertices();
+			pendingVertices.put(job.getJobId(), pending);
+		}
+		return pending;
+	}
+
+	/**
+	 * Once the job's current stage has no vertices in progress, makes the
+	 * vertices of the next stage allocatable or - if it was the last stage -
+	 * moves the job's output to its output directory and marks it finished.
+	 * Also tells the listener about vertices released pointwise.
+	 */
+	private void advanceJob(JobDescriptor job){
+		List<String> hdfsOutputFilePaths = null;
+		synchronized(job){
+			JobStatus jobStatus  = job.getJobStatus();
+			HashMap<Integer, HashMap<Integer, ArrayList<String>>> jobOutputMap = outputMap.get(job.getJobId());
+			if(jobStatus.getExecutionFinished() || jobOutputMap == null){
+				// failed or already finishing
+				return;
+			}
+			ensureStageProgress(job);
 			
-			boolean newStageToUpdate = false;
-			if(jobStatus.getCurrentVertexStage() < 0){
-				// new job..need to start first stage
-				newStageToUpdate = true;
-				jobStatus.setCurrentVertexStage(0);
-			}else{
-				if(jobStatus.getTotalVerticesInProgressCurrentStage() == 0){
-					// Current vertex stage is completed
+			// stages reading the output of stages that finished can start - 
+			// those on other branches of the graph may still be in progress
+			JobGraph graph = graphOf(job);
+			for(int stageIndex = 0; stageIndex < jobStatus.getTotalVertexStages(); stageIndex++){
+				if(graph.isFinishHandled(stageIndex) || ! stageFinished(jobStatus, stageIndex) ||
+						! inputsFinishHandled(graph, stageIndex)){
+					continue;
+				}
+				graph.setFinishHandled(stageIndex);
+				for(JobGraph.Edge edge : graph.outputsOf(stageIndex)){
+					releaseStage(job, graph, edge.to);
+				}
+			}
+
+			// stages after the current one may have finished already
+			while(stageFinished(jobStatus, jobStatus.getCurrentVertexStage())){
+				if((jobStatus.getCurrentVertexStage()+1) == jobStatus.getTotalVertexStages()){
+					if(lostOutputs.containsKey(job.getJobId())){
+						// lost output is being written again
+						break;
+					}
 					
-					if((jobStatus.getCurrentVertexStage()+1) == jobStatus.getTotalVertexStages()){
-						// this job is completely finished
-						jobStatus.setExecutionFinished(true);
-
-						ArrayList<String> hdfsOutputFilePaths = new ArrayList<String>();
-						
-						// get list of output file paths on HDFS
-						HashMap<Integer, ArrayList<String>> lastStageOutput = outputMap.get(job.getJobId()).get(null);
-						for(ArrayList<String> vertexOutFiles : lastStageOutput.values()){
-							if(vertexOutFiles == null || vertexOutFiles.isEmpty()){
-								continue;
-							}
-							for(String filePathStr : vertexOutFiles){
-								hdfsOutputFilePaths.add(filePathStr);
-							}
+					// this job is completely finished
+					hdfsOutputFilePaths = new ArrayList<String>();
+
+					// get list of output file paths on HDFS
+					HashMap<Integer, ArrayList<String>> lastStageOutput = jobOutputMap.get(null);
+					if(lastStageOutput == null){
+						// no vertex in the last stage
+						lastStageOutput = new HashMap<Integer, ArrayList<String>>();
+					}
+					for(ArrayList<String> vertexOutFiles : lastStageOutput.values()){
+						if(vertexOutFiles == null || vertexOutFiles.isEmpty()){
+							continue;
 						}
-						
-						// rename output files on HDFS so that they are in the correct final directory
-						// as specified in the job specification
-						try{
-							if(hdfsOutputFilePaths.size() > 0){
-								hdfs.moveFilesToNewDir(hdfsOutputFilePaths, job.getJobSpecification().getOutputPath());
-							}else{
-								logger.warning("JOB HAD NO OUTPUT FILES! NOT CREATING FINAL OUTPUT DIRECTORY");
-							}
-						}catch(Exception e){
-							logger.log(Level.SEVERE, "FAILED 'moving' output on HDFS from last stage into final output directory " +
-									job.getJobSpecification().getOutputPath(), e);
+						for(String filePathStr : vertexOutFiles){
+							hdfsOutputFilePaths.add(filePathStr);
 						}
-						
-						outputMap.remove(job.getJobId());
+					}
+
+					// removing the output map also keeps the job from being
+					// finished twice
+					outputMap.remove(job.getJobId());
+					runTimes.remove(job.getJobId());
+					finishedVertices.remove(job.getJobId());
+					jobGraphs.remove(job.getJobId());
+					recoveredVertices.remove(job.getJobId());
+					pendingVertices.remove(job.getJobId());
+					forgetLosingAttempts(job.getJobId());
+					allocatableVertices.removeJob(job.getJobId());
+					logger.info("Job " + job.getJobId() + " finished - vertex locality so far: " + 
+							allocatableVertices.getLocalitySummary());
+					break;
+				}
+			
+				// the next stage is the job's current stage now
+				jobStatus.setCurrentVertexStage(jobStatus.getCurrentVertexStage()+1);
+				syncCurrentStage(jobStatus);
+			}
+		}
+
+		if(hdfsOutputFilePaths == null){
+			notifyVerticesAllocatable();
+			return;
+		}
+
+		// rename output files on HDFS so that they are in the correct final directory
+		// as specified in the job specification
+		try{
+			if(hdfsOutputFilePaths.size() > 0){
+				hdfs.moveFilesToNewDir(hdfsOutputFilePaths, job.getJobSpecification().getOutputPath());
+			}else{
+				logger.warning("JOB HAD NO OUTPUT FILES! NOT CREATING FINAL OUTPUT DIRECTORY");
+			}
+		}catch(Exception e){
+			logger.log(Level.SEVERE, "FAILED 'moving' output on HDFS from last stage into final output directory " +
+					job.getJobSpecification().getOutputPath(), e);
+		}
+
+		// the client sees the job as finished only once its output is in place
+		synchronized(job){
+			job.getJobStatus().setExecutionFinished(true);
+		}
+		JobJournal jobJournal = journal;
+		if(jobJournal != null){
+			jobJournal.jobEnded(job.getJobId());
+		}
+	}
+
+	/**
+	 * True if the stages the stage reads have all had their finishing acted
+	 * on - a stage with no vertices counts as finished before its input is
+	 */
+	private static boolean inputsFinishHandled(JobGraph graph, int stageIndex){
+		for(JobGraph.Edge edge : graph.inputsOf(stageIndex)){
+			if(! graph.isFinishHandled(edge.from)){
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Makes the vertices of a stage (not the first stage) whose input is all
+	 * written allocatable, as the job's queue has room (see fillQueue) - call
+	 * while holding the job's lock
+	 * 
+	 * With pointwise input, vertices made allocatable as the vertex of the
+	 * same index finished are skipped
+	 */
+	private void releaseStage(JobDescriptor job, JobGraph graph, int stageIndex){
+		sizeStage(job, graph, stageIndex);
+		splitSkewedVertices(job, graph, stageIndex);
+		pendingOf(job).addStage(stageIndex, job.getJobStatus().getStageVertices().get(stageIndex));
+		fillQueue(job);
+	}
+	
+	/**
+	 * Once the stages a stage with a target input size reads are all finished,
+	 * sets its number of vertices from the bytes they wrote for it - at least
+	 * one and at most the partitions they wrote (VertexStage.getNumVertices()).
+	 * Stages reading it pointwise, and only it, get as many vertices.  Left at
+	 * its most vertices if it reads any stage pointwise or the size of any
+	 * file isn't known.  Call while holding the job's lock
+	 */
+	private void sizeStage(JobDescriptor job, JobGraph graph, int stageIndex){
+		JobSpecification spec = job.getJobSpecification();
+		if(spec == null || stageIndex == 0 || graph.isSized(stageIndex) || 
+				spec.getVertexStages().get(stageIndex).getTargetBytesPerVertex() <= 0){
+			return;
+		}
+		JobStatus status = job.getJobStatus();
+		long totalBytes = 0;
+		for(JobGraph.Edge edge : graph.inputsOf(stageIndex)){
+			if(! stageFinished(status, edge.from)){
+				return;
+			}
+			if(edge.type == StageEdge.Type.BROADCAST){
+				// read whole by every vertex
+				continue;
+			}
+			if(edge.type == StageEdge.Type.POINTWISE){
+				totalBytes = -1;
+				break;
+			}
+			for(VertexDescriptor finished : finishedVertices(job, edge.from).values()){
+				Map<Integer, List<String>> files = 
+					finished.getOutput() == null ? null : outputFor(graph, edge, finished.getOutput());
+				if(files == null){
+					continue;
+				}
+				for(List<String> partitionFiles : files.values()){
+					for(int i = 0; partitionFiles != null && i < partitionFiles.size() && totalBytes >= 0; i++){
+						Long bytes = finished.getOutput().getBytes(partitionFiles.get(i));
+						totalBytes = bytes == null ? -1 : totalBytes + bytes;
+					}
+				}
+			}
+			if(totalBytes < 0){
+				break;
+			}
+		}
+		
+		int partitions = status.getStageVertices().get(stageIndex);
+		int numVertices = partitions;
+		if(totalBytes >= 0){
+			long target = spec.getVertexStages().get(stageIndex).getTargetBytesPerVertex();
+			numVertices = (int)Math.max(1, Math.min(partitions, (totalBytes + target - 1) / target));
+			logger.info("Stage " + graph.nameOf(stageIndex) + " of job " + job.getJobId() + " reads " + totalBytes + 
+					" bytes - running " + numVertices + " of its " + partitions + " vertices");
+		}else{
+			logger.info("Stage " + graph.nameOf(stageIndex) + " of job " + job.getJobId() + 
+					" can't be sized from its input - running all " + partitions + " vertices");
+		}
+		graph.setCoalesced(stageIndex, partitions, numVertices);
+		status.getStageVertices().set(stageIndex, numVertices);
+		
+		// stages reading it (and only it) pointwise follow its size
+		List<Integer> followers = new ArrayList<Integer>();
+		followers.add(stageIndex);
+		for(int i = 0; i < followers.size(); i++){
+			for(JobGraph.Edge edge : graph.outputsOf(followers.get(i))){
+				if(edge.type == StageEdge.Type.POINTWISE && graph.inputsOf(edge.to).size() == 1){
+					status.getStageVertices().set(edge.to, Math.min(numVertices, status.getStageVertices().get(edge.to)));
+					followers.add(edge.to);
+				}
+			}
+		}
+		syncCurrentStage(status);
+	}
+	
+	/**
+	 * Once the stages a stage reads are all finished, measures the input of each
+	 * of its vertices (the files written for its run of partitions, the input
+	 * read all-to-all) and records the largest against the median in the job's
+	 * status.  Not measured if it reads any stage pointwise or the size of any
+	 * file isn't known.
+	 * 
+	 * The input of a vertex given more than skewSplitFactor times the median is
+	 * split, if the stage reads a single stage all-to-all, no stage reads it
+	 * pointwise and VertexStage.getSplittableInput(): the vertices that wrote
+	 * its input are shared out, largest first, between it and up to 
+	 * skewMaxSplits - 1 vertices added to the end of the stage so each reads
+	 * about the median.  Files are not split, so a partition written by a
+	 * single vertex stays whole.  Call while holding the job's lock
+	 */
+	private void splitSkewedVertices(JobDescriptor job, JobGraph graph, int stageIndex){
+		JobSpecification spec = job.getJobSpecification();
+		if(spec == null || stageIndex == 0 || graph.isSkewChecked(stageIndex)){
+			return;
+		}
+		JobStatus status = job.getJobStatus();
+		for(JobGraph.Edge edge : graph.inputsOf(stageIndex)){
+			if(! stageFinished(status, edge.from)){
+				return;
+			}
+		}
+		graph.setSkewChecked(stageIndex);
+		
+		int numVertices = status.getStageVertices().get(stageIndex);
+		if(numVertices < 2){
+			return;
+		}
+		long[] vertexBytes = new long[numVertices];
+		// vertex -> vertex of the stage read -> bytes it wrote for the vertex
+		List<HashMap<Integer, Long>> producerBytes = new ArrayList<HashMap<Integer, Long>>();
+		for(int vertexIndex = 0; vertexIndex < numVertices; vertexIndex++){
+			producerBytes.add(new HashMap<Integer, Long>());
+		}
+		for(JobGraph.Edge edge : graph.inputsOf(stageIndex)){
+			if(edge.type == StageEdge.Type.BROADCAST){
+				// the same for every vertex
+				continue;
+			}
+			if(edge.type == StageEdge.Type.POINTWISE){
+				return;
+			}
+			for(Map.Entry<Integer, VertexDescriptor> finished : finishedVertices(job, edge.from).entrySet()){
+				VertexOutput output = finished.getValue().getOutput();
+				Map<Integer, List<String>> files = output == null ? null : outputFor(graph, edge, output);
+				if(files == null){
+					continue;
+				}
+				for(Map.Entry<Integer, List<String>> partition : files.entrySet()){
+					if(partition.getKey() == null || partition.getValue() == null){
 						continue;
-					}else{
-						// this job needs to run its next stage
-						jobStatus.setCurrentVertexStage(jobStatus.getCurrentVertexStage()+1);
-						newStageToUpdate = true;
+					}
+					int vertexIndex = graph.vertexOfPartition(stageIndex, partition.getKey());
+					if(vertexIndex >= numVertices){
+						continue;
+					}
+					for(String file : partition.getValue()){
+						Long bytes = output.getBytes(file);
+						if(bytes == null){
+							return;
+						}
+						vertexBytes[vertexIndex] += bytes;
+						Long before = producerBytes.get(vertexIndex).get(finished.getKey());
+						producerBytes.get(vertexIndex).put(finished.getKey(), (before == null ? 0 : before) + bytes);
 					}
 				}
-				// else current vertex stage is still in progress
+			}
+		}
+		
+		long[] sorted = vertexBytes.clone();
+		Arrays.sort(sorted);
+		long median = sorted[numVertices / 2];
+		if(median == 0){
+			// mostly empty - measured against the mean instead
+			long total = 0;
+			for(long bytes : sorted){
+				total += bytes;
+			}
+			median = total / numVertices;
+		}
+		if(median == 0){
+			return;
+		}
+		status.setMaxInputSkew(Math.max(status.getMaxInputSkew(), (double)sorted[numVertices - 1] / median));
+		if(skewSplitFactor <= 0){
+			return;
+		}
+		
+		boolean splittable = spec.getVertexStages().get(stageIndex).getSplittableInput() &&
+			graph.inputsOf(stageIndex).size() == 1 && 
+			graph.inputsOf(stageIndex).get(0).type == StageEdge.Type.ALL_TO_ALL;
+		for(JobGraph.Edge edge : graph.outputsOf(stageIndex)){
+			splittable = splittable && edge.type != StageEdge.Type.POINTWISE;
+		}
+		int added = 0;
+		for(int vertexIndex = 0; vertexIndex < numVertices; vertexIndex++){
+			if(vertexBytes[vertexIndex] <= skewSplitFactor * median){
+				continue;
+			}
+			status.setSkewedVertices(status.getSkewedVertices() + 1);
+			List<Map.Entry<Integer, Long>> producers = 
+				new ArrayList<Map.Entry<Integer, Long>>(producerBytes.get(vertexIndex).entrySet());
+			int numSplits = (int)Math.min(Math.min(skewMaxSplits, producers.size()), 
+					(vertexBytes[vertexIndex] + median - 1) / median);
+			logger.info("Vertex " + vertexIndex + " of stage " + graph.nameOf(stageIndex) + " of job " + job.getJobId() + 
+					" reads " + vertexBytes[vertexIndex] + " bytes, the stage's median is " + median + 
+					(splittable && numSplits > 1 ? " - splitting its input between " + numSplits + " vertices" : ""));
+			if(! splittable || numSplits < 2){
+				continue;
 			}
 			
-			// If there's a new Vertex stage now, make all Vertex's in the stage
-			// allocatable
-			if(newStageToUpdate){
-				int stageIndex = jobStatus.getCurrentVertexStage();
-				VertexStage stage = job.getJobSpecification().getVertexStages().get(stageIndex);
-			
-				
-				// List of input files in case this is the first stage
-				List<String> files = null;
-				
-				if(stageIndex == 0){
-					String inputDir = job.getJobSpecification().getInputPath();
-					
-					try{
-						files = hdfs.getFilePathsFromHdfsDir(inputDir, fileSplitsPerHdfsBlock);
-					}catch(IOException e){
-						logger.log(Level.SEVERE, "Failed to get input files from dir " + 
-								inputDir, e);
-						failJob(job.getJobId());
-						continue jobLoop;
+			// largest first, each to the split with the least so far
+			Collections.sort(producers, new Comparator<Map.Entry<Integer, Long>>() {
+				@Override
+				public int compare(Map.Entry<Integer, Long> a, Map.Entry<Integer, Long> b) {
+					return b.getValue().compareTo(a.getValue());
+				}
+			});
+			long[] splitBytes = new long[numSplits];
+			List<List<Integer>> splitProducers = new ArrayList<List<Integer>>();
+			for(int split = 0; split < numSplits; split++){
+				splitProducers.add(new ArrayList<Integer>());
+			}
+			for(Map.Entry<Integer, Long> producer : producers){
+				int smallest = 0;
+				for(int split = 1; split < numSplits; split++){
+					if(splitBytes[split] < splitBytes[smallest]){
+						smallest = split;
 					}
-					if(files.size() == 0){
-						logger.warning("Did not find any input files in dir " + 
-								inputDir);
-					}						
-
-					// set first stage vertex count to 
-					// number of HDFS files
-					stage.setNumVertices(files.size());
+				}
+				splitBytes[smallest] += producer.getValue();
+				splitProducers.get(smallest).add(producer.getKey());
+			}
+			for(int split = 0; split < numSplits; split++){
+				Collections.sort(splitProducers.get(split));
+				int[] producerIndexes = new int[splitProducers.get(split).size()];
+				for(int i = 0; i < producerIndexes.length; i++){
+					producerIndexes[i] = splitProducers.get(split).get(i);
+				}
+				int reader = split == 0 ? vertexIndex : numVertices + added++;
+				graph.setSplit(stageIndex, reader, vertexIndex, producerIndexes);
+			}
+		}
+		if(added == 0){
+			return;
+		}
+		if(! graph.isSized(stageIndex)){
+			// keep the stages it reads partitioning their output (when run again)
+			// for the vertices it had
+			graph.setCoalesced(stageIndex, numVertices, numVertices);
+		}
+		status.getStageVertices().set(stageIndex, numVertices + added);
+		status.setSplitVertices(status.getSplitVertices() + added);
+		syncCurrentStage(status);
+	}
+	
+	/**
+	 * Makes a vertex of a stage after the first allocatable, unless it was
+	 * already, once all the output it reads is written: the stages it reads
+	 * all-to-all or broadcast are finished and, for the stages it reads 
+	 * pointwise, the vertex with the same index (or the whole stage, if it
+	 * has no such vertex).  Call while holding the job's lock
+	 * 
+	 * @return true if the vertex was made allocatable
+	 */
+	private boolean releaseIfReady(JobDescriptor job, JobGraph graph, int stageIndex, int vertexIndex){
+		JobStatus status = job.getJobStatus();
+		if(vertexIndex >= status.getStageVertices().get(stageIndex) || graph.isReleased(stageIndex, vertexIndex)){
+			return false;
+		}
+		for(JobGraph.Edge edge : graph.inputsOf(stageIndex)){
+			if(edge.type == StageEdge.Type.POINTWISE && vertexIndex < status.getStageVertices().get(edge.from)){
+				if(! finishedVertices(job, edge.from).containsKey(vertexIndex)){
+					return false;
+				}
+			}else if(! stageFinished(status, edge.from)){
+				return false;
+			}
+		}
+		graph.setReleased(stageIndex, vertexIndex);
+		// input files are set from the output of the stages it reads
+		releaseOrHold(job, newVertex(job, stageIndex, vertexIndex, null));
+		return true;
+	}
+	
+	/**
+	 * Makes a vertex allocatable, or holds it back while it would read output
+	 * lost with a VertexServer - a vertex after the first stage gets its input
+	 * from the output of the stages it reads as it is now.  A vertex of a
+	 * recovered job that finished before is recorded as finished instead.  Call
+	 * while holding the job's lock
+	 */
+	private void releaseOrHold(JobDescriptor job, VertexDescriptor vertex){
+		if(vertex.getStageNumber() > 0){
+			setStageInput(job, vertex);
+		}
+		if(replayFinished(job, vertex)){
+			return;
+		}
 
+		LostOutputs jobLost = lostOutputs.get(job.getJobId());
+		if(jobLost != null && jobLost.anyLost(vertex.getInputPaths())){
+			jobLost.hold(vertex);
+			logger.info("Vertex waits for lost input to be written again: " + vertex);
+			return;
+		}
+		allocatableVertices.add(vertex);
+	}
+	
+	/**
+	 * Sets the input of a vertex after the first stage: the files recorded for
+	 * it over each of its stage's input edges, in edge order (all the files
+	 * over a broadcast edge, its run of partitions if the stage was sized from
+	 * its input, the files some vertices wrote for a skewed vertex's run if it
+	 * shares that vertex's input) - call while holding the job's lock
+	 */
+	private void setStageInput(JobDescriptor job, VertexDescriptor vertex){
+		HashMap<Integer, HashMap<Integer, ArrayList<String>>> jobOutputMap = outputMap.get(job.getJobId());
+		JobGraph graph = graphOf(job);
+		ArrayList<String> inputFiles = new ArrayList<String>();
+		List<String> inputStages = new ArrayList<String>();
+		List<Integer> inputStageSizes = new ArrayList<Integer>();
+		for(JobGraph.Edge edge : graph.inputsOf(vertex.getStageNumber())){
+			HashMap<Integer, ArrayList<String>> stageOutputMap = 
+				jobOutputMap == null ? null : jobOutputMap.get(edge.outputKey);
+			int before = inputFiles.size();
+			if(stageOutputMap != null && edge.type == StageEdge.Type.BROADCAST){
+				for(ArrayList<String> files : stageOutputMap.values()){
+					inputFiles.addAll(files);
 				}
-				jobStatus.setTotalVerticesCurrentStage(stage.getNumVertices());
-				jobStatus.setTotalVerticesInProgressCurrentStage(stage.getNumVertices());	
-				
-								
-				for(int vertexIndex = 0; vertexIndex < stage.getNumVertices(); vertexIndex++){
-					VertexDescriptor newV = new VertexDescriptor();
-					newV.setExecutionFinished(false);
-
-					if(stageIndex == 0){
-						List<String> singleFile = new ArrayList<String>();
-						singleFile.add(files.get(vertexIndex));
-						newV.setInputPaths(singleFile);
-					}else{
-						// need to get input files from previous stage
-						HashMap<Integer, ArrayList<String>> stageOutputMap = 
-							outputMap.get(job.getJobId()).get(stageIndex);
-						ArrayList<String> inputFiles = stageOutputMap.get(vertexIndex);
-						if(inputFiles == null){
-							inputFiles = new ArrayList<String>();
+			}else if(stageOutputMap != null){
+				JobGraph.Split split = graph.splitOf(vertex.getStageNumber(), vertex.getVertexNumber());
+				int runOf = split == null ? vertex.getVertexNumber() : split.vertex;
+				int firstPartition = graph.firstPartition(vertex.getStageNumber(), runOf);
+				int lastPartition = graph.firstPartition(vertex.getStageNumber(), runOf + 1);
+				if(split == null){
+					for(int partition = firstPartition; partition < lastPartition; partition++){
+						if(stageOutputMap.get(partition) != null){
+							inputFiles.addAll(stageOutputMap.get(partition));
 						}
-						newV.setInputPaths(inputFiles);
 					}
-					
-					newV.setJobId(job.getJobId());
-					newV.setVertexClassName(stage.getVertex().getName());
-					newV.setVertexJarPath(job.getHdfsJarPath());
-					newV.setStageNumber(stageIndex);
-					newV.setVertexNumber(vertexIndex);
-					newV.setVertexServerAssignment(null);
-					
-					// determine and set number of vertices in next stage
-					if((stageIndex + 1) == jobStatus.getTotalVertexStages()){
-						// vertex is part of last stage
-						newV.setNumVerticesNextStage(null);	
-					}else{					
-						int vNextStage = job.getJobSpecification().getVertexStages().get(stageIndex+1).getNumVertices();
-						newV.setNumVerticesNextStage(vNextStage);
+				}else{
+					HashMap<Integer, VertexDescriptor> producers = finishedVertices(job, edge.from);
+					for(int producer : split.producers){
+						VertexDescriptor finished = producers.get(producer);
+						Map<Integer, List<String>> files = finished == null || finished.getOutput() == null ? null :
+							outputFor(graph, edge, finished.getOutput());
+						for(int partition = firstPartition; files != null && partition < lastPartition; partition++){
+							if(files.get(partition) != null){
+								inputFiles.addAll(files.get(partition));
+							}
+						}
 					}
-
-					allocatableVertices.add(newV);
 				}
 			}
+			inputStages.add(graph.nameOf(edge.from));
+			inputStageSizes.add(inputFiles.size() - before);
+		}
+		vertex.setInputPaths(inputFiles);
+		vertex.setInputStages(inputStages);
+		vertex.setInputStageSizes(inputStageSizes);
+	}
+	
+	/**
+	 * Releases the vertices held back whose input is no longer lost - call
+	 * while holding the job's lock
+	 */
+	private void releaseHeld(JobDescriptor job){
+		LostOutputs jobLost = lostOutputs.get(job.getJobId());
+		for(VertexDescriptor held : jobLost.takeHeld()){
+			releaseOrHold(job, held);
+		}
+		if(! jobLost.hasReruns()){
+			lostOutputs.remove(job.getJobId());
+		}
+	}
+	
+	/**
+	 * True if the vertex finished before and is being run again because its
+	 * output was lost - call while holding the job's lock
+	 */
+	private boolean isRerun(JobDescriptor job, VertexDescriptor vertex){
+		LostOutputs jobLost = lostOutputs.get(job.getJobId());
+		return jobLost != null && jobLost.isRerun(vertex);
+	}
+	
+	/**
+	 * Vertex Number -> the attempt that finished, of the job's stage - call
+	 * while holding the job's lock
+	 */
+	private HashMap<Integer, VertexDescriptor> finishedVertices(JobDescriptor job, int stageIndex){
+		HashMap<Integer, HashMap<Integer, VertexDescriptor>> jobFinished = finishedVertices.get(job.getJobId());
+		if(jobFinished == null){
+			jobFinished = new HashMap<Integer, HashMap<Integer, VertexDescriptor>>();
+			finishedVertices.put(job.getJobId(), jobFinished);
+		}
+		HashMap<Integer, VertexDescriptor> stageFinishedVertices = jobFinished.get(stageIndex);
+		if(stageFinishedVertices == null){
+			stageFinishedVertices = new HashMap<Integer, VertexDescriptor>();
+			jobFinished.put(stageIndex, stageFinishedVertices);
+		}
+		return stageFinishedVertices;
+	}
+	
+	/**
+	 * The graph of the job's stages - made here for a job not started by 
+	 * startJob, its stages before the current one taken to be finished.  Call
+	 * while holding the job's lock
+	 */
+	private JobGraph graphOf(JobDescriptor job){
+		JobGraph graph = jobGraphs.get(job.getJobId());
+		if(graph == null){
+			JobStatus status = job.getJobStatus();
+			graph = JobGraph.of(job.getJobSpecification(), status.getTotalVertexStages());
+			for(int stageIndex = 0; stageIndex < status.getCurrentVertexStage(); stageIndex++){
+				graph.setFinishHandled(stageIndex);
+			}
+			jobGraphs.put(job.getJobId(), graph);
+		}
+		return graph;
+	}
+	
+	/**
+	 * True once every vertex of the stage is finished (the first stage's vertices
+	 * aren't all known while PLANNING) - earlier stages are finished by then
+	 */
+	private static boolean stageFinished(JobStatus status, int stageIndex){
+		if(stageIndex >= status.getStageVertices().size()){
+			return false;
+		}
+		if(stageIndex == 0 && status.getPlanning()){
+			return false;
+		}
+		return status.getStageVerticesFinished().get(stageIndex) >= status.getStageVertices().get(stageIndex);
+	}
+	
+	/**
+	 * Sets up the per-stage vertex counts if the job's status doesn't have them
+	 * yet, from the current stage's counts and the job specification - call 
+	 * while holding the job's lock
+	 */
+	private static void ensureStageProgress(JobDescriptor job){
+		JobStatus status = job.getJobStatus();
+		if(status.getStageVertices() != null){
+			return;
+		}
+		ArrayList<Integer> stageVertices = new ArrayList<Integer>();
+		ArrayList<Integer> stageVerticesFinished = new ArrayList<Integer>();
+		for(int stageIndex = 0; stageIndex < status.getTotalVertexStages(); stageIndex++){
+			if(stageIndex == status.getCurrentVertexStage()){
+				stageVertices.add(status.getTotalVerticesCurrentStage());
+				stageVerticesFinished.add(status.getTotalVerticesCurrentStage() - 
+						status.getTotalVerticesInProgressCurrentStage());
+				continue;
+			}
+			int numVertices = 0;
+			if(job.getJobSpecification() != null && stageIndex < job.getJobSpecification().getVertexStages().size()){
+				numVertices = job.getJobSpecification().getVertexStages().get(stageIndex).getNumVertices();
+			}
+			stageVertices.add(numVertices);
+			stageVerticesFinished.add(stageIndex < status.getCurrentVertexStage() ? numVertices : 0);
+		}
+		status.setStageVertices(stageVertices);
+		status.setStageVerticesFinished(stageVerticesFinished);
+	}
+	
+	/**
+	 * Sets the current stage counts from the per-stage counts
+	 */
+	private static void syncCurrentStage(JobStatus status){
+		int stageIndex = status.getCurrentVertexStage();
+		if(stageIndex >= status.getStageVertices().size()){
+			return;
+		}
+		int numVertices = status.getStageVertices().get(stageIndex);
+		status.setTotalVerticesCurrentStage(numVertices);
+		status.setTotalVerticesInProgressCurrentStage(numVertices - status.getStageVerticesFinished().get(stageIndex));
+	}
+
+	private VertexDescriptor newVertex(JobDescriptor job, int stageIndex, int vertexIndex, List<String> inputFiles){
+		VertexStage stage = job.getJobSpecification().getVertexStages().get(stageIndex);
+
+		VertexDescriptor newV = new VertexDescriptor();
+		newV.setExecutionFinished(false);
+		newV.setInputPaths(inputFiles);
+		newV.setJobId(job.getJobId());
+		newV.setVertexClassName(stage.getVertex().getName());
+		newV.setVertexJarPath(job.getHdfsJarPath());
+		newV.setStageNumber(stageIndex);
+		newV.setVertexNumber(vertexIndex);
+		newV.setVertexServerAssignment(null);
+		newV.setMemoryMb(stage.getMemoryMbPerVertex() > 0 ? stage.getMemoryMbPerVertex() : defaultVertexMemoryMb);
+
+		// determine and set number of vertices in the stages reading its output
+		JobGraph graph = graphOf(job);
+		if(graph.isLastStage(stageIndex)){
+			// vertex is part of last stage
+			newV.setNumVerticesNextStage(null);
+		}else{
+			List<String> outputStages = new ArrayList<String>();
+			List<Integer> outputStageVertices = new ArrayList<Integer>();
+			for(JobGraph.Edge edge : graph.outputsOf(stageIndex)){
+				outputStages.add(graph.nameOf(edge.to));
+				outputStageVertices.add(edge.type == StageEdge.Type.BROADCAST ? 1 : partitionsOf(job, graph, edge.to));
+			}
+			newV.setNumVerticesNextStage(outputStageVertices.get(0));
+			newV.setOutputStages(outputStages);
+			newV.setOutputStageVertices(outputStageVertices);
+		}
+		return newV;
+	}
+
+	/**
+	 * Number of ways output read by the stage is partitioned: one per vertex
+	 * unless the stage was sized from its input (its most vertices)
+	 */
+	private static int partitionsOf(JobDescriptor job, JobGraph graph, int stageIndex){
+		Integer partitions = graph.partitionsOf(stageIndex);
+		if(partitions != null){
+			return partitions;
+		}
+		if(job.getJobStatus().getStageVertices() != null){
+			return job.getJobStatus().getStageVertices().get(stageIndex);
+		}
+		return job.getJobSpecification().getVertexStages().get(stageIndex).getNumVertices();
+	}
+
+	/**
+	 * Tells the listener there are vertices to assign - call without holding
+	 * any lock
+	 */
+	private void notifyVerticesAllocatable(){
+		Runnable listener = verticesAllocatableListener;
+		if(listener != null && ! allocatableVertices.isEmpty()){
+			listener.run();
 		}
 	}
 	
@@ -1,18 +1,14 @@
 package edu.colorado.eyore.jserver;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.io.OutputStream;
 import java.net.URL;
-import java.util.ArrayDeque;
 import java.util.List;
 import java.util.Properties;
-import java.util.Queue;
-import java.util.concurrent.ExecutorService;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.concurrent.Executors;
 import java.util.logging.Level;
 import java.util.logging.LogManager;
@@ -22,13 +18,19 @@ import org.apache.hadoop.hdfs.HftpFileSystem;
 
 import edu.colorado.eyore.common.hdfs.HdfsUtils;
 import edu.colorado.eyore.common.job.JobDescriptor;
+import edu.colorado.eyore.common.job.JobSpecification;
+import edu.colorado.eyore.common.net.MessageFrame;
+import edu.colorado.eyore.common.net.MessageObjectUtil;
 import edu.colorado.eyore.common.net.RequestResponseUtil;
-import edu.colorado.eyore.common.vertex.VertexDescriptor;
+import edu.colorado.eyore.common.vertex.VertexCompletion;
 import edu.colorado.eyore.common.vertex.VertexHeartbeat;
 import edu.colorado.eyore.common.vertex.VertexServerInfo;
 
 /**
  * Multi-threaded server that accepts & responds to client and "vertex server" requests 
+ * 
+ * Connections are served by a RequestEventLoop - requests are processed by a
+ * pool of "threads" worker threads however many connections are open
  */
 public class JobServer {
 	
@@ -40,16 +42,33 @@ public class JobServer {
 	// Size of thread pool
 	protected int numThreads;
 	
+	// connections without a request for this long are closed
+	protected int connectionIdleTimeoutMs;
+	
 	protected HdfsUtils hdfs;
 	
-	// a thread pool
-	protected ExecutorService execSrv;
+	// accepts connections and reads/writes messages
+	protected RequestEventLoop eventLoop;
 	
 	/**
 	 * Manages allocation, status of jobs
 	 */
 	protected JobManager jobManager;
 	
+	/**
+	 * Pushes allocatable vertices to vertex servers waiting for work
+	 */
+	protected VertexDispatcher vertexDispatcher;
+	
+	// vertex servers not heard from for this long are taken to be dead
+	protected long livenessTimeoutMs;
+	
+	/**
+	 * Journal the jobs are recovered from on start - null if jobs aren't
+	 * journaled
+	 */
+	protected JobJournal journal;
+	
 	// used to track which was the last id
 	// to be provided so that the next provided
 	// id will be unique
@@ -58,6 +77,9 @@ public class JobServer {
 	public JobServer(Properties props){
 		this.listenPort = Integer.parseInt(props.getProperty("listen.port"));
 		this.numThreads = Integer.parseInt(props.getProperty("threads"));
+		this.connectionIdleTimeoutMs = Integer.parseInt(props.getProperty("connection.idle.timeout.ms", "60000"));
+		
+		MessageObjectUtil.configure(props);
 		
 		try{
 			this.hdfs = new HdfsUtils(props.getProperty("namenode.address"), 
@@ -69,114 +91,242 @@ public class JobServer {
 		
 		int splitsPerHdfsBlock = Integer.parseInt(props.getProperty("file.splits.per.hdfs.block"));
 		
-		jobManager = new JobManager(Integer.parseInt(props.getProperty("max.simultaneous.jobs")), hdfs, splitsPerHdfsBlock);
+		int splitPlannerThreads = Integer.parseInt(props.getProperty("split.planner.threads", "2"));
+		int splitBatchSize = Integer.parseInt(props.getProperty("split.batch.size", "1000"));
+		
+		jobManager = new JobManager(Integer.parseInt(props.getProperty("max.simultaneous.jobs")), hdfs, splitsPerHdfsBlock,
+				Executors.newFixedThreadPool(splitPlannerThreads), splitBatchSize);
+		
+		jobManager.setMaxQueuedVertices(Integer.parseInt(props.getProperty("vertex.max.queued.per.job", "0")));
+		
+		jobManager.setDefaultVertexMemoryMb(Integer.parseInt(props.getProperty("vertex.default.memory.mb", "0")));
+		
+		jobManager.setSchedulingPolicy(FairShareVertexQueue.Policy.valueOf(
+				props.getProperty("scheduler.policy", "fair").trim().toUpperCase()));
+		for(String pool : props.getProperty("scheduler.pools", "").split(",")){
+			pool = pool.trim();
+			if(! pool.isEmpty()){
+				jobManager.setPool(pool, Double.parseDouble(props.getProperty("pool." + pool + ".weight", "1")),
+						Integer.parseInt(props.getProperty("pool." + pool + ".min.share", "0")));
+			}
+		}
+		
+		long localityWaitMs = Long.parseLong(props.getProperty("locality.wait.ms", "3000"));
+		jobManager.setLocalityWaitMs(localityWaitMs);
+		
+		jobManager.setVertexRetries(Integer.parseInt(props.getProperty("vertex.max.attempts", "4")),
+				Long.parseLong(props.getProperty("vertex.retry.backoff.ms", "1000")));
+		jobManager.setBlacklisting(Integer.parseInt(props.getProperty("vserver.blacklist.failures", "3")),
+				Long.parseLong(props.getProperty("vserver.blacklist.ms", "600000")));
+		
+		livenessTimeoutMs = Long.parseLong(props.getProperty("vserver.liveness.timeout.ms", "30000"));
+		jobManager.setLivenessTimeoutMs(livenessTimeoutMs);
+		
+		jobManager.setPreemptionWaitMs(Long.parseLong(props.getProperty("preemption.wait.ms", "0")));
+		
+		double speculationSlowdown = Double.parseDouble(props.getProperty("speculation.slowdown", "0"));
+		jobManager.setSpeculation(speculationSlowdown, 
+				Long.parseLong(props.getProperty("speculation.min.run.ms", "10000")));
+		
+		jobManager.setSkewSplitting(Double.parseDouble(props.getProperty("skew.split.factor", "0")),
+				Integer.parseInt(props.getProperty("skew.max.splits", "8")));
+		
+		String journalDir = props.getProperty("journal.dir", "").trim();
+		if(! journalDir.isEmpty()){
+			journal = new JobJournal(new File(journalDir), 
+					Integer.parseInt(props.getProperty("journal.snapshot.records", "10000")),
+					Boolean.parseBoolean(props.getProperty("journal.sync", "false")));
+		}
+		
+		// vertices held back for other hosts are offered again a few times per wait,
+		// running vertices are checked for stragglers every second
+		long retryIntervalMs = localityWaitMs > 0 ? Math.max(50, localityWaitMs / 4) : 0;
+		if(speculationSlowdown > 0 && (retryIntervalMs == 0 || retryIntervalMs > 1000)){
+			retryIntervalMs = 1000;
+		}
+		vertexDispatcher = new VertexDispatcher(jobManager, 
+				Long.parseLong(props.getProperty("work.request.timeout.ms", "30000")),
+				retryIntervalMs);
+		jobManager.setVerticesAllocatableListener(new Runnable(){
+			@Override
+			public void run() {
+				vertexDispatcher.verticesAllocatable();
+			}
+		});
 	}
 	
 	public void start() throws IOException{
-		ServerSocket serverSocket = new ServerSocket(listenPort);
-		logger.info("Server listening on port " + listenPort);
+		vertexDispatcher.start();
+		if(journal != null){
+			recoverJobs();
+		}
+		
+		// vertices of vertex servers that stopped heartbeating are run elsewhere
+		if(livenessTimeoutMs > 0){
+			Timer t = new Timer("vertex server liveness", true);
+			t.schedule(new TimerTask(){
+				@Override
+				public void run() {
+					try{
+						for(String vServerId : jobManager.removeDeadVertexServers()){
+							vertexDispatcher.serverDead(vServerId);
+						}
+					}catch(Exception e){
+						logger.log(Level.SEVERE, "Failed checking for dead vertex servers", e);
+					}
+				}
+			}, livenessTimeoutMs / 4, Math.max(1, livenessTimeoutMs / 4));
+		}
 		
-		execSrv = Executors.newFixedThreadPool(numThreads);
+		eventLoop = new RequestEventLoop(listenPort, numThreads, connectionIdleTimeoutMs,
+				new RequestHandler(){
+					@Override
+					public void handleRequest(MessageFrame request, PendingResponse response) 
+							throws IOException {
+						JobServer.this.handleRequest(request, response);
+					}
+				});
+		logger.info("Server listening on port " + listenPort);
 		logger.info("Created thread pool of size " + numThreads);
 		
 		// the main server loop
-		while(true){
-			// each connection is handled in a new thread object
-			// by a thread in the thread pool
-			execSrv.submit(new ServerThread(serverSocket.accept()));			
-		}
+		eventLoop.run();
 	}
 	
 	/**
-	 * This is an inner class for a server thread that handles
-	 * requests
+	 * Starts again (or queues again) the jobs the journal says were queued or
+	 * running when the JobServer stopped, then has the JobManager journal from
+	 * then on.  A job whose JobSpecification can't be loaded from its jar any
+	 * more is dropped.  New jobs get IDs after any handed out before
 	 */
-	protected class ServerThread implements Runnable{
-		protected Socket clientSock;
-		public ServerThread(Socket clientSock){
-			this.clientSock = clientSock;
+	protected void recoverJobs() throws IOException{
+		List<JobJournal.RecoveredJob> recovered = journal.open();
+		synchronized(this){
+			lastJobId = Math.max(lastJobId, journal.getLastJobId());
 		}
-
-		@Override
-		public void run() {
+		jobManager.setJournal(journal);
+		for(JobJournal.RecoveredJob job : recovered){
+			JobDescriptor jDesc = job.job;
 			try{
-
-				BufferedReader in = new BufferedReader(
-						new InputStreamReader(clientSock.getInputStream()));
+				JobSpecification jSpec = new ClientRequestProtocol(this, hdfs).loadJobSpec(jDesc);
+				jSpec.setInputPath(jDesc.getHdfsJobInputDir());
+				jSpec.setOutputPath(jDesc.getHdfsJobOutputDir());
+				jDesc.setJobSpecification(jSpec);
+			}catch(Exception e){
+				logger.log(Level.SEVERE, "Failed to load JobSpecification of recovered job " + jDesc.getJobId() +
+						" - dropping it", e);
+				journal.jobEnded(jDesc.getJobId());
+				continue;
+			}
+			
+			// journals from before job IDs were journaled
+			synchronized(this){
+				try{
+					lastJobId = Math.max(lastJobId, Integer.parseInt(jDesc.getJobId()));
+				}catch(NumberFormatException e){
+					// not one of ours
+				}
+			}
+			jobManager.recoverJob(jDesc, job.finished);
+		}
+	}
+	
+	/**
+	 * Responds to one request from a client or vertex server - called on a
+	 * worker thread of the event loop
+	 */
+	protected void handleRequest(MessageFrame request, PendingResponse response) throws IOException{
+		OutputStream out = response.getOutputStream();
+		switch(request.getType()){
+		case CLIENT_REQUEST_JOB:{
+			Object result = RequestResponseUtil.serverResponse(
+					new ClientRequestProtocol(JobServer.this, hdfs),
+					out, request);
+			logger.info("Received job ID request from client");
+			break;
+		}
+		case CLIENT_REQUEST_JOB_START:{
+			logger.info("Received job start request from client");
+			Object result = RequestResponseUtil.serverResponse(
+					new ClientRequestProtocol(JobServer.this, hdfs),
+					out, request);
+			logger.info("Processed job start request from client");
+			if(result != null && result instanceof JobDescriptor){
+				JobDescriptor jDesc = (JobDescriptor) result;
+				logger.info("Starting job with ID " + jDesc.getJobId() +
+						" Jar " + jDesc.getHdfsJarPath());
+				jobManager.addNewJobFromClient(jDesc);
+			}else{
+				logger.severe("Rcv unknown client job start request");
+			}
+			break;
+		}
+		case CLIENT_REQUEST_STATUS:{
+			Object result = RequestResponseUtil.serverResponse(
+					new ClientRequestProtocol(JobServer.this, hdfs),
+					out, request);
+			if(result != null && result instanceof JobDescriptor){
+				JobDescriptor jDesc = (JobDescriptor) result;						
+				logger.info("Responded with status for job ID "
+						+ jDesc.getJobId());
+			}else{
+				logger.severe("Rcv unknown job status request");
+			}
+			break;
+		}
+		case JSERVER_HEARTBEAT:{
+			Object result = RequestResponseUtil.serverResponse(
+					new VertexHeartbeatProtocol(jobManager),
+						out, request);
+			if (result != null && result instanceof VertexHeartbeat) {
+				VertexHeartbeat vHeartbeat = (VertexHeartbeat)result;
 				
-				String request = in.readLine();
-
-				if(request.startsWith("CLIENT REQUEST JOB:")){
-					Object result = RequestResponseUtil.serverResponse(
-							new ClientRequestProtocol(JobServer.this, hdfs),
-							clientSock, request);
-					logger.info("Received job ID request from client");
-					
-				} else if(request.startsWith("CLIENT REQUEST JOB START")){
-					logger.info("Received job start request from client");
-					Object result = RequestResponseUtil.serverResponse(
-							new ClientRequestProtocol(JobServer.this, hdfs),
-							clientSock, request);
-					logger.info("Processed job start request from client");
-					if(result != null && result instanceof JobDescriptor){
-						JobDescriptor jDesc = (JobDescriptor) result;
-						logger.info("Starting job with ID " + jDesc.getJobId() +
-								" Jar " + jDesc.getHdfsJarPath());
-						jobManager.addNewJobFromClient(jDesc);
-					}else{
-						logger.severe("Rcv unknown client job start request");
-					}					
-				} else if(request.startsWith("CLIENT REQUEST STATUS")){
-					Object result = RequestResponseUtil.serverResponse(
-							new ClientRequestProtocol(JobServer.this, hdfs),
-							clientSock, request);
-					if(result != null && result instanceof JobDescriptor){
-						JobDescriptor jDesc = (JobDescriptor) result;						
-						logger.info("Responded with status for job ID "
-								+ jDesc.getJobId());
-					}else{
-						logger.severe("Rcv unknown job status request");
-					}
-				} else if (request.startsWith("JSERVER HEARTBEAT:")) {
-					Object result = RequestResponseUtil.serverResponse(
-							new VertexHeartbeatProtocol(jobManager),
-								clientSock, request);
-					if (result != null && result instanceof VertexHeartbeat) {
-						VertexHeartbeat vHeartbeat = (VertexHeartbeat)result;
-						VertexServerInfo vServer = new VertexServerInfo();
-						vServer.setId(vHeartbeat.getUid());
-						
-						// Get the status of any completed Vertices we have.
-						List <VertexDescriptor> compVertices = vHeartbeat.getVertexDescriptor();
-						if (compVertices != null) {
-							logger.info("Received completion for: " +
-									compVertices.size() + " jobs" );
-							for ( int i = 0; i < compVertices.size(); i++) {
-								jobManager.updateVertexStatus(compVertices.get(i));
-							}
-						}
-											
-						logger.info("Recieved VertexHeartbeat from: " +
-								vHeartbeat.getUid() + " with threads:" +
-								vHeartbeat.getNumThreads());
-					}
-					
-				} else {
-					logger.info("Received unknown message: " + request);
+				// Threads freed since the vertex server's work request was sent
+				// - added before the completions make new vertices allocatable
+				vertexDispatcher.heartbeatReceived(vHeartbeat);
+				
+				// Apply all completed vertices in one go - vertices are pushed to
+				// the vertex server's work request, not assigned here
+				VertexServerInfo vServer = new VertexServerInfo();
+				vServer.setId(vHeartbeat.getUid());
+				vServer.setHostname(vHeartbeat.getHostname());
+				vServer.setAvailableThreads(0);
+				List <VertexCompletion> completions = vHeartbeat.getCompletions();
+				if (completions != null) {
+					logger.info("Received completion for: " +
+							completions.size() + " vertices" );
 				}
-								
-			}catch(Exception e){
-				throw new RuntimeException(e);
+				jobManager.processHeartbeat(vServer, completions, 
+						vHeartbeat.getVertexDescriptor());
+									
+				logger.info("Recieved VertexHeartbeat from: " +
+						vHeartbeat.getUid() + " with threads:" +
+						vHeartbeat.getNumThreads());
 			}
+			break;
 		}
-		
+		case VERTEX_REQUEST_WORK:{
+			// answered once there are vertices for this vertex server
+			vertexDispatcher.requestWork(request, response);
+			return;
+		}
+		default:
+			logger.info("Received unknown message: " + request);
+			response.close();
+			return;
+		}
+		response.send();
 	}
 	
 	/**
-	 * Get a new unique job id
+	 * Get a new unique job id - journaled, if jobs are, so it isn't handed out
+	 * again after a restart
 	 */
 	synchronized int getUniqueJobId(){
 		lastJobId++;
+		if(journal != null){
+			journal.jobIdIssued(lastJobId);
+		}
 		return lastJobId;
 	}
 	
@@ -0,0 +1,122 @@
+package edu.colorado.eyore.jserver;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.colorado.eyore.common.vertex.VertexDescriptor;
+
+/**
+ * The racks of the hosts seen in block locations and how assigned vertices were
+ * placed relative to their preferred hosts - shared by the allocatable vertex
+ * queues of all jobs
+ *
+ * Thread safe
+ */
+class Locality {
+
+	// racks of the hosts seen in block locations
+	private ConcurrentHashMap<String, String> rackOfHost = new ConcurrentHashMap<String, String>();
+
+	// how vertices with a preferred host were placed
+	private AtomicLong nodeLocal = new AtomicLong();
+	private AtomicLong rackLocal = new AtomicLong();
+	private AtomicLong offRack = new AtomicLong();
+
+	// vertices without a preferred host that were assigned
+	private AtomicLong noPreferenceAssigned = new AtomicLong();
+
+	/**
+	 * Records the racks of hosts (e.g. the DataNodes storing a split) - racks
+	 * are matched up with hosts by index
+	 */
+	public void addRacks(List<String> hosts, List<String> racks){
+		if(hosts == null || racks == null){
+			return;
+		}
+		for(int i = 0; i < hosts.size() && i < racks.size(); i++){
+			if(racks.get(i) != null){
+				rackOfHost.put(hosts.get(i), racks.get(i));
+			}
+		}
+	}
+
+	/**
+	 * @return null if the host's rack isn't known
+	 */
+	public String rackOf(String host){
+		return rackOfHost.get(host);
+	}
+
+	public void nodeLocalAssigned(){
+		nodeLocal.incrementAndGet();
+	}
+
+	public void rackLocalAssigned(){
+		rackLocal.incrementAndGet();
+	}
+
+	public void noPreferenceAssigned(){
+		noPreferenceAssigned.incrementAndGet();
+	}
+
+	/**
+	 * Counts where a vertex taken regardless of its preferred hosts was placed
+	 */
+	public VertexDescriptor count(VertexDescriptor vertex, String host){
+		if(vertex == null){
+			return null;
+		}
+		List<String> hosts = vertex.getPreferredHosts();
+		if(hosts == null || hosts.isEmpty()){
+			noPreferenceAssigned.incrementAndGet();
+		}else if(host != null && hosts.contains(host)){
+			nodeLocal.incrementAndGet();
+		}else if(host != null && rackOfHost.get(host) != null && racksOf(hosts).contains(rackOfHost.get(host))){
+			rackLocal.incrementAndGet();
+		}else{
+			offRack.incrementAndGet();
+		}
+		return vertex;
+	}
+
+	private Set<String> racksOf(List<String> hosts){
+		HashSet<String> racks = new HashSet<String>();
+		for(String h : hosts){
+			String rack = rackOfHost.get(h);
+			if(rack != null){
+				racks.add(rack);
+			}
+		}
+		return racks;
+	}
+
+	public long getNodeLocal(){
+		return nodeLocal.get();
+	}
+
+	public long getRackLocal(){
+		return rackLocal.get();
+	}
+
+	public long getOffRack(){
+		return offRack.get();
+	}
+
+	public long getNoPreference(){
+		return noPreferenceAssigned.get();
+	}
+
+	/**
+	 * @return e.g. "node-local 90% (90), rack-local 8% (8), off-rack 2% (2), no preference 10"
+	 */
+	public String getLocalitySummary(){
+		long node = nodeLocal.get(), rack = rackLocal.get(), off = offRack.get();
+		long total = Math.max(1, node + rack + off);
+		return "node-local " + (node * 100 / total) + "% (" + node + "), rack-local " +
+			(rack * 100 / total) + "% (" + rack + "), off-rack " + (off * 100 / total) + "% (" + off +
+			"), no preference " + noPreferenceAssigned.get();
+	}
+}
@@ -0,0 +1,80 @@
+package edu.colorado.eyore.jserver;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import edu.colorado.eyore.common.vertex.VertexDescriptor;
+
+/**
+ * A job's vertex output files that could no longer be read after the
+ * VertexServer that wrote them stopped heartbeating, the vertices run again to
+ * write them anew, and the vertices held back because they would read them.
+ *
+ * Guarded by the job's lock.
+ */
+class LostOutputs {
+
+	// files no longer readable
+	private HashSet<String> files = new HashSet<String>();
+
+	// finished vertices being run again (VertexDescriptor equality - any attempt)
+	private HashSet<VertexDescriptor> reruns = new HashSet<VertexDescriptor>();
+
+	// vertices with lost input, waiting for the reruns
+	private ArrayList<VertexDescriptor> held = new ArrayList<VertexDescriptor>();
+
+	/**
+	 * Records the files of a finished vertex as lost and the vertex as being run again
+	 */
+	public void lost(VertexDescriptor finished, List<String> lostFiles){
+		files.addAll(lostFiles);
+		reruns.add(finished);
+	}
+
+	public boolean isRerun(VertexDescriptor vertex){
+		return reruns.contains(vertex);
+	}
+
+	/**
+	 * The vertex was run again - the files its earlier attempt wrote are no
+	 * longer needed
+	 */
+	public void rerunFinished(VertexDescriptor vertex, List<String> oldFiles){
+		reruns.remove(vertex);
+		files.removeAll(oldFiles);
+	}
+
+	public boolean hasReruns(){
+		return ! reruns.isEmpty();
+	}
+
+	/**
+	 * True if any of the paths is lost
+	 */
+	public boolean anyLost(List<String> paths){
+		if(paths == null || files.isEmpty()){
+			return false;
+		}
+		for(String path : paths){
+			if(files.contains(path)){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public void hold(VertexDescriptor vertex){
+		held.add(vertex);
+	}
+
+	/**
+	 * Takes all the held vertices - those that still read lost files are held
+	 * again by the caller
+	 */
+	public List<VertexDescriptor> takeHeld(){
+		List<VertexDescriptor> taken = new ArrayList<VertexDescriptor>(held);
+		held.clear();
+		return taken;
+	}
+}
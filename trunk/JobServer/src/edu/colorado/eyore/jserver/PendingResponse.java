@@ -0,0 +1,101 @@
+package edu.colorado.eyore.jserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+
+/**
+ * The response to one request received by the RequestEventLoop.  The handler
+ * writes the response frame to getOutputStream() and then calls send(), or calls
+ * close() to drop the connection instead.
+ *
+ * send() and close() may be called from any thread, also after handleRequest has
+ * returned - so a request can wait for something to happen (e.g. vertices to
+ * become allocatable) without holding a worker thread
+ *
+ * If the client goes away before the response is written, or writing it fails,
+ * the transport calls deliveryFailed() - the listener set with
+ * setDeliveryFailedListener is run then (once), so whatever the response
+ * carried can be handed to someone else
+ */
+public abstract class PendingResponse {
+
+	private ByteArrayOutputStream out = new ByteArrayOutputStream();
+	private boolean completed = false;
+	private boolean failed = false;
+	private Runnable deliveryFailedListener;
+
+	public OutputStream getOutputStream(){
+		return out;
+	}
+
+	/**
+	 * Sends what was written to getOutputStream() - the connection stays open
+	 */
+	public void send(){
+		complete(false);
+	}
+
+	/**
+	 * Closes the connection - anything written to getOutputStream() is discarded
+	 */
+	public void close(){
+		complete(true);
+	}
+
+	/**
+	 * @param listener - run if the response can't be delivered (see
+	 * deliveryFailed) - at once if it already couldn't be
+	 */
+	public void setDeliveryFailedListener(Runnable listener){
+		synchronized(this){
+			deliveryFailedListener = listener;
+			if(! failed){
+				return;
+			}
+		}
+		listener.run();
+	}
+
+	/**
+	 * Called by the transport when the client went away or the response
+	 * couldn't be written - the connection is closed.  Runs the delivery failed
+	 * listener the first time only
+	 */
+	public void deliveryFailed(){
+		Runnable listener;
+		synchronized(this){
+			if(failed){
+				return;
+			}
+			failed = true;
+			listener = deliveryFailedListener;
+		}
+		if(listener != null){
+			listener.run();
+		}
+	}
+
+	/**
+	 * @return true once send() or close() was called
+	 */
+	public synchronized boolean isCompleted(){
+		return completed;
+	}
+
+	private void complete(boolean close){
+		byte[] response;
+		synchronized(this){
+			if(completed){
+				return;
+			}
+			completed = true;
+			response = close ? new byte[0] : out.toByteArray();
+		}
+		deliver(response, close);
+	}
+
+	/**
+	 * Hands the response to the connection - called once
+	 */
+	protected abstract void deliver(byte[] response, boolean closeAfterResponse);
+}
@@ -0,0 +1,103 @@
+package edu.colorado.eyore.jserver;
+
+import java.util.ArrayDeque;
+
+import edu.colorado.eyore.common.hdfs.HdfsFileSplit;
+
+/**
+ * A job's vertices that can run but haven't been made into VertexDescriptors
+ * yet: the planned splits of its first stage and, for each later stage
+ * released, the vertices of the stage not reached yet.  The JobManager makes
+ * them a few at a time as the job's queued vertices are assigned, so it holds
+ * descriptors (and input path lists) for the vertices running and queued
+ * rather than for every vertex of a wide stage.
+ *
+ * Guarded by the job's lock.
+ */
+class PendingVertices {
+
+	/**
+	 * The vertices of a released stage from next up to (not including) end
+	 */
+	private static class StageCursor {
+		final int stage;
+		final int end;
+		int next;
+
+		StageCursor(int stage, int end){
+			this.stage = stage;
+			this.end = end;
+		}
+	}
+
+	// first stage splits, in vertex order - the last is that of the stage's
+	// last vertex planned so far
+	private ArrayDeque<HdfsFileSplit> splits = new ArrayDeque<HdfsFileSplit>();
+
+	// stages in the order they were released
+	private ArrayDeque<StageCursor> stages = new ArrayDeque<StageCursor>();
+
+	public void addSplit(HdfsFileSplit split){
+		splits.add(split);
+	}
+
+	public int splitCount(){
+		return splits.size();
+	}
+
+	/**
+	 * @return the split of the first stage vertex with the lowest number not
+	 * made yet - null if there is none
+	 */
+	public HdfsFileSplit takeSplit(){
+		return splits.poll();
+	}
+
+	/**
+	 * Records that the stage's vertices 0 to numVertices-1 are to be made
+	 */
+	public void addStage(int stageIndex, int numVertices){
+		if(numVertices > 0){
+			stages.add(new StageCursor(stageIndex, numVertices));
+		}
+	}
+
+	public boolean hasStageVertices(){
+		return ! stages.isEmpty();
+	}
+
+	/**
+	 * Stage of the vertex takeStageVertex returns next
+	 */
+	public int nextStage(){
+		return stages.peek().stage;
+	}
+
+	/**
+	 * @return the number of the next vertex of the stage released first that
+	 * still has vertices to make
+	 */
+	public int takeStageVertex(){
+		StageCursor cursor = stages.peek();
+		int vertexIndex = cursor.next++;
+		if(cursor.next >= cursor.end){
+			stages.poll();
+		}
+		return vertexIndex;
+	}
+
+	/**
+	 * Number of vertices not made yet
+	 */
+	public int size(){
+		int size = splits.size();
+		for(StageCursor cursor : stages){
+			size += cursor.end - cursor.next;
+		}
+		return size;
+	}
+
+	public boolean isEmpty(){
+		return splits.isEmpty() && stages.isEmpty();
+	}
+}
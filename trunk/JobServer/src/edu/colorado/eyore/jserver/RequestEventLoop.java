@@ -0,0 +1,301 @@
+package edu.colorado.eyore.jserver;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import edu.colorado.eyore.common.net.MessageFrame;
+import edu.colorado.eyore.common.net.MessageFrameReader;
+
+/**
+ * Non-blocking front end of the JobServer.  A single selector thread accepts
+ * connections, reads request frames and writes responses - complete requests
+ * are handed to a fixed size pool of worker threads running the RequestHandler.
+ * Open connections don't hold a thread, so a slow or idle client can't stall
+ * the others
+ *
+ * Each connection has at most one request in progress - the next request is
+ * read once the response has been written.  A handler may hold on to the
+ * response (see PendingResponse) - such a connection stays open however long
+ * that takes.  A client that closes the connection (or sends another request)
+ * while its request is in progress, or whose response can't be written, fails
+ * the response's delivery (PendingResponse.deliveryFailed).
+ * Connections without a request for idleTimeoutMs are closed
+ */
+public class RequestEventLoop implements Runnable {
+
+	protected static Logger logger = Logger.getLogger(RequestEventLoop.class.getName());
+
+	private Selector selector;
+	private ServerSocketChannel serverChannel;
+	private ExecutorService workers;
+	private RequestHandler handler;
+	private long idleTimeoutMs;
+
+	// connections with a response ready to be written (added by PendingResponse)
+	private Queue<Connection> responsesReady = new ConcurrentLinkedQueue<Connection>();
+
+	private volatile boolean running = true;
+	private long lastIdleCheck = System.currentTimeMillis();
+
+	/**
+	 * Binds to the listen port - call run() to start serving
+	 *
+	 * @param listenPort - 0 for any free port (see getLocalPort)
+	 * @param numWorkers - threads running the handler
+	 */
+	public RequestEventLoop(int listenPort, int numWorkers, long idleTimeoutMs,
+			RequestHandler handler) throws IOException{
+		this.handler = handler;
+		this.idleTimeoutMs = idleTimeoutMs;
+
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.socket().setReuseAddress(true);
+		serverChannel.socket().bind(new InetSocketAddress(listenPort));
+		serverChannel.configureBlocking(false);
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+		workers = Executors.newFixedThreadPool(numWorkers);
+	}
+
+	public int getLocalPort(){
+		return serverChannel.socket().getLocalPort();
+	}
+
+	/**
+	 * The selector loop - returns after close()
+	 */
+	@Override
+	public void run() {
+		try{
+			while(running){
+				selector.select(Math.max(idleTimeoutMs / 4, 1));
+
+				Connection ready;
+				while((ready = responsesReady.poll()) != null){
+					write(ready);
+				}
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while(keys.hasNext()){
+					SelectionKey key = keys.next();
+					keys.remove();
+					if(! key.isValid()){
+						continue;
+					}
+					if(key.isAcceptable()){
+						accept();
+						continue;
+					}
+					Connection conn = (Connection) key.attachment();
+					if(key.isReadable()){
+						read(conn);
+					}
+					if(key.isValid() && key.isWritable()){
+						write(conn);
+					}
+				}
+
+				closeIdleConnections();
+			}
+		}catch(ClosedSelectorException e){
+			// closed
+		}catch(IOException e){
+			logger.log(Level.SEVERE, "Request event loop failed", e);
+		}finally{
+			shutdown();
+		}
+	}
+
+	/**
+	 * Stops the loop and closes all connections
+	 */
+	public void close(){
+		running = false;
+		selector.wakeup();
+	}
+
+	private void shutdown(){
+		workers.shutdown();
+		try{
+			for(SelectionKey key : selector.keys()){
+				key.channel().close();
+			}
+			selector.close();
+		}catch(IOException e){
+			logger.log(Level.WARNING, "Failed closing connections", e);
+		}
+	}
+
+	private void accept() throws IOException{
+		SocketChannel channel = serverChannel.accept();
+		if(channel == null){
+			return;
+		}
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		Connection conn = new Connection(channel);
+		conn.key = channel.register(selector, SelectionKey.OP_READ, conn);
+	}
+
+	private void read(final Connection conn){
+		final MessageFrame request;
+		try{
+			request = conn.reader.read(conn.channel);
+		}catch(EOFException e){
+			if(conn.busy){
+				logger.info("Connection from " + conn + " closed while its request was in progress");
+			}else if(conn.reader.hasPartialFrame()){
+				logger.info("Connection from " + conn + " closed part way through a request");
+			}
+			close(conn);
+			return;
+		}catch(IOException e){
+			logger.log(Level.INFO, "Connection from " + conn + " failed", e);
+			close(conn);
+			return;
+		}
+		conn.lastActive = System.currentTimeMillis();
+		if(request == null){
+			return;
+		}
+		if(conn.busy){
+			logger.warning("Connection from " + conn + " sent a request before the response to its last one");
+			close(conn);
+			return;
+		}
+
+		// still read while the request is in progress, only to find out if the
+		// client goes away
+		conn.busy = true;
+		final PendingResponse response = new PendingResponse(){
+			@Override
+			protected void deliver(byte[] bytes, boolean closeAfterResponse) {
+				conn.response = ByteBuffer.wrap(bytes);
+				conn.closeAfterResponse = closeAfterResponse;
+				responsesReady.add(conn);
+				selector.wakeup();
+			}
+		};
+		conn.pending = response;
+		workers.execute(new Runnable(){
+			@Override
+			public void run() {
+				try{
+					handler.handleRequest(request, response);
+				}catch(Exception e){
+					logger.log(Level.SEVERE, "Failed handling request " + request, e);
+					response.close();
+				}
+			}
+		});
+	}
+
+	private void write(Connection conn){
+		if(! conn.key.isValid()){
+			return;
+		}
+		try{
+			conn.channel.write(conn.response);
+		}catch(IOException e){
+			logger.log(Level.INFO, "Failed writing response to " + conn, e);
+			close(conn);
+			return;
+		}
+		if(conn.response.hasRemaining()){
+			conn.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			return;
+		}
+
+		conn.response = null;
+		conn.pending = null;
+		conn.busy = false;
+		conn.lastActive = System.currentTimeMillis();
+		if(conn.closeAfterResponse){
+			close(conn);
+		}else{
+			conn.key.interestOps(SelectionKey.OP_READ);
+		}
+	}
+
+	private void closeIdleConnections(){
+		long now = System.currentTimeMillis();
+		if(now - lastIdleCheck < idleTimeoutMs / 4){
+			return;
+		}
+		lastIdleCheck = now;
+		for(SelectionKey key : selector.keys()){
+			Connection conn = (Connection) key.attachment();
+			if(conn != null && ! conn.busy && now - conn.lastActive >= idleTimeoutMs){
+				logger.fine("Closing idle connection from " + conn);
+				close(conn);
+			}
+		}
+	}
+
+	/**
+	 * Closes the connection - the response to a request in progress can't be
+	 * delivered any more
+	 */
+	private void close(Connection conn){
+		conn.key.cancel();
+		try{
+			conn.channel.close();
+		}catch(IOException e){
+			// closing anyway
+		}
+		if(conn.busy){
+			conn.busy = false;
+			final PendingResponse pending = conn.pending;
+			conn.pending = null;
+			// the listener may take locks - not on the selector thread
+			workers.execute(new Runnable(){
+				@Override
+				public void run() {
+					pending.deliveryFailed();
+				}
+			});
+		}
+	}
+
+	/**
+	 * State of one client connection - only touched by the selector thread,
+	 * except response and closeAfterResponse which are set by the PendingResponse
+	 * before it hands the connection back through responsesReady
+	 */
+	private static class Connection {
+		SocketChannel channel;
+		SelectionKey key;
+		MessageFrameReader reader = new MessageFrameReader();
+		long lastActive = System.currentTimeMillis();
+		// a request is being processed or its response written
+		boolean busy = false;
+		// the response to the request in progress
+		PendingResponse pending;
+		ByteBuffer response;
+		boolean closeAfterResponse;
+
+		Connection(SocketChannel channel){
+			this.channel = channel;
+		}
+
+		@Override
+		public String toString(){
+			return String.valueOf(channel.socket().getRemoteSocketAddress());
+		}
+	}
+}
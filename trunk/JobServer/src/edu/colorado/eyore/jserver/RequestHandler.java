@@ -0,0 +1,21 @@
+package edu.colorado.eyore.jserver;
+
+import java.io.IOException;
+
+import edu.colorado.eyore.common.net.MessageFrame;
+
+/**
+ * Processes one request received by the RequestEventLoop
+ */
+public interface RequestHandler {
+
+	/**
+	 * Called on a worker thread - the handler must call response.send() or
+	 * response.close(), either before returning or later from any thread.  No
+	 * more requests are read from the connection until it does
+	 *
+	 * @param request - the request frame
+	 * @param response - the response frame is written here (see RequestResponseUtil.serverResponse)
+	 */
+	public void handleRequest(MessageFrame request, PendingResponse response) throws IOException;
+}
@@ -0,0 +1,381 @@
+package edu.colorado.eyore.jserver;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import edu.colorado.eyore.common.net.MessageFrame;
+import edu.colorado.eyore.common.net.MessageObjectUtil;
+import edu.colorado.eyore.common.net.MessageType;
+import edu.colorado.eyore.common.vertex.VertexDescriptor;
+import edu.colorado.eyore.common.vertex.VertexHeartbeat;
+import edu.colorado.eyore.common.vertex.VertexHeartbeatResponse;
+import edu.colorado.eyore.common.vertex.VertexServerInfo;
+
+/**
+ * Pushes vertices to VertexServers as soon as they become allocatable.
+ *
+ * A VertexServer with free threads sends a work request ("VERTEX REQUEST WORK:"
+ * + VertexHeartbeat) and the request is held here until the JobManager has
+ * vertices for it - the "OK VERTEX:" response (VertexHeartbeatResponse) carries
+ * the assignment.  Requests still without vertices after workRequestTimeoutMs
+ * are answered with an empty assignment so the VertexServer knows the JobServer
+ * is still there and asks again.
+ *
+ * A VertexServer has at most one work request outstanding - a new one replaces
+ * (answers empty) any still held for it.  Threads freed while its request is
+ * held are offered by its heartbeats (heartbeatReceived), which also bring the
+ * request's resource figures (free heap etc.) up to date.  A heartbeat names
+ * the request its threads are offered to - threads offered to a request
+ * already answered are ignored, the VertexServer offers them again with its
+ * next request.
+ *
+ * A VertexServer that goes away while its request is held gets nothing pushed
+ * to it, and vertices whose response couldn't be written to it are handed back
+ * to the JobManager (see PendingResponse.deliveryFailed) - the VertexServer may
+ * well still be heartbeating, so they wouldn't be started again otherwise.
+ *
+ * Assignment runs on the dispatcher's own thread, which is woken by the
+ * JobManager (see JobManager.setVerticesAllocatableListener) and by new requests.
+ * Vertices may be held back for a while for a VertexServer on the host storing
+ * their input (see JobManager.setLocalityWaitMs) - while requests are waiting
+ * and vertices are allocatable, assignment is retried every retryIntervalMs.
+ * The same goes while vertices are running that may turn out to be stragglers
+ * needing a backup attempt (see JobManager.setSpeculation).
+ */
+public class VertexDispatcher implements Runnable {
+
+	private static Logger logger = Logger.getLogger(VertexDispatcher.class.getName());
+
+	private JobManager jobManager;
+	private long workRequestTimeoutMs;
+	private long retryIntervalMs;
+
+	// requests waiting for vertices - oldest first
+	private ArrayDeque<WorkRequest> waitingRequests = new ArrayDeque<WorkRequest>();
+
+	// VertexServer id -> its request not yet answered (waiting or being assigned to)
+	private HashMap<String, WorkRequest> requestsByServer = new HashMap<String, WorkRequest>();
+
+	// set when assignment should be tried again (new vertices or new requests)
+	private boolean assignmentPending = false;
+
+	// when to try assigning held back vertices again
+	private long retryAt = Long.MAX_VALUE;
+
+	public VertexDispatcher(JobManager jobManager, long workRequestTimeoutMs){
+		this(jobManager, workRequestTimeoutMs, 0);
+	}
+
+	/**
+	 * @param retryIntervalMs - how often assignment is retried while requests
+	 * wait and vertices are allocatable (0 to only assign when woken)
+	 */
+	public VertexDispatcher(JobManager jobManager, long workRequestTimeoutMs, long retryIntervalMs){
+		this.jobManager = jobManager;
+		this.workRequestTimeoutMs = workRequestTimeoutMs;
+		this.retryIntervalMs = retryIntervalMs;
+	}
+
+	/**
+	 * Starts the dispatcher thread
+	 */
+	public void start(){
+		Thread t = new Thread(this, "vertex dispatcher");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	/**
+	 * Called by the JobManager when vertices became allocatable
+	 */
+	public synchronized void verticesAllocatable(){
+		assignmentPending = true;
+		notifyAll();
+	}
+
+	/**
+	 * Holds a work request until vertices are assigned to it or it times out
+	 *
+	 * @param request - "VERTEX REQUEST WORK:" frame
+	 * @param response - answered from the dispatcher thread
+	 */
+	public void requestWork(MessageFrame request, PendingResponse response){
+		VertexHeartbeat workRequest = MessageObjectUtil.stringToObject(
+				request.toMessage().replaceFirst(MessageType.VERTEX_REQUEST_WORK.getPrefix(), ""));
+
+		final WorkRequest wr = new WorkRequest(workRequest.getUid(), workRequest.getNumThreads(),
+				response, System.currentTimeMillis() + workRequestTimeoutMs);
+		wr.hostname = workRequest.getHostname();
+		wr.resources = workRequest;
+		wr.number = workRequest.getWorkRequest();
+		response.setDeliveryFailedListener(new Runnable(){
+			@Override
+			public void run() {
+				deliveryFailed(wr);
+			}
+		});
+		jobManager.serverHeartbeat(wr.vServerId);
+		WorkRequest replaced;
+		synchronized(this){
+			replaced = requestsByServer.put(wr.vServerId, wr);
+			if(replaced != null){
+				replaced.answered = true;
+				waitingRequests.remove(replaced);
+			}
+			waitingRequests.add(wr);
+			assignmentPending = true;
+			notifyAll();
+		}
+		if(replaced != null){
+			logger.info("New work request from VServer (" + wr.vServerId + ") replaces its previous one");
+			respond(replaced, new ArrayList<VertexDescriptor>());
+		}
+	}
+
+	/**
+	 * Adds threads to the VertexServer's outstanding work request - does
+	 * nothing if it has none (its next request will offer them)
+	 *
+	 * @param vServerId - VertexServer id
+	 * @param threads - number of threads freed since its request was sent
+	 */
+	public synchronized void addAvailableThreads(String vServerId, int threads){
+		WorkRequest wr = requestsByServer.get(vServerId);
+		if(wr == null || threads <= 0){
+			return;
+		}
+		wr.availableThreads += threads;
+		assignmentPending = true;
+		notifyAll();
+	}
+
+	/**
+	 * Adds the threads freed since the VertexServer's work request was sent and
+	 * updates the request's resources - does nothing if it has no request held.
+	 * Threads offered to an earlier request (answered before the heartbeat
+	 * arrived) aren't added - the request held offers them already
+	 */
+	public synchronized void heartbeatReceived(VertexHeartbeat heartbeat){
+		WorkRequest wr = requestsByServer.get(heartbeat.getUid());
+		if(wr == null){
+			return;
+		}
+		wr.resources = heartbeat;
+		if(heartbeat.getWorkRequest() != wr.number){
+			if(heartbeat.getNumThreads() > 0){
+				logger.fine("Ignoring " + heartbeat.getNumThreads() + " threads offered by VServer (" + 
+						wr.vServerId + ") to work request " + heartbeat.getWorkRequest() + " - answered already");
+			}
+			return;
+		}
+		addAvailableThreads(heartbeat.getUid(), heartbeat.getNumThreads());
+	}
+
+	/**
+	 * Drops the work request held for a VertexServer taken to be dead (see
+	 * JobManager.removeDeadVertexServers) so no vertices are pushed to it - its
+	 * connection is closed
+	 */
+	public void serverDead(String vServerId){
+		WorkRequest wr;
+		synchronized(this){
+			wr = requestsByServer.remove(vServerId);
+			if(wr == null){
+				return;
+			}
+			wr.answered = true;
+			waitingRequests.remove(wr);
+		}
+		logger.info("Dropped work request of dead VServer (" + vServerId + ")");
+		wr.response.close();
+	}
+
+	/**
+	 * The VertexServer went away before the response to its work request was
+	 * written - a request still held is dropped, vertices pushed with it are
+	 * handed back to the JobManager
+	 */
+	private void deliveryFailed(WorkRequest wr){
+		List<VertexDescriptor> pushed;
+		synchronized(this){
+			if(! wr.answered){
+				wr.answered = true;
+				waitingRequests.remove(wr);
+				if(requestsByServer.get(wr.vServerId) == wr){
+					requestsByServer.remove(wr.vServerId);
+				}
+				logger.info("Dropped work request of VServer (" + wr.vServerId + ") - its connection closed");
+				return;
+			}
+			pushed = wr.pushed;
+			wr.pushed = null;
+		}
+		if(pushed != null && ! pushed.isEmpty()){
+			logger.warning("Failed pushing " + pushed.size() + " vertices to VServer (" + wr.vServerId +
+					") - starting them again");
+			jobManager.requeueUndelivered(pushed);
+		}
+	}
+
+	/**
+	 * @return number of work requests waiting for vertices
+	 */
+	public synchronized int getWaitingRequests(){
+		return waitingRequests.size();
+	}
+
+	@Override
+	public void run() {
+		while(true){
+			List<WorkRequest> requests;
+			synchronized(this){
+				try{
+					waitForWork();
+				}catch(InterruptedException e){
+					return;
+				}
+				assignmentPending = false;
+				retryAt = Long.MAX_VALUE;
+				requests = new ArrayList<WorkRequest>(waitingRequests);
+				waitingRequests.clear();
+			}
+
+			// the JobManager is called without holding this lock - it calls
+			// verticesAllocatable() while holding its own
+			long now = System.currentTimeMillis();
+			List<WorkRequest> stillWaiting = new ArrayList<WorkRequest>();
+			for(WorkRequest wr : requests){
+				VertexServerInfo vServer = new VertexServerInfo();
+				synchronized(this){
+					if(wr.answered){
+						continue;
+					}
+					vServer.setId(wr.vServerId);
+					vServer.setHostname(wr.hostname);
+					vServer.setAvailableThreads(wr.availableThreads);
+					vServer.setCores(wr.resources.getCores());
+					vServer.setFreeMemoryMb(wr.resources.getFreeMemoryMb());
+					vServer.setLoadAverage(wr.resources.getLoadAverage());
+					vServer.setRunningVertices(wr.resources.getRunningVertices());
+				}
+				List<VertexDescriptor> assigned = new ArrayList<VertexDescriptor>();
+				if(vServer.getAvailableThreads() > 0){
+					assigned = jobManager.assignVerticesToServer(vServer);
+				}
+				if(! assigned.isEmpty() || now >= wr.deadline){
+					boolean alreadyAnswered;
+					synchronized(this){
+						alreadyAnswered = wr.answered;
+						wr.answered = true;
+						if(! alreadyAnswered){
+							wr.pushed = assigned;
+						}
+						if(requestsByServer.get(wr.vServerId) == wr){
+							requestsByServer.remove(wr.vServerId);
+						}
+					}
+					if(alreadyAnswered){
+						// replaced or dropped meanwhile - its response can't carry them
+						if(! assigned.isEmpty()){
+							logger.warning("Work request from VServer (" + wr.vServerId + ") was answered while assigning " +
+									assigned.size() + " vertices to it - starting them again");
+							jobManager.requeueUndelivered(assigned);
+						}
+						continue;
+					}
+					respond(wr, assigned);
+				}else{
+					stillWaiting.add(wr);
+				}
+			}
+
+			boolean verticesLeft = ! stillWaiting.isEmpty() && 
+				(jobManager.hasAllocatableVertices() || jobManager.isSpeculating());
+			synchronized(this){
+				// keep the older requests in front of any that arrived meanwhile
+				for(int i = stillWaiting.size() - 1; i >= 0; i--){
+					if(! stillWaiting.get(i).answered){
+						waitingRequests.addFirst(stillWaiting.get(i));
+					}
+				}
+				// vertices left are held back for other hosts (or running vertices
+				// may need backups) - try them again later
+				if(retryIntervalMs > 0 && verticesLeft){
+					retryAt = System.currentTimeMillis() + retryIntervalMs;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Waits until assignment should be tried or a request has timed out
+	 */
+	private void waitForWork() throws InterruptedException{
+		while(! assignmentPending){
+			long now = System.currentTimeMillis();
+			if(retryAt <= now){
+				retryAt = Long.MAX_VALUE;
+				return;
+			}
+			long nextDeadline = retryAt;
+			for(WorkRequest wr : waitingRequests){
+				nextDeadline = Math.min(nextDeadline, wr.deadline);
+			}
+			if(nextDeadline <= now){
+				return;
+			}
+			if(nextDeadline == Long.MAX_VALUE){
+				wait();
+			}else{
+				wait(nextDeadline - now);
+			}
+		}
+	}
+
+	private void respond(WorkRequest wr, List<VertexDescriptor> assigned){
+		VertexHeartbeatResponse vhbr = new VertexHeartbeatResponse();
+		vhbr.setVertexDescriptor(assigned);
+		try{
+			MessageFrame.fromMessage("OK VERTEX:" + MessageObjectUtil.objectToString(vhbr))
+				.write(wr.response.getOutputStream());
+			wr.response.send();
+		}catch(IOException e){
+			logger.log(Level.SEVERE, "Failed responding to work request from " + wr.vServerId, e);
+			wr.response.close();
+		}
+		if(! assigned.isEmpty()){
+			logger.info("Pushed " + assigned.size() + " vertices to VServer (" + wr.vServerId + ")");
+		}
+	}
+
+	/**
+	 * A held work request - availableThreads, answered and pushed are guarded
+	 * by the dispatcher lock
+	 */
+	private static class WorkRequest {
+		String vServerId;
+		// the VertexServer's number for the request
+		int number;
+		String hostname;
+		int availableThreads;
+		// latest resource figures (work request or heartbeat)
+		VertexHeartbeat resources;
+		PendingResponse response;
+		long deadline;
+		boolean answered = false;
+		// vertices sent with the response
+		List<VertexDescriptor> pushed;
+
+		WorkRequest(String vServerId, int availableThreads, PendingResponse response, long deadline){
+			this.vServerId = vServerId;
+			this.availableThreads = availableThreads;
+			this.response = response;
+			this.deadline = deadline;
+		}
+	}
+}
@@ -1,12 +1,13 @@
 package edu.colorado.eyore.jserver;
 
+import java.util.ArrayList;
 import java.util.logging.Logger;
 
 import edu.colorado.eyore.common.net.MessageObjectUtil;
 import edu.colorado.eyore.common.net.Protocol;
+import edu.colorado.eyore.common.vertex.VertexDescriptor;
 import edu.colorado.eyore.common.vertex.VertexHeartbeat;
 import edu.colorado.eyore.common.vertex.VertexHeartbeatResponse;
-import edu.colorado.eyore.common.vertex.VertexServerInfo;
 
 /**
  * JobServer VertexHeartbeatProtocl. Handles heartbeat messages from the VertexServer.
@@ -56,14 +57,16 @@ public class VertexHeartbeatProtocol implements Protocol {
 			this.vHeartbeat = MessageObjectUtil.stringToObject(
 					rcvFromFarEnd.replaceFirst("JSERVER HEARTBEAT:", ""));
 			
-			VertexServerInfo vServer = new VertexServerInfo();
-			vServer.setId(vHeartbeat.getUid());
-			vServer.setAvailableThreads(vHeartbeat.getNumThreads());
+			// Vertices are pushed in response to work requests (see VertexDispatcher),
+			// heartbeats only report completions & that the VertexServer is alive
+			// - the response tells the VertexServer which vertices were preempted.
 			VertexHeartbeatResponse vhbr = new VertexHeartbeatResponse();
-			vhbr.setVertexDescriptor(this.jobManager.assignVerticesToServer(vServer));
+			vhbr.setVertexDescriptor(new ArrayList<VertexDescriptor>());
+			vhbr.setVerticesToStop(jobManager.takeAttemptsToStop(this.vHeartbeat.getUid()));
 			
 			this.isFinished = true;
-			logger.info("HEARTBEAT numVertices:" + vhbr.getVertexDescriptor().size());
+			logger.info("HEARTBEAT numVertices:" + vhbr.getVertexDescriptor().size() +
+					" verticesToStop:" + vhbr.getVerticesToStop().size());
 			return "OK VERTEX:" +
 				MessageObjectUtil.objectToString(vhbr);
 		}
@@ -0,0 +1,125 @@
+package edu.colorado.eyore.jserver;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+import edu.colorado.eyore.common.vertex.VertexDescriptor;
+
+/**
+ * Set of VertexDescriptors (equal when job ID, stage number and vertex number
+ * are equal) that can also return the stored descriptor for a vertex - used to
+ * find the JobManager's own record of a vertex a VertexServer reports on
+ *
+ * Thread safe - iterators are weakly consistent (see ConcurrentHashMap)
+ */
+public class VertexSet extends AbstractSet<VertexDescriptor> {
+
+	/**
+	 * Told of each vertex added to or removed from the set (iterator removals
+	 * and clear too), after the set has changed
+	 */
+	interface Listener {
+		void added(VertexDescriptor vertex);
+		void removed(VertexDescriptor vertex);
+	}
+
+	private ConcurrentHashMap<VertexDescriptor, VertexDescriptor> vertices =
+		new ConcurrentHashMap<VertexDescriptor, VertexDescriptor>();
+
+	private final Listener listener;
+
+	public VertexSet(){
+		this(null);
+	}
+
+	/**
+	 * @param listener - null for none
+	 */
+	VertexSet(Listener listener){
+		this.listener = listener;
+	}
+
+	/**
+	 * @return the stored descriptor for the vertex or null if not in the set
+	 */
+	public VertexDescriptor get(String jobId, int stageNumber, int vertexNumber){
+		VertexDescriptor key = new VertexDescriptor();
+		key.setJobId(jobId);
+		key.setStageNumber(stageNumber);
+		key.setVertexNumber(vertexNumber);
+		return vertices.get(key);
+	}
+
+	@Override
+	public boolean add(VertexDescriptor v){
+		if(vertices.putIfAbsent(v, v) != null){
+			return false;
+		}
+		if(listener != null){
+			listener.added(v);
+		}
+		return true;
+	}
+
+	@Override
+	public boolean contains(Object o){
+		return vertices.containsKey(o);
+	}
+
+	@Override
+	public boolean remove(Object o){
+		VertexDescriptor removed = vertices.remove(o);
+		if(removed == null){
+			return false;
+		}
+		if(listener != null){
+			listener.removed(removed);
+		}
+		return true;
+	}
+
+	@Override
+	public Iterator<VertexDescriptor> iterator(){
+		final Iterator<VertexDescriptor> itr = vertices.keySet().iterator();
+		return new Iterator<VertexDescriptor>(){
+			VertexDescriptor last = null;
+
+			@Override
+			public boolean hasNext(){
+				return itr.hasNext();
+			}
+
+			@Override
+			public VertexDescriptor next(){
+				last = itr.next();
+				return last;
+			}
+
+			@Override
+			public void remove(){
+				if(last == null){
+					throw new IllegalStateException();
+				}
+				VertexSet.this.remove(last);
+				last = null;
+			}
+		};
+	}
+
+	@Override
+	public int size(){
+		return vertices.size();
+	}
+
+	@Override
+	public void clear(){
+		if(listener == null){
+			vertices.clear();
+			return;
+		}
+		for(VertexDescriptor vertex : vertices.keySet()){
+			remove(vertex);
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package edu.colorado.eyore.jserver;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import edu.colorado.eyore.common.job.JobDescriptor;
+import edu.colorado.eyore.common.job.JobSpecification;
+import edu.colorado.eyore.common.job.JobStatus;
+import edu.colorado.eyore.common.vertex.VertexCompletion;
+import edu.colorado.eyore.common.vertex.VertexDescriptor;
+import edu.colorado.eyore.common.vertex.VertexOutput;
+import edu.colorado.eyore.common.vertex.VertexServerInfo;
+import edu.colorado.eyore.common.vertex.VertexStage;
+
+/**
+ * Reports how long a heartbeat reporting one finished vertex and asking for
+ * one vertex in its place takes as the number of jobs running grows - every
+ * job has vertices running and vertices waiting for a thread, so each
+ * heartbeat moves one job on and picks the job whose turn it is (FAIR policy)
+ *
+ * Usage: CompletionScalingBenchmark [heartbeats] [running vertices per job] [largest number of jobs]
+ */
+public class CompletionScalingBenchmark {
+
+	public static void main(String[] args) {
+		int heartbeats = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		int runningPerJob = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+		int maxJobs = args.length > 2 ? Integer.parseInt(args[2]) : 10000;
+
+		// per vertex logging would swamp the timings
+		Logger.getLogger(JobManager.class.getName()).setLevel(Level.WARNING);
+
+		System.out.println(heartbeats + " heartbeats of one completion and one assignment, " + runningPerJob +
+				" vertices running per job");
+		// warm up
+		run(100, runningPerJob, heartbeats / 4 + 1, false);
+
+		for(int numJobs = 10; numJobs <= maxJobs; numJobs *= 10){
+			run(numJobs, runningPerJob, heartbeats, true);
+		}
+	}
+
+	private static void run(int numJobs, int runningPerJob, int heartbeats, boolean print){
+		// enough vertices waiting that no job runs out during the run
+		int waitingPerJob = 2 * heartbeats / numJobs + 4;
+		LinkedList<VertexDescriptor> running = new LinkedList<VertexDescriptor>();
+		JobManager jobMgr = getJobManager(numJobs, runningPerJob, waitingPerJob, running);
+
+		VertexServerInfo vserver = new VertexServerInfo();
+		vserver.setId("vs1");
+		vserver.setAvailableThreads(1);
+
+		long totalNanos = 0;
+		long maxNanos = 0;
+		for(int hb = 0; hb < heartbeats; hb++){
+			// the vertex running longest finishes
+			VertexDescriptor finished = running.removeFirst();
+			List<VertexCompletion> completions = new ArrayList<VertexCompletion>(1);
+			completions.add(getCompletion(finished));
+
+			long start = System.nanoTime();
+			List<VertexDescriptor> assigned = jobMgr.processHeartbeat(vserver, completions, null);
+			long took = System.nanoTime() - start;
+			totalNanos += took;
+			maxNanos = Math.max(maxNanos, took);
+
+			if(assigned.size() != 1){
+				throw new IllegalStateException("no vertex assigned in heartbeat " + hb);
+			}
+			running.addAll(assigned);
+		}
+
+		if(print){
+			System.out.println(String.format("%6d jobs  %8.2f us/heartbeat  longest=%9.3f ms",
+					numJobs, totalNanos / 1e3 / heartbeats, maxNanos / 1e6));
+		}
+	}
+
+	private static VertexCompletion getCompletion(VertexDescriptor vertex){
+		VertexCompletion completion = new VertexCompletion();
+		completion.setJobId(vertex.getJobId());
+		completion.setStageNumber(0);
+		completion.setVertexNumber(vertex.getVertexNumber());
+		completion.setExecutionSuccessful(true);
+		HashMap<Integer, List<String>> outputMap = new HashMap<Integer, List<String>>();
+		ArrayList<String> files = new ArrayList<String>(1);
+		files.add("eyore/tmp/job" + vertex.getJobId() + "_vIndex" + vertex.getVertexNumber() + "_vStage0.txt");
+		outputMap.put(0, files);
+		VertexOutput output = new VertexOutput();
+		output.setOutputMap(outputMap);
+		completion.setOutput(output);
+		return completion;
+	}
+
+	/**
+	 * JobManager with numJobs two stage jobs running the first stage, each with
+	 * runningPerJob vertices in progress (added to running) and waitingPerJob
+	 * vertices allocatable
+	 */
+	private static JobManager getJobManager(int numJobs, int runningPerJob, int waitingPerJob,
+			List<VertexDescriptor> running){
+		JobManager jobMgr = new JobManager(numJobs, null, 1);
+		jobMgr.setSchedulingPolicy(FairShareVertexQueue.Policy.FAIR);
+		int verticesPerJob = runningPerJob + waitingPerJob;
+		for(int j = 0; j < numJobs; j++){
+			JobDescriptor job = new JobDescriptor();
+			job.setJobId(String.valueOf(j));
+			job.setJobSpecification(new JobSpecification(){
+				{
+					this.inputDataPath = "/input/path";
+					this.outputDataPath = "/output/path";
+					this.vertexStages = new ArrayList<VertexStage>();
+					this.vertexStages.add(new VertexStage());
+					this.vertexStages.add(new VertexStage());
+				}
+			});
+
+			JobStatus status = new JobStatus();
+			status.setCurrentVertexStage(0);
+			status.setTotalVertexStages(2);
+			status.setExecutionFinished(false);
+			status.setTotalVerticesCurrentStage(verticesPerJob);
+			status.setTotalVerticesInProgressCurrentStage(verticesPerJob);
+			job.setJobStatus(status);
+
+			jobMgr.jobsInProgress.put(job.getJobId(), job);
+			jobMgr.outputMap.put(job.getJobId(), new HashMap<Integer, HashMap<Integer,ArrayList<String>>>());
+			jobMgr.allocatableVertices.addJob(job.getJobId(), null, 0);
+		}
+		// interleave the jobs' running vertices so they finish round robin
+		for(int v = 0; v < verticesPerJob; v++){
+			for(int j = 0; j < numJobs; j++){
+				VertexDescriptor vertex = new VertexDescriptor();
+				vertex.setJobId(String.valueOf(j));
+				vertex.setStageNumber(0);
+				vertex.setVertexNumber(v);
+				if(v < runningPerJob){
+					vertex.setVertexServerAssignment("vs1");
+					jobMgr.verticesInProgress.add(vertex);
+					running.add(vertex);
+				}else{
+					jobMgr.allocatableVertices.add(vertex);
+				}
+			}
+		}
+		return jobMgr;
+	}
+}
@@ -0,0 +1,189 @@
+package edu.colorado.eyore.jserver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+
+import edu.colorado.eyore.common.hdfs.HdfsFileSplit;
+import edu.colorado.eyore.common.hdfs.HdfsUtils;
+import edu.colorado.eyore.common.hdfs.SplitBatchListener;
+import edu.colorado.eyore.common.job.JobDescriptor;
+import edu.colorado.eyore.common.job.JobSpecification;
+import edu.colorado.eyore.common.job.JobStatus;
+import edu.colorado.eyore.common.vertex.Vertex;
+import edu.colorado.eyore.common.vertex.VertexCompletion;
+import edu.colorado.eyore.common.vertex.VertexContext;
+import edu.colorado.eyore.common.vertex.VertexDescriptor;
+import edu.colorado.eyore.common.vertex.VertexOutput;
+import edu.colorado.eyore.common.vertex.VertexServerInfo;
+import edu.colorado.eyore.common.vertex.VertexStage;
+
+/**
+ * Runs a big job (one stage of many vertices) and, while it runs, submits a
+ * small job every few rounds, then reports how many rounds the small jobs took
+ * from submission to finishing under the FIFO and FAIR scheduling policies.
+ *
+ * Time is simulated in rounds: each round every vertex server reports the
+ * vertices that have run vertexRounds rounds and is given vertices for its free
+ * threads through JobManager.processHeartbeat, so the figures don't depend on
+ * the machine's speed.
+ *
+ * Usage: FairShareBenchmark [big job vertices] [small job vertices] [vertex servers] [threads each]
+ */
+public class FairShareBenchmark {
+
+	private static final int VERTEX_ROUNDS = 10;
+	private static final int SMALL_JOB_EVERY_ROUNDS = 50;
+	private static final int SMALL_JOBS = 20;
+
+	public static void main(String[] args) throws Exception {
+		int bigVertices = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int smallVertices = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+		int vertexServers = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+		int threads = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+
+		Logger.getLogger(JobManager.class.getName()).setLevel(Level.WARNING);
+
+		System.out.println("big job " + bigVertices + " vertices, " + SMALL_JOBS + " small jobs of " + smallVertices +
+				" vertices (one every " + SMALL_JOB_EVERY_ROUNDS + " rounds), " + vertexServers + " vertex servers x " +
+				threads + " threads, vertices run " + VERTEX_ROUNDS + " rounds");
+		run(FairShareVertexQueue.Policy.FIFO, bigVertices, smallVertices, vertexServers, threads);
+		run(FairShareVertexQueue.Policy.FAIR, bigVertices, smallVertices, vertexServers, threads);
+	}
+
+	private static void run(FairShareVertexQueue.Policy policy, int bigVertices, int smallVertices,
+			int vertexServers, int threads) throws Exception {
+		JobManager jobMgr = new JobManager(SMALL_JOBS + 1, hdfs(bigVertices, smallVertices), 1);
+		jobMgr.setSchedulingPolicy(policy);
+
+		List<VertexServerInfo> servers = new ArrayList<VertexServerInfo>();
+		// per server: round -> completions reported in that round
+		List<HashMap<Integer, List<VertexCompletion>>> finishing = new ArrayList<HashMap<Integer, List<VertexCompletion>>>();
+		List<Integer> freeThreads = new ArrayList<Integer>();
+		for(int i = 0; i < vertexServers; i++){
+			VertexServerInfo vserver = new VertexServerInfo();
+			vserver.setId("vs" + i);
+			servers.add(vserver);
+			finishing.add(new HashMap<Integer, List<VertexCompletion>>());
+			freeThreads.add(threads);
+		}
+
+		jobMgr.addNewJobFromClient(getJobDescriptor("big", "/input/big"));
+		HashMap<String, Integer> submittedAt = new HashMap<String, Integer>();
+		List<Integer> smallJobRounds = new ArrayList<Integer>();
+		int bigJobRounds = -1;
+		int nextSmallJob = 0;
+
+		for(int round = 0; bigJobRounds < 0 || smallJobRounds.size() < SMALL_JOBS; round++){
+			if(nextSmallJob < SMALL_JOBS && round == (nextSmallJob + 1) * SMALL_JOB_EVERY_ROUNDS){
+				String jobId = "small" + nextSmallJob++;
+				jobMgr.addNewJobFromClient(getJobDescriptor(jobId, "/input/small"));
+				submittedAt.put(jobId, round);
+			}
+
+			for(int i = 0; i < vertexServers; i++){
+				List<VertexCompletion> completions = finishing.get(i).remove(round);
+				if(completions == null){
+					completions = new ArrayList<VertexCompletion>();
+				}
+				servers.get(i).setAvailableThreads(freeThreads.get(i) + completions.size());
+				List<VertexDescriptor> assigned = jobMgr.processHeartbeat(servers.get(i), completions, null);
+				freeThreads.set(i, servers.get(i).getAvailableThreads() - assigned.size());
+				if(! assigned.isEmpty()){
+					List<VertexCompletion> later = new ArrayList<VertexCompletion>();
+					for(VertexDescriptor v : assigned){
+						later.add(getCompletion(v));
+					}
+					finishing.get(i).put(round + VERTEX_ROUNDS, later);
+				}
+			}
+
+			for(String jobId : new ArrayList<String>(submittedAt.keySet())){
+				if(finished(jobMgr, jobId)){
+					smallJobRounds.add(round - submittedAt.remove(jobId));
+				}
+			}
+			if(bigJobRounds < 0 && finished(jobMgr, "big")){
+				bigJobRounds = round;
+			}
+		}
+
+		Collections.sort(smallJobRounds);
+		System.out.println(String.format("%-5s small job rounds p50=%5d p90=%5d max=%5d   big job rounds=%5d",
+				policy, smallJobRounds.get(smallJobRounds.size() / 2),
+				smallJobRounds.get(smallJobRounds.size() * 9 / 10), smallJobRounds.get(smallJobRounds.size() - 1),
+				bigJobRounds));
+	}
+
+	private static boolean finished(JobManager jobMgr, String jobId){
+		JobStatus status = jobMgr.jobStatusQuery(jobId);
+		return status != null && status.getExecutionFinished();
+	}
+
+	/**
+	 * HDFS splitting "/input/big" and "/input/small" into the given number of splits
+	 */
+	private static HdfsUtils hdfs(final int bigVertices, final int smallVertices) throws Exception {
+		HdfsUtils hdfs = EasyMock.createNiceMock(HdfsUtils.class);
+		hdfs.planFileSplits(EasyMock.anyObject(String.class), EasyMock.anyInt(), EasyMock.anyInt(),
+				EasyMock.anyObject(SplitBatchListener.class));
+		EasyMock.expectLastCall().andAnswer(new IAnswer<Object>(){
+			public Object answer(){
+				String dir = (String)EasyMock.getCurrentArguments()[0];
+				int numSplits = dir.endsWith("big") ? bigVertices : smallVertices;
+				List<HdfsFileSplit> splits = new ArrayList<HdfsFileSplit>();
+				for(int i = 0; i < numSplits; i++){
+					splits.add(new HdfsFileSplit(dir + "/file" + i, 0, 10));
+				}
+				((SplitBatchListener)EasyMock.getCurrentArguments()[3]).splitsPlanned(splits);
+				return null;
+			}
+		}).anyTimes();
+		EasyMock.replay(hdfs);
+		return hdfs;
+	}
+
+	private static VertexCompletion getCompletion(VertexDescriptor vertex){
+		VertexCompletion completion = new VertexCompletion(vertex);
+		completion.setExecutionSuccessful(true);
+		HashMap<Integer, List<String>> outputMap = new HashMap<Integer, List<String>>();
+		ArrayList<String> files = new ArrayList<String>();
+		files.add("out_" + vertex.getJobId() + "_" + vertex.getVertexNumber());
+		outputMap.put(null, files);
+		VertexOutput output = new VertexOutput();
+		output.setOutputMap(outputMap);
+		completion.setOutput(output);
+		return completion;
+	}
+
+	private static JobDescriptor getJobDescriptor(String jobId, final String inputPath){
+		JobDescriptor jDesc = new JobDescriptor();
+		JobSpecification jSpec = new JobSpecification(){
+			{
+				this.inputDataPath = inputPath;
+				this.outputDataPath = "/output/path";
+				this.vertexStages = new ArrayList<VertexStage>();
+			}
+		};
+		VertexStage stage0 = new VertexStage();
+		stage0.setVertex(BenchmarkVertex.class);
+		jSpec.getVertexStages().add(stage0);
+
+		jDesc.setJobId(jobId);
+		jDesc.setHdfsJarPath("/path/job.jar");
+		jDesc.setJobSpecification(jSpec);
+		return jDesc;
+	}
+
+	private static class BenchmarkVertex extends Vertex{
+		@Override
+		public void run(VertexContext context) {
+		}
+	}
+}
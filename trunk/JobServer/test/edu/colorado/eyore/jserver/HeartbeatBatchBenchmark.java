@@ -0,0 +1,148 @@
+package edu.colorado.eyore.jserver;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import edu.colorado.eyore.common.job.JobDescriptor;
+import edu.colorado.eyore.common.job.JobSpecification;
+import edu.colorado.eyore.common.job.JobStatus;
+import edu.colorado.eyore.common.vertex.VertexCompletion;
+import edu.colorado.eyore.common.vertex.VertexDescriptor;
+import edu.colorado.eyore.common.vertex.VertexOutput;
+import edu.colorado.eyore.common.vertex.VertexServerInfo;
+import edu.colorado.eyore.common.vertex.VertexStage;
+
+/**
+ * Compares how long the JobManager lock is held applying heartbeats when
+ * each completed vertex is applied on its own (updateVertexStatus) and when
+ * the heartbeat is applied as a batch (processHeartbeat)
+ *
+ * Usage: HeartbeatBatchBenchmark [jobs in progress] [completions per heartbeat] [heartbeats]
+ */
+public class HeartbeatBatchBenchmark {
+
+	public static void main(String[] args) {
+		int numJobs = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int perHeartbeat = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+		int heartbeats = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+		// per vertex logging would swamp the timings
+		Logger.getLogger(JobManager.class.getName()).setLevel(Level.WARNING);
+
+		System.out.println(numJobs + " jobs in progress, " + perHeartbeat + " completions per heartbeat, "
+				+ heartbeats + " heartbeats");
+		// warm up
+		run(false, numJobs, perHeartbeat, heartbeats / 4 + 1, false);
+		run(true, numJobs, perHeartbeat, heartbeats / 4 + 1, false);
+
+		run(false, numJobs, perHeartbeat, heartbeats, true);
+		run(true, numJobs, perHeartbeat, heartbeats, true);
+	}
+
+	private static void run(boolean batch, int numJobs, int perHeartbeat, int heartbeats, boolean print){
+		// enough vertices that no stage finishes during the run
+		int verticesPerJob = (perHeartbeat * heartbeats) / numJobs + 2;
+		JobManager jobMgr = getJobManager(numJobs, verticesPerJob);
+
+		VertexServerInfo vserver = new VertexServerInfo();
+		vserver.setId("vs1");
+		vserver.setAvailableThreads(0);
+
+		long lockNanos = 0;
+		long maxHoldNanos = 0;
+		int nextCompletion = 0;
+		for(int hb = 0; hb < heartbeats; hb++){
+			List<VertexCompletion> completions = new ArrayList<VertexCompletion>(perHeartbeat);
+			for(int i = 0; i < perHeartbeat; i++, nextCompletion++){
+				// round robin over the jobs
+				completions.add(getCompletion(nextCompletion % numJobs, nextCompletion / numJobs));
+			}
+
+			if(batch){
+				long start = System.nanoTime();
+				jobMgr.processHeartbeat(vserver, completions, null);
+				long held = System.nanoTime() - start;
+				lockNanos += held;
+				maxHoldNanos = Math.max(maxHoldNanos, held);
+			}else{
+				for(VertexCompletion completion : completions){
+					long start = System.nanoTime();
+					jobMgr.updateVertexStatus(completion);
+					long held = System.nanoTime() - start;
+					lockNanos += held;
+					maxHoldNanos = Math.max(maxHoldNanos, held);
+				}
+			}
+		}
+
+		if(jobMgr.verticesInProgress.size() != numJobs * verticesPerJob - nextCompletion){
+			throw new IllegalStateException("completions were not all applied");
+		}
+		if(print){
+			System.out.println(String.format("%-10s lock held=%9.3f ms/heartbeat  acquisitions=%3d/heartbeat  longest hold=%9.3f ms",
+					batch ? "batch" : "per-vertex", lockNanos / 1e6 / heartbeats, batch ? 1 : perHeartbeat,
+					maxHoldNanos / 1e6));
+		}
+	}
+
+	private static VertexCompletion getCompletion(int job, int vertex){
+		VertexCompletion completion = new VertexCompletion();
+		completion.setJobId(String.valueOf(job));
+		completion.setStageNumber(0);
+		completion.setVertexNumber(vertex);
+		completion.setExecutionSuccessful(true);
+		HashMap<Integer, List<String>> outputMap = new HashMap<Integer, List<String>>();
+		ArrayList<String> files = new ArrayList<String>(1);
+		files.add("eyore/tmp/job" + job + "_vIndex" + vertex + "_vStage0.txt");
+		outputMap.put(0, files);
+		VertexOutput output = new VertexOutput();
+		output.setOutputMap(outputMap);
+		completion.setOutput(output);
+		return completion;
+	}
+
+	/**
+	 * JobManager with numJobs two stage jobs, each running the first stage with
+	 * verticesPerJob vertices in progress
+	 */
+	private static JobManager getJobManager(int numJobs, int verticesPerJob){
+		JobManager jobMgr = new JobManager(numJobs, null, 1);
+		for(int j = 0; j < numJobs; j++){
+			JobDescriptor job = new JobDescriptor();
+			job.setJobId(String.valueOf(j));
+			job.setJobSpecification(new JobSpecification(){
+				{
+					this.inputDataPath = "/input/path";
+					this.outputDataPath = "/output/path";
+					this.vertexStages = new ArrayList<VertexStage>();
+					this.vertexStages.add(new VertexStage());
+					this.vertexStages.add(new VertexStage());
+				}
+			});
+
+			JobStatus status = new JobStatus();
+			status.setCurrentVertexStage(0);
+			status.setTotalVertexStages(2);
+			status.setExecutionFinished(false);
+			status.setTotalVerticesCurrentStage(verticesPerJob);
+			status.setTotalVerticesInProgressCurrentStage(verticesPerJob);
+			job.setJobStatus(status);
+
+			jobMgr.jobsInProgress.put(job.getJobId(), job);
+			jobMgr.outputMap.put(job.getJobId(), new HashMap<Integer, HashMap<Integer,ArrayList<String>>>());
+
+			for(int v = 0; v < verticesPerJob; v++){
+				VertexDescriptor vertex = new VertexDescriptor();
+				vertex.setJobId(job.getJobId());
+				vertex.setStageNumber(0);
+				vertex.setVertexNumber(v);
+				vertex.setVertexServerAssignment("vs1");
+				jobMgr.verticesInProgress.add(vertex);
+			}
+		}
+		return jobMgr;
+	}
+}
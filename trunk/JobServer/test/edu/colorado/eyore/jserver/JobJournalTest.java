@@ -0,0 +1,211 @@
+package edu.colorado.eyore.jserver;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.colorado.eyore.common.job.JobDescriptor;
+import edu.colorado.eyore.common.vertex.VertexDescriptor;
+import edu.colorado.eyore.common.vertex.VertexOutput;
+
+/**
+ * Unit testing for the JobJournal
+ */
+public class JobJournalTest {
+
+	private File dir;
+
+	@Before
+	public void setup() throws IOException{
+		dir = File.createTempFile("journal", "");
+		dir.delete();
+	}
+
+	@After
+	public void cleanup(){
+		File[] files = dir.listFiles();
+		for(int i = 0; files != null && i < files.length; i++){
+			files[i].delete();
+		}
+		dir.delete();
+	}
+
+	/**
+	 * Jobs that ended aren't recovered - those still running are, with the
+	 * last attempt of each of their finished vertices
+	 */
+	@Test
+	public void testRunningJobsRecovered() throws IOException{
+		JobJournal journal = new JobJournal(dir, 0, false);
+		Assert.assertTrue(journal.open().isEmpty());
+		journal.jobAdded(job("1"));
+		journal.jobAdded(job("2"));
+		journal.vertexFinished(vertex("1", 0, 0, 0, "a"));
+		journal.vertexFinished(vertex("2", 0, 0, 0, "b"));
+		journal.vertexFinished(vertex("2", 0, 1, 0, "c"));
+		journal.vertexFinished(vertex("2", 0, 1, 1, "d"));
+		journal.jobEnded("1");
+		journal.close();
+
+		List<JobJournal.RecoveredJob> recovered = new JobJournal(dir, 0, false).open();
+		Assert.assertEquals(1, recovered.size());
+		Assert.assertEquals("2", recovered.get(0).job.getJobId());
+		Assert.assertEquals("/in/2", recovered.get(0).job.getHdfsJobInputDir());
+		Assert.assertEquals(2, recovered.get(0).finished.size());
+		VertexDescriptor rerun = recovered.get(0).finished.get(1);
+		Assert.assertEquals(1, rerun.getVertexNumber());
+		Assert.assertEquals(1, rerun.getAttempt());
+		Assert.assertEquals("vs1", rerun.getVertexServerAssignment());
+		Assert.assertEquals(Arrays.asList("d"), rerun.getOutput().getOutputMap().get(0));
+	}
+
+	/**
+	 * The running jobs are written to a snapshot every snapshotRecords records
+	 * and the journal emptied
+	 */
+	@Test
+	public void testSnapshotCompactsJournal() throws IOException{
+		JobJournal journal = new JobJournal(dir, 3, false);
+		journal.open();
+		journal.jobAdded(job("1"));
+		journal.vertexFinished(vertex("1", 0, 0, 0, "a"));
+		journal.jobEnded("1");
+		journal.flush();
+		Assert.assertEquals(0, new File(dir, "journal").length());
+		journal.jobAdded(job("2"));
+		journal.vertexFinished(vertex("2", 0, 0, 0, "b"));
+		// already recorded
+		journal.vertexFinished(vertex("2", 0, 0, 0, "b"));
+		journal.close();
+
+		List<JobJournal.RecoveredJob> recovered = new JobJournal(dir, 3, false).open();
+		Assert.assertEquals(1, recovered.size());
+		Assert.assertEquals("2", recovered.get(0).job.getJobId());
+		Assert.assertEquals(1, recovered.get(0).finished.size());
+	}
+
+	/**
+	 * A snapshot that can't be written leaves the journal as it was - records
+	 * are still written to it
+	 */
+	@Test
+	public void testSnapshotFailureKeepsJournal() throws IOException{
+		JobJournal journal = new JobJournal(dir, 2, false);
+		journal.open();
+		// the snapshot can't be written in place of a directory
+		Assert.assertTrue(new File(dir, "snapshot.tmp").mkdir());
+		journal.jobAdded(job("1"));
+		journal.vertexFinished(vertex("1", 0, 0, 0, "a"));
+		journal.vertexFinished(vertex("1", 0, 1, 0, "b"));
+		journal.flush();
+		Assert.assertTrue(new File(dir, "journal").length() > 0);
+		Assert.assertTrue(new File(dir, "snapshot.tmp").delete());
+		journal.jobAdded(job("2"));
+		journal.vertexFinished(vertex("1", 0, 2, 0, "c"));
+		journal.close();
+
+		List<JobJournal.RecoveredJob> recovered = new JobJournal(dir, 2, false).open();
+		Assert.assertEquals(2, recovered.size());
+		Assert.assertEquals(3, recovered.get(0).finished.size());
+	}
+
+	/**
+	 * The highest job ID handed out is recovered, from the journal and from a
+	 * snapshot
+	 */
+	@Test
+	public void testLastJobIdRecovered() throws IOException{
+		JobJournal journal = new JobJournal(dir, 0, false);
+		journal.open();
+		Assert.assertEquals(0, journal.getLastJobId());
+		journal.jobIdIssued(1);
+		journal.jobIdIssued(2);
+		journal.jobAdded(job("1"));
+		journal.jobEnded("1");
+		journal.close();
+
+		journal = new JobJournal(dir, 0, false);
+		Assert.assertTrue(journal.open().isEmpty());
+		Assert.assertEquals(2, journal.getLastJobId());
+		journal.close();
+		// read from the snapshot written when opened
+		Assert.assertEquals(0, new File(dir, "journal").length());
+		journal = new JobJournal(dir, 0, false);
+		journal.open();
+		Assert.assertEquals(2, journal.getLastJobId());
+		journal.close();
+	}
+
+	/**
+	 * A record cut short by a crash is ignored
+	 */
+	@Test
+	public void testCutShortRecordIgnored() throws IOException{
+		JobJournal journal = new JobJournal(dir, 0, false);
+		journal.open();
+		journal.jobAdded(job("1"));
+		journal.vertexFinished(vertex("1", 0, 0, 0, "a"));
+		journal.close();
+		FileOutputStream out = new FileOutputStream(new File(dir, "journal"), true);
+		out.write(new byte[]{2, 0, 0, 0, 100, 1, 2});
+		out.close();
+
+		List<JobJournal.RecoveredJob> recovered = new JobJournal(dir, 0, false).open();
+		Assert.assertEquals(1, recovered.size());
+		Assert.assertEquals(1, recovered.get(0).finished.size());
+	}
+
+	/**
+	 * A record whose length can't be right is ignored like one cut short
+	 */
+	@Test
+	public void testBadRecordLengthIgnored() throws IOException{
+		JobJournal journal = new JobJournal(dir, 0, false);
+		journal.open();
+		journal.jobAdded(job("1"));
+		journal.close();
+		FileOutputStream out = new FileOutputStream(new File(dir, "journal"), true);
+		out.write(new byte[]{2, (byte)0xff, (byte)0xff, (byte)0xff, (byte)0xff, 1, 2});
+		out.close();
+		Assert.assertEquals(1, new JobJournal(dir, 0, false).open().size());
+
+		out = new FileOutputStream(new File(dir, "journal"), true);
+		out.write(new byte[]{2, 0x7f, (byte)0xff, (byte)0xff, (byte)0xff, 1, 2});
+		out.close();
+		Assert.assertEquals(1, new JobJournal(dir, 0, false).open().size());
+	}
+
+	private static JobDescriptor job(String jobId){
+		JobDescriptor job = new JobDescriptor();
+		job.setJobId(jobId);
+		job.setHdfsJarPath("/jars/" + jobId + ".jar");
+		job.setHdfsJobInputDir("/in/" + jobId);
+		job.setHdfsJobOutputDir("/out/" + jobId);
+		return job;
+	}
+
+	private static VertexDescriptor vertex(String jobId, int stage, int vertexNumber, int attempt, String outFile){
+		VertexDescriptor vertex = new VertexDescriptor();
+		vertex.setJobId(jobId);
+		vertex.setStageNumber(stage);
+		vertex.setVertexNumber(vertexNumber);
+		vertex.setAttempt(attempt);
+		vertex.setVertexServerAssignment("vs1");
+		vertex.setExecutionFinished(true);
+		vertex.setExecutionSuccessful(true);
+		VertexOutput output = new VertexOutput();
+		output.setOutputMap(new HashMap<Integer, List<String>>());
+		output.getOutputMap().put(0, Arrays.asList(outFile));
+		vertex.setOutput(output);
+		return vertex;
+	}
+}
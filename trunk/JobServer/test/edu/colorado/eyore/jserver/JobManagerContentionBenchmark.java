@@ -0,0 +1,276 @@
+package edu.colorado.eyore.jserver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+
+import edu.colorado.eyore.common.hdfs.HdfsFileSplit;
+import edu.colorado.eyore.common.hdfs.HdfsUtils;
+import edu.colorado.eyore.common.hdfs.SplitBatchListener;
+import edu.colorado.eyore.common.job.JobDescriptor;
+import edu.colorado.eyore.common.job.JobSpecification;
+import edu.colorado.eyore.common.vertex.Vertex;
+import edu.colorado.eyore.common.vertex.VertexCompletion;
+import edu.colorado.eyore.common.vertex.VertexContext;
+import edu.colorado.eyore.common.vertex.VertexDescriptor;
+import edu.colorado.eyore.common.vertex.VertexOutput;
+import edu.colorado.eyore.common.vertex.VertexServerInfo;
+import edu.colorado.eyore.common.vertex.VertexStage;
+
+/**
+ * Runs the JobManagerTest scenarios (jobs submitted, vertices assigned and
+ * reported finished, status queried until the job is purged) from several
+ * threads at once against an HDFS whose listing and renames are slow, and
+ * reports how long heartbeats and status queries take.
+ *
+ * "single monitor" serializes every JobManager call on one lock, as when all
+ * JobManager methods were synchronized, for comparison.
+ *
+ * Usage: JobManagerContentionBenchmark [vertex servers] [hdfs delay ms] [seconds]
+ */
+public class JobManagerContentionBenchmark {
+
+	private static final int STAGE0_VERTICES = 8;
+	private static final int STAGE1_VERTICES = 4;
+
+	public static void main(String[] args) throws Exception {
+		int vertexServers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		int hdfsDelayMs = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+		int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+		Logger.getLogger(JobManager.class.getName()).setLevel(Level.WARNING);
+
+		System.out.println(vertexServers + " vertex servers, HDFS calls take " + hdfsDelayMs + " ms, "
+				+ seconds + " s per run");
+		run(null, vertexServers, hdfsDelayMs, seconds);
+		run(new Object(), vertexServers, hdfsDelayMs, seconds);
+	}
+
+	/**
+	 * @param monitor - if not null every JobManager call is made holding it
+	 */
+	private static void run(final Object monitor, int vertexServers, int hdfsDelayMs, int seconds) throws Exception {
+		final JobManager jobMgr = new JobManager(vertexServers * 2, slowHdfs(hdfsDelayMs), 1);
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final AtomicInteger jobsFinished = new AtomicInteger();
+		final List<Long> heartbeatNanos = Collections.synchronizedList(new ArrayList<Long>());
+		final List<Long> statusNanos = Collections.synchronizedList(new ArrayList<Long>());
+		final List<String> submitted = Collections.synchronizedList(new ArrayList<String>());
+		List<Thread> threads = new ArrayList<Thread>();
+		final CountDownLatch done = new CountDownLatch(vertexServers + 2);
+
+		// client submitting jobs - listing each job's input is slow
+		threads.add(new Thread(){
+			public void run(){
+				int jobId = 0;
+				while(running.get()){
+					JobDescriptor job = getJobDescriptor(String.valueOf(jobId++));
+					if(monitor == null){
+						jobMgr.addNewJobFromClient(job);
+					}else{
+						synchronized(monitor){
+							jobMgr.addNewJobFromClient(job);
+						}
+					}
+					submitted.add(job.getJobId());
+					pause(20);
+				}
+				done.countDown();
+			}
+		});
+
+		// client polling job status, which purges finished jobs
+		threads.add(new Thread(){
+			public void run(){
+				int next = 0;
+				while(running.get()){
+					String jobId;
+					synchronized(submitted){
+						if(submitted.isEmpty()){
+							jobId = null;
+						}else{
+							jobId = submitted.get(next++ % submitted.size());
+						}
+					}
+					if(jobId != null){
+						long start = System.nanoTime();
+						boolean finished;
+						if(monitor == null){
+							finished = isFinished(jobMgr, jobId);
+						}else{
+							synchronized(monitor){
+								finished = isFinished(jobMgr, jobId);
+							}
+						}
+						statusNanos.add(System.nanoTime() - start);
+						if(finished){
+							submitted.remove(jobId);
+							jobsFinished.incrementAndGet();
+						}
+					}
+					pause(1);
+				}
+				done.countDown();
+			}
+		});
+
+		// vertex servers taking vertices and reporting them finished
+		for(int i = 0; i < vertexServers; i++){
+			final VertexServerInfo vserver = new VertexServerInfo();
+			vserver.setId("vs" + i);
+			vserver.setAvailableThreads(9);
+			threads.add(new Thread(){
+				public void run(){
+					List<VertexCompletion> completions = new ArrayList<VertexCompletion>();
+					while(running.get()){
+						long start = System.nanoTime();
+						List<VertexDescriptor> assigned;
+						if(monitor == null){
+							assigned = jobMgr.processHeartbeat(vserver, completions, null);
+						}else{
+							synchronized(monitor){
+								assigned = jobMgr.processHeartbeat(vserver, completions, null);
+							}
+						}
+						heartbeatNanos.add(System.nanoTime() - start);
+
+						completions = new ArrayList<VertexCompletion>();
+						for(VertexDescriptor v : assigned){
+							completions.add(getCompletion(v));
+						}
+						pause(2);
+					}
+					done.countDown();
+				}
+			});
+		}
+
+		for(Thread t : threads){
+			t.setDaemon(true);
+			t.start();
+		}
+		Thread.sleep(seconds * 1000L);
+		running.set(false);
+		done.await();
+
+		System.out.println(String.format("%-15s jobs finished=%4d  heartbeat p50=%8.3f ms p99=%8.3f ms max=%8.3f ms  "
+				+ "status p50=%8.3f ms p99=%8.3f ms max=%8.3f ms",
+				monitor == null ? "per-job locks" : "single monitor", jobsFinished.get(),
+				percentile(heartbeatNanos, 50), percentile(heartbeatNanos, 99), percentile(heartbeatNanos, 100),
+				percentile(statusNanos, 50), percentile(statusNanos, 99), percentile(statusNanos, 100)));
+	}
+
+	private static boolean isFinished(JobManager jobMgr, String jobId){
+		return jobMgr.jobStatusQuery(jobId) != null && ! jobMgr.jobsInProgress.containsKey(jobId);
+	}
+
+	private static double percentile(List<Long> nanos, int percent){
+		if(nanos.isEmpty()){
+			return 0;
+		}
+		ArrayList<Long> sorted = new ArrayList<Long>(nanos);
+		Collections.sort(sorted);
+		int index = Math.min(sorted.size() - 1, (int)Math.ceil(sorted.size() * percent / 100.0) - 1);
+		return sorted.get(Math.max(0, index)) / 1e6;
+	}
+
+	private static void pause(long ms){
+		try{
+			Thread.sleep(ms);
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * HDFS where listing a directory and moving files take delayMs
+	 */
+	@SuppressWarnings("unchecked")
+	private static HdfsUtils slowHdfs(final int delayMs) throws Exception {
+		HdfsUtils hdfs = EasyMock.createNiceMock(HdfsUtils.class);
+		final List<HdfsFileSplit> inFiles = new ArrayList<HdfsFileSplit>();
+		for(int i = 0; i < STAGE0_VERTICES; i++){
+			inFiles.add(new HdfsFileSplit("/input/path/file" + i, 0, 10));
+		}
+		hdfs.planFileSplits(EasyMock.anyObject(String.class), EasyMock.anyInt(), EasyMock.anyInt(),
+				EasyMock.anyObject(SplitBatchListener.class));
+		EasyMock.expectLastCall().andAnswer(new IAnswer<Object>(){
+			public Object answer(){
+				pause(delayMs);
+				((SplitBatchListener)EasyMock.getCurrentArguments()[3]).splitsPlanned(inFiles);
+				return null;
+			}
+		}).anyTimes();
+		hdfs.moveFilesToNewDir((List<String>)EasyMock.anyObject(), EasyMock.anyObject(String.class));
+		EasyMock.expectLastCall().andAnswer(new IAnswer<Object>(){
+			public Object answer(){
+				pause(delayMs);
+				return null;
+			}
+		}).anyTimes();
+		EasyMock.replay(hdfs);
+		return hdfs;
+	}
+
+	private static VertexCompletion getCompletion(VertexDescriptor vertex){
+		VertexCompletion completion = new VertexCompletion(vertex);
+		completion.setExecutionSuccessful(true);
+
+		// stage 0 vertices send output to every stage 1 vertex
+		HashMap<Integer, List<String>> outputMap = new HashMap<Integer, List<String>>();
+		if(vertex.getNumVerticesNextStage() == null){
+			ArrayList<String> files = new ArrayList<String>();
+			files.add("out_" + vertex.getJobId() + "_" + vertex.getVertexNumber());
+			outputMap.put(null, files);
+		}else{
+			for(int next = 0; next < vertex.getNumVerticesNextStage(); next++){
+				ArrayList<String> files = new ArrayList<String>();
+				files.add("tmp_" + vertex.getJobId() + "_" + vertex.getVertexNumber() + "_" + next);
+				outputMap.put(next, files);
+			}
+		}
+		VertexOutput output = new VertexOutput();
+		output.setOutputMap(outputMap);
+		completion.setOutput(output);
+		return completion;
+	}
+
+	private static JobDescriptor getJobDescriptor(String jobId){
+		JobDescriptor jDesc = new JobDescriptor();
+		JobSpecification jSpec = new JobSpecification(){
+			{
+				this.inputDataPath = "/input/path";
+				this.outputDataPath = "/output/path";
+				this.vertexStages = new ArrayList<VertexStage>();
+			}
+		};
+		VertexStage stage0 = new VertexStage();
+		stage0.setNumVertices(STAGE0_VERTICES);
+		stage0.setVertex(BenchmarkVertex.class);
+		jSpec.getVertexStages().add(stage0);
+		VertexStage stage1 = new VertexStage();
+		stage1.setNumVertices(STAGE1_VERTICES);
+		stage1.setVertex(BenchmarkVertex.class);
+		jSpec.getVertexStages().add(stage1);
+
+		jDesc.setJobId(jobId);
+		jDesc.setHdfsJarPath("/path/job.jar");
+		jDesc.setJobSpecification(jSpec);
+		return jDesc;
+	}
+
+	private static class BenchmarkVertex extends Vertex{
+		@Override
+		public void run(VertexContext context) {
+		}
+	}
+}
@@ -1,20 +1,31 @@
 package edu.colorado.eyore.jserver;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import junit.framework.Assert;
 
 import org.easymock.EasyMock;
+import org.easymock.IAnswer;
 import org.junit.Before;
 import org.junit.Test;
 
 import edu.colorado.eyore.common.hdfs.HdfsUtils;
+import edu.colorado.eyore.common.hdfs.HdfsFileSplit;
+import edu.colorado.eyore.common.hdfs.SplitBatchListener;
 import edu.colorado.eyore.common.job.JobDescriptor;
 import edu.colorado.eyore.common.job.JobSpecification;
 import edu.colorado.eyore.common.job.JobStatus;
+import edu.colorado.eyore.common.vertex.StageEdge;
 import edu.colorado.eyore.common.vertex.Vertex;
+import edu.colorado.eyore.common.vertex.VertexCompletion;
 import edu.colorado.eyore.common.vertex.VertexContext;
 import edu.colorado.eyore.common.vertex.VertexDescriptor;
 import edu.colorado.eyore.common.vertex.VertexOutput;
@@ -47,10 +58,12 @@ public class JobManagerTest {
 		stage1.setVertex(DummyVertex1.class);
 		jSpec.getVertexStages().add(stage1);
 		
+		// a vertex of the first stage per input split
 		ArrayList<String> inFiles = new ArrayList();
 		inFiles.add("/input/path/file1");		
-		EasyMock.expect(hdfs.getFilePathsFromHdfsDir(
-				"/input/path",1)).andReturn(inFiles);
+		inFiles.add("/input/path/file2");
+		inFiles.add("/input/path/file3");
+		expectSplits(inFiles, 1);
 		
 		EasyMock.replay(hdfs);
 		
@@ -112,10 +125,12 @@ public class JobManagerTest {
 		jSpec.getVertexStages().add(stage1);
 		jSpec.getVertexStages().add(stage2);
 		
+		// a vertex of the first stage per input split
 		ArrayList<String> inFiles = new ArrayList();
 		inFiles.add("/input/path/file1");		
-		EasyMock.expect(hdfs.getFilePathsFromHdfsDir(
-				"/input/path",1)).andReturn(inFiles);
+		inFiles.add("/input/path/file2");
+		inFiles.add("/input/path/file3");
+		expectSplits(inFiles, 1);
 		
 		EasyMock.replay(hdfs);
 		
@@ -189,10 +204,14 @@ public class JobManagerTest {
 		jSpec2.getVertexStages().add(stage2);
 		
 		
+		// a vertex of the first stage per input split - the first job's
+		// input is planned first
 		ArrayList<String> inFiles = new ArrayList();
 		inFiles.add("/input/path/file1");		
-		EasyMock.expect(hdfs.getFilePathsFromHdfsDir(
-				"/input/path",1)).andReturn(inFiles).times(2);
+		inFiles.add("/input/path/file2");
+		inFiles.add("/input/path/file3");
+		expectSplits(inFiles, 1);
+		expectSplits(inFiles.subList(0, 2), 1);
 		
 		EasyMock.replay(hdfs);
 		
@@ -259,6 +278,142 @@ public class JobManagerTest {
 	}
 	
 	
+	/**
+	 * Started job's input is split on the split planner - the job is PLANNING
+	 * until it is done and vertices are released as batches of splits are planned
+	 */
+	@Test
+	public void testClientSubmitJob_splitsPlannedInBackground()throws Exception{
+		final ArrayDeque<Runnable> plannerTasks = new ArrayDeque<Runnable>();
+		jobMgr = new JobManager(2, hdfs, 1, new Executor(){
+			public void execute(Runnable command) {
+				plannerTasks.add(command);
+			}
+		}, 2);
+		
+		JobDescriptor jDesc = getJobDescriptor("1");
+		VertexStage stage1 = new VertexStage();
+		stage1.setVertex(DummyVertex1.class);
+		stage1.setMemoryMbPerVertex(256);
+		jDesc.getJobSpecification().getVertexStages().add(stage1);
+		
+		final ArrayList<HdfsFileSplit> batch1 = new ArrayList<HdfsFileSplit>();
+		batch1.add(new HdfsFileSplit("/path/file1", 0, 10));
+		batch1.add(new HdfsFileSplit("/path/file2", 0, 10));
+		final ArrayList<HdfsFileSplit> batch2 = new ArrayList<HdfsFileSplit>();
+		batch2.add(new HdfsFileSplit("/path/file3", 0, 10));
+		batch2.get(0).setHosts(Arrays.asList("host2", "host1"));
+		batch2.get(0).setRacks(Arrays.asList("/rack1", "/rack1"));
+		hdfs.planFileSplits(EasyMock.eq("/input/path"), EasyMock.eq(1), EasyMock.eq(2), 
+				(SplitBatchListener)EasyMock.notNull());
+		EasyMock.expectLastCall().andAnswer(new IAnswer<Object>(){
+			public Object answer(){
+				SplitBatchListener listener = (SplitBatchListener)EasyMock.getCurrentArguments()[3];
+				listener.splitsPlanned(batch1);
+				
+				// first batch can run before the rest are planned
+				JobStatus status = jobMgr.jobStatusQuery("1");
+				Assert.assertTrue(status.getPlanning());
+				Assert.assertEquals(2, status.getTotalVerticesCurrentStage());
+				Assert.assertEquals(2, jobMgr.allocatableVertices.size());
+				
+				listener.splitsPlanned(batch2);
+				return null;
+			}
+		});
+		EasyMock.replay(hdfs);
+		
+		jobMgr.addNewJobFromClient(jDesc);
+		
+		// nothing listed until the planner runs
+		JobStatus status = jobMgr.jobStatusQuery("1");
+		Assert.assertTrue(status.getPlanning());
+		Assert.assertEquals(0, status.getCurrentVertexStage());
+		Assert.assertEquals(0, status.getTotalVerticesCurrentStage());
+		Assert.assertEquals(0, jobMgr.allocatableVertices.size());
+		
+		Assert.assertEquals(1, plannerTasks.size());
+		plannerTasks.remove().run();
+		EasyMock.verify(hdfs);
+		
+		status = jobMgr.jobStatusQuery("1");
+		Assert.assertFalse(status.getPlanning());
+		Assert.assertEquals(3, status.getTotalVerticesCurrentStage());
+		Assert.assertEquals(3, status.getTotalVerticesInProgressCurrentStage());
+		Assert.assertEquals(3, jDesc.getJobSpecification().getVertexStages().get(0).getNumVertices());
+		Assert.assertEquals(3, jobMgr.allocatableVertices.size());
+		for(VertexDescriptor v : jobMgr.allocatableVertices){
+			Assert.assertEquals(1, v.getInputPaths().size());
+			Assert.assertTrue(v.getInputPaths().get(0).endsWith("file" + (v.getVertexNumber() + 1)));
+			Assert.assertEquals(256, v.getMemoryMb());
+		}
+		
+		// vertices prefer the hosts storing their split
+		VertexServerInfo vServer = new VertexServerInfo();
+		vServer.setId("vs1");
+		vServer.setHostname("host1");
+		vServer.setAvailableThreads(1);
+		List<VertexDescriptor> assigned = jobMgr.assignVerticesToServer(vServer);
+		Assert.assertEquals(2, assigned.get(0).getVertexNumber());
+		Assert.assertEquals(Arrays.asList("host2", "host1"), assigned.get(0).getPreferredHosts());
+	}
+	
+	/**
+	 * Vertices go to servers on the host storing their input, and are held
+	 * back for localityWaitMs before going to a server on the same rack or
+	 * elsewhere
+	 */
+	@Test
+	public void testAssignVerticesToServer_dataLocality(){
+		VertexDescriptor onHost1 = getLocalVertex(0, "host1", "/rack1");
+		VertexDescriptor onHost2 = getLocalVertex(1, "host2", "/rack1");
+		VertexDescriptor onHost3 = getLocalVertex(2, "host3", "/rack2");
+		VertexDescriptor anywhere = getLocalVertex(3, null, null);
+		jobMgr.allocatableVertices.add(onHost1);
+		jobMgr.allocatableVertices.add(onHost2);
+		jobMgr.allocatableVertices.add(onHost3);
+		jobMgr.allocatableVertices.add(anywhere);
+		
+		VertexServerInfo vServer = new VertexServerInfo();
+		vServer.setId("vs2");
+		vServer.setHostname("host2");
+		vServer.setAvailableThreads(9);
+		
+		// the others are waiting for their own hosts
+		jobMgr.setLocalityWaitMs(60000);
+		List<VertexDescriptor> assigned = jobMgr.assignVerticesToServer(vServer);
+		Assert.assertEquals(2, assigned.size());
+		Assert.assertEquals(onHost2, assigned.get(0));
+		Assert.assertEquals(anywhere, assigned.get(1));
+		Assert.assertEquals(2, jobMgr.allocatableVertices.size());
+		Assert.assertTrue(jobMgr.hasAllocatableVertices());
+		
+		// waited long enough - same rack first
+		jobMgr.setLocalityWaitMs(0);
+		assigned = jobMgr.assignVerticesToServer(vServer);
+		Assert.assertEquals(2, assigned.size());
+		Assert.assertEquals(onHost1, assigned.get(0));
+		Assert.assertEquals(onHost3, assigned.get(1));
+		Assert.assertFalse(jobMgr.hasAllocatableVertices());
+		
+		Assert.assertEquals(1, jobMgr.allocatableVertices.getNodeLocal());
+		Assert.assertEquals(1, jobMgr.allocatableVertices.getRackLocal());
+		Assert.assertEquals(1, jobMgr.allocatableVertices.getOffRack());
+		Assert.assertEquals(1, jobMgr.allocatableVertices.getNoPreference());
+	}
+	
+	private VertexDescriptor getLocalVertex(int vertexNumber, String host, String rack){
+		VertexDescriptor v = new VertexDescriptor();
+		v.setJobId("1");
+		v.setStageNumber(0);
+		v.setVertexNumber(vertexNumber);
+		if(host != null){
+			v.setPreferredHosts(Arrays.asList(host));
+			jobMgr.allocatableVertices.addRacks(Arrays.asList(host), Arrays.asList(rack));
+		}
+		return v;
+	}
+	
 	@Test
 	public void testAssignVerticesToServer_NoAssignableVertices(){
 		VertexServerInfo vServer = new VertexServerInfo();
@@ -313,11 +468,11 @@ public class JobManagerTest {
 		
 		List<VertexDescriptor> assigned = jobMgr.assignVerticesToServer(vServer);
 		
-		// current algorithm gives a requesting vertex at most 1/3 of its capacity
-		Assert.assertEquals(3, assigned.size());
+		// every available thread is filled
+		Assert.assertEquals(9, assigned.size());
 		
-		Assert.assertEquals(7, jobMgr.allocatableVertices.size());
-		Assert.assertEquals(3, jobMgr.verticesInProgress.size());
+		Assert.assertEquals(1, jobMgr.allocatableVertices.size());
+		Assert.assertEquals(9, jobMgr.verticesInProgress.size());
 		
 		for (VertexDescriptor v : assigned){
 			Assert.assertTrue(jobMgr.verticesInProgress.contains(v));
@@ -325,6 +480,48 @@ public class JobManagerTest {
 		}
 	}
 	
+	/**
+	 * Vertices are assigned as long as their memory fits in the server's free
+	 * heap - a server running nothing gets one however big it is
+	 */
+	@Test
+	public void testAssignVerticesToServer_memoryBudget(){
+		for(int i = 0; i < 6; i++){
+			VertexDescriptor v = new VertexDescriptor();
+			v.setJobId("1");
+			v.setStageNumber(0);
+			v.setVertexNumber(i);
+			v.setMemoryMb(i == 0 ? 100 : 300);
+			jobMgr.allocatableVertices.add(v);
+		}
+		
+		VertexServerInfo vServer = new VertexServerInfo();
+		vServer.setId("vs1");
+		vServer.setAvailableThreads(8);
+		vServer.setFreeMemoryMb(800);
+		vServer.setRunningVertices(1);
+		
+		// 100 + 300 + 300 fit, another 300 doesn't
+		List<VertexDescriptor> assigned = jobMgr.assignVerticesToServer(vServer);
+		Assert.assertEquals(3, assigned.size());
+		Assert.assertEquals(3, jobMgr.allocatableVertices.size());
+		
+		// busy small server gets nothing
+		vServer.setFreeMemoryMb(200);
+		Assert.assertTrue(jobMgr.assignVerticesToServer(vServer).isEmpty());
+		
+		// idle small server gets one
+		vServer.setRunningVertices(0);
+		assigned = jobMgr.assignVerticesToServer(vServer);
+		Assert.assertEquals(1, assigned.size());
+		Assert.assertEquals(3, assigned.get(0).getVertexNumber());
+		
+		// memory not known - not limited
+		vServer.setFreeMemoryMb(0);
+		vServer.setRunningVertices(1);
+		Assert.assertEquals(2, jobMgr.assignVerticesToServer(vServer).size());
+	}
+	
 	@Test
 	public void testJobStatusQuery(){
 		// setup a dummy job
@@ -981,6 +1178,1202 @@ public class JobManagerTest {
 		
 	}
 	
+	/**
+	 * A completion report only identifies the vertex - the JobManager's
+	 * own record of the vertex is updated from it
+	 */
+	@Test
+	public void testUpdateVertexStatus_completionUpdatesRecord(){
+		JobStatus status = new JobStatus();
+		status.setExecutionFinished(false);
+		status.setCurrentVertexStage(1);
+		status.setTotalVertexStages(2);
+		status.setTotalVerticesInProgressCurrentStage(2);
+		status.setTotalVerticesCurrentStage(2);
+		
+		JobDescriptor job = new JobDescriptor();
+		job.setJobId("1");
+		job.setJobStatus(status);
+		
+		jobMgr.jobsInProgress.put(job.getJobId(), job);
+
+		VertexDescriptor vertex1 = new VertexDescriptor();
+		vertex1.setExecutionFinished(false);
+		vertex1.setStageNumber(1);
+		vertex1.setVertexNumber(1);
+		vertex1.setJobId("1");
+		vertex1.setVertexJarPath("/path/job.jar");
+		jobMgr.verticesInProgress.add(vertex1);
+		
+		VertexCompletion completion = new VertexCompletion();
+		completion.setJobId("1");
+		completion.setStageNumber(1);
+		completion.setVertexNumber(1);
+		completion.setExecutionSuccessful(false);
+		
+		jobMgr.updateVertexStatus(completion);
+		
+		Assert.assertTrue(vertex1.getExecutionFinished());
+		Assert.assertFalse(vertex1.getExecutionSuccessful());
+		Assert.assertTrue("Since the job failed, it should be marked as finished running", 
+				jobMgr.jobsInProgress.get("1").getJobStatus().getExecutionFinished());
+		Assert.assertEquals(0, jobMgr.verticesInProgress.size());
+	}
+	
+	/**
+	 * Completion report for a vertex that isn't in progress (job already
+	 * failed or report sent twice) is ignored
+	 */
+	@Test
+	public void testUpdateVertexStatus_completionNotInProgress(){
+		VertexCompletion completion = new VertexCompletion();
+		completion.setJobId("1");
+		completion.setStageNumber(1);
+		completion.setVertexNumber(1);
+		completion.setExecutionSuccessful(true);
+		
+		jobMgr.updateVertexStatus(completion);
+		
+		Assert.assertEquals(0, jobMgr.verticesInProgress.size());
+		Assert.assertEquals(0, jobMgr.allocatableVertices.size());
+	}
+	
+	/**
+	 * All completions of a heartbeat are applied at once - the last one
+	 * finishes the stage, so the next stage's vertices become allocatable
+	 * (once for the batch) and some are assigned to the server
+	 */
+	@Test
+	public void testProcessHeartbeat(){
+		JobDescriptor jobInProgress = new JobDescriptor();
+		jobInProgress.setJobId("1");
+		
+		JobSpecification jobSpec = new JobSpecification(){
+			{
+				vertexStages = new ArrayList<VertexStage>();
+				VertexStage stage0 = new VertexStage();
+				stage0.setNumVertices(2);
+				stage0.setVertex(DummyVertex1.class);
+				vertexStages.add(stage0);
+				
+				VertexStage stage1 = new VertexStage();
+				stage1.setNumVertices(3);
+				stage1.setVertex(DummyVertex2.class);
+				vertexStages.add(stage1);
+			}
+		};
+		jobInProgress.setJobSpecification(jobSpec);
+		
+		JobStatus jobStatus = new JobStatus();
+		jobStatus.setCurrentVertexStage(0);
+		jobStatus.setTotalVertexStages(2);
+		jobStatus.setExecutionFinished(false);
+		jobStatus.setTotalVerticesCurrentStage(2);
+		jobStatus.setTotalVerticesInProgressCurrentStage(2);
+		jobInProgress.setJobStatus(jobStatus);
+		jobMgr.jobsInProgress.put("1", jobInProgress);
+		jobMgr.outputMap.put("1", new HashMap<Integer, HashMap<Integer,ArrayList<String>>>());
+		
+		List<VertexCompletion> completions = new ArrayList<VertexCompletion>();
+		for(int i = 0; i < 2; i++){
+			VertexDescriptor v = new VertexDescriptor();
+			v.setJobId("1");
+			v.setStageNumber(0);
+			v.setVertexNumber(i);
+			v.setVertexServerAssignment("vs1");
+			jobMgr.verticesInProgress.add(v);
+			
+			VertexCompletion completion = new VertexCompletion();
+			completion.setJobId("1");
+			completion.setStageNumber(0);
+			completion.setVertexNumber(i);
+			completion.setExecutionSuccessful(true);
+			VertexOutput output = new VertexOutput();
+			output.setOutputMap(new HashMap<Integer, List<String>>());
+			output.getOutputMap().put(i, new ArrayList<String>());
+			output.getOutputMap().get(i).add("outputForV" + i);
+			completion.setOutput(output);
+			completions.add(completion);
+		}
+		
+		final int[] allocatableCalls = new int[1];
+		jobMgr.setVerticesAllocatableListener(new Runnable(){
+			public void run(){
+				allocatableCalls[0]++;
+			}
+		});
+		
+		VertexServerInfo vserver = new VertexServerInfo();
+		vserver.setId("vs1");
+		vserver.setAvailableThreads(3);
+		
+		List<VertexDescriptor> assigned = jobMgr.processHeartbeat(vserver, completions, null);
+		
+		Assert.assertEquals(1, allocatableCalls[0]);
+		Assert.assertEquals(1, jobStatus.getCurrentVertexStage());
+		Assert.assertEquals(3, jobStatus.getTotalVerticesInProgressCurrentStage());
+		Assert.assertEquals(3, assigned.size());
+		Assert.assertEquals(1, assigned.get(0).getStageNumber());
+		Assert.assertEquals("vs1", assigned.get(0).getVertexServerAssignment());
+		Assert.assertEquals(3, jobMgr.verticesInProgress.size());
+		Assert.assertEquals(0, jobMgr.allocatableVertices.size());
+		Assert.assertEquals(1, jobMgr.outputMap.get("1").get(1).get(0).size());
+	}
+	
+	/**
+	 * A stage with pointwise input has each vertex start once the previous
+	 * stage's vertex with the same index is finished, while that stage is
+	 * still in progress
+	 */
+	@Test
+	public void testPointwiseStagePipelined() throws Exception{
+		JobDescriptor jDesc = getJobDescriptor("1");
+		VertexStage stage0 = new VertexStage();
+		stage0.setVertex(DummyVertex1.class);
+		jDesc.getJobSpecification().getVertexStages().add(stage0);
+		VertexStage stage1 = new VertexStage();
+		stage1.setNumVertices(2);
+		stage1.setVertex(DummyVertex2.class);
+		jDesc.getJobSpecification().getVertexStages().add(stage1);
+		VertexStage stage2 = new VertexStage();
+		stage2.setNumVertices(2);
+		stage2.setVertex(DummyVertex2.class);
+		stage2.setPointwiseInput(true);
+		jDesc.getJobSpecification().getVertexStages().add(stage2);
+		
+		ArrayList<String> inFiles = new ArrayList<String>();
+		inFiles.add("/input/path/file1");
+		inFiles.add("/input/path/file2");
+		expectSplits(inFiles, 1);
+		hdfs.moveFilesToNewDir(EasyMock.eq(Arrays.asList("out0", "out1")), EasyMock.eq("/output/path"));
+		EasyMock.replay(hdfs);
+		
+		jobMgr.addNewJobFromClient(jDesc);
+		VertexServerInfo vServer = new VertexServerInfo();
+		vServer.setId("vs1");
+		vServer.setAvailableThreads(10);
+		Assert.assertEquals(2, jobMgr.assignVerticesToServer(vServer).size());
+		
+		// first stage sends output to both vertices of the second
+		jobMgr.updateVertexStatus(completion(0, 0, "s0v0_", 2));
+		jobMgr.updateVertexStatus(completion(0, 1, "s0v1_", 2));
+		Assert.assertEquals(2, jobMgr.assignVerticesToServer(vServer).size());
+		
+		// the third stage's vertex 0 only waits for the second stage's vertex 0
+		jobMgr.updateVertexStatus(completion(1, 0, "s1v0_", 0));
+		List<VertexDescriptor> assigned = jobMgr.assignVerticesToServer(vServer);
+		Assert.assertEquals(1, assigned.size());
+		Assert.assertEquals(2, assigned.get(0).getStageNumber());
+		Assert.assertEquals(0, assigned.get(0).getVertexNumber());
+		Assert.assertEquals(Arrays.asList("s1v0_0"), assigned.get(0).getInputPaths());
+		
+		JobStatus status = jobMgr.jobStatusQuery("1");
+		Assert.assertEquals(1, status.getCurrentVertexStage());
+		Assert.assertEquals(1, status.getTotalVerticesInProgressCurrentStage());
+		Assert.assertEquals(Arrays.asList(2, 2, 2), status.getStageVertices());
+		Assert.assertEquals(Arrays.asList(2, 1, 0), status.getStageVerticesFinished());
+		
+		// two stages in progress
+		jobMgr.updateVertexStatus(completion(2, 0, "out0", null));
+		status = jobMgr.jobStatusQuery("1");
+		Assert.assertEquals(1, status.getCurrentVertexStage());
+		Assert.assertEquals(Arrays.asList(2, 1, 1), status.getStageVerticesFinished());
+		
+		jobMgr.updateVertexStatus(completion(1, 1, "s1v1_", 1));
+		status = jobMgr.jobStatusQuery("1");
+		Assert.assertEquals(2, status.getCurrentVertexStage());
+		Assert.assertEquals(2, status.getTotalVerticesCurrentStage());
+		Assert.assertEquals(1, status.getTotalVerticesInProgressCurrentStage());
+		Assert.assertEquals(1, jobMgr.assignVerticesToServer(vServer).size());
+		
+		jobMgr.updateVertexStatus(completion(2, 1, "out1", null));
+		status = jobMgr.jobStatusQuery("1");
+		Assert.assertTrue(status.getExecutionFinished());
+		Assert.assertEquals(0, status.getTotalVerticesInProgressCurrentStage());
+		EasyMock.verify(hdfs);
+	}
+	
+	/**
+	 * A job whose stages are a graph: the two branches reading the first stage
+	 * run at the same time, and the stage joining them starts once both are
+	 * finished with its input labelled by stage
+	 */
+	@Test
+	public void testStageGraph_branchesRunConcurrentlyAndJoin() throws Exception{
+		JobDescriptor jDesc = getJobDescriptor("1");
+		String[] names = {"read", "left", "right", "join"};
+		int[] numVertices = {0, 2, 1, 2};
+		for(int i = 0; i < names.length; i++){
+			VertexStage stage = new VertexStage();
+			stage.setName(names[i]);
+			stage.setNumVertices(numVertices[i]);
+			stage.setVertex(DummyVertex1.class);
+			jDesc.getJobSpecification().getVertexStages().add(stage);
+		}
+		jDesc.getJobSpecification().addStageEdge("read", "left", StageEdge.Type.ALL_TO_ALL);
+		jDesc.getJobSpecification().addStageEdge("read", "right", StageEdge.Type.BROADCAST);
+		jDesc.getJobSpecification().addStageEdge("left", "join", StageEdge.Type.ALL_TO_ALL);
+		jDesc.getJobSpecification().addStageEdge("right", "join", StageEdge.Type.BROADCAST);
+		
+		ArrayList<String> inFiles = new ArrayList<String>();
+		inFiles.add("/input/path/file1");
+		inFiles.add("/input/path/file2");
+		expectSplits(inFiles, 1);
+		hdfs.moveFilesToNewDir(EasyMock.eq(Arrays.asList("out0", "out1")), EasyMock.eq("/output/path"));
+		EasyMock.replay(hdfs);
+		
+		jobMgr.addNewJobFromClient(jDesc);
+		VertexServerInfo vServer = new VertexServerInfo();
+		vServer.setId("vs1");
+		vServer.setAvailableThreads(10);
+		List<VertexDescriptor> assigned = jobMgr.assignVerticesToServer(vServer);
+		Assert.assertEquals(2, assigned.size());
+		Assert.assertEquals(Arrays.asList("left", "right"), assigned.get(0).getOutputStages());
+		Assert.assertEquals(Arrays.asList(2, 1), assigned.get(0).getOutputStageVertices());
+		Assert.assertEquals(Integer.valueOf(2), assigned.get(0).getNumVerticesNextStage());
+		
+		// the first stage writes separate output for each stage reading it
+		for(int vertex = 0; vertex < 2; vertex++){
+			VertexCompletion completion = completion(0, vertex, "unused", 0);
+			completion.getOutput().getOutputMap().clear();
+			completion.getOutput().setOutputMap("left", completion(0, vertex, "r" + vertex + "_left", 2).getOutput().getOutputMap());
+			completion.getOutput().setOutputMap("right", completion(0, vertex, "r" + vertex + "_right", 1).getOutput().getOutputMap());
+			jobMgr.updateVertexStatus(completion);
+		}
+		
+		// both branches run at the same time
+		assigned = jobMgr.assignVerticesToServer(vServer);
+		Assert.assertEquals(3, assigned.size());
+		VertexDescriptor right = null;
+		for(VertexDescriptor v : assigned){
+			if(v.getStageNumber() == 2){
+				right = v;
+			}else{
+				Assert.assertEquals(1, v.getStageNumber());
+				Assert.assertEquals(Arrays.asList("r0_left" + v.getVertexNumber(), "r1_left" + v.getVertexNumber()), 
+						v.getInputPaths());
+			}
+		}
+		Assert.assertNotNull(right);
+		Assert.assertEquals(Arrays.asList("r0_right0", "r1_right0"), right.getInputPaths());
+		Assert.assertEquals(Arrays.asList("read"), right.getInputStages());
+		Assert.assertEquals(Arrays.asList(2), right.getInputStageSizes());
+		
+		// the join waits for both branches
+		jobMgr.updateVertexStatus(completion(1, 0, "l0_", 2));
+		jobMgr.updateVertexStatus(completion(1, 1, "l1_", 2));
+		Assert.assertEquals(0, jobMgr.assignVerticesToServer(vServer).size());
+		JobStatus status = jobMgr.jobStatusQuery("1");
+		Assert.assertEquals(2, status.getCurrentVertexStage());
+		Assert.assertEquals(Arrays.asList(2, 2, 0, 0), status.getStageVerticesFinished());
+		
+		jobMgr.updateVertexStatus(completion(2, 0, "table", 1));
+		assigned = jobMgr.assignVerticesToServer(vServer);
+		Assert.assertEquals(2, assigned.size());
+		for(VertexDescriptor join : assigned){
+			Assert.assertEquals(3, join.getStageNumber());
+			Assert.assertEquals(Arrays.asList("l0_" + join.getVertexNumber(), "l1_" + join.getVertexNumber(), "table0"), 
+					join.getInputPaths());
+			Assert.assertEquals(Arrays.asList("left", "right"), join.getInputStages());
+			Assert.assertEquals(Arrays.asList(2, 1), join.getInputStageSizes());
+			Assert.assertNull(join.getNumVerticesNextStage());
+		}
+		
+		jobMgr.updateVertexStatus(completion(3, 0, "out0", null));
+		jobMgr.updateVertexStatus(completion(3, 1, "out1", null));
+		status = jobMgr.jobStatusQuery("1");
+		Assert.assertTrue(status.getExecutionFinished());
+		EasyMock.verify(hdfs);
+	}
+	
+	/**
+	 * A job whose stage edges don't go to later stages fails without running
+	 */
+	@Test
+	public void testStageGraph_badGraphFailsJob() throws Exception{
+		JobDescriptor jDesc = getJobDescriptor("1");
+		for(String name : Arrays.asList("first", "second")){
+			VertexStage stage = new VertexStage();
+			stage.setName(name);
+			stage.setNumVertices(1);
+			stage.setVertex(DummyVertex1.class);
+			jDesc.getJobSpecification().getVertexStages().add(stage);
+		}
+		jDesc.getJobSpecification().addStageEdge("second", "first", StageEdge.Type.ALL_TO_ALL);
+		EasyMock.replay(hdfs);
+		
+		jobMgr.addNewJobFromClient(jDesc);
+		Assert.assertTrue(jobMgr.jobStatusQuery("1").getExecutionFinished());
+		VertexServerInfo vServer = new VertexServerInfo();
+		vServer.setId("vs1");
+		vServer.setAvailableThreads(10);
+		Assert.assertEquals(0, jobMgr.assignVerticesToServer(vServer).size());
+		EasyMock.verify(hdfs);
+	}
+	
+	/**
+	 * A stage with a target input size gets one vertex per target bytes of the
+	 * output written for it, each reading a run of partitions - the stage
+	 * reading it pointwise follows its size
+	 */
+	@Test
+	public void testStageSizedFromInput() throws Exception{
+		JobDescriptor jDesc = getJobDescriptor("1");
+		VertexStage stage0 = new VertexStage();
+		stage0.setVertex(DummyVertex1.class);
+		jDesc.getJobSpecification().getVertexStages().add(stage0);
+		VertexStage stage1 = new VertexStage();
+		stage1.setNumVertices(4);
+		stage1.setTargetBytesPerVertex(100);
+		stage1.setVertex(DummyVertex2.class);
+		jDesc.getJobSpecification().getVertexStages().add(stage1);
+		VertexStage stage2 = new VertexStage();
+		stage2.setNumVertices(4);
+		stage2.setPointwiseInput(true);
+		stage2.setVertex(DummyVertex3.class);
+		jDesc.getJobSpecification().getVertexStages().add(stage2);
+		
+		ArrayList<String> inFiles = new ArrayList<String>();
+		inFiles.add("/input/path/file1");
+		inFiles.add("/input/path/file2");
+		expectSplits(inFiles, 1);
+		hdfs.moveFilesToNewDir(EasyMock.eq(Arrays.asList("out0", "out1")), EasyMock.eq("/output/path"));
+		EasyMock.replay(hdfs);
+		
+		jobMgr.addNewJobFromClient(jDesc);
+		VertexServerInfo vServer = new VertexServerInfo();
+		vServer.setId("vs1");
+		vServer.setAvailableThreads(10);
+		List<VertexDescriptor> assigned = jobMgr.assignVerticesToServer(vServer);
+		Assert.assertEquals(2, assigned.size());
+		// output is partitioned for the stage's most vertices
+		Assert.assertEquals(Integer.valueOf(4), assigned.get(0).getNumVerticesNextStage());
+		
+		// 160 bytes for the second stage - 2 vertices of 100 bytes
+		for(int vertex = 0; vertex < 2; vertex++){
+			VertexCompletion completion = completion(0, vertex, "s0v" + vertex + "_", 4);
+			for(List<String> files : completion.getOutput().getOutputMap().values()){
+				completion.getOutput().setBytes(files.get(0), 20);
+			}
+			jobMgr.updateVertexStatus(completion);
+		}
+		JobStatus status = jobMgr.jobStatusQuery("1");
+		Assert.assertEquals(Arrays.asList(2, 2, 2), status.getStageVertices());
+		Assert.assertEquals(2, status.getTotalVerticesCurrentStage());
+		
+		assigned = jobMgr.assignVerticesToServer(vServer);
+		Assert.assertEquals(2, assigned.size());
+		for(VertexDescriptor v : assigned){
+			int first = v.getVertexNumber() * 2;
+			Assert.assertEquals(Arrays.asList("s0v0_" + first, "s0v1_" + first, "s0v0_" + (first + 1), "s0v1_" + (first + 1)),
+					v.getInputPaths());
+			Assert.assertEquals(Integer.valueOf(2), v.getNumVerticesNextStage());
+		}
+		
+		jobMgr.updateVertexStatus(completion(1, 0, "s1v0_", 0));
+		jobMgr.updateVertexStatus(completion(1, 1, "s1v1_", 0));
+		assigned = jobMgr.assignVerticesToServer(vServer);
+		Assert.assertEquals(2, assigned.size());
+		jobMgr.updateVertexStatus(completion(2, 0, "out0", null));
+		jobMgr.updateVertexStatus(completion(2, 1, "out1", null));
+		Assert.assertTrue(jobMgr.jobStatusQuery("1").getExecutionFinished());
+		EasyMock.verify(hdfs);
+	}
+	
+	/**
+	 * A vertex of a splittable stage given far more input than the others has
+	 * its input split, by the vertices that wrote it, between it and vertices
+	 * added to the stage - the skew shows in the job's status
+	 */
+	@Test
+	public void testSkewedVertexInputSplit() throws Exception{
+		jobMgr.setSkewSplitting(4, 3);
+		JobDescriptor jDesc = getJobDescriptor("1");
+		VertexStage stage0 = new VertexStage();
+		stage0.setVertex(DummyVertex1.class);
+		jDesc.getJobSpecification().getVertexStages().add(stage0);
+		VertexStage stage1 = new VertexStage();
+		stage1.setNumVertices(3);
+		stage1.setSplittableInput(true);
+		stage1.setVertex(DummyVertex2.class);
+		jDesc.getJobSpecification().getVertexStages().add(stage1);
+		
+		ArrayList<String> inFiles = new ArrayList<String>();
+		for(int i = 0; i < 4; i++){
+			inFiles.add("/input/path/file" + i);
+		}
+		expectSplits(inFiles, 1);
+		hdfs.moveFilesToNewDir(EasyMock.eq(Arrays.asList("out0", "out1", "out2", "out3", "out4")), 
+				EasyMock.eq("/output/path"));
+		EasyMock.replay(hdfs);
+		
+		jobMgr.addNewJobFromClient(jDesc);
+		VertexServerInfo vServer = new VertexServerInfo();
+		vServer.setId("vs1");
+		vServer.setAvailableThreads(10);
+		Assert.assertEquals(4, jobMgr.assignVerticesToServer(vServer).size());
+		
+		// every vertex writes 100 bytes for the third partition, 10 for the others
+		for(int vertex = 0; vertex < 4; vertex++){
+			VertexCompletion completion = completion(0, vertex, "s0v" + vertex + "_", 3);
+			for(Integer partition : completion.getOutput().getOutputMap().keySet()){
+				completion.getOutput().setBytes(completion.getOutput().getOutputMap().get(partition).get(0), 
+						partition == 2 ? 100 : 10);
+			}
+			jobMgr.updateVertexStatus(completion);
+		}
+		JobStatus status = jobMgr.jobStatusQuery("1");
+		Assert.assertEquals(Arrays.asList(4, 5), status.getStageVertices());
+		Assert.assertEquals(10.0, status.getMaxInputSkew(), 0.001);
+		Assert.assertEquals(1, status.getSkewedVertices());
+		Assert.assertEquals(2, status.getSplitVertices());
+		
+		List<VertexDescriptor> assigned = jobMgr.assignVerticesToServer(vServer);
+		Assert.assertEquals(5, assigned.size());
+		HashMap<Integer, List<String>> inputs = new HashMap<Integer, List<String>>();
+		for(VertexDescriptor v : assigned){
+			inputs.put(v.getVertexNumber(), v.getInputPaths());
+		}
+		Assert.assertEquals(Arrays.asList("s0v0_0", "s0v1_0", "s0v2_0", "s0v3_0"), inputs.get(0));
+		Assert.assertEquals(Arrays.asList("s0v0_2", "s0v3_2"), inputs.get(2));
+		Assert.assertEquals(Arrays.asList("s0v1_2"), inputs.get(3));
+		Assert.assertEquals(Arrays.asList("s0v2_2"), inputs.get(4));
+		
+		for(int vertex = 0; vertex < 5; vertex++){
+			jobMgr.updateVertexStatus(completion(1, vertex, "out" + vertex, null));
+		}
+		Assert.assertTrue(jobMgr.jobStatusQuery("1").getExecutionFinished());
+		EasyMock.verify(hdfs);
+	}
+	
+	/**
+	 * A vertex running much longer than the rest of its stage gets a backup
+	 * attempt on another server - the attempt finishing first is used and the
+	 * other attempt's output is deleted when it reports
+	 */
+	@Test
+	public void testSpeculativeBackupOfStraggler() throws Exception{
+		jobMgr.setSpeculation(2, 1000);
+		JobDescriptor jDesc = getJobDescriptor("1");
+		VertexStage stage0 = new VertexStage();
+		stage0.setVertex(DummyVertex1.class);
+		jDesc.getJobSpecification().getVertexStages().add(stage0);
+		
+		ArrayList<String> inFiles = new ArrayList<String>();
+		inFiles.add("/input/path/file1");
+		inFiles.add("/input/path/file2");
+		inFiles.add("/input/path/file3");
+		expectSplits(inFiles, 1);
+		hdfs.moveFilesToNewDir(EasyMock.eq(Arrays.asList("out0", "out1", "out2_backup")), EasyMock.eq("/output/path"));
+		hdfs.deleteFiles(Arrays.asList("out2"));
+		EasyMock.replay(hdfs);
+		
+		jobMgr.addNewJobFromClient(jDesc);
+		VertexServerInfo vServer1 = new VertexServerInfo();
+		vServer1.setId("vs1");
+		vServer1.setAvailableThreads(3);
+		Assert.assertEquals(3, jobMgr.assignVerticesToServer(vServer1).size());
+		
+		// two vertices finish at once, the third has been running for 5 seconds
+		jobMgr.updateVertexStatus(completion(0, 0, "out0", null));
+		jobMgr.updateVertexStatus(completion(0, 1, "out1", null));
+		VertexDescriptor straggler = jobMgr.verticesInProgress.get("1", 0, 2);
+		straggler.setAssignedAt(System.currentTimeMillis() - 5000);
+		
+		// never backed up on the server running it
+		vServer1.setAvailableThreads(2);
+		Assert.assertEquals(0, jobMgr.assignVerticesToServer(vServer1).size());
+		Assert.assertEquals(1, jobMgr.backupVertices.size());
+		
+		VertexServerInfo vServer2 = new VertexServerInfo();
+		vServer2.setId("vs2");
+		vServer2.setAvailableThreads(2);
+		List<VertexDescriptor> assigned = jobMgr.assignVerticesToServer(vServer2);
+		Assert.assertEquals(1, assigned.size());
+		Assert.assertEquals(2, assigned.get(0).getVertexNumber());
+		Assert.assertEquals(1, assigned.get(0).getAttempt());
+		Assert.assertEquals(straggler.getInputPaths(), assigned.get(0).getInputPaths());
+		Assert.assertEquals(0, jobMgr.assignVerticesToServer(vServer2).size());
+		
+		// the backup finishes first
+		VertexCompletion backupDone = completion(0, 2, "out2_backup", null);
+		backupDone.setAttempt(1);
+		jobMgr.updateVertexStatus(backupDone);
+		Assert.assertTrue(jobMgr.jobStatusQuery("1").getExecutionFinished());
+		Assert.assertEquals(0, jobMgr.verticesInProgress.size());
+		Assert.assertEquals(0, jobMgr.backupsInProgress.size());
+		
+		// the first attempt reports after the job has been purged
+		jobMgr.updateVertexStatus(completion(0, 2, "out2", null));
+		EasyMock.verify(hdfs);
+	}
+	
+	/**
+	 * A failed vertex is run again - the server it failed on twice in a row is
+	 * blacklisted, and the job finishes once another server runs the vertex
+	 */
+	@Test
+	public void testFailedVertexRetried_serverBlacklisted() throws Exception{
+		jobMgr.setVertexRetries(3, 0);
+		jobMgr.setBlacklisting(2, 60000);
+		JobDescriptor jDesc = getJobDescriptor("1");
+		VertexStage stage0 = new VertexStage();
+		stage0.setVertex(DummyVertex1.class);
+		jDesc.getJobSpecification().getVertexStages().add(stage0);
+		
+		expectSplits(Arrays.asList("/input/path/file1"), 1);
+		hdfs.moveFilesToNewDir(EasyMock.eq(Arrays.asList("out0")), EasyMock.eq("/output/path"));
+		EasyMock.replay(hdfs);
+		
+		jobMgr.addNewJobFromClient(jDesc);
+		VertexServerInfo vServer1 = new VertexServerInfo();
+		vServer1.setId("vs1");
+		vServer1.setAvailableThreads(1);
+		
+		for(int attempt = 0; attempt < 2; attempt++){
+			List<VertexDescriptor> assigned = jobMgr.assignVerticesToServer(vServer1);
+			Assert.assertEquals(1, assigned.size());
+			Assert.assertEquals(attempt, assigned.get(0).getAttempt());
+			
+			VertexCompletion failed = completion(0, 0, "partial", null);
+			failed.setAttempt(attempt);
+			failed.setExecutionSuccessful(false);
+			jobMgr.updateVertexStatus(failed);
+			Assert.assertFalse(jobMgr.jobsInProgress.get("1").getJobStatus().getExecutionFinished());
+			Assert.assertEquals(1, jobMgr.allocatableVertices.size());
+		}
+		
+		// blacklisted
+		Assert.assertEquals(0, jobMgr.assignVerticesToServer(vServer1).size());
+		
+		VertexServerInfo vServer2 = new VertexServerInfo();
+		vServer2.setId("vs2");
+		vServer2.setAvailableThreads(1);
+		List<VertexDescriptor> assigned = jobMgr.assignVerticesToServer(vServer2);
+		Assert.assertEquals(1, assigned.size());
+		Assert.assertEquals(2, assigned.get(0).getAttempt());
+		
+		VertexCompletion done = completion(0, 0, "out0", null);
+		done.setAttempt(2);
+		jobMgr.updateVertexStatus(done);
+		Assert.assertTrue(jobMgr.jobStatusQuery("1").getExecutionFinished());
+		EasyMock.verify(hdfs);
+	}
+	
+	/**
+	 * The job fails once a vertex has failed as many times as it may be run
+	 */
+	@Test
+	public void testFailedVertexRetried_attemptsExhausted() throws Exception{
+		jobMgr.setVertexRetries(2, 0);
+		JobDescriptor jDesc = getJobDescriptor("1");
+		VertexStage stage0 = new VertexStage();
+		stage0.setVertex(DummyVertex1.class);
+		jDesc.getJobSpecification().getVertexStages().add(stage0);
+		
+		expectSplits(Arrays.asList("/input/path/file1", "/input/path/file2"), 1);
+		EasyMock.replay(hdfs);
+		
+		jobMgr.addNewJobFromClient(jDesc);
+		VertexServerInfo vServer = new VertexServerInfo();
+		vServer.setId("vs1");
+		vServer.setAvailableThreads(2);
+		Assert.assertEquals(2, jobMgr.assignVerticesToServer(vServer).size());
+		
+		VertexCompletion failed = completion(0, 0, "partial", null);
+		failed.setExecutionSuccessful(false);
+		jobMgr.updateVertexStatus(failed);
+		Assert.assertFalse(jobMgr.jobsInProgress.get("1").getJobStatus().getExecutionFinished());
+		Assert.assertEquals(1, jobMgr.assignVerticesToServer(vServer).size());
+		
+		failed.setAttempt(1);
+		jobMgr.updateVertexStatus(failed);
+		Assert.assertTrue(jobMgr.jobsInProgress.get("1").getJobStatus().getExecutionFinished());
+		Assert.assertEquals(0, jobMgr.allocatableVertices.size());
+		Assert.assertEquals(0, jobMgr.verticesInProgress.size());
+		EasyMock.verify(hdfs);
+	}
+	
+	/**
+	 * The vertices of a server that stops heartbeating are run on another server
+	 * - the dead server's late report is discarded
+	 */
+	@Test
+	public void testDeadVertexServer_verticesRequeued() throws Exception{
+		jobMgr.setLivenessTimeoutMs(1000);
+		JobDescriptor jDesc = getJobDescriptor("1");
+		VertexStage stage0 = new VertexStage();
+		stage0.setVertex(DummyVertex1.class);
+		jDesc.getJobSpecification().getVertexStages().add(stage0);
+		
+		expectSplits(Arrays.asList("/input/path/file1", "/input/path/file2"), 1);
+		hdfs.deleteFiles(Arrays.asList("late0"));
+		hdfs.moveFilesToNewDir(EasyMock.eq(Arrays.asList("out0", "out1")), EasyMock.eq("/output/path"));
+		EasyMock.replay(hdfs);
+		
+		jobMgr.addNewJobFromClient(jDesc);
+		VertexServerInfo vServer1 = new VertexServerInfo();
+		vServer1.setId("vs1");
+		vServer1.setAvailableThreads(2);
+		Assert.assertEquals(2, jobMgr.processHeartbeat(vServer1, null, null).size());
+		VertexServerInfo vServer2 = new VertexServerInfo();
+		vServer2.setId("vs2");
+		vServer2.setAvailableThreads(0);
+		jobMgr.processHeartbeat(vServer2, null, null);
+		
+		// nothing heard from vs1 for 5 seconds
+		Assert.assertTrue(jobMgr.removeDeadVertexServers().isEmpty());
+		jobMgr.vertexServersLastSeen.put("vs1", System.currentTimeMillis() - 5000);
+		Assert.assertEquals(Arrays.asList("vs1"), jobMgr.removeDeadVertexServers());
+		Assert.assertFalse(jobMgr.vertexServersLastSeen.containsKey("vs1"));
+		Assert.assertEquals(0, jobMgr.verticesInProgress.size());
+		Assert.assertEquals(2, jobMgr.allocatableVertices.size());
+		// vs1 is given nothing until it is heard from again
+		Assert.assertTrue(jobMgr.assignVerticesToServer(vServer1).isEmpty());
+		
+		vServer2.setAvailableThreads(2);
+		List<VertexDescriptor> assigned = jobMgr.assignVerticesToServer(vServer2);
+		Assert.assertEquals(2, assigned.size());
+		Assert.assertEquals(1, assigned.get(0).getAttempt());
+		Assert.assertEquals(1, assigned.get(1).getAttempt());
+		
+		// vs1 was only slow - its output is deleted
+		VertexCompletion late = completion(0, 0, "late0", null);
+		jobMgr.processHeartbeat(vServer1, Arrays.asList(late), null);
+		Assert.assertEquals(2, jobMgr.verticesInProgress.size());
+		
+		for(int vertex = 0; vertex < 2; vertex++){
+			VertexCompletion done = completion(0, vertex, "out" + vertex, null);
+			done.setAttempt(1);
+			jobMgr.updateVertexStatus(done);
+		}
+		Assert.assertTrue(jobMgr.jobStatusQuery("1").getExecutionFinished());
+		// the attempt of vertex 1 that never reported is moved out with the job
+		Assert.assertTrue(jobMgr.losingAttempts.isEmpty());
+		Assert.assertEquals(1, jobMgr.endedLosingAttempts.size());
+		
+		// a server dead for longer than the liveness timeout is forgotten
+		jobMgr.deadServers.put("vs3", System.currentTimeMillis() - 5000);
+		jobMgr.deadServers.put("vs4", System.currentTimeMillis());
+		jobMgr.removeDeadVertexServers();
+		Assert.assertEquals(Collections.singleton("vs4"), jobMgr.deadServers.keySet());
+		EasyMock.verify(hdfs);
+	}
+	
+	/**
+	 * A finished vertex whose output was lost with its server is run again -
+	 * the next stage's vertex waits for it and then reads the new output
+	 */
+	@Test
+	public void testDeadVertexServer_lostOutputRerun() throws Exception{
+		jobMgr.setLivenessTimeoutMs(1000);
+		JobDescriptor jDesc = getJobDescriptor("1");
+		VertexStage stage0 = new VertexStage();
+		stage0.setVertex(DummyVertex1.class);
+		jDesc.getJobSpecification().getVertexStages().add(stage0);
+		VertexStage stage1 = new VertexStage();
+		stage1.setVertex(DummyVertex1.class);
+		stage1.setNumVertices(1);
+		jDesc.getJobSpecification().getVertexStages().add(stage1);
+		
+		expectSplits(Arrays.asList("/input/path/file1", "/input/path/file2"), 1);
+		EasyMock.expect(hdfs.hdfsFileExists("s0v0")).andReturn(false);
+		hdfs.moveFilesToNewDir(EasyMock.eq(Arrays.asList("out")), EasyMock.eq("/output/path"));
+		EasyMock.replay(hdfs);
+		
+		jobMgr.addNewJobFromClient(jDesc);
+		VertexServerInfo vServer1 = new VertexServerInfo();
+		vServer1.setId("vs1");
+		vServer1.setAvailableThreads(1);
+		List<VertexDescriptor> assigned = jobMgr.processHeartbeat(vServer1, null, null);
+		Assert.assertEquals(0, assigned.get(0).getVertexNumber());
+		List<String> vertex0Input = assigned.get(0).getInputPaths();
+		VertexServerInfo vServer2 = new VertexServerInfo();
+		vServer2.setId("vs2");
+		vServer2.setAvailableThreads(1);
+		Assert.assertEquals(1, jobMgr.processHeartbeat(vServer2, null, null).get(0).getVertexNumber());
+		
+		vServer1.setAvailableThreads(0);
+		vServer2.setAvailableThreads(0);
+		jobMgr.processHeartbeat(vServer1, Arrays.asList(completion(0, 0, "s0v", 1)), null);
+		jobMgr.processHeartbeat(vServer2, Arrays.asList(completion(0, 1, "s0w", 1)), null);
+		Assert.assertEquals(Arrays.asList("s0v0", "s0w0"), jobMgr.allocatableVertices.peek().getInputPaths());
+		
+		// vs1 dies before stage 1 starts, taking s0v0 with it
+		jobMgr.vertexServersLastSeen.put("vs1", System.currentTimeMillis() - 5000);
+		Assert.assertEquals(Arrays.asList("vs1"), jobMgr.removeDeadVertexServers());
+		Assert.assertEquals(1, jobMgr.allocatableVertices.size());
+		VertexDescriptor rerun = jobMgr.allocatableVertices.peek();
+		Assert.assertEquals(0, rerun.getStageNumber());
+		Assert.assertEquals(0, rerun.getVertexNumber());
+		Assert.assertEquals(1, rerun.getAttempt());
+		Assert.assertEquals(vertex0Input, rerun.getInputPaths());
+		
+		vServer2.setAvailableThreads(1);
+		Assert.assertEquals(1, jobMgr.assignVerticesToServer(vServer2).size());
+		VertexCompletion rerunDone = completion(0, 0, "s0x", 1);
+		rerunDone.setAttempt(1);
+		jobMgr.updateVertexStatus(rerunDone);
+		Assert.assertEquals(Arrays.asList(2, 0), 
+				jobMgr.jobsInProgress.get("1").getJobStatus().getStageVerticesFinished());
+		VertexDescriptor released = jobMgr.allocatableVertices.peek();
+		Assert.assertEquals(1, released.getStageNumber());
+		Assert.assertEquals(Arrays.asList("s0w0", "s0x0"), released.getInputPaths());
+		
+		Assert.assertEquals(1, jobMgr.assignVerticesToServer(vServer2).size());
+		jobMgr.updateVertexStatus(completion(1, 0, "out", null));
+		Assert.assertTrue(jobMgr.jobStatusQuery("1").getExecutionFinished());
+		EasyMock.verify(hdfs);
+	}
+	
+	/**
+	 * A job recovered from the journal after a restart only runs the vertices
+	 * that hadn't finished - the next stage reads the output of those that had
+	 */
+	@Test
+	public void testJobRecoveredFromJournal() throws Exception{
+		File journalDir = File.createTempFile("journal", "");
+		journalDir.delete();
+		JobJournal journal = new JobJournal(journalDir, 0, false);
+		Assert.assertTrue(journal.open().isEmpty());
+		jobMgr.setJournal(journal);
+		
+		JobDescriptor jDesc = getJobDescriptor("1");
+		VertexStage stage0 = new VertexStage();
+		stage0.setVertex(DummyVertex1.class);
+		jDesc.getJobSpecification().getVertexStages().add(stage0);
+		VertexStage stage1 = new VertexStage();
+		stage1.setVertex(DummyVertex2.class);
+		stage1.setNumVertices(1);
+		jDesc.getJobSpecification().getVertexStages().add(stage1);
+		
+		expectSplits(Arrays.asList("/input/path/file1", "/input/path/file2"), 2);
+		hdfs.moveFilesToNewDir(EasyMock.eq(Arrays.asList("out")), EasyMock.eq("/output/path"));
+		EasyMock.replay(hdfs);
+		
+		jobMgr.addNewJobFromClient(jDesc);
+		VertexServerInfo vServer = new VertexServerInfo();
+		vServer.setId("vs1");
+		vServer.setAvailableThreads(2);
+		Assert.assertEquals(2, jobMgr.assignVerticesToServer(vServer).size());
+		jobMgr.updateVertexStatus(completion(0, 0, "s0v", 1));
+		journal.close();
+		
+		// the JobServer restarts
+		jobMgr = new JobManager(2, hdfs, 1);
+		journal = new JobJournal(journalDir, 0, false);
+		List<JobJournal.RecoveredJob> recovered = journal.open();
+		Assert.assertEquals(1, recovered.size());
+		Assert.assertEquals("1", recovered.get(0).job.getJobId());
+		Assert.assertEquals(1, recovered.get(0).finished.size());
+		jobMgr.setJournal(journal);
+		recovered.get(0).job.setJobSpecification(jDesc.getJobSpecification());
+		jobMgr.recoverJob(recovered.get(0).job, recovered.get(0).finished);
+		
+		JobStatus status = jobMgr.jobStatusQuery("1");
+		Assert.assertEquals(Arrays.asList(2, 1), status.getStageVertices());
+		Assert.assertEquals(Arrays.asList(1, 0), status.getStageVerticesFinished());
+		List<VertexDescriptor> assigned = jobMgr.assignVerticesToServer(vServer);
+		Assert.assertEquals(1, assigned.size());
+		Assert.assertEquals(1, assigned.get(0).getVertexNumber());
+		
+		jobMgr.updateVertexStatus(completion(0, 1, "s0w", 1));
+		assigned = jobMgr.assignVerticesToServer(vServer);
+		Assert.assertEquals(1, assigned.size());
+		Assert.assertEquals(Arrays.asList("s0v0", "s0w0"), assigned.get(0).getInputPaths());
+		jobMgr.updateVertexStatus(completion(1, 0, "out", null));
+		Assert.assertTrue(jobMgr.jobStatusQuery("1").getExecutionFinished());
+		journal.close();
+		
+		// nothing left to recover
+		Assert.assertTrue(new JobJournal(journalDir, 0, false).open().isEmpty());
+		for(File file : journalDir.listFiles()){
+			file.delete();
+		}
+		journalDir.delete();
+		EasyMock.verify(hdfs);
+	}
+	
+	/**
+	 * A job still queued when the JobServer stops is recovered too - queued
+	 * again, as is a job none of whose vertices finished
+	 */
+	@Test
+	public void testQueuedJobRecoveredFromJournal() throws Exception{
+		File journalDir = File.createTempFile("journal", "");
+		journalDir.delete();
+		JobJournal journal = new JobJournal(journalDir, 0, false);
+		journal.open();
+		jobMgr = new JobManager(1, hdfs, 1);
+		jobMgr.setJournal(journal);
+		
+		expectSplits(Arrays.asList("/input/path/file1"), 2);
+		EasyMock.replay(hdfs);
+		
+		for(String jobId : Arrays.asList("1", "2")){
+			JobDescriptor jDesc = getJobDescriptor(jobId);
+			VertexStage stage0 = new VertexStage();
+			stage0.setVertex(DummyVertex1.class);
+			jDesc.getJobSpecification().getVertexStages().add(stage0);
+			jobMgr.addNewJobFromClient(jDesc);
+		}
+		Assert.assertFalse(jobMgr.jobsInProgress.containsKey("2"));
+		journal.close();
+		
+		// the JobServer restarts
+		jobMgr = new JobManager(1, hdfs, 1);
+		journal = new JobJournal(journalDir, 0, false);
+		List<JobJournal.RecoveredJob> recovered = journal.open();
+		Assert.assertEquals(2, recovered.size());
+		jobMgr.setJournal(journal);
+		for(JobJournal.RecoveredJob job : recovered){
+			Assert.assertTrue(job.finished.isEmpty());
+			JobDescriptor jDesc = getJobDescriptor(job.job.getJobId());
+			VertexStage stage0 = new VertexStage();
+			stage0.setVertex(DummyVertex1.class);
+			jDesc.getJobSpecification().getVertexStages().add(stage0);
+			job.job.setJobSpecification(jDesc.getJobSpecification());
+			jobMgr.recoverJob(job.job, job.finished);
+		}
+		Assert.assertTrue(jobMgr.jobsInProgress.containsKey("1"));
+		Assert.assertFalse(jobMgr.jobsInProgress.containsKey("2"));
+		journal.close();
+		
+		for(File file : journalDir.listFiles()){
+			file.delete();
+		}
+		journalDir.delete();
+		EasyMock.verify(hdfs);
+	}
+	
+	/**
+	 * A job started while another job's vertices fill the queue gets threads
+	 * as they free up instead of waiting for the whole stage - unless the
+	 * policy is FIFO
+	 */
+	@Test
+	public void testFairShare_smallJobNotStarved() throws Exception{
+		List<String> inFiles = new ArrayList<String>();
+		for(int i = 0; i < 10; i++){
+			inFiles.add("/input/path/file" + i);
+		}
+		expectSplits(inFiles, 2);
+		EasyMock.replay(hdfs);
+		
+		JobDescriptor big = getJobDescriptor("big");
+		VertexStage stage0 = new VertexStage();
+		stage0.setVertex(DummyVertex1.class);
+		big.getJobSpecification().getVertexStages().add(stage0);
+		jobMgr.addNewJobFromClient(big);
+		VertexServerInfo vServer1 = new VertexServerInfo();
+		vServer1.setId("vs1");
+		vServer1.setAvailableThreads(4);
+		Assert.assertEquals(4, jobMgr.assignVerticesToServer(vServer1).size());
+		
+		JobDescriptor small = getJobDescriptor("small");
+		small.getJobSpecification().getVertexStages().add(stage0);
+		jobMgr.addNewJobFromClient(small);
+		VertexServerInfo vServer2 = new VertexServerInfo();
+		vServer2.setId("vs2");
+		vServer2.setAvailableThreads(3);
+		Assert.assertEquals(Arrays.asList("small", "small", "small"), jobIds(jobMgr.assignVerticesToServer(vServer2)));
+		
+		// equal shares - the job started first goes first on a tie
+		vServer2.setAvailableThreads(2);
+		Assert.assertEquals(Arrays.asList("small", "big"), jobIds(jobMgr.assignVerticesToServer(vServer2)));
+		
+		jobMgr.setSchedulingPolicy(FairShareVertexQueue.Policy.FIFO);
+		Assert.assertEquals(Arrays.asList("big", "big"), jobIds(jobMgr.assignVerticesToServer(vServer2)));
+		EasyMock.verify(hdfs);
+	}
+	
+	/**
+	 * With a limit on queued vertices, a stage's vertices are made as the
+	 * job's vertices are assigned - each with the same input as if the whole
+	 * stage had been made at once
+	 */
+	@Test
+	public void testVerticesMadeAsAssigned() throws Exception{
+		jobMgr.setMaxQueuedVertices(3);
+		List<String> inFiles = new ArrayList<String>();
+		for(int i = 0; i < 10; i++){
+			inFiles.add("/input/path/file" + i);
+		}
+		expectSplits(inFiles, 1);
+		EasyMock.replay(hdfs);
+		
+		JobDescriptor jDesc = getJobDescriptor("1");
+		VertexStage stage0 = new VertexStage();
+		stage0.setVertex(DummyVertex1.class);
+		jDesc.getJobSpecification().getVertexStages().add(stage0);
+		VertexStage stage1 = new VertexStage();
+		stage1.setNumVertices(6);
+		stage1.setVertex(DummyVertex2.class);
+		jDesc.getJobSpecification().getVertexStages().add(stage1);
+		jobMgr.addNewJobFromClient(jDesc);
+		Assert.assertEquals(10, jobMgr.jobStatusQuery("1").getTotalVerticesCurrentStage());
+		Assert.assertEquals(3, jobMgr.allocatableVertices.size());
+		
+		VertexServerInfo vServer1 = new VertexServerInfo();
+		vServer1.setId("vs1");
+		vServer1.setAvailableThreads(2);
+		Assert.assertEquals(2, jobMgr.assignVerticesToServer(vServer1).size());
+		Assert.assertEquals(3, jobMgr.allocatableVertices.size());
+		vServer1.setAvailableThreads(10);
+		List<VertexDescriptor> assigned = jobMgr.assignVerticesToServer(vServer1);
+		Assert.assertEquals(8, assigned.size());
+		Assert.assertEquals(9, assigned.get(7).getVertexNumber());
+		Assert.assertEquals(Arrays.asList("split:0-10///input/path/file9"), assigned.get(7).getInputPaths());
+		Assert.assertEquals(0, jobMgr.allocatableVertices.size());
+		
+		for(int vertex = 0; vertex < 10; vertex++){
+			jobMgr.updateVertexStatus(completion(0, vertex, "v" + vertex + "p", 6));
+		}
+		Assert.assertEquals(1, jobMgr.jobStatusQuery("1").getCurrentVertexStage());
+		Assert.assertEquals(3, jobMgr.allocatableVertices.size());
+		vServer1.setAvailableThreads(6);
+		assigned = jobMgr.assignVerticesToServer(vServer1);
+		Assert.assertEquals(6, assigned.size());
+		Assert.assertEquals(5, assigned.get(5).getVertexNumber());
+		Assert.assertEquals(10, assigned.get(5).getInputPaths().size());
+		Assert.assertTrue(assigned.get(5).getInputPaths().contains("v9p5"));
+		Assert.assertEquals(0, jobMgr.allocatableVertices.size());
+		Assert.assertFalse(jobMgr.pendingVertices.containsKey("1"));
+		EasyMock.verify(hdfs);
+	}
+	
+	/**
+	 * A job's attempts stop counting towards its share as soon as they finish
+	 */
+	@Test
+	public void testFairShare_finishedVerticesFreeShare() throws Exception{
+		List<String> inFiles = new ArrayList<String>();
+		for(int i = 0; i < 10; i++){
+			inFiles.add("/input/path/file" + i);
+		}
+		expectSplits(inFiles, 2);
+		EasyMock.replay(hdfs);
+		
+		VertexStage stage0 = new VertexStage();
+		stage0.setVertex(DummyVertex1.class);
+		JobDescriptor first = getJobDescriptor("1");
+		first.getJobSpecification().getVertexStages().add(stage0);
+		jobMgr.addNewJobFromClient(first);
+		VertexServerInfo vServer1 = new VertexServerInfo();
+		vServer1.setId("vs1");
+		vServer1.setAvailableThreads(4);
+		Assert.assertEquals(Arrays.asList("1", "1", "1", "1"), jobIds(jobMgr.assignVerticesToServer(vServer1)));
+		
+		JobDescriptor other = getJobDescriptor("other");
+		other.getJobSpecification().getVertexStages().add(stage0);
+		jobMgr.addNewJobFromClient(other);
+		VertexServerInfo vServer2 = new VertexServerInfo();
+		vServer2.setId("vs2");
+		vServer2.setAvailableThreads(3);
+		Assert.assertEquals(Arrays.asList("other", "other", "other"), jobIds(jobMgr.assignVerticesToServer(vServer2)));
+		
+		// job 1 is down to one running vertex
+		for(int vertex = 0; vertex < 3; vertex++){
+			jobMgr.updateVertexStatus(completion(0, vertex, "out" + vertex, null));
+		}
+		vServer2.setAvailableThreads(2);
+		Assert.assertEquals(Arrays.asList("1", "1"), jobIds(jobMgr.assignVerticesToServer(vServer2)));
+		EasyMock.verify(hdfs);
+	}
+	
+	/**
+	 * Pools share threads by weight once their minimum shares are met
+	 */
+	@Test
+	public void testFairShare_poolWeightsAndMinShare() throws Exception{
+		jobMgr.setPool("prod", 3, 0);
+		jobMgr.setPool("adhoc", 1, 0);
+		List<String> inFiles = new ArrayList<String>();
+		for(int i = 0; i < 20; i++){
+			inFiles.add("/input/path/file" + i);
+		}
+		expectSplits(inFiles, 2);
+		EasyMock.replay(hdfs);
+		
+		VertexStage stage0 = new VertexStage();
+		stage0.setVertex(DummyVertex1.class);
+		JobDescriptor adhoc = getJobDescriptor("adhoc");
+		adhoc.getJobSpecification().getVertexStages().add(stage0);
+		adhoc.getJobSpecification().setPool("adhoc");
+		jobMgr.addNewJobFromClient(adhoc);
+		JobDescriptor prod = getJobDescriptor("prod");
+		prod.getJobSpecification().getVertexStages().add(stage0);
+		prod.getJobSpecification().setPool("prod");
+		jobMgr.addNewJobFromClient(prod);
+		
+		VertexServerInfo vServer1 = new VertexServerInfo();
+		vServer1.setId("vs1");
+		vServer1.setAvailableThreads(8);
+		List<String> assigned = jobIds(jobMgr.assignVerticesToServer(vServer1));
+		Assert.assertEquals(2, Collections.frequency(assigned, "adhoc"));
+		Assert.assertEquals(6, Collections.frequency(assigned, "prod"));
+		
+		// adhoc is guaranteed 4 threads
+		jobMgr.setPool("adhoc", 1, 4);
+		VertexServerInfo vServer2 = new VertexServerInfo();
+		vServer2.setId("vs2");
+		vServer2.setAvailableThreads(4);
+		assigned = jobIds(jobMgr.assignVerticesToServer(vServer2));
+		Assert.assertEquals(Arrays.asList("adhoc", "adhoc", "prod", "prod"), assigned);
+		EasyMock.verify(hdfs);
+	}
+	
+	/**
+	 * A queued job with a higher priority starts before those queued earlier
+	 */
+	@Test
+	public void testPriority_queuedJobsStartHighestFirst() throws Exception{
+		jobMgr = new JobManager(1, hdfs, 1);
+		expectSplits(Arrays.asList("/input/path/file1"), 2);
+		hdfs.moveFilesToNewDir(EasyMock.eq(Arrays.asList("out")), EasyMock.eq("/output/path"));
+		EasyMock.replay(hdfs);
+		
+		VertexStage stage0 = new VertexStage();
+		stage0.setVertex(DummyVertex1.class);
+		JobDescriptor first = getJobDescriptor("1");
+		first.getJobSpecification().getVertexStages().add(stage0);
+		jobMgr.addNewJobFromClient(first);
+		JobDescriptor second = getJobDescriptor("second");
+		second.getJobSpecification().getVertexStages().add(stage0);
+		jobMgr.addNewJobFromClient(second);
+		JobDescriptor urgent = getJobDescriptor("urgent");
+		urgent.getJobSpecification().getVertexStages().add(stage0);
+		urgent.setPriority(5);
+		jobMgr.addNewJobFromClient(urgent);
+		Assert.assertEquals(2, jobMgr.unprocessedJobQ.size());
+		
+		VertexServerInfo vServer1 = new VertexServerInfo();
+		vServer1.setId("vs1");
+		vServer1.setAvailableThreads(1);
+		Assert.assertEquals(1, jobMgr.assignVerticesToServer(vServer1).size());
+		jobMgr.updateVertexStatus(completion(0, 0, "out", null));
+		Assert.assertTrue(jobMgr.jobStatusQuery("1").getExecutionFinished());
+		
+		Assert.assertTrue(jobMgr.jobsInProgress.containsKey("urgent"));
+		Assert.assertFalse(jobMgr.jobsInProgress.containsKey("second"));
+		Assert.assertEquals(1, jobMgr.unprocessedJobQ.size());
+		Assert.assertSame(second, jobMgr.unprocessedJobQ.peek());
+		EasyMock.verify(hdfs);
+	}
+	
+	/**
+	 * Vertices of a higher priority job that waited too long preempt the
+	 * running vertices of a lower priority job - the preempted attempts are
+	 * run again later and don't count as failures when they report
+	 */
+	@Test
+	public void testPriority_lowerPriorityVerticesPreempted() throws Exception{
+		jobMgr.setPreemptionWaitMs(1);
+		expectSplits(Arrays.asList("/input/path/file1", "/input/path/file2", "/input/path/file3"), 2);
+		EasyMock.replay(hdfs);
+		
+		VertexStage stage0 = new VertexStage();
+		stage0.setVertex(DummyVertex1.class);
+		JobDescriptor low = getJobDescriptor("low");
+		low.getJobSpecification().getVertexStages().add(stage0);
+		jobMgr.addNewJobFromClient(low);
+		VertexServerInfo vServer1 = new VertexServerInfo();
+		vServer1.setId("vs1");
+		vServer1.setAvailableThreads(3);
+		Assert.assertEquals(Arrays.asList("low", "low", "low"), jobIds(jobMgr.assignVerticesToServer(vServer1)));
+		
+		JobDescriptor high = getJobDescriptor("high");
+		high.getJobSpecification().getVertexStages().add(stage0);
+		high.setPriority(10);
+		jobMgr.addNewJobFromClient(high);
+		Thread.sleep(20);
+		
+		// a server not running low's vertices has nothing to stop
+		Assert.assertEquals(0, jobMgr.takeAttemptsToStop("vs2").size());
+		List<VertexDescriptor> toStop = jobMgr.takeAttemptsToStop("vs1");
+		Assert.assertEquals(Arrays.asList("low", "low", "low"), jobIds(toStop));
+		Assert.assertEquals(0, jobMgr.takeAttemptsToStop("vs1").size());
+		Assert.assertEquals(0, jobMgr.verticesInProgress.size());
+		Assert.assertEquals(6, jobMgr.allocatableVertices.size());
+		JobStatus lowStatus = jobMgr.jobStatusQuery("low");
+		Assert.assertEquals(3, lowStatus.getPreemptedVertices());
+		Assert.assertTrue(lowStatus.getPreemptedWorkMs() >= 20);
+		
+		// the stopped attempts report failed and their threads go to high
+		List<VertexCompletion> stopped = new ArrayList<VertexCompletion>();
+		for(VertexDescriptor vertex : toStop){
+			VertexCompletion completion = new VertexCompletion(vertex);
+			completion.setExecutionSuccessful(false);
+			stopped.add(completion);
+		}
+		vServer1.setAvailableThreads(3);
+		Assert.assertEquals(Arrays.asList("high", "high", "high"), 
+				jobIds(jobMgr.processHeartbeat(vServer1, stopped, null)));
+		Assert.assertFalse(jobMgr.jobStatusQuery("low").getExecutionFinished());
+		
+		// low's vertices are started again once high's are running
+		VertexServerInfo vServer2 = new VertexServerInfo();
+		vServer2.setId("vs2");
+		vServer2.setAvailableThreads(3);
+		List<VertexDescriptor> again = jobMgr.assignVerticesToServer(vServer2);
+		Assert.assertEquals(Arrays.asList("low", "low", "low"), jobIds(again));
+		Assert.assertEquals(1, again.get(0).getAttempt());
+		EasyMock.verify(hdfs);
+	}
+	
+	private static List<String> jobIds(List<VertexDescriptor> vertices){
+		List<String> jobIds = new ArrayList<String>();
+		for(VertexDescriptor v : vertices){
+			jobIds.add(v.getJobId());
+		}
+		return jobIds;
+	}
+	
+	/**
+	 * Successful completion of an in progress vertex of job "1" - output goes to 
+	 * vertices 0 to nextStageVertices-1 (files prefix + index), or to the job's
+	 * output if nextStageVertices is null
+	 */
+	private static VertexCompletion completion(int stage, int vertex, String prefix, Integer nextStageVertices){
+		VertexCompletion completion = new VertexCompletion();
+		completion.setJobId("1");
+		completion.setStageNumber(stage);
+		completion.setVertexNumber(vertex);
+		completion.setExecutionSuccessful(true);
+		VertexOutput output = new VertexOutput();
+		output.setOutputMap(new HashMap<Integer, List<String>>());
+		if(nextStageVertices == null){
+			output.getOutputMap().put(null, new ArrayList<String>(Arrays.asList(prefix)));
+		}else if(nextStageVertices == 0){
+			// only to the vertex with the same index
+			output.getOutputMap().put(vertex, new ArrayList<String>(Arrays.asList(prefix + vertex)));
+		}else{
+			for(int next = 0; next < nextStageVertices; next++){
+				output.getOutputMap().put(next, new ArrayList<String>(Arrays.asList(prefix + next)));
+			}
+		}
+		completion.setOutput(output);
+		return completion;
+	}
+	
+	/**
+	 * Expect the input of submitted jobs to be planned as the given splits
+	 */
+	private void expectSplits(List<String> files, int times) throws IOException{
+		final List<HdfsFileSplit> splits = new ArrayList<HdfsFileSplit>();
+		for(String file : files){
+			splits.add(new HdfsFileSplit(file, 0, 10));
+		}
+		hdfs.planFileSplits(EasyMock.eq("/input/path"), EasyMock.eq(1), EasyMock.anyInt(), 
+				(SplitBatchListener)EasyMock.notNull());
+		EasyMock.expectLastCall().andAnswer(new IAnswer<Object>(){
+			public Object answer(){
+				((SplitBatchListener)EasyMock.getCurrentArguments()[3]).splitsPlanned(splits);
+				return null;
+			}
+		}).times(times);
+	}
+	
 	private static JobDescriptor getJobDescriptor(String jobId){
 		JobDescriptor jDesc = new JobDescriptor();
 		JobSpecification jSpec = new JobSpecification(){
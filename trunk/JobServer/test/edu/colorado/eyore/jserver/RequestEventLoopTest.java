@@ -0,0 +1,140 @@
+package edu.colorado.eyore.jserver;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.colorado.eyore.common.net.ConnectionPool;
+import edu.colorado.eyore.common.net.MessageFrame;
+import edu.colorado.eyore.common.net.MessageType;
+import edu.colorado.eyore.common.net.Protocol;
+
+/**
+ * Unit testing for the non-blocking request front end
+ */
+public class RequestEventLoopTest {
+
+	private RequestEventLoop eventLoop;
+	private Thread loopThread;
+
+	@Before
+	public void setup() throws IOException{
+		// two workers echo STATUS requests back as OK VERTEX, anything else closes
+		eventLoop = new RequestEventLoop(0, 2, 60000, new RequestHandler(){
+			@Override
+			public void handleRequest(MessageFrame request, PendingResponse response)
+					throws IOException {
+				if(request.getType() != MessageType.STATUS){
+					response.close();
+					return;
+				}
+				new MessageFrame(MessageType.OK_VERTEX, request.getPayload())
+					.write(response.getOutputStream());
+				response.send();
+			}
+		});
+		loopThread = new Thread(eventLoop);
+		loopThread.start();
+	}
+
+	@After
+	public void teardown() throws InterruptedException{
+		eventLoop.close();
+		loopThread.join(5000);
+	}
+
+	@Test
+	public void testManyConnectionsFewWorkers() throws IOException{
+		int numConnections = 200;
+		List<ConnectionPool> pools = new ArrayList<ConnectionPool>();
+		for(int i = 0; i < numConnections; i++){
+			ConnectionPool pool = new ConnectionPool("localhost", eventLoop.getLocalPort(), 1, 60000);
+			Assert.assertEquals("OK VERTEX:" + i, pool.request(new EchoProtocol("" + i)));
+			pools.add(pool);
+		}
+		// every connection is still open and served in turn
+		for(int round = 0; round < 3; round++){
+			for(int i = 0; i < numConnections; i++){
+				Assert.assertEquals("OK VERTEX:" + round + "-" + i,
+						pools.get(i).request(new EchoProtocol(round + "-" + i)));
+			}
+		}
+		for(ConnectionPool pool : pools){
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testStalledClientDoesNotBlockOthers() throws IOException{
+		// send only half a frame and never the rest
+		Socket stalled = new Socket("localhost", eventLoop.getLocalPort());
+		OutputStream out = new BufferedOutputStream(stalled.getOutputStream());
+		out.write(new byte[]{MessageType.STATUS.getCode(), 0, 0, 0, 100, 'x'});
+		out.flush();
+
+		ConnectionPool pool = new ConnectionPool("localhost", eventLoop.getLocalPort(), 1, 60000);
+		for(int i = 0; i < 10; i++){
+			Assert.assertEquals("OK VERTEX:" + i, pool.request(new EchoProtocol("" + i)));
+		}
+		pool.close();
+		stalled.close();
+	}
+
+	@Test(expected = IOException.class)
+	public void testHandlerClosesConnection() throws IOException{
+		ConnectionPool pool = new ConnectionPool("localhost", eventLoop.getLocalPort(), 1, 60000);
+		pool.request(new Protocol(){
+			@Override
+			public String respondTo(String rcvFromFarEnd) {
+				return "NOT FOUND";
+			}
+
+			@Override
+			public Boolean isFinished() {
+				return true;
+			}
+
+			@Override
+			public Object getData() {
+				return null;
+			}
+		});
+	}
+
+	private static class EchoProtocol implements Protocol{
+		private String body;
+		private String reply;
+
+		EchoProtocol(String body){
+			this.body = body;
+		}
+
+		@Override
+		public String respondTo(String rcvFromFarEnd) {
+			if(rcvFromFarEnd == null){
+				return "STATUS:" + body;
+			}
+			reply = rcvFromFarEnd;
+			return null;
+		}
+
+		@Override
+		public Boolean isFinished() {
+			return reply != null;
+		}
+
+		@Override
+		public Object getData() {
+			return reply;
+		}
+	}
+}
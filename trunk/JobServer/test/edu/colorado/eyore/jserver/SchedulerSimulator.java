@@ -0,0 +1,456 @@
+package edu.colorado.eyore.jserver;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+
+import edu.colorado.eyore.common.hdfs.HdfsFileSplit;
+import edu.colorado.eyore.common.hdfs.HdfsUtils;
+import edu.colorado.eyore.common.hdfs.SplitBatchListener;
+import edu.colorado.eyore.common.job.JobDescriptor;
+import edu.colorado.eyore.common.job.JobSpecification;
+import edu.colorado.eyore.common.job.JobStatus;
+import edu.colorado.eyore.common.vertex.Vertex;
+import edu.colorado.eyore.common.vertex.VertexCompletion;
+import edu.colorado.eyore.common.vertex.VertexContext;
+import edu.colorado.eyore.common.vertex.VertexDescriptor;
+import edu.colorado.eyore.common.vertex.VertexOutput;
+import edu.colorado.eyore.common.vertex.VertexServerInfo;
+import edu.colorado.eyore.common.vertex.VertexStage;
+
+/**
+ * Discrete-event simulation of a cluster running the real JobManager, to see
+ * how scheduling settings play out without a cluster.  Simulated VertexServers
+ * heartbeat every heartbeat.ms, reporting the vertices that finished since
+ * their last heartbeat and taking vertices for their free threads through
+ * JobManager.processHeartbeat.  Jobs of the shapes in "stages" arrive at
+ * random (exponential gaps of arrival.ms on average), vertices run for times
+ * drawn from the "runtime" distribution, fail at random and VertexServers die
+ * at random - the JobManager finds them dead after liveness.ms.
+ *
+ * Time is simulated, so a run takes as long as the JobManager's work and the
+ * figures don't depend on the machine - except the scheduler CPU time, which is
+ * the thread CPU time spent in the JobManager per event.  Reported: makespan
+ * (first arrival to last job finished), slot utilization (thread time spent
+ * running vertices over the threads' time alive), job latency (arrival to
+ * finished) and scheduler CPU time per event.
+ *
+ * Usage: SchedulerSimulator [name=value ...] with names (defaults):
+ *   servers (16), threads (4) per server, heartbeat.ms (5000),
+ *   max.jobs (8) running at once, jobs (20), arrival.ms (20000),
+ *   stages (200,40,4;40,8;8) - vertices per stage of each job shape, shapes
+ *     separated by ';' and picked at random,
+ *   runtime (lognormal) - constant, uniform, exp or lognormal,
+ *   runtime.ms (10000) mean vertex run time,
+ *   failure.rate (0) - fraction of vertex attempts that fail,
+ *   server.failures (0) - VertexServers dying at random during the run,
+ *   liveness.ms (30000), max.attempts (4), policy (fair) or fifo,
+ *   seed (1), verbose (false) to print each job's latency
+ */
+public class SchedulerSimulator {
+
+	private static final int ARRIVAL = 0;
+	private static final int HEARTBEAT = 1;
+	private static final int FINISH = 2;
+	private static final int SERVER_DEATH = 3;
+	private static final int LIVENESS_CHECK = 4;
+	private static final String[] EVENT_NAMES = {"arrival", "heartbeat", "finish", "server death", "liveness check"};
+
+	private static class Event implements Comparable<Event> {
+		final long time;
+		final long seq;
+		final int type;
+		final SimServer server;
+		final Object payload;
+
+		Event(long time, long seq, int type, SimServer server, Object payload){
+			this.time = time;
+			this.seq = seq;
+			this.type = type;
+			this.server = server;
+			this.payload = payload;
+		}
+
+		@Override
+		public int compareTo(Event other) {
+			if(time != other.time){
+				return time < other.time ? -1 : 1;
+			}
+			return seq < other.seq ? -1 : (seq == other.seq ? 0 : 1);
+		}
+	}
+
+	private static class SimServer {
+		final VertexServerInfo info = new VertexServerInfo();
+		final int threads;
+		int running;
+		boolean alive = true;
+		long diedAt = -1;
+		List<VertexCompletion> pending = new ArrayList<VertexCompletion>();
+		// vertices running -> when they started (for the slot time of those lost)
+		HashMap<VertexDescriptor, Long> startedAt = new HashMap<VertexDescriptor, Long>();
+
+		SimServer(String id, int threads){
+			info.setId(id);
+			this.threads = threads;
+		}
+	}
+
+	private final Map<String, String> config;
+	private final Random random;
+	private final PriorityQueue<Event> events = new PriorityQueue<Event>();
+	private long nextSeq;
+	private long now;
+
+	private JobManager jobMgr;
+	private final List<SimServer> servers = new ArrayList<SimServer>();
+	// input dir -> splits of the job's first stage
+	private final HashMap<String, Integer> inputSplits = new HashMap<String, Integer>();
+	private final LinkedHashMap<String, Long> arrivedAt = new LinkedHashMap<String, Long>();
+	private final LinkedHashMap<String, Long> latencies = new LinkedHashMap<String, Long>();
+
+	private long busySlotMs;
+	private int verticesRun;
+	private int verticesFailed;
+	private final long[] eventCounts = new long[EVENT_NAMES.length];
+	private final long[] eventCpuNs = new long[EVENT_NAMES.length];
+	private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> config = new HashMap<String, String>();
+		for(String arg : args){
+			int eq = arg.indexOf('=');
+			if(eq < 0){
+				System.err.println("Expected name=value, got " + arg);
+				System.exit(1);
+			}
+			config.put(arg.substring(0, eq).trim(), arg.substring(eq + 1).trim());
+		}
+		Logger.getLogger(JobManager.class.getName()).setLevel(Level.SEVERE);
+		new SchedulerSimulator(config).run();
+	}
+
+	SchedulerSimulator(Map<String, String> config){
+		this.config = config;
+		this.random = new Random(getLong("seed", 1));
+	}
+
+	private String get(String name, String defaultValue){
+		String value = config.get(name);
+		return value == null ? defaultValue : value;
+	}
+
+	private long getLong(String name, long defaultValue){
+		return Long.parseLong(get(name, Long.toString(defaultValue)));
+	}
+
+	private double getDouble(String name, double defaultValue){
+		return Double.parseDouble(get(name, Double.toString(defaultValue)));
+	}
+
+	void run() throws Exception {
+		int numServers = (int)getLong("servers", 16);
+		int threads = (int)getLong("threads", 4);
+		long heartbeatMs = getLong("heartbeat.ms", 5000);
+		int jobs = (int)getLong("jobs", 20);
+		long arrivalMs = getLong("arrival.ms", 20000);
+		long livenessMs = getLong("liveness.ms", 30000);
+		int serverFailures = (int)getLong("server.failures", 0);
+		String[] shapes = get("stages", "200,40,4;40,8;8").split(";");
+
+		jobMgr = new JobManager((int)getLong("max.jobs", 8), hdfs(), 1);
+		jobMgr.setSchedulingPolicy(FairShareVertexQueue.Policy.valueOf(get("policy", "fair").toUpperCase()));
+		jobMgr.setVertexRetries((int)getLong("max.attempts", 4), 0);
+		// deaths are simulated by backdating the last heartbeat - the wall clock
+		// never gets this far
+		jobMgr.setLivenessTimeoutMs(24 * 3600 * 1000L);
+
+		for(int i = 0; i < numServers; i++){
+			SimServer server = new SimServer("vs" + i, threads);
+			servers.add(server);
+			// spread the heartbeats over the interval
+			schedule((long)(random.nextDouble() * heartbeatMs), HEARTBEAT, server, null);
+		}
+		long arrival = 0;
+		for(int i = 0; i < jobs; i++){
+			schedule(arrival, ARRIVAL, null, shapes[random.nextInt(shapes.length)]);
+			arrival += (long)(-Math.log(1 - random.nextDouble()) * arrivalMs);
+		}
+		long lastArrival = arrival;
+		for(int i = 0; i < serverFailures && i < numServers; i++){
+			schedule((long)(random.nextDouble() * Math.max(lastArrival, arrivalMs)), SERVER_DEATH,
+					servers.get(random.nextInt(numServers)), null);
+		}
+
+		System.out.println("servers=" + numServers + " threads=" + threads + " heartbeat.ms=" + heartbeatMs +
+				" max.jobs=" + get("max.jobs", "8") + " jobs=" + jobs + " arrival.ms=" + arrivalMs +
+				" stages=" + get("stages", "200,40,4;40,8;8") + " runtime=" + get("runtime", "lognormal") +
+				" runtime.ms=" + get("runtime.ms", "10000") + " failure.rate=" + get("failure.rate", "0") +
+				" server.failures=" + serverFailures + " policy=" + get("policy", "fair"));
+
+		int jobNumber = 0;
+		while(latencies.size() < jobs && ! events.isEmpty()){
+			Event event = events.poll();
+			now = event.time;
+			switch(event.type){
+			case ARRIVAL:
+				arrive("job" + jobNumber++, (String)event.payload);
+				break;
+			case HEARTBEAT:
+				if(event.server.alive){
+					heartbeat(event.server);
+					schedule(now + heartbeatMs, HEARTBEAT, event.server, null);
+				}
+				break;
+			case FINISH:
+				finish(event.server, (VertexCompletion)event.payload);
+				break;
+			case SERVER_DEATH:
+				die(event.server);
+				schedule(now + livenessMs, LIVENESS_CHECK, event.server, null);
+				break;
+			case LIVENESS_CHECK:
+				// the JobManager hasn't heard from the server for livenessMs
+				jobMgr.vertexServersLastSeen.put(event.server.info.getId(), System.currentTimeMillis() - 48 * 3600 * 1000L);
+				long start = cpuTime();
+				jobMgr.removeDeadVertexServers();
+				count(LIVENESS_CHECK, start);
+				break;
+			}
+		}
+		report(jobs, numServers);
+	}
+
+	private void schedule(long time, int type, SimServer server, Object payload){
+		events.add(new Event(time, nextSeq++, type, server, payload));
+	}
+
+	private long cpuTime(){
+		return threadBean.isCurrentThreadCpuTimeSupported() ? threadBean.getCurrentThreadCpuTime() : System.nanoTime();
+	}
+
+	private void count(int type, long startCpu){
+		eventCounts[type]++;
+		eventCpuNs[type] += cpuTime() - startCpu;
+	}
+
+	private void arrive(String jobId, String shape){
+		String[] counts = shape.split(",");
+		JobDescriptor jDesc = getJobDescriptor(jobId, counts);
+		inputSplits.put("/input/" + jobId, Integer.parseInt(counts[0].trim()));
+		arrivedAt.put(jobId, now);
+		long start = cpuTime();
+		jobMgr.addNewJobFromClient(jDesc);
+		count(ARRIVAL, start);
+	}
+
+	private void heartbeat(SimServer server){
+		List<VertexCompletion> completions = server.pending;
+		server.pending = new ArrayList<VertexCompletion>();
+		server.info.setAvailableThreads(server.threads - server.running);
+		long start = cpuTime();
+		List<VertexDescriptor> assigned = jobMgr.processHeartbeat(server.info, completions, null);
+		count(HEARTBEAT, start);
+
+		double failureRate = getDouble("failure.rate", 0);
+		for(VertexDescriptor vertex : assigned){
+			long runMs = runTime();
+			server.running++;
+			server.startedAt.put(vertex, now);
+			VertexCompletion completion = getCompletion(vertex, random.nextDouble() >= failureRate);
+			schedule(now + runMs, FINISH, server, completion);
+		}
+
+		// jobs may have finished with these completions
+		for(VertexCompletion completion : completions){
+			String jobId = completion.getJobId();
+			if(latencies.containsKey(jobId)){
+				continue;
+			}
+			JobStatus status = jobMgr.jobStatusQuery(jobId);
+			if(status == null || status.getExecutionFinished()){
+				latencies.put(jobId, now - arrivedAt.get(jobId));
+			}
+		}
+	}
+
+	private void finish(SimServer server, VertexCompletion completion){
+		if(! server.alive){
+			// died with the server
+			return;
+		}
+		VertexDescriptor key = new VertexDescriptor();
+		key.setJobId(completion.getJobId());
+		key.setStageNumber(completion.getStageNumber());
+		key.setVertexNumber(completion.getVertexNumber());
+		key.setAttempt(completion.getAttempt());
+		Long started = server.startedAt.remove(key);
+		busySlotMs += started == null ? 0 : now - started;
+		server.running--;
+		verticesRun++;
+		if(! completion.getExecutionSuccessful()){
+			verticesFailed++;
+		}
+		server.pending.add(completion);
+	}
+
+	private void die(SimServer server){
+		if(! server.alive){
+			return;
+		}
+		server.alive = false;
+		server.diedAt = now;
+		for(Long started : server.startedAt.values()){
+			busySlotMs += now - started;
+		}
+		server.startedAt.clear();
+	}
+
+	/**
+	 * A vertex run time drawn from the configured distribution
+	 */
+	private long runTime(){
+		double mean = getDouble("runtime.ms", 10000);
+		String distribution = get("runtime", "lognormal");
+		double runMs;
+		if(distribution.equals("constant")){
+			runMs = mean;
+		}else if(distribution.equals("uniform")){
+			runMs = mean * (0.5 + random.nextDouble());
+		}else if(distribution.equals("exp")){
+			runMs = -Math.log(1 - random.nextDouble()) * mean;
+		}else if(distribution.equals("lognormal")){
+			// sigma 1 - a long tail of stragglers
+			runMs = Math.exp(Math.log(mean) - 0.5 + random.nextGaussian());
+		}else{
+			throw new IllegalArgumentException("Unknown run time distribution " + distribution);
+		}
+		return Math.max(1, (long)runMs);
+	}
+
+	private void report(int jobs, int numServers){
+		long makespan = now;
+		long slotMs = 0;
+		for(SimServer server : servers){
+			slotMs += (long)server.threads * (server.diedAt >= 0 ? server.diedAt : makespan);
+		}
+		List<Long> sorted = new ArrayList<Long>(latencies.values());
+		Collections.sort(sorted);
+
+		System.out.println(String.format("makespan %.1f s, %d of %d jobs finished, slot utilization %.1f%%",
+				makespan / 1000.0, latencies.size(), jobs, slotMs == 0 ? 0 : 100.0 * busySlotMs / slotMs));
+		if(! sorted.isEmpty()){
+			System.out.println(String.format("job latency s: p50=%.1f p90=%.1f max=%.1f",
+					sorted.get(sorted.size() / 2) / 1000.0, sorted.get(sorted.size() * 9 / 10) / 1000.0,
+					sorted.get(sorted.size() - 1) / 1000.0));
+		}
+		System.out.println("vertex attempts run " + verticesRun + ", failed " + verticesFailed);
+		for(int type = 0; type < EVENT_NAMES.length; type++){
+			if(eventCounts[type] > 0 && eventCpuNs[type] > 0){
+				System.out.println(String.format("scheduler CPU per %s: %.1f us (%d events)", EVENT_NAMES[type],
+						eventCpuNs[type] / 1000.0 / eventCounts[type], eventCounts[type]));
+			}
+		}
+		if(Boolean.parseBoolean(get("verbose", "false"))){
+			for(Map.Entry<String, Long> latency : latencies.entrySet()){
+				System.out.println(String.format("%s %.1f s", latency.getKey(), latency.getValue() / 1000.0));
+			}
+		}
+	}
+
+	/**
+	 * HDFS splitting a job's input dir into its first stage's vertex count
+	 */
+	private HdfsUtils hdfs() throws Exception {
+		HdfsUtils hdfs = EasyMock.createNiceMock(HdfsUtils.class);
+		hdfs.planFileSplits(EasyMock.anyObject(String.class), EasyMock.anyInt(), EasyMock.anyInt(),
+				EasyMock.anyObject(SplitBatchListener.class));
+		EasyMock.expectLastCall().andAnswer(new IAnswer<Object>(){
+			public Object answer(){
+				String dir = (String)EasyMock.getCurrentArguments()[0];
+				List<HdfsFileSplit> splits = new ArrayList<HdfsFileSplit>();
+				for(int i = 0; i < inputSplits.get(dir); i++){
+					splits.add(new HdfsFileSplit(dir + "/file" + i, 0, 10));
+				}
+				((SplitBatchListener)EasyMock.getCurrentArguments()[3]).splitsPlanned(splits);
+				return null;
+			}
+		}).anyTimes();
+		// output on HDFS outlives the VertexServer that wrote it
+		EasyMock.expect(hdfs.hdfsFileExists(EasyMock.anyObject(String.class))).andReturn(true).anyTimes();
+		EasyMock.replay(hdfs);
+		return hdfs;
+	}
+
+	/**
+	 * Completion writing a file for each vertex of the next stage (or the
+	 * job's output)
+	 */
+	private static VertexCompletion getCompletion(VertexDescriptor vertex, boolean successful){
+		VertexCompletion completion = new VertexCompletion(vertex);
+		completion.setExecutionSuccessful(successful);
+		if(! successful){
+			return completion;
+		}
+		HashMap<Integer, List<String>> outputMap = new HashMap<Integer, List<String>>();
+		String prefix = "out_" + vertex.getJobId() + "_" + vertex.getStageNumber() + "_" + vertex.getVertexNumber() +
+			"_" + vertex.getAttempt();
+		if(vertex.getNumVerticesNextStage() == null){
+			ArrayList<String> files = new ArrayList<String>();
+			files.add(prefix);
+			outputMap.put(null, files);
+		}else{
+			for(int next = 0; next < vertex.getNumVerticesNextStage(); next++){
+				ArrayList<String> files = new ArrayList<String>();
+				files.add(prefix + "_" + next);
+				outputMap.put(next, files);
+			}
+		}
+		VertexOutput output = new VertexOutput();
+		output.setOutputMap(outputMap);
+		completion.setOutput(output);
+		return completion;
+	}
+
+	private static JobDescriptor getJobDescriptor(String jobId, String[] stageVertices){
+		final String inputPath = "/input/" + jobId;
+		JobDescriptor jDesc = new JobDescriptor();
+		JobSpecification jSpec = new JobSpecification(){
+			{
+				this.inputDataPath = inputPath;
+				this.outputDataPath = "/output/path";
+				this.vertexStages = new ArrayList<VertexStage>();
+			}
+		};
+		for(int i = 0; i < stageVertices.length; i++){
+			VertexStage stage = new VertexStage();
+			stage.setVertex(SimulatedVertex.class);
+			// the first stage gets a vertex per input split
+			stage.setNumVertices(i == 0 ? 0 : Integer.parseInt(stageVertices[i].trim()));
+			jSpec.getVertexStages().add(stage);
+		}
+
+		jDesc.setJobId(jobId);
+		jDesc.setHdfsJarPath("/path/job.jar");
+		jDesc.setJobSpecification(jSpec);
+		return jDesc;
+	}
+
+	private static class SimulatedVertex extends Vertex{
+		@Override
+		public void run(VertexContext context) {
+		}
+	}
+}
@@ -0,0 +1,353 @@
+package edu.colorado.eyore.jserver;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import edu.colorado.eyore.common.net.MessageFrame;
+import edu.colorado.eyore.common.net.MessageObjectUtil;
+import edu.colorado.eyore.common.vertex.VertexDescriptor;
+import edu.colorado.eyore.common.vertex.VertexHeartbeat;
+import edu.colorado.eyore.common.vertex.VertexHeartbeatResponse;
+import edu.colorado.eyore.common.vertex.VertexServerInfo;
+
+/**
+ * Unit testing for pushing vertices to waiting work requests
+ */
+public class VertexDispatcherTest {
+
+	/**
+	 * Hands out vertices added by the test
+	 */
+	private static class StubJobManager extends JobManager{
+		ArrayDeque<VertexDescriptor> available = new ArrayDeque<VertexDescriptor>();
+
+		StubJobManager(){
+			super(1, null, 1);
+		}
+
+		@Override
+		public synchronized List<VertexDescriptor> assignVerticesToServer(VertexServerInfo vserver){
+			List<VertexDescriptor> assigned = new ArrayList<VertexDescriptor>();
+			while(assigned.size() < vserver.getAvailableThreads() && ! available.isEmpty()){
+				VertexDescriptor v = available.remove();
+				v.setVertexServerAssignment(vserver.getId());
+				assigned.add(v);
+			}
+			return assigned;
+		}
+
+		@Override
+		public synchronized void requeueUndelivered(List<VertexDescriptor> vertices){
+			for(int i = vertices.size() - 1; i >= 0; i--){
+				vertices.get(i).setVertexServerAssignment(null);
+				available.addFirst(vertices.get(i));
+			}
+		}
+	}
+
+	private static class TestResponse extends PendingResponse{
+		CountDownLatch delivered = new CountDownLatch(1);
+		byte[] bytes;
+
+		@Override
+		protected void deliver(byte[] response, boolean closeAfterResponse) {
+			Assert.assertFalse(closeAfterResponse);
+			bytes = response;
+			delivered.countDown();
+		}
+
+		List<VertexDescriptor> awaitVertices() throws InterruptedException, IOException{
+			Assert.assertTrue("no response", delivered.await(5, TimeUnit.SECONDS));
+			String message = MessageFrame.read(new ByteArrayInputStream(bytes)).toMessage();
+			Assert.assertTrue(message.startsWith("OK VERTEX:"));
+			VertexHeartbeatResponse vhbr = MessageObjectUtil.stringToObject(
+					message.replaceFirst("OK VERTEX:", ""));
+			return vhbr.getVertexDescriptor();
+		}
+	}
+
+	private static MessageFrame workRequest(String uid, int threads){
+		return workRequest(uid, threads, 0);
+	}
+
+	private static MessageFrame workRequest(String uid, int threads, int number){
+		VertexHeartbeat request = new VertexHeartbeat();
+		request.setUid(uid);
+		request.setNumThreads(threads);
+		request.setWorkRequest(number);
+		request.setVertexDescriptor(new ArrayList<VertexDescriptor>());
+		return MessageFrame.fromMessage("VERTEX REQUEST WORK:" + MessageObjectUtil.objectToString(request));
+	}
+
+	private static VertexDescriptor vertex(int index){
+		VertexDescriptor v = new VertexDescriptor();
+		v.setJobId("1");
+		v.setStageNumber(0);
+		v.setVertexNumber(index);
+		return v;
+	}
+
+	@Test
+	public void testRequestAnsweredWhenVerticesAllocatable() throws Exception{
+		StubJobManager jobMgr = new StubJobManager();
+		VertexDispatcher dispatcher = new VertexDispatcher(jobMgr, 60000);
+		dispatcher.start();
+
+		TestResponse response = new TestResponse();
+		dispatcher.requestWork(workRequest("vs1", 2), response);
+
+		// nothing to assign - request waits
+		Thread.sleep(100);
+		Assert.assertFalse(response.isCompleted());
+		Assert.assertEquals(1, dispatcher.getWaitingRequests());
+
+		synchronized(jobMgr){
+			jobMgr.available.add(vertex(0));
+			jobMgr.available.add(vertex(1));
+			jobMgr.available.add(vertex(2));
+		}
+		dispatcher.verticesAllocatable();
+
+		List<VertexDescriptor> assigned = response.awaitVertices();
+		Assert.assertEquals(2, assigned.size());
+		Assert.assertEquals("vs1", assigned.get(0).getVertexServerAssignment());
+		Assert.assertEquals(0, dispatcher.getWaitingRequests());
+
+		// remaining vertex goes straight to the next request
+		TestResponse response2 = new TestResponse();
+		dispatcher.requestWork(workRequest("vs2", 2), response2);
+		assigned = response2.awaitVertices();
+		Assert.assertEquals(1, assigned.size());
+		Assert.assertEquals(2, assigned.get(0).getVertexNumber());
+	}
+
+	@Test
+	public void testRequestTimesOut() throws Exception{
+		VertexDispatcher dispatcher = new VertexDispatcher(new StubJobManager(), 100);
+		dispatcher.start();
+
+		TestResponse response = new TestResponse();
+		long start = System.currentTimeMillis();
+		dispatcher.requestWork(workRequest("vs1", 1), response);
+		Assert.assertTrue(response.awaitVertices().isEmpty());
+		Assert.assertTrue(System.currentTimeMillis() - start >= 100);
+	}
+
+	@Test
+	public void testFreedThreadsAddedToWaitingRequest() throws Exception{
+		StubJobManager jobMgr = new StubJobManager();
+		VertexDispatcher dispatcher = new VertexDispatcher(jobMgr, 60000);
+		dispatcher.start();
+
+		TestResponse response = new TestResponse();
+		dispatcher.requestWork(workRequest("vs1", 1), response);
+		// heartbeat from another server or with no freed threads changes nothing
+		dispatcher.addAvailableThreads("vs2", 5);
+		dispatcher.addAvailableThreads("vs1", 0);
+		// a completion report from vs1 freed 2 more threads
+		dispatcher.addAvailableThreads("vs1", 2);
+
+		synchronized(jobMgr){
+			for(int i = 0; i < 5; i++){
+				jobMgr.available.add(vertex(i));
+			}
+		}
+		dispatcher.verticesAllocatable();
+		Assert.assertEquals(3, response.awaitVertices().size());
+
+		// request was answered - threads freed now wait for the next request
+		dispatcher.addAvailableThreads("vs1", 2);
+		Thread.sleep(50);
+		synchronized(jobMgr){
+			Assert.assertEquals(2, jobMgr.available.size());
+		}
+	}
+
+	@Test
+	public void testNewRequestReplacesOld() throws Exception{
+		VertexDispatcher dispatcher = new VertexDispatcher(new StubJobManager(), 60000);
+		dispatcher.start();
+
+		TestResponse first = new TestResponse();
+		dispatcher.requestWork(workRequest("vs1", 1), first);
+		TestResponse second = new TestResponse();
+		dispatcher.requestWork(workRequest("vs1", 1), second);
+
+		Assert.assertTrue(first.awaitVertices().isEmpty());
+		Thread.sleep(50);
+		Assert.assertFalse(second.isCompleted());
+		Assert.assertEquals(1, dispatcher.getWaitingRequests());
+	}
+
+	/**
+	 * Vertices assigned to a request replaced while they were being assigned
+	 * are handed back to the JobManager and go to the new request
+	 */
+	@Test
+	public void testRequestReplacedWhileAssigning() throws Exception{
+		final CountDownLatch assigning = new CountDownLatch(1);
+		final CountDownLatch replaced = new CountDownLatch(1);
+		StubJobManager jobMgr = new StubJobManager(){
+			@Override
+			public List<VertexDescriptor> assignVerticesToServer(VertexServerInfo vserver){
+				List<VertexDescriptor> assigned = super.assignVerticesToServer(vserver);
+				if(! assigned.isEmpty() && assigning.getCount() > 0){
+					assigning.countDown();
+					try{
+						replaced.await(5, TimeUnit.SECONDS);
+					}catch(InterruptedException e){
+						Thread.currentThread().interrupt();
+					}
+				}
+				return assigned;
+			}
+		};
+		synchronized(jobMgr){
+			jobMgr.available.add(vertex(0));
+			jobMgr.available.add(vertex(1));
+		}
+		VertexDispatcher dispatcher = new VertexDispatcher(jobMgr, 60000);
+		dispatcher.start();
+
+		TestResponse first = new TestResponse();
+		dispatcher.requestWork(workRequest("vs1", 2), first);
+		Assert.assertTrue(assigning.await(5, TimeUnit.SECONDS));
+		TestResponse second = new TestResponse();
+		dispatcher.requestWork(workRequest("vs1", 2), second);
+		replaced.countDown();
+
+		Assert.assertTrue(first.awaitVertices().isEmpty());
+		List<VertexDescriptor> assigned = second.awaitVertices();
+		Assert.assertEquals(2, assigned.size());
+		Assert.assertEquals(0, assigned.get(0).getVertexNumber());
+		Assert.assertEquals(1, assigned.get(1).getVertexNumber());
+	}
+
+	/**
+	 * Threads a heartbeat offers to a work request answered before it arrived
+	 * are offered by the next request already - they aren't added to it
+	 */
+	@Test
+	public void testThreadsOfferedToAnsweredRequestIgnored() throws Exception{
+		StubJobManager jobMgr = new StubJobManager();
+		synchronized(jobMgr){
+			jobMgr.available.add(vertex(0));
+		}
+		VertexDispatcher dispatcher = new VertexDispatcher(jobMgr, 60000);
+		dispatcher.start();
+
+		TestResponse first = new TestResponse();
+		dispatcher.requestWork(workRequest("vs1", 1, 1), first);
+		Assert.assertEquals(1, first.awaitVertices().size());
+		// the next request offers the thread a completion report in flight
+		// offers to the first one as well
+		TestResponse second = new TestResponse();
+		dispatcher.requestWork(workRequest("vs1", 2, 2), second);
+		VertexHeartbeat late = new VertexHeartbeat();
+		late.setUid("vs1");
+		late.setNumThreads(1);
+		late.setWorkRequest(1);
+		dispatcher.heartbeatReceived(late);
+		VertexHeartbeat report = new VertexHeartbeat();
+		report.setUid("vs1");
+		report.setNumThreads(1);
+		report.setWorkRequest(2);
+		dispatcher.heartbeatReceived(report);
+
+		synchronized(jobMgr){
+			for(int i = 1; i < 6; i++){
+				jobMgr.available.add(vertex(i));
+			}
+		}
+		dispatcher.verticesAllocatable();
+		Assert.assertEquals(3, second.awaitVertices().size());
+	}
+
+	/**
+	 * Vertices whose response couldn't be written are handed back to the
+	 * JobManager
+	 */
+	@Test
+	public void testUndeliveredVerticesRequeued() throws Exception{
+		StubJobManager jobMgr = new StubJobManager();
+		synchronized(jobMgr){
+			jobMgr.available.add(vertex(0));
+			jobMgr.available.add(vertex(1));
+		}
+		VertexDispatcher dispatcher = new VertexDispatcher(jobMgr, 60000);
+		dispatcher.start();
+
+		TestResponse response = new TestResponse();
+		dispatcher.requestWork(workRequest("vs1", 2), response);
+		Assert.assertEquals(2, response.awaitVertices().size());
+		synchronized(jobMgr){
+			Assert.assertTrue(jobMgr.available.isEmpty());
+		}
+		// the write to the VertexServer fails
+		response.deliveryFailed();
+		synchronized(jobMgr){
+			Assert.assertEquals(2, jobMgr.available.size());
+			Assert.assertNull(jobMgr.available.peek().getVertexServerAssignment());
+		}
+	}
+
+	/**
+	 * A VertexServer that disconnects while its work request is held gets no
+	 * vertices - they go to the next request
+	 */
+	@Test
+	public void testClientDisconnectsMidPoll() throws Exception{
+		StubJobManager jobMgr = new StubJobManager();
+		final VertexDispatcher dispatcher = new VertexDispatcher(jobMgr, 60000);
+		dispatcher.start();
+		RequestEventLoop eventLoop = new RequestEventLoop(0, 1, 60000, new RequestHandler(){
+			@Override
+			public void handleRequest(MessageFrame request, PendingResponse response) throws IOException {
+				dispatcher.requestWork(request, response);
+			}
+		});
+		Thread loopThread = new Thread(eventLoop);
+		loopThread.start();
+		try{
+			Socket socket = new Socket("localhost", eventLoop.getLocalPort());
+			OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+			workRequest("vs1", 2).write(out);
+			for(int i = 0; i < 100 && dispatcher.getWaitingRequests() == 0; i++){
+				Thread.sleep(20);
+			}
+			Assert.assertEquals(1, dispatcher.getWaitingRequests());
+			socket.close();
+			for(int i = 0; i < 100 && dispatcher.getWaitingRequests() > 0; i++){
+				Thread.sleep(20);
+			}
+			Assert.assertEquals(0, dispatcher.getWaitingRequests());
+
+			synchronized(jobMgr){
+				jobMgr.available.add(vertex(0));
+			}
+			dispatcher.verticesAllocatable();
+			Thread.sleep(50);
+			synchronized(jobMgr){
+				Assert.assertEquals(1, jobMgr.available.size());
+			}
+			TestResponse next = new TestResponse();
+			dispatcher.requestWork(workRequest("vs1", 2), next);
+			Assert.assertEquals(1, next.awaitVertices().size());
+		}finally{
+			eventLoop.close();
+			loopThread.join(5000);
+		}
+	}
+}
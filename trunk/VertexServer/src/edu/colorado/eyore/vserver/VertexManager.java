@@ -2,35 +2,150 @@ package edu.colorado.eyore.vserver;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 
+import edu.colorado.eyore.common.vertex.VertexCompletion;
 import edu.colorado.eyore.common.vertex.VertexDescriptor;
+import edu.colorado.eyore.common.vertex.VertexHeartbeat;
 
+/**
+ * Tracks the VertexServer's threads and the vertices that finished executing.
+ *
+ * Free threads are offered to the JobServer by at most one work request at a time.
+ * Threads freed while that request is outstanding are offered by the next
+ * completion report (takeThreadsToOffer) - the JobServer adds them to the
+ * waiting request - so a thread is never offered twice.  Work requests are
+ * numbered and a report names the request its threads are added to: a report
+ * reaching the JobServer after that request was answered (and the threads
+ * offered again by the next one) is ignored there.
+ *
+ * The VertexThreads of vertices not yet finished are kept so that vertices the
+ * JobServer preempts can be stopped.
+ */
 public class VertexManager {
-	
+
 	int availThreads;
 	int threadsOccupied;
-	
+
+	// threads offered to the JobServer by the outstanding work request
+	int threadsOffered = 0;
+	boolean workRequestOutstanding = false;
+	// number of the latest work request
+	int workRequest = 0;
+
 	public VertexManager(int availableThreads){
 		this.availThreads = availableThreads;
 		threadsOccupied = 0;
 	}
-	
+
 	synchronized public int getAvailableThreads(){
 		int ret = availThreads - threadsOccupied;
 		if(ret < 0){
 			return 0;
 		}return ret;
 	}
+	/**
+	 * @return number of vertices executing (assigned and not finished)
+	 */
+	synchronized public int getRunningVertices(){
+		return threadsOccupied;
+	}
 	synchronized public void decrementAvailableThreads(){
 		threadsOccupied ++;
 	}
 	synchronized private void freeThread(){
 		threadsOccupied--;
+		notifyAll();
+	}
+
+	/**
+	 * Blocks until no work request is outstanding and there are threads that
+	 * haven't been offered, then marks them offered by a new work request
+	 * @return the number of threads to offer
+	 */
+	synchronized public int waitToOfferThreads() throws InterruptedException{
+		while(workRequestOutstanding || getAvailableThreads() == 0){
+			wait();
+		}
+		workRequestOutstanding = true;
+		workRequest++;
+		threadsOffered = getAvailableThreads();
+		return threadsOffered;
+	}
+
+	/**
+	 * @return number of the work request waitToOfferThreads last marked threads
+	 * offered by
+	 */
+	synchronized public int getWorkRequest(){
+		return workRequest;
+	}
+
+	/**
+	 * The JobServer answered the outstanding work request
+	 * @param numAssigned - vertices assigned (each occupies a thread)
+	 */
+	synchronized public void workRequestAnswered(int numAssigned){
+		threadsOccupied += numAssigned;
+		threadsOffered = 0;
+		workRequestOutstanding = false;
+		notifyAll();
+	}
+
+	/**
+	 * Called by a completion report - free threads not yet offered are added to
+	 * the outstanding work request.  Sets the report's number of threads to
+	 * offer (0 if no work request is outstanding - the next work request will
+	 * offer them) and the work request they are offered to
+	 */
+	synchronized public void takeThreadsToOffer(VertexHeartbeat report){
+		report.setWorkRequest(workRequest);
+		report.setNumThreads(0);
+		if(! workRequestOutstanding){
+			return;
+		}
+		int toOffer = getAvailableThreads() - threadsOffered;
+		if(toOffer <= 0){
+			return;
+		}
+		threadsOffered += toOffer;
+		report.setNumThreads(toOffer);
+	}
+
+	protected ArrayDeque<VertexCompletion> compVertices = new ArrayDeque<VertexCompletion>();
+
+	// attempt ("jobId/stage/vertex/attempt") -> its thread, until it finishes
+	protected HashMap<String, VertexThread> running = new HashMap<String, VertexThread>();
+
+	private static String attemptKey(VertexDescriptor v){
+		return v.getJobId() + "/" + v.getStageNumber() + "/" + v.getVertexNumber() + "/" + v.getAttempt();
+	}
+
+	/**
+	 * Call when a vertex's thread is submitted for execution
+	 */
+	public synchronized void vertexStarted(VertexDescriptor vDescriptor, VertexThread thread) {
+		running.put(attemptKey(vDescriptor), thread);
+	}
+
+	/**
+	 * Stops an attempt the JobServer preempted - it is reported as failed once
+	 * it has stopped
+	 * @return false if the attempt is not running (finished already)
+	 */
+	public boolean stopVertex(VertexDescriptor vDescriptor) {
+		VertexThread thread;
+		synchronized(this){
+			thread = running.get(attemptKey(vDescriptor));
+		}
+		if(thread == null){
+			return false;
+		}
+		thread.preempt();
+		return true;
 	}
-	
-	protected ArrayDeque<VertexDescriptor> compVertices = new ArrayDeque<VertexDescriptor>();
-	
+
 	/**
 	 * Call to report vertex as completed successfully
 	 * @param vDescriptor
@@ -38,10 +153,11 @@ public class VertexManager {
 	public synchronized void finishSuccessVertex(VertexDescriptor vDescriptor) {
 		vDescriptor.setExecutionFinished(true);
 		vDescriptor.setExecutionSuccessful(true);
-		compVertices.add(vDescriptor);
+		running.remove(attemptKey(vDescriptor));
+		compVertices.add(new VertexCompletion(vDescriptor));
 		freeThread();
 	}
-	
+
 	/**
 	 * Call to report vertex as failed
 	 * @param vDescriptor
@@ -49,20 +165,35 @@ public class VertexManager {
 	public synchronized void finishFailedVertex(VertexDescriptor vDescriptor){
 		vDescriptor.setExecutionFinished(true);
 		vDescriptor.setExecutionSuccessful(false);
-		compVertices.add(vDescriptor);
+		running.remove(attemptKey(vDescriptor));
+		compVertices.add(new VertexCompletion(vDescriptor));
 		freeThread();
 	}
-	
-	public synchronized List<VertexDescriptor> getCompVertex() {
-		ArrayList<VertexDescriptor> compVertices = new ArrayList<VertexDescriptor>();
-		
-		// For now just assign the next available vertices up to available/3
-		// - may need to tune later
-		for(int i = 0; i < this.compVertices.size(); i++) {
-			VertexDescriptor vDescriptor = this.compVertices.remove();
-			compVertices.add(vDescriptor);
-		}
-		
+
+	/**
+	 * Removes & returns all vertices that finished since the last call
+	 */
+	public synchronized List<VertexCompletion> getCompVertex() {
+		ArrayList<VertexCompletion> compVertices = new ArrayList<VertexCompletion>(this.compVertices);
+		this.compVertices.clear();
 		return compVertices;
 	}
+
+	/**
+	 * Puts back completed vertices that could not be reported
+	 */
+	public synchronized void returnCompVertex(List<VertexCompletion> vertices) {
+		for(int i = vertices.size() - 1; i >= 0; i--){
+			this.compVertices.addFirst(vertices.get(i));
+		}
+	}
+
+	/**
+	 * Blocks until there are completed vertices to report
+	 */
+	public synchronized void waitForCompVertex() throws InterruptedException {
+		while(compVertices.isEmpty()){
+			wait();
+		}
+	}
 }
@@ -3,7 +3,10 @@ package edu.colorado.eyore.vserver;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
 import java.util.Properties;
@@ -17,6 +20,8 @@ import java.util.logging.LogManager;
 import java.util.logging.Logger;
 
 import edu.colorado.eyore.common.hdfs.HdfsUtils;
+import edu.colorado.eyore.common.net.ConnectionPool;
+import edu.colorado.eyore.common.net.MessageObjectUtil;
 import edu.colorado.eyore.common.net.RequestResponseUtil;
 import edu.colorado.eyore.common.vertex.VertexDescriptor;
 import edu.colorado.eyore.common.vertex.VertexHeartbeat;
@@ -32,10 +37,17 @@ public class VertexServer {
 	
 	private UUID uid = UUID.randomUUID();
 	
+	// Host name reported to the JobServer - matched against the DataNodes
+	// storing vertices' input.
+	protected String hostname;
+	
 	// JobServer address and port.
 	protected String jobServerAddr;
 	protected int jobServerPort;
 	
+	// Connections to the JobServer kept open between heartbeats.
+	protected ConnectionPool jobServerConnections;
+	
 	// ExecutorService for VertexThread(s).
 	protected ExecutorService execSrv;
 	protected int numThreads;
@@ -44,6 +56,13 @@ public class VertexServer {
 	
 	protected VertexManager vManager;
 	
+	// Minimum time between two completion reports - completions in between are
+	// sent together.
+	protected long completionReportMinGapMs;
+	
+	// Heartbeats are sent one at a time (timer and completion reports).
+	private final Object heartbeatLock = new Object();
+	
 	/**
 	 * VertexServer constructor initializes the JobServer address and port.
 	 * @param jobServerAddr Address of the JobServer
@@ -55,6 +74,11 @@ public class VertexServer {
 		this.jobServerPort = Integer.parseInt(props.getProperty("jobserver.port"));
 		this.numThreads = Integer.parseInt(props.getProperty("threads"));
 		this.execSrv = Executors.newFixedThreadPool(numThreads);
+		this.completionReportMinGapMs = Long.parseLong(
+				props.getProperty("completion.report.min.gap.ms", "20"));
+		
+		MessageObjectUtil.configure(props);
+		this.jobServerConnections = new ConnectionPool(jobServerAddr, jobServerPort, props);
 		
 		try{
 			hdfs = new HdfsUtils(props.getProperty("namenode.address"), 
@@ -64,45 +88,49 @@ public class VertexServer {
 			throw new RuntimeException(e);
 		}
 		 vManager = new VertexManager(numThreads);
+		 
+		 this.hostname = props.getProperty("hostname");
+		 if (hostname == null || hostname.isEmpty()) {
+			 try {
+				 hostname = InetAddress.getLocalHost().getHostName();
+			 } catch (IOException e) {
+				 logger.log(Level.WARNING, "Unable to get host name - vertices will not be assigned by data locality", e);
+				 hostname = null;
+			 }
+		 }
 	}
 	
 	/**
 	 * Start method to start execution of the VertexServer.
 	 */
 	public void start() {
+		// Vertices are pushed by the JobServer in response to work requests.
+		Thread workRequests = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				requestWork();
+			}
+		}, "vertex work requests");
+		workRequests.start();
+		
+		// Completed vertices are reported as soon as they finish.
+		Thread completionReports = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				reportCompletions();
+			}
+		}, "vertex completion reports");
+		completionReports.start();
+		
+		// Periodic heartbeats tell the JobServer we are alive.
 		Timer t = new Timer("vertex periodic heartbeat");
 		TimerTask task = new TimerTask() { // Heartbeat timer.
 			@Override
 			public void run() {
 				try {
-					// Initialize our VertexHeartbeat
-					VertexHeartbeat vhb = new VertexHeartbeat();
-					vhb.setUid(uid.toString());
-					vhb.setNumThreads(vManager.getAvailableThreads());
-					vhb.setVertexDescriptor(vManager.getCompVertex());
-					
-					logger.info("sending heartbeat to " 
-							+ VertexServer.this.jobServerAddr + " on port "
-							+ VertexServer.this.jobServerPort + " compVert:" +
-							vhb.getVertexDescriptor().size());
-					
-					VertexHeartbeatResponse vhbr =
-						(VertexHeartbeatResponse)RequestResponseUtil.
-							clientRequest(new VertexHeartbeatProtocol(vhb),
-									jobServerAddr, jobServerPort);
-					
-					// Get our VertexContexts.
-					List<VertexDescriptor> vertexDescriptor = vhbr.getVertexDescriptor();
-					if ( vertexDescriptor != null ) {
-						for ( int i = 0; i < vertexDescriptor.size(); i++ ) {
-							// We have a valid VertexContext, submit this to our executor service.
-							vManager.decrementAvailableThreads();
-							execSrv.submit(new VertexThread(vManager, vertexDescriptor.get(i),
-								hdfs));
-						}
-					}
+					sendHeartbeat();
 				} catch(Exception e) {
-					throw new RuntimeException(e);
+					logger.log(Level.WARNING, "Heartbeat to JobServer failed", e);
 				}
 			}
 		};
@@ -112,6 +140,159 @@ public class VertexServer {
 	}
 	
 	
+	/**
+	 * Keeps a work request outstanding at the JobServer whenever we have free
+	 * threads - the JobServer answers as soon as it has vertices for us.
+	 */
+	protected void requestWork() {
+		while (true) {
+			try {
+				VertexHeartbeat workRequest = new VertexHeartbeat();
+				workRequest.setUid(uid.toString());
+				workRequest.setHostname(hostname);
+				setResources(workRequest);
+				workRequest.setNumThreads(vManager.waitToOfferThreads());
+				workRequest.setWorkRequest(vManager.getWorkRequest());
+				workRequest.setVertexDescriptor(new ArrayList<VertexDescriptor>());
+				
+				List<VertexDescriptor> assigned = new ArrayList<VertexDescriptor>();
+				try {
+					VertexHeartbeatResponse vhbr =
+						(VertexHeartbeatResponse)RequestResponseUtil.
+							clientRequest(new VertexWorkRequestProtocol(workRequest),
+									jobServerConnections);
+					if ( vhbr.getVertexDescriptor() != null ) {
+						assigned = vhbr.getVertexDescriptor();
+					}
+				} finally {
+					vManager.workRequestAnswered(assigned.size());
+				}
+				runVertices(assigned);
+			} catch (InterruptedException e) {
+				return;
+			} catch (Exception e) {
+				logger.log(Level.WARNING, "Work request to JobServer failed", e);
+				try {
+					Thread.sleep(5000);
+				} catch (InterruptedException ie) {
+					return;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Adds the resources the JobServer sizes assignments by - processors, free
+	 * heap, load average and executing vertices.
+	 */
+	protected void setResources(VertexHeartbeat vhb) {
+		Runtime runtime = Runtime.getRuntime();
+		long usedBytes = runtime.totalMemory() - runtime.freeMemory();
+		vhb.setCores(runtime.availableProcessors());
+		vhb.setFreeMemoryMb((int)((runtime.maxMemory() - usedBytes) / (1024 * 1024)));
+		vhb.setLoadAverage(ManagementFactory.getOperatingSystemMXBean().getSystemLoadAverage());
+		vhb.setRunningVertices(vManager.getRunningVertices());
+	}
+	
+	/**
+	 * Reports completed vertices to the JobServer as soon as they finish, at
+	 * most one report every completionReportMinGapMs.
+	 */
+	protected void reportCompletions() {
+		long lastReport = 0;
+		while (true) {
+			try {
+				vManager.waitForCompVertex();
+				long gap = lastReport + completionReportMinGapMs - System.currentTimeMillis();
+				if (gap > 0) {
+					// let more completions gather for this report
+					Thread.sleep(gap);
+				}
+				lastReport = System.currentTimeMillis();
+				sendHeartbeat();
+			} catch (InterruptedException e) {
+				return;
+			} catch (Exception e) {
+				logger.log(Level.WARNING, "Completion report to JobServer failed", e);
+				try {
+					Thread.sleep(5000);
+				} catch (InterruptedException ie) {
+					return;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Sends a heartbeat with the completed vertices not yet reported and any
+	 * freed threads not offered by the outstanding work request.
+	 */
+	protected void sendHeartbeat() throws IOException {
+		synchronized (heartbeatLock) {
+			// Initialize our VertexHeartbeat
+			VertexHeartbeat vhb = new VertexHeartbeat();
+			vhb.setUid(uid.toString());
+			vhb.setHostname(hostname);
+			vManager.takeThreadsToOffer(vhb);
+			vhb.setCompletions(vManager.getCompVertex());
+			setResources(vhb);
+			
+			logger.info("sending heartbeat to " 
+					+ VertexServer.this.jobServerAddr + " on port "
+					+ VertexServer.this.jobServerPort + " compVert:" +
+					vhb.getCompletions().size());
+			
+			VertexHeartbeatResponse vhbr;
+			try {
+				vhbr = (VertexHeartbeatResponse)RequestResponseUtil.clientRequest(
+						new VertexHeartbeatProtocol(vhb), jobServerConnections);
+			} catch (IOException e) {
+				// report them again next time
+				vManager.returnCompVertex(vhb.getCompletions());
+				throw e;
+			} catch (RuntimeException e) {
+				vManager.returnCompVertex(vhb.getCompletions());
+				throw e;
+			}
+			if (vhbr != null) {
+				stopVertices(vhbr.getVerticesToStop());
+			}
+		}
+	}
+	
+	/**
+	 * Stops the vertices the JobServer preempted for higher priority jobs -
+	 * they are reported as failed (the JobServer has already started them
+	 * again elsewhere).
+	 */
+	protected void stopVertices(List<VertexDescriptor> toStop) {
+		if (toStop == null) {
+			return;
+		}
+		for (VertexDescriptor vertex : toStop) {
+			if (vManager.stopVertex(vertex)) {
+				logger.info("Stopping preempted vertex " + vertex);
+			}
+		}
+	}
+	
+	/**
+	 * Submit vertices assigned by the JobServer to our executor service - a
+	 * thread must already be counted as occupied for each.
+	 */
+	protected void runVertices(List<VertexDescriptor> vertexDescriptor) {
+		for ( int i = 0; i < vertexDescriptor.size(); i++ ) {
+			try {
+				VertexThread thread = new VertexThread(vManager, vertexDescriptor.get(i), hdfs);
+				vManager.vertexStarted(vertexDescriptor.get(i), thread);
+				execSrv.submit(thread);
+			} catch (Exception e) {
+				logger.log(Level.SEVERE, "Failed loading vertex " + vertexDescriptor.get(i), e);
+				vManager.finishFailedVertex(vertexDescriptor.get(i));
+			}
+		}
+	}
+	
 	/**
 	 * @param args [0] is the file path to the properties file for server configuration. 
 	 * [1] is the path to the logger configuration file.
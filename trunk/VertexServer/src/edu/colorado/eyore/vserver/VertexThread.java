@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -13,6 +14,7 @@ import edu.colorado.eyore.common.hdfs.HdfsUtils;
 import edu.colorado.eyore.common.vertex.Vertex;
 import edu.colorado.eyore.common.vertex.VertexContext;
 import edu.colorado.eyore.common.vertex.VertexDescriptor;
+import edu.colorado.eyore.common.vertex.VertexOutput;
 
 /**
  * VertexThread class runs executable client Vertices as requested by the JobServer.
@@ -25,6 +27,12 @@ public class VertexThread implements Runnable {
 	private List <InputStream> inputStream;
 	private HdfsUtils hdfs;
 	
+	// set when the JobServer preempted the vertex - guarded by this
+	private boolean preempted = false;
+	// the thread running the vertex, while it runs - guarded by this
+	private Thread runner;
+	private boolean inputsClosed = false;
+	
 	/**
 	 * Constructor, passes the VertexContext for Vertex to be executed.
 	 * @param hdfs 
@@ -79,29 +87,165 @@ public class VertexThread implements Runnable {
 	 */
 	@Override
 	public void run() {
+		synchronized (this) {
+			if (preempted) {
+				logger.info("Vertex preempted before it started.  Descriptor: " + vDescriptor);
+				vManager.finishFailedVertex(vDescriptor);
+				closeInputs();
+				return;
+			}
+			runner = Thread.currentThread();
+		}
+		try {
+			runVertex();
+		} finally {
+			synchronized (this) {
+				runner = null;
+				// the pool thread goes on to run other vertices
+				Thread.interrupted();
+			}
+		}
+	}
+	
+	/**
+	 * Stops the vertex: interrupts the thread running it and closes its input
+	 * so that it fails reading - a vertex ignoring both runs to the end, but
+	 * is still reported as failed and its output deleted.
+	 */
+	public void preempt() {
+		synchronized (this) {
+			preempted = true;
+			if (runner != null) {
+				runner.interrupt();
+			}
+		}
+		closeInputs();
+	}
+	
+	private synchronized boolean isPreempted() {
+		return preempted;
+	}
+	
+	private void runVertex() {
 		// Setup our VertexContext
 		VertexContext vContext = new VertexContext();
 		vContext.setInputs(inputStream);
 		vContext.setNumVerticesNextStage(vDescriptor.getNumVerticesNextStage());
 		vContext.setJobId(vDescriptor.getJobId());
-		vContext.setHdfs(hdfs);
+		// records the files the vertex creates so they can be deleted if it fails
+		HdfsUtils vertexHdfs = hdfs.recordingCreatedFiles();
+		vContext.setHdfs(vertexHdfs);
 		vContext.setVertexIndex(vDescriptor.getVertexNumber());
 		vContext.setStageIndex(vDescriptor.getStageNumber());
+		setStageInputsAndOutputs(vContext);
 		
 		// Run the Vertex
 		try{
 			vertex.run(vContext);
 		}catch(Exception e){
-			logger.log(Level.SEVERE, "Vertex execution failed.  Descriptor: "+
-					vDescriptor, e);
-			vManager.finishFailedVertex(vDescriptor);
+			failed(vertexHdfs, e);
+			return;
+		}catch(OutOfMemoryError e){
+			failed(vertexHdfs, e);
+			return;
+		}
+		if(isPreempted()){
+			failed(vertexHdfs, null);
 			return;
 		}
 		
 		// Set the Vertex descriptor output map.
+		if (vContext.getvOutput() != null) {
+			recordOutputBytes(vContext.getvOutput(), vertexHdfs);
+		}
 		this.vDescriptor.setOutput(vContext.getvOutput());
 		this.vManager.finishSuccessVertex(vDescriptor);
-		
+		closeInputs();
+	}
+	
+	/**
+	 * Tells the vertex which of its inputs come from which stage and how
+	 * many vertices each stage reading its output has
+	 */
+	private void setStageInputsAndOutputs(VertexContext vContext) {
+		List<String> inputStages = vDescriptor.getInputStages();
+		List<Integer> inputStageSizes = vDescriptor.getInputStageSizes();
+		if (inputStages != null && inputStageSizes != null) {
+			int first = 0;
+			for (int index = 0; index < inputStages.size() && index < inputStageSizes.size(); index++) {
+				int last = Math.min(first + inputStageSizes.get(index), inputStream.size());
+				vContext.setInputs(inputStages.get(index),
+						new ArrayList<InputStream>(inputStream.subList(first, last)));
+				first = last;
+			}
+		}
+		List<String> outputStages = vDescriptor.getOutputStages();
+		List<Integer> outputStageVertices = vDescriptor.getOutputStageVertices();
+		if (outputStages != null && outputStageVertices != null) {
+			for (int index = 0; index < outputStages.size() && index < outputStageVertices.size(); index++) {
+				vContext.setNumVertices(outputStages.get(index), outputStageVertices.get(index));
+			}
+		}
+	}
+	
+	/**
+	 * Fills in the size of the output files the vertex wrote through its
+	 * HdfsUtils and didn't report itself
+	 */
+	private void recordOutputBytes(VertexOutput vOut, HdfsUtils vertexHdfs) {
+		List<Map<Integer, List<String>>> outputMaps = new ArrayList<Map<Integer, List<String>>>();
+		if (vOut.getOutputMap() != null) {
+			outputMaps.add(vOut.getOutputMap());
+		}
+		if (vOut.getStageOutputMaps() != null) {
+			outputMaps.addAll(vOut.getStageOutputMaps().values());
+		}
+		for (Map<Integer, List<String>> outputMap : outputMaps) {
+			for (List<String> files : outputMap.values()) {
+				if (files == null) {
+					continue;
+				}
+				for (String file : files) {
+					Long bytes = vertexHdfs.getWrittenBytes(file);
+					if (bytes != null && vOut.getBytes(file) == null) {
+						vOut.setBytes(file, bytes);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Deletes the output the vertex wrote before failing (or being preempted)
+	 * and reports it failed - the JobServer may run it again
+	 */
+	private void failed(HdfsUtils vertexHdfs, Throwable e){
+		if(isPreempted()){
+			logger.info("Stopped preempted vertex.  Descriptor: " + vDescriptor);
+		}else{
+			logger.log(Level.SEVERE, "Vertex execution failed.  Descriptor: "+
+					vDescriptor, e);
+		}
+		List<String> partialOutput = vertexHdfs.getCreatedFiles();
+		if(! partialOutput.isEmpty()){
+			try{
+				hdfs.deleteFiles(partialOutput);
+			}catch(IOException ioe){
+				logger.log(Level.WARNING, "Failed deleting output of failed vertex: " + partialOutput, ioe);
+			}
+		}
+		vManager.finishFailedVertex(vDescriptor);
+		closeInputs();
+	}
+	
+	private void closeInputs(){
+		synchronized (this) {
+			// closed by preempt() or when the vertex finished
+			if (inputsClosed) {
+				return;
+			}
+			inputsClosed = true;
+		}
 		// Close our input stream(s).
 		for (int index = 0; index < this.inputStream.size(); index++) {
 			InputStream is = this.inputStream.get(index);
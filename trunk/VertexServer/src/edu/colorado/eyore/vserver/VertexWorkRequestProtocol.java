@@ -0,0 +1,69 @@
+package edu.colorado.eyore.vserver;
+
+import java.util.logging.Logger;
+
+import edu.colorado.eyore.common.net.MessageObjectUtil;
+import edu.colorado.eyore.common.net.Protocol;
+import edu.colorado.eyore.common.vertex.VertexHeartbeat;
+import edu.colorado.eyore.common.vertex.VertexHeartbeatResponse;
+
+/**
+ * VertexWorkRequestProtocol class, asks the JobServer for vertices to run.  The
+ * JobServer holds the request until it has vertices for us (or the request times
+ * out, in which case no vertices are returned).
+ */
+public class VertexWorkRequestProtocol implements Protocol {
+
+	// Get our logger.
+	Logger logger = Logger.getLogger(VertexWorkRequestProtocol.class.getName());
+	private VertexHeartbeatResponse vHeartbeatRsp;
+	private VertexHeartbeat workRequest;
+	private boolean isFinished;
+	
+	/**
+	 * Constructor.
+	 * @param workRequest our uid and the number of threads available
+	 */
+	public VertexWorkRequestProtocol(VertexHeartbeat workRequest) {
+		this.workRequest = workRequest;
+		this.isFinished = false;
+	}
+	
+	/**
+	 * Returns if the protocol is finished.
+	 */
+	@Override
+	public Boolean isFinished() {
+		return isFinished;
+	}
+	
+	/**
+	 * Return the protocol object data (the VertexHeartbeatResponse).
+	 */
+	@Override
+	public Object getData() {
+		return this.vHeartbeatRsp;
+	}
+	
+	/**
+	 * Handle the protocol between the JobServer.
+	 */
+	@Override
+	public String respondTo(String rcvFromFarEnd) {
+		if(rcvFromFarEnd == null) {
+			String resp = "VERTEX REQUEST WORK:" + MessageObjectUtil.objectToString(this.workRequest);
+			logger.fine("SEND:" + resp);
+			return resp;
+		} else if (rcvFromFarEnd.startsWith("OK VERTEX:")) {
+			// JobServer has Vertices for us to run (possibly none).
+			rcvFromFarEnd = rcvFromFarEnd.replace("OK VERTEX:", "");
+			this.vHeartbeatRsp = MessageObjectUtil.stringToObject(rcvFromFarEnd);
+			this.isFinished = true;
+			return null;
+		} else {
+			// Unknown response from JobServer
+			logger.warning("Unknown response from JobServer");
+			throw new IllegalStateException("unexpected response from server " + rcvFromFarEnd);
+		}
+	}
+}